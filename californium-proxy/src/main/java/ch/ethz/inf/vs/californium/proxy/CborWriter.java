@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+package ch.ethz.inf.vs.californium.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal writer for the Concise Binary Object Representation (CBOR, RFC
+ * 7049). It supports the subset needed to export statistics: unsigned
+ * integers, text strings, and maps and arrays of known size.
+ */
+final class CborWriter {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	/**
+	 * Writes an unsigned integer. Negative values are written as 0.
+	 */
+	public CborWriter writeUnsigned(long value) {
+		writeHead(MAJOR_UNSIGNED, Math.max(0, value));
+		return this;
+	}
+
+	/**
+	 * Writes a UTF-8 text string.
+	 */
+	public CborWriter writeText(String text) {
+		byte[] bytes = text.getBytes(UTF_8);
+		writeHead(MAJOR_TEXT, bytes.length);
+		out.write(bytes, 0, bytes.length);
+		return this;
+	}
+
+	/**
+	 * Starts an array with the specified number of items.
+	 */
+	public CborWriter startArray(int size) {
+		writeHead(MAJOR_ARRAY, size);
+		return this;
+	}
+
+	/**
+	 * Starts a map with the specified number of key/value pairs.
+	 */
+	public CborWriter startMap(int size) {
+		writeHead(MAJOR_MAP, size);
+		return this;
+	}
+
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	private void writeHead(int major, long value) {
+		int type = major << 5;
+		if (value < 24) {
+			out.write(type | (int) value);
+		} else if (value <= 0xFF) {
+			out.write(type | 24);
+			out.write((int) value);
+		} else if (value <= 0xFFFF) {
+			out.write(type | 25);
+			writeBytes(value, 2);
+		} else if (value <= 0xFFFFFFFFL) {
+			out.write(type | 26);
+			writeBytes(value, 4);
+		} else {
+			out.write(type | 27);
+			writeBytes(value, 8);
+		}
+	}
+
+	private void writeBytes(long value, int count) {
+		for (int i = count - 1; i >= 0; i--) {
+			out.write((int) (value >>> (8 * i)) & 0xFF);
+		}
+	}
+}
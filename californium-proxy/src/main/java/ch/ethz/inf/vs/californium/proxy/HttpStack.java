@@ -37,12 +37,14 @@ import java.net.InetSocketAddress;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Exchanger;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
@@ -59,6 +61,7 @@ import org.apache.http.impl.nio.DefaultHttpServerIODispatch;
 import org.apache.http.impl.nio.DefaultNHttpServerConnection;
 import org.apache.http.impl.nio.DefaultNHttpServerConnectionFactory;
 import org.apache.http.impl.nio.reactor.DefaultListeningIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.message.BasicStatusLine;
 import org.apache.http.nio.NHttpConnectionFactory;
 import org.apache.http.nio.protocol.BasicAsyncRequestConsumer;
@@ -74,6 +77,7 @@ import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.CoreProtocolPNames;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpRequestHandler;
@@ -83,10 +87,12 @@ import org.apache.http.protocol.ResponseContent;
 import org.apache.http.protocol.ResponseDate;
 import org.apache.http.protocol.ResponseServer;
 
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.resources.proxy.CoapTranslator;
 import ch.ethz.inf.vs.californium.resources.proxy.HttpTranslator;
 import ch.ethz.inf.vs.californium.resources.proxy.InvalidFieldException;
 import ch.ethz.inf.vs.californium.resources.proxy.InvalidMethodException;
@@ -94,8 +100,11 @@ import ch.ethz.inf.vs.californium.resources.proxy.TranslationException;
 
 /**
  * Class encapsulating the logic of a http server. The class create a receiver
- * thread that it is always blocked on the listen primitive. For each connection
- * this thread creates a new thread that handles the client/server dialog.
+ * thread that it is always blocked on the listen primitive. The connections
+ * are served by a configurable number of I/O dispatcher threads and kept alive
+ * for a configurable number of requests. The number of coap requests that are
+ * pending at the same time is limited; further http requests are rejected with
+ * 503 (Service Unavailable) until some of them have completed.
  * 
  * @author Francesco Corazza
  */
@@ -110,7 +119,22 @@ public class HttpStack {
 	private static final int SOCKET_BUFFER_SIZE = NetworkConfig.getStandard().getInt(
 			NetworkConfigDefaults.HTTP_SERVER_SOCKET_BUFFER_SIZE);
 	private static final int GATEWAY_TIMEOUT = SOCKET_TIMEOUT * 3 / 4;
+	private static final int MAX_MESSAGE_SIZE = NetworkConfig.getStandard().getInt(
+			NetworkConfigDefaults.MAX_MESSAGE_SIZE);
+	private static final int BLOCK_SIZE = NetworkConfig.getStandard().getInt(
+			NetworkConfigDefaults.DEFAULT_BLOCK_SIZE);
+	private static final int IO_THREADS = NetworkConfig.getStandard().getInt(
+			NetworkConfigDefaults.HTTP_SERVER_IO_THREADS);
+	private static final boolean KEEP_ALIVE = NetworkConfig.getStandard().getBoolean(
+			NetworkConfigDefaults.HTTP_SERVER_KEEP_ALIVE);
+	private static final int MAX_KEEP_ALIVE_REQUESTS = NetworkConfig.getStandard().getInt(
+			NetworkConfigDefaults.HTTP_SERVER_MAX_KEEP_ALIVE_REQUESTS);
+	private static final int MAX_PENDING_REQUESTS = NetworkConfig.getStandard().getInt(
+			NetworkConfigDefaults.HTTP_SERVER_MAX_PENDING_REQUESTS);
 	private static final String SERVER_NAME = "Californium Http Proxy";
+
+	/** The context attribute counting the responses sent on a connection. */
+	private static final String RESPONSE_COUNT_ATTRIBUTE = "californium.http.response-count";
 	
 	/**
 	 * Resource associated with the proxying behavior. If a client requests
@@ -130,6 +154,9 @@ public class HttpStack {
 
 	private final ConcurrentHashMap<Request, Exchanger<Response>> exchangeMap = new ConcurrentHashMap<Request, Exchanger<Response>>();
 
+	/** The permits for coap requests that wait for their response. */
+	private final Semaphore pendingRequests = new Semaphore(MAX_PENDING_REQUESTS > 0 ? MAX_PENDING_REQUESTS : Integer.MAX_VALUE);
+
 	private RequestHandler requestHandler;
 	
 	/**
@@ -199,6 +226,47 @@ public class HttpStack {
 		httpExchange.submitResponse();
 	}
 
+	/**
+	 * Translates the coap response and sends it as http response. If the coap
+	 * response is the first block of a streamed response, the remaining blocks
+	 * are retrieved while the body is sent to the http client.
+	 * 
+	 * @param httpExchange
+	 *            the http exchange
+	 * @param httpRequest
+	 *            the http request
+	 * @param coapRequest
+	 *            the forwarded coap request or null
+	 * @param coapResponse
+	 *            the coap response
+	 */
+	private void sendHttpResponse(HttpAsyncExchange httpExchange, HttpRequest httpRequest, Request coapRequest, Response coapResponse) {
+		// get the sample http response
+		HttpResponse httpResponse = httpExchange.getResponse();
+
+		try {
+			// translate the coap response in an http response
+			HttpTranslator.getHttpResponse(httpRequest, coapResponse, httpResponse);
+
+//			if (Bench_Help.DO_LOG) 
+				LOGGER.finer("Outgoing http response: " + httpResponse.getStatusLine());
+
+			if (coapRequest != null && StreamingResponseProducer.isStreamed(coapRequest, coapResponse)) {
+				// send the body while the blocks arrive
+				Request template = CoapTranslator.getRequest(coapRequest);
+				httpExchange.submitResponse(new StreamingResponseProducer(httpResponse, template, coapResponse));
+				return;
+			}
+		} catch (TranslationException e) {
+			LOGGER.warning("Failed to translate coap response to http response: " + e.getMessage());
+			sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TRANSLATION_ERROR);
+			return;
+		}
+
+		// send the response
+		httpExchange.submitResponse();
+	}
+
 	protected void doSendResponse(Request request, Response response) throws IOException {
 		// the http stack is intended to send back only coap responses
 
@@ -261,6 +329,14 @@ public class HttpStack {
 		 */
 		@Override
 		public void run() {
+			try {
+				waitForResponse();
+			} finally {
+				pendingRequests.release();
+			}
+		}
+
+		private void waitForResponse() {
 			// get the exchanger
 			Exchanger<Response> exchanger = exchangeMap.get(coapRequest);
 
@@ -300,23 +376,7 @@ public class HttpStack {
 				return;
 			}
 
-			// get the sample http response
-			HttpResponse httpResponse = httpExchange.getResponse();
-
-			try {
-				// translate the coap response in an http response
-				HttpTranslator.getHttpResponse(httpRequest, coapResponse, httpResponse);
-
-//				if (Bench_Help.DO_LOG) 
-					LOGGER.finer("Outgoing http response: " + httpResponse.getStatusLine());
-			} catch (TranslationException e) {
-				LOGGER.warning("Failed to translate coap response to http response: " + e.getMessage());
-				sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TRANSLATION_ERROR);
-				return;
-			}
-
-			// send the response
-			httpExchange.submitResponse();
+			sendHttpResponse(httpExchange, httpRequest, coapRequest, coapResponse);
 		}
 	}
 
@@ -330,7 +390,7 @@ public class HttpStack {
 			// Create HTTP protocol processing chain
 			// Use standard server-side protocol interceptors
 			HttpRequestInterceptor[] requestInterceptors = new HttpRequestInterceptor[] { new RequestAcceptEncoding() };
-			HttpResponseInterceptor[] responseInterceptors = new HttpResponseInterceptor[] { new ResponseContentEncoding(), new ResponseDate(), new ResponseServer(), new ResponseContent(), new ResponseConnControl() };
+			HttpResponseInterceptor[] responseInterceptors = new HttpResponseInterceptor[] { new ResponseContentEncoding(), new ResponseDate(), new ResponseServer(), new ResponseContent(), new ResponseConnControl(), new ResponseKeepAliveControl() };
 			HttpProcessor httpProcessor = new ImmutableHttpProcessor(requestInterceptors, responseInterceptors);
 
 			// Create request handler registry
@@ -355,8 +415,15 @@ public class HttpStack {
 
 			final ListeningIOReactor ioReactor;
 			try {
-				// Create server-side I/O reactor
-				ioReactor = new DefaultListeningIOReactor();
+				// Create server-side I/O reactor with one dispatcher per core
+				// unless configured otherwise
+				IOReactorConfig reactorConfig = new IOReactorConfig();
+				reactorConfig.setIoThreadCount(IO_THREADS > 0 ? IO_THREADS : Runtime.getRuntime().availableProcessors());
+				reactorConfig.setSoTimeout(SOCKET_TIMEOUT);
+				reactorConfig.setTcpNoDelay(true);
+				reactorConfig.setSoKeepalive(KEEP_ALIVE);
+				reactorConfig.setSoReuseAddress(true);
+				ioReactor = new DefaultListeningIOReactor(reactorConfig);
 				// Listen of the given port
 				LOGGER.info("HttpStack listening on port "+httpPort);
 				ioReactor.listen(new InetSocketAddress(httpPort));
@@ -388,6 +455,32 @@ public class HttpStack {
 			}
 		}
 
+		/**
+		 * Closes the connection after the response if keep-alive is disabled
+		 * or if the connection has served the maximum number of requests. The
+		 * connection reuse strategy honors the Connection header set here.
+		 */
+		private class ResponseKeepAliveControl implements HttpResponseInterceptor {
+
+			/*
+			 * (non-Javadoc)
+			 * @see
+			 * org.apache.http.HttpResponseInterceptor#process(org.apache.http
+			 * .HttpResponse, org.apache.http.protocol.HttpContext)
+			 */
+			@Override
+			public void process(HttpResponse httpResponse, HttpContext httpContext) throws HttpException, IOException {
+				// the context belongs to the connection
+				Integer count = (Integer) httpContext.getAttribute(RESPONSE_COUNT_ATTRIBUTE);
+				int responses = count == null ? 1 : count + 1;
+				httpContext.setAttribute(RESPONSE_COUNT_ATTRIBUTE, responses);
+
+				if (!KEEP_ALIVE || (MAX_KEEP_ALIVE_REQUESTS > 0 && responses >= MAX_KEEP_ALIVE_REQUESTS)) {
+					httpResponse.setHeader(HTTP.CONN_DIRECTIVE, HTTP.CONN_CLOSE);
+				}
+			}
+		}
+
 		/**
 		 * The Class BaseRequestHandler handles simples requests that do not
 		 * need the proxying.
@@ -450,13 +543,58 @@ public class HttpStack {
 			 * org.apache.http.protocol.HttpContext)
 			 */
 			@Override
-			public void handle(HttpRequest httpRequest, HttpAsyncExchange httpExchange, HttpContext httpContext) throws HttpException, IOException {
+			public void handle(final HttpRequest httpRequest, final HttpAsyncExchange httpExchange, HttpContext httpContext) throws HttpException, IOException {
 //				if (Bench_Help.DO_LOG) 
 					LOGGER.finer("Incoming http request: " + httpRequest.getRequestLine());
 
+				// the body of a streamed request is already at the coap server
+				// except for the last block
+				StreamingRequestConsumer upload = (StreamingRequestConsumer) httpContext.removeAttribute(StreamingRequestConsumer.UPLOAD_ATTRIBUTE);
+				if (upload != null) {
+					upload.sendLastBlock(new MessageObserverAdapter() {
+						@Override
+						public void onResponse(Response response) {
+							sendHttpResponse(httpExchange, httpRequest, null, response);
+						}
+
+						@Override
+						public void onReject() {
+							sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TRANSLATION_ERROR);
+						}
+
+						@Override
+						public void onTimeout() {
+							sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TIMEOUT);
+						}
+
+						@Override
+						public void onCancel() {
+							sendSimpleHttpResponse(httpExchange, HttpTranslator.STATUS_TRANSLATION_ERROR);
+						}
+					});
+					return;
+				}
+
+				// do not accept more requests than the coap side can handle;
+				// the http server processes one request per connection at a
+				// time, so a rejected client cannot flood the proxy either
+				if (!pendingRequests.tryAcquire()) {
+					LOGGER.warning("Too many pending requests, rejecting " + httpRequest.getRequestLine());
+					httpExchange.getResponse().setHeader(HttpHeaders.RETRY_AFTER, "1");
+					sendSimpleHttpResponse(httpExchange, HttpStatus.SC_SERVICE_UNAVAILABLE);
+					return;
+				}
+
+				boolean dispatched = false;
 				try {
 					// translate the request in a valid coap request
 					Request coapRequest = HttpTranslator.getCoapRequest(httpRequest, localResource, proxyingEnabled);
+
+					// let the blocks of a large response be streamed to the
+					// http client
+					if (proxyingEnabled && httpRequest.getRequestLine().getMethod().equalsIgnoreCase("get")) {
+						coapRequest.setBlockwiseStreaming(true);
+					}
 //					if (Bench_Help.DO_LOG) 
 						LOGGER.info("Received HTTP request and translate to "+coapRequest);
 
@@ -470,8 +608,9 @@ public class HttpStack {
 					Thread worker = new CoapResponseWorker("HttpStack Worker", coapRequest, httpExchange, httpRequest);
 
 					// starting the "consumer thread" that will sleep waiting
-					// for the producer
+					// for the producer, it releases the permit
 					worker.start();
+					dispatched = true;
 //					if (Bench_Help.DO_LOG) 
 						LOGGER.finer("Started thread 'httpStack worker' to wait the response");
 
@@ -493,6 +632,10 @@ public class HttpStack {
 					LOGGER.warning("Exception in translation: "+e);
 					e.printStackTrace();
 					throw e;
+				} finally {
+					if (!dispatched) {
+						pendingRequests.release();
+					}
 				}
 			}
 
@@ -505,6 +648,16 @@ public class HttpStack {
 			 */
 			@Override
 			public HttpAsyncRequestConsumer<HttpRequest> processRequest(HttpRequest httpRequest, HttpContext httpContext) throws HttpException, IOException {
+				// stream large request bodies blockwise to the coap server
+				if (proxyingEnabled && StreamingRequestConsumer.isStreamable(httpRequest, MAX_MESSAGE_SIZE)) {
+					try {
+						return new StreamingRequestConsumer(httpRequest, localResource, BLOCK_SIZE);
+					} catch (TranslationException e) {
+						// the buffered path reports the error to the client
+						LOGGER.fine("Cannot stream http request: " + e.getMessage());
+					}
+				}
+
 				// Buffer request content in memory for simplicity
 				return new BasicAsyncRequestConsumer();
 			}
@@ -0,0 +1,361 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+
+package ch.ethz.inf.vs.californium.proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.californium.network.serialization.DataSerializer;
+import ch.ethz.inf.vs.californium.proxy.ProxyCacheResource.CacheKey;
+
+/**
+ * Second tier of the proxy cache that keeps serialized responses in a
+ * memory-mapped file. The entries survive a restart of the proxy and do not
+ * occupy space on the heap. An in-memory index maps each cache key to the
+ * offset of its record and is rebuilt from the file when the store is opened.
+ * <p>
+ * Records are appended to the file. Replaced or invalidated records are only
+ * marked dead and the file is compacted when it runs out of space. Expiry is
+ * stored as absolute wall-clock time, since the nanosecond timestamps of the
+ * responses are meaningless after a restart.
+ * 
+ * <pre>
+ * header: MAGIC (4) | VERSION (4) | end of records (4) | reserved (4)
+ * record: length (4) | state (1) | expires (8) | media type (4) |
+ *         uri length (4) | uri | key payload length (4) | key payload |
+ *         message length (4) | message
+ * </pre>
+ */
+public class MappedResponseStore {
+
+	private final static Logger LOGGER = Logger.getLogger(MappedResponseStore.class.getCanonicalName());
+
+	private static final int MAGIC = 0x43664331; // "CfC1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int END_OFFSET = 8;
+
+	private static final byte DEAD = 0;
+	private static final byte LIVE = 1;
+
+	/** Size of the fixed fields of a record without the variable parts. */
+	private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4 + 4 + 4 + 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	/** Maps the keys to the offsets of their live records. */
+	private final Map<CacheKey, Integer> index = new HashMap<CacheKey, Integer>();
+
+	/** The offset where the next record will be appended. */
+	private int end;
+
+	/** Whether the store has been closed. */
+	private boolean closed;
+
+	/**
+	 * Opens the store in the specified file. If the file does not exist or
+	 * does not contain a valid store, a new empty store is created.
+	 * 
+	 * @param file the backing file
+	 * @param capacity the size of the file in bytes
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public MappedResponseStore(File file, int capacity) throws IOException {
+		if (capacity <= HEADER_SIZE)
+			throw new IllegalArgumentException("Capacity too small: " + capacity);
+		this.capacity = capacity;
+		this.file = new RandomAccessFile(file, "rw");
+		if (this.file.length() < capacity)
+			this.file.setLength(capacity);
+		this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		recover();
+	}
+
+	/**
+	 * Returns the response stored for the specified key or null if there is
+	 * none or if it has expired. The max-age option of the returned response
+	 * is set to its remaining lifetime.
+	 * 
+	 * @param key the cache key
+	 * @return the response or null
+	 */
+	public synchronized Response get(CacheKey key) {
+		Integer offset = index.get(key);
+		if (offset == null)
+			return null;
+
+		long expires = buffer.getLong(offset + 5);
+		long secondsLeft = (expires - System.currentTimeMillis()) / 1000;
+		if (secondsLeft <= 0) {
+			kill(offset);
+			index.remove(key);
+			return null;
+		}
+
+		// skip the key fields to the message
+		int position = offset + 4 + 1 + 8 + 4;
+		position += 4 + buffer.getInt(position);
+		position += 4 + Math.max(0, buffer.getInt(position));
+		byte[] message = new byte[buffer.getInt(position)];
+		buffer.position(position + 4);
+		buffer.get(message);
+
+		try {
+			Response response = new DataParser(message).parseResponse();
+			response.getOptions().setMaxAge(secondsLeft);
+			response.setTimestamp(System.nanoTime());
+			return response;
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.WARNING, "Dropping corrupt cache record for " + key.getProxyUri(), e);
+			kill(offset);
+			index.remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the response for the specified key and replaces a previous entry.
+	 * If the file is full, dead and expired records are compacted first. If
+	 * there is still not enough space, the response is not stored.
+	 * 
+	 * @param key the cache key
+	 * @param response the response
+	 * @param maxAge the remaining lifetime of the response in seconds
+	 */
+	public synchronized void put(CacheKey key, Response response, int maxAge) {
+		if (closed)
+			return;
+		if (maxAge <= 0) {
+			remove(key);
+			return;
+		}
+
+		// store a copy without the exchange-specific fields
+		Response copy = new Response(response.getCode());
+		copy.setType(Type.NON);
+		copy.setMID(0);
+		copy.setToken(new byte[0]);
+		copy.setOptions(new OptionSet(response.getOptions()));
+		copy.setPayload(response.getPayload());
+		byte[] message = new DataSerializer().serializeResponse(copy);
+
+		byte[] uri = key.getProxyUri().getBytes(UTF8);
+		byte[] payload = key.getPayload() == null ? new byte[0] : key.getPayload();
+		int payloadLength = key.getPayload() == null ? -1 : payload.length;
+		int length = RECORD_OVERHEAD + uri.length + payload.length + message.length;
+
+		remove(key);
+		if (end + length > capacity) {
+			compact();
+			if (end + length > capacity) {
+				LOGGER.finer("Persistent cache is full, response not stored");
+				return;
+			}
+		}
+
+		int offset = end;
+		buffer.position(offset);
+		buffer.putInt(length);
+		buffer.put(LIVE);
+		buffer.putLong(System.currentTimeMillis() + maxAge * 1000L);
+		buffer.putInt(key.getMediaType());
+		buffer.putInt(uri.length);
+		buffer.put(uri);
+		buffer.putInt(payloadLength);
+		buffer.put(payload);
+		buffer.putInt(message.length);
+		buffer.put(message);
+
+		setEnd(offset + length);
+		index.put(key, offset);
+	}
+
+	/**
+	 * Removes the entry for the specified key.
+	 * 
+	 * @param key the cache key
+	 */
+	public synchronized void remove(CacheKey key) {
+		Integer offset = index.remove(key);
+		if (offset != null)
+			kill(offset);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		if (closed)
+			return;
+		index.clear();
+		setEnd(HEADER_SIZE);
+	}
+
+	/**
+	 * Returns the number of entries in the store, including those that have
+	 * expired but were not accessed since.
+	 * 
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Flushes the store to the file and releases the file. A closed store
+	 * is empty and ignores new entries.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		index.clear();
+		buffer.force();
+		try {
+			file.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Error while closing the persistent cache", e);
+		}
+	}
+
+	/**
+	 * Reads the header and rebuilds the index from the live records in the
+	 * file. Expired records are marked dead on the way.
+	 */
+	private void recover() {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			setEnd(HEADER_SIZE);
+			return;
+		}
+
+		end = buffer.getInt(END_OFFSET);
+		if (end < HEADER_SIZE || end > capacity) {
+			LOGGER.warning("Persistent cache is corrupt and will be reset");
+			setEnd(HEADER_SIZE);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		int offset = HEADER_SIZE;
+		while (offset < end) {
+			int length = buffer.getInt(offset);
+			if (length < RECORD_OVERHEAD || offset + length > end) {
+				LOGGER.warning("Persistent cache is truncated at offset " + offset);
+				setEnd(offset);
+				break;
+			}
+			if (buffer.get(offset + 4) == LIVE) {
+				if (buffer.getLong(offset + 5) > now) {
+					index.put(readKey(offset), offset);
+				} else {
+					kill(offset);
+				}
+			}
+			offset += length;
+		}
+		LOGGER.info("Recovered " + index.size() + " responses from the persistent cache");
+	}
+
+	/**
+	 * Moves all live records to the front of the file and drops the dead and
+	 * expired ones.
+	 */
+	private void compact() {
+		long now = System.currentTimeMillis();
+		index.clear();
+
+		int target = HEADER_SIZE;
+		int offset = HEADER_SIZE;
+		byte[] record = new byte[0];
+		while (offset < end) {
+			int length = buffer.getInt(offset);
+			if (buffer.get(offset + 4) == LIVE && buffer.getLong(offset + 5) > now) {
+				if (target != offset) {
+					if (record.length < length)
+						record = new byte[length];
+					buffer.position(offset);
+					buffer.get(record, 0, length);
+					buffer.position(target);
+					buffer.put(record, 0, length);
+				}
+				index.put(readKey(target), target);
+				target += length;
+			}
+			offset += length;
+		}
+		setEnd(target);
+	}
+
+	private CacheKey readKey(int offset) {
+		int mediaType = buffer.getInt(offset + 4 + 1 + 8);
+		int position = offset + 4 + 1 + 8 + 4;
+		byte[] uri = new byte[buffer.getInt(position)];
+		buffer.position(position + 4);
+		buffer.get(uri);
+		int payloadLength = buffer.getInt(buffer.position());
+		buffer.position(buffer.position() + 4);
+		byte[] payload = null;
+		if (payloadLength >= 0) {
+			// a null payload is stored with length -1
+			payload = new byte[payloadLength];
+			buffer.get(payload);
+		}
+		return new CacheKey(new String(uri, UTF8), mediaType, payload);
+	}
+
+	private void kill(int offset) {
+		buffer.put(offset + 4, DEAD);
+	}
+
+	private void setEnd(int end) {
+		this.end = end;
+		buffer.putInt(END_OFFSET, end);
+	}
+}
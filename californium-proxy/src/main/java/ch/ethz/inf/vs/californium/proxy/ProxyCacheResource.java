@@ -31,6 +31,8 @@
 
 package ch.ethz.inf.vs.californium.proxy;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
@@ -79,11 +81,35 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 	private static final long CACHE_SIZE = 
 			NetworkConfig.getStandard().getInt(NetworkConfigDefaults.HTTP_CACHE_SIZE);
 
+	/**
+	 * The file for the persistent cache tier or an empty string if disabled.
+	 */
+	private static final String CACHE_PERSISTENT_FILE = 
+			NetworkConfig.getStandard().getString(NetworkConfigDefaults.HTTP_CACHE_PERSISTENT_FILE);
+
+	/**
+	 * Size of the file for the persistent cache tier in bytes.
+	 */
+	private static final int CACHE_PERSISTENT_SIZE = 
+			NetworkConfig.getStandard().getInt(NetworkConfigDefaults.HTTP_CACHE_PERSISTENT_SIZE);
+
 	/**
 	 * The cache. http://code.google.com/p/guava-libraries/wiki/CachesExplained
 	 */
 	private final LoadingCache<CacheKey, Response> responseCache;
 
+	/**
+	 * The persistent second tier of the cache or null if disabled. Responses
+	 * found there are promoted into the responseCache.
+	 */
+	private final MappedResponseStore persistentStore;
+
+	/**
+	 * Closes the persistent tier when the JVM exits without a call of
+	 * {@link #close()}, or null if there is no persistent tier.
+	 */
+	private final Thread shutdownHook;
+
 	private boolean enabled = false;
 
 	/**
@@ -97,9 +123,41 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 	 * Instantiates a new proxy cache resource.
 	 */
 	public ProxyCacheResource(boolean enabled) {
+		this(enabled, CACHE_PERSISTENT_FILE == null || CACHE_PERSISTENT_FILE.isEmpty() ? null : new File(CACHE_PERSISTENT_FILE));
+	}
+
+	/**
+	 * Instantiates a new proxy cache resource with a persistent tier in the
+	 * specified file. The responses stored in the file are available again
+	 * after a restart of the proxy.
+	 * 
+	 * @param enabled whether caching is enabled
+	 * @param persistentFile the file for the persistent tier or null
+	 */
+	public ProxyCacheResource(boolean enabled, File persistentFile) {
 		super("cache");
 		this.enabled = enabled;
 
+		MappedResponseStore store = null;
+		if (persistentFile != null) {
+			try {
+				store = new MappedResponseStore(persistentFile, CACHE_PERSISTENT_SIZE);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Cannot open the persistent cache " + persistentFile + ", using heap cache only", e);
+			}
+		}
+		this.persistentStore = store;
+		if (store != null) {
+			shutdownHook = new Thread("Persistent cache shutdown") {
+				public void run() {
+					persistentStore.close();
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		} else {
+			shutdownHook = null;
+		}
+
 		// builds a new cache that:
 		// - has a limited size of CACHE_SIZE entries
 		// - removes entries after CACHE_RESPONSE_MAX_AGE seconds from the last
@@ -134,9 +192,20 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 	 */
 	@Override
 	public void cacheResponse(Request request, Response response) {
+		updateResponse(request, response);
+	}
+
+	/**
+	 * Puts in cache an entry or, if already present, refreshes it as
+	 * {@link #cacheResponse(Request, Response)} does.
+	 * 
+	 * @return true if the response is a 2.03 that has refreshed a cached
+	 *         response, i.e., the origin server has revalidated it
+	 */
+	public boolean updateResponse(Request request, Response response) {
 		// enable or disable the caching (debug purposes)
 		if (!enabled) {
-			return;
+			return false;
 		}
 
 		// only the response with success codes should be cached
@@ -159,10 +228,11 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 				// increase the max-age value according to the new response
 //				Option maxAgeOption = response.getFirstOption(OptionNumberRegistry.MAX_AGE);
 				Long maxAgeOption = response.getOptions().getMaxAge();
-				if (maxAgeOption != null) {
-					// get the cached response
-					Response cachedResponse = responseCache.getUnchecked(cacheKey);
-
+				// get the cached response
+				Response cachedResponse = cacheKey == null ? null : responseCache.getIfPresent(cacheKey);
+				if (cachedResponse == null) {
+					LOGGER.finer("No cached response to revalidate");
+				} else if (maxAgeOption != null) {
 					// calculate the new parameters
 					long newCurrentTime = response.getTimestamp();
 					int newMaxAge = maxAgeOption.intValue();
@@ -171,8 +241,10 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 //					cachedResponse.getFirstOption(OptionNumberRegistry.MAX_AGE).setIntValue(newMaxAge);
 					cachedResponse.getOptions().setMaxAge(newMaxAge);
 					cachedResponse.setTimestamp(newCurrentTime);
+					persist(cacheKey, cachedResponse);
 
 					LOGGER.finer("Updated cached response");
+					return true;
 				} else {
 					LOGGER.warning("No max-age option set in response: " + response);
 				}
@@ -192,6 +264,7 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 						// when used the get method.
 						Response responseInserted = responseCache.get(cacheKey);
 						if (responseInserted != null) {
+							persist(cacheKey, responseInserted);
 //							if (Bench_Help.DO_LOG) 
 								LOGGER.finer("Cached response");
 						} else {
@@ -211,6 +284,7 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 				LOGGER.severe("Code not recognized: " + code);
 			}
 		}
+		return false;
 	}
 
 	@Override
@@ -237,7 +311,8 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 		Response response = null;
 		CacheKey cacheKey = null;
 		try {
-			for (CacheKey acceptKey : CacheKey.fromAcceptOptions(request)) {
+			List<CacheKey> acceptKeys = CacheKey.fromAcceptOptions(request);
+			for (CacheKey acceptKey : acceptKeys) {
 				response = responseCache.getIfPresent(acceptKey);
 				cacheKey = acceptKey;
 
@@ -245,6 +320,20 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 					break;
 				}
 			}
+
+			// fall back to the persistent tier and promote the response
+			if (response == null && persistentStore != null) {
+				for (CacheKey acceptKey : acceptKeys) {
+					response = persistentStore.get(acceptKey);
+					cacheKey = acceptKey;
+
+					if (response != null) {
+						LOGGER.finer("Persistent cache hit");
+						responseCache.put(acceptKey, response);
+						break;
+					}
+				}
+			}
 		} catch (URISyntaxException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -298,6 +387,9 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 	@Override
 	public void handleDELETE(CoapExchange exchange) {
 		responseCache.invalidateAll();
+		if (persistentStore != null) {
+			persistentStore.clear();
+		}
 		exchange.respond(ResponseCode.DELETED);
 	}
 
@@ -360,10 +452,27 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 
 	private void invalidateRequest(CacheKey cacheKey) {
 		responseCache.invalidate(cacheKey);
+		if (persistentStore != null && cacheKey != null) {
+			persistentStore.remove(cacheKey);
+		}
 	}
 
 	private void invalidateRequest(List<CacheKey> cacheKeys) {
 		responseCache.invalidateAll(cacheKeys);
+		if (persistentStore != null) {
+			for (CacheKey cacheKey : cacheKeys) {
+				persistentStore.remove(cacheKey);
+			}
+		}
+	}
+
+	/**
+	 * Writes the response through to the persistent tier, if enabled.
+	 */
+	private void persist(CacheKey cacheKey, Response response) {
+		if (persistentStore != null && cacheKey != null) {
+			persistentStore.put(cacheKey, response, getRemainingLifetime(response));
+		}
 	}
 
 	private Response validate(CacheKey cachedRequest) {
@@ -379,7 +488,7 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 	 * 
 	 * @author Francesco Corazza
 	 */
-	private static final class CacheKey {
+	static final class CacheKey {
 		private final String proxyUri;
 		private final int mediaType;
 		private Response response;
@@ -505,6 +614,13 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 			return mediaType;
 		}
 
+		/**
+		 * @return the payload
+		 */
+		public byte[] getPayload() {
+			return payload;
+		}
+
 		/**
 		 * @return the proxyUri
 		 */
@@ -546,4 +662,19 @@ public class ProxyCacheResource extends ResourceBase implements CacheResource {
 	public void setEnabled(boolean enabled) {
 		this.enabled = enabled;
 	}
+
+	/**
+	 * Flushes and closes the persistent tier of the cache, if enabled. The
+	 * cache continues with the heap tier only.
+	 */
+	public void close() {
+		if (persistentStore != null) {
+			persistentStore.close();
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// the JVM is already shutting down
+			}
+		}
+	}
 }
@@ -46,6 +46,7 @@ import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.proxy.ProxyStatistics.CacheOutcome;
 import ch.ethz.inf.vs.californium.server.Server;
 
 /**
@@ -133,6 +134,20 @@ public class ProxyHttpServer {
 //		if (Bench_Help.DO_LOG) 
 			LOGGER.info("ProxyEndpoint handles request "+request);
 		
+		final long start = System.nanoTime();
+
+		Response response = null;
+		// ignore the request if it is reset or acknowledge
+		// check if the proxy-uri is defined
+		if (request.getType() != Type.RST && request.getType() != Type.ACK 
+				&& request.getOptions().hasProxyURI()) {
+			// get the response from the cache
+			response = cacheResource.getResponse(request);
+//			if (Bench_Help.DO_LOG) 
+				LOGGER.info("Cache returned "+response);
+		}
+		final Response cachedResponse = response;
+
 		Exchange exchange = new Exchange(request, Origin.REMOTE) {
 			@Override public void sendResponse(Response response) {
 				// Redirect the response to the HttpStack instead of a normal
@@ -141,7 +156,8 @@ public class ProxyHttpServer {
 				// redirect the responses a little more elegantly.
 				try {
 					request.setResponse(response);
-					responseProduced(request, response);
+					boolean revalidated = responseProduced(request, response);
+					updateStatistics(request, response == cachedResponse, revalidated, start);
 					httpStack.doSendResponse(request, response);
 				} catch (Exception e) {
 					LOGGER.log(Level.WARNING, "Exception while responding to Http request", e);
@@ -149,20 +165,6 @@ public class ProxyHttpServer {
 			}
 		};
 		exchange.setRequest(request);
-		
-		Response response = null;
-		// ignore the request if it is reset or acknowledge
-		// check if the proxy-uri is defined
-		if (request.getType() != Type.RST && request.getType() != Type.ACK 
-				&& request.getOptions().hasProxyURI()) {
-			// get the response from the cache
-			response = cacheResource.getResponse(request);
-//			if (Bench_Help.DO_LOG) 
-				LOGGER.info("Cache returned "+response);
-
-			// update statistics
-			statsResource.updateStatistics(request, response != null);
-		}
 
 		// check if the response is present in the cache
 		if (response != null) {
@@ -232,19 +234,59 @@ public class ProxyHttpServer {
 		
 	}
 
-	protected void responseProduced(Request request, Response response) {
-		// check if the proxy-uri is defined
-		if (request.getOptions().hasProxyURI()) {
+	/**
+	 * Caches the response if complete and returns true if it has revalidated
+	 * a cached response.
+	 */
+	protected boolean responseProduced(Request request, Response response) {
+		// check if the proxy-uri is defined and the response is complete,
+		// i.e., not the first block of a streamed response
+		if (request.getOptions().hasProxyURI()
+				&& !(response.getOptions().hasBlock2() && response.getOptions().getBlock2().isM())) {
 //			if (Bench_Help.DO_LOG) 
 				LOGGER.info("Cache response");
 			// insert the response in the cache
-			cacheResource.cacheResponse(request, response);
+			return cacheResource.updateResponse(request, response);
 		} else {
 //			if (Bench_Help.DO_LOG) 
 				LOGGER.info("Do not cache response");
+			return false;
 		}
 	}
 
+	private void updateStatistics(Request request, boolean cached, boolean revalidated, long start) {
+		if (request.getOptions().hasProxyURI()) {
+			CacheOutcome outcome;
+			if (cached) {
+				outcome = CacheOutcome.HIT;
+			} else if (revalidated) {
+				outcome = CacheOutcome.REVALIDATED;
+			} else {
+				outcome = CacheOutcome.MISS;
+			}
+			statsResource.updateStatistics(request, outcome, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Gets the resource with the statistics of the proxy. Add it to a server
+	 * to make the statistics available over CoAP.
+	 * 
+	 * @return the statistics resource
+	 */
+	public StatsResource getStatsResource() {
+		return statsResource;
+	}
+
+	/**
+	 * Stops the proxy from caching and flushes the persistent tier of the
+	 * cache to its file.
+	 */
+	public void stop() {
+		cacheResource.setEnabled(false);
+		cacheResource.close();
+	}
+
 	public ProxyCoAPResolver getProxyCoapResolver() {
 		return proxyCoapResolver;
 	}
@@ -203,6 +203,20 @@ public class ProxyProperties extends java.util.Properties {
 		// buffer size for the http server
 		set("HTTP_SERVER_SOCKET_BUFFER_SIZE", 8 * 1024);
 
+		// number of i/o dispatcher threads of the http server, 0 for one per core
+		set("HTTP_SERVER_IO_THREADS", 0);
+
+		// whether the http server keeps connections open between requests
+		set("HTTP_SERVER_KEEP_ALIVE", true);
+
+		// number of requests served on a connection before closing it, 0 for no
+		// limit
+		set("HTTP_SERVER_MAX_KEEP_ALIVE_REQUESTS", 100);
+
+		// number of coap requests forwarded by the http server that may wait for
+		// their responses at the same time, 0 for no limit
+		set("HTTP_SERVER_MAX_PENDING_REQUESTS", 1024);
+
 		// number of threads that are handling the resource dispatching
 		set("THREAD_POOL_SIZE", 10);
 
@@ -0,0 +1,605 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+package ch.ethz.inf.vs.californium.proxy;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+
+/**
+ * Statistics about the requests served by the proxy. For every origin host,
+ * request method and cache outcome, the proxy counts the requests and records
+ * their latency in a histogram. Recording is lock-free: the counters and the
+ * histogram are striped over several cache lines to keep threads from
+ * contending, and the histogram buckets are spread over a logarithmic scale with 8 sub-buckets
+ * per power of two, i.e., a relative error of at most 12.5%.
+ * <p>
+ * The statistics keep a separate entry for a limited number of origin hosts.
+ * Once the limit is reached, the requests to further hosts are recorded
+ * together under {@link #OTHER_HOSTS}, so that a client cannot grow the
+ * statistics without bounds by requesting many different hosts.
+ * <p>
+ * {@link #snapshot()} returns an immutable copy that can be subtracted from a
+ * later snapshot to obtain the statistics of a time window. Latencies are in
+ * microseconds.
+ */
+public final class ProxyStatistics {
+
+	/**
+	 * How the cache took part in serving a request.
+	 */
+	public enum CacheOutcome {
+
+		/** The response came from the cache. */
+		HIT("hit"),
+
+		/** The request was forwarded to the origin server. */
+		MISS("miss"),
+
+		/** The origin server confirmed a cached response (2.03 Valid) and the cache refreshed it. */
+		REVALIDATED("revalidated");
+
+		private final String text;
+
+		private CacheOutcome(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	/** The default maximum number of origin hosts with an entry of their own */
+	public static final int DEFAULT_MAX_ORIGINS = 1000;
+
+	/** The host under which the requests to further origin hosts are recorded */
+	public static final String OTHER_HOSTS = "*";
+
+	private static final Code[] METHODS = Code.values();
+	private static final CacheOutcome[] OUTCOMES = CacheOutcome.values();
+
+	/** The number of stripes of the counters, a power of two */
+	private static final int STRIPES;
+	static {
+		int stripes = 1;
+		int processors = Runtime.getRuntime().availableProcessors();
+		while (stripes < processors && stripes < 64) {
+			stripes <<= 1;
+		}
+		STRIPES = stripes;
+	}
+
+	/** The longs per stripe to keep the stripes on separate cache lines */
+	private static final int PADDING = 8;
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** The largest exponent recorded, longer latencies (12 days) are clamped */
+	private static final int MAX_EXPONENT = 40;
+	private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	/** The longs per stripe of the histogram, padded like the counters */
+	private static final int BUCKET_STRIDE = BUCKETS + PADDING;
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private final ConcurrentHashMap<String, Origin> origins = new ConcurrentHashMap<String, Origin>();
+	private final int maxOrigins;
+
+	private volatile long since = System.currentTimeMillis();
+
+	/**
+	 * Creates statistics for up to {@link #DEFAULT_MAX_ORIGINS} origin hosts.
+	 */
+	public ProxyStatistics() {
+		this(DEFAULT_MAX_ORIGINS);
+	}
+
+	/**
+	 * Creates statistics for up to the specified number of origin hosts.
+	 * Concurrent requests to new hosts can exceed the limit by the number of
+	 * recording threads.
+	 * 
+	 * @param maxOrigins the maximum number of origin hosts
+	 */
+	public ProxyStatistics(int maxOrigins) {
+		if (maxOrigins < 1) {
+			throw new IllegalArgumentException("maxOrigins must be at least 1");
+		}
+		this.maxOrigins = maxOrigins;
+	}
+
+	/**
+	 * Records a served request.
+	 * 
+	 * @param host the origin host
+	 * @param method the request method
+	 * @param outcome the cache outcome
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void record(String host, Code method, CacheOutcome outcome, long nanos) {
+		Origin origin = origins.get(host);
+		if (origin == null && origins.size() >= maxOrigins) {
+			host = OTHER_HOSTS;
+			origin = origins.get(host);
+		}
+		if (origin == null) {
+			Origin created = new Origin();
+			origin = origins.putIfAbsent(host, created);
+			if (origin == null) {
+				origin = created;
+			}
+		}
+		origin.getSeries(method, outcome).record(nanos / 1000);
+	}
+
+	/**
+	 * Removes all statistics.
+	 */
+	public void reset() {
+		origins.clear();
+		since = System.currentTimeMillis();
+	}
+
+	/**
+	 * Takes a snapshot of the statistics gathered since the creation or the
+	 * last reset.
+	 * 
+	 * @return the snapshot
+	 */
+	public Snapshot snapshot() {
+		Map<String, Distribution[]> copy = new TreeMap<String, Distribution[]>();
+		for (Map.Entry<String, Origin> entry : origins.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return new Snapshot(since, System.currentTimeMillis(), copy);
+	}
+
+	private static int index(Code method, CacheOutcome outcome) {
+		return method.ordinal() * OUTCOMES.length + outcome.ordinal();
+	}
+
+	private static int bucketOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) Math.max(0, micros);
+		}
+		long value = Math.min(micros, MAX_VALUE);
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		return (SUB_BUCKETS + sub) * width + width - 1;
+	}
+
+	/**
+	 * The statistics of one origin host.
+	 */
+	private static final class Origin {
+
+		private final AtomicReferenceArray<Series> series =
+				new AtomicReferenceArray<Series>(METHODS.length * OUTCOMES.length);
+
+		private Series getSeries(Code method, CacheOutcome outcome) {
+			int index = index(method, outcome);
+			Series current = series.get(index);
+			if (current == null) {
+				series.compareAndSet(index, null, new Series());
+				current = series.get(index);
+			}
+			return current;
+		}
+
+		private Distribution[] snapshot() {
+			Distribution[] distributions = new Distribution[series.length()];
+			for (int i = 0; i < distributions.length; i++) {
+				Series current = series.get(i);
+				if (current != null) {
+					distributions[i] = current.snapshot();
+				}
+			}
+			return distributions;
+		}
+	}
+
+	/**
+	 * The counters and histogram of one origin, method and cache outcome.
+	 */
+	private static final class Series {
+
+		/** Per stripe, the request count and the latency sum */
+		private final AtomicLongArray counters = new AtomicLongArray(STRIPES * PADDING);
+		/** Per stripe, the histogram buckets */
+		private final AtomicLongArray buckets = new AtomicLongArray(STRIPES * BUCKET_STRIDE);
+
+		private void record(long micros) {
+			int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+			counters.incrementAndGet(stripe * PADDING);
+			counters.addAndGet(stripe * PADDING + 1, micros);
+			buckets.incrementAndGet(stripe * BUCKET_STRIDE + bucketOf(micros));
+		}
+
+		private Distribution snapshot() {
+			long count = 0;
+			long sum = 0;
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				count += counters.get(stripe * PADDING);
+				sum += counters.get(stripe * PADDING + 1);
+			}
+			long[] copy = new long[BUCKETS];
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				for (int i = 0; i < BUCKETS; i++) {
+					copy[i] += buckets.get(stripe * BUCKET_STRIDE + i);
+				}
+			}
+			return new Distribution(count, sum, copy);
+		}
+	}
+
+	/**
+	 * An immutable latency distribution.
+	 */
+	public static final class Distribution {
+
+		private final long count;
+		private final long sum;
+		private final long[] buckets;
+		private final long total;
+
+		private Distribution(long count, long sum, long[] buckets) {
+			this.count = count;
+			this.sum = sum;
+			this.buckets = buckets;
+			long total = 0;
+			for (long bucket : buckets) {
+				total += bucket;
+			}
+			this.total = total;
+		}
+
+		/**
+		 * Gets the number of requests.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Gets the mean latency in microseconds.
+		 */
+		public long getMean() {
+			return count == 0 ? 0 : sum / count;
+		}
+
+		/**
+		 * Gets the latency in microseconds that the specified fraction of the
+		 * requests did not exceed.
+		 * 
+		 * @param quantile the fraction between 0 and 1
+		 * @return the upper bound of the bucket holding the quantile
+		 */
+		public long getPercentile(double quantile) {
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * total));
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return upperBoundOf(i);
+				}
+			}
+			return upperBoundOf(buckets.length - 1);
+		}
+
+		/**
+		 * Gets the maximum latency in microseconds, rounded up to the bucket.
+		 */
+		public long getMax() {
+			for (int i = buckets.length - 1; i >= 0; i--) {
+				if (buckets[i] > 0) {
+					return upperBoundOf(i);
+				}
+			}
+			return 0;
+		}
+
+		private Distribution minus(Distribution earlier) {
+			if (earlier == null) {
+				return this;
+			}
+			long[] difference = new long[buckets.length];
+			for (int i = 0; i < buckets.length; i++) {
+				difference[i] = Math.max(0, buckets[i] - earlier.buckets[i]);
+			}
+			return new Distribution(Math.max(0, count - earlier.count), Math.max(0, sum - earlier.sum), difference);
+		}
+	}
+
+	/**
+	 * An immutable snapshot of the proxy statistics over a period of time.
+	 */
+	public static final class Snapshot {
+
+		private final long since;
+		private final long time;
+		private final Map<String, Distribution[]> origins;
+
+		private Snapshot(long since, long time, Map<String, Distribution[]> origins) {
+			this.since = since;
+			this.time = time;
+			this.origins = origins;
+		}
+
+		/**
+		 * Gets the start of the period in milliseconds since the epoch.
+		 */
+		public long getSince() {
+			return since;
+		}
+
+		/**
+		 * Gets the end of the period in milliseconds since the epoch.
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Gets the origin hosts in alphabetical order.
+		 */
+		public Set<String> getHosts() {
+			return Collections.unmodifiableSet(origins.keySet());
+		}
+
+		/**
+		 * Gets the distribution of the specified requests.
+		 * 
+		 * @return the distribution or null if there has been no such request
+		 */
+		public Distribution getDistribution(String host, Code method, CacheOutcome outcome) {
+			Distribution[] distributions = origins.get(host);
+			return distributions == null ? null : distributions[index(method, outcome)];
+		}
+
+		/**
+		 * Subtracts an earlier snapshot to obtain the statistics of the period
+		 * in between. If the statistics have been reset in between, the
+		 * earlier snapshot is ignored.
+		 * 
+		 * @param earlier the earlier snapshot
+		 * @return the snapshot of the period in between
+		 */
+		public Snapshot minus(Snapshot earlier) {
+			if (earlier.since != since) {
+				return this;
+			}
+			Map<String, Distribution[]> difference = new TreeMap<String, Distribution[]>();
+			for (Map.Entry<String, Distribution[]> entry : origins.entrySet()) {
+				Distribution[] current = entry.getValue();
+				Distribution[] previous = earlier.origins.get(entry.getKey());
+				Distribution[] delta = new Distribution[current.length];
+				for (int i = 0; i < current.length; i++) {
+					if (current[i] != null) {
+						delta[i] = current[i].minus(previous == null ? null : previous[i]);
+					}
+				}
+				difference.put(entry.getKey(), delta);
+			}
+			return new Snapshot(earlier.time, time, difference);
+		}
+
+		/**
+		 * Formats the snapshot as JSON object of the form
+		 * <code>{"since":ms,"time":ms,"origins":{host:{method:{outcome:{"count":n,"mean":us,"p50":us,"p90":us,"p99":us,"p999":us,"max":us}}}}}</code>.
+		 * Empty entries are omitted.
+		 */
+		public String toJson() {
+			StringBuilder builder = new StringBuilder();
+			builder.append("{\"since\":").append(since);
+			builder.append(",\"time\":").append(time);
+			builder.append(",\"origins\":{");
+			boolean firstHost = true;
+			for (Map.Entry<String, Distribution[]> entry : origins.entrySet()) {
+				Distribution[] distributions = entry.getValue();
+				if (countMethods(distributions) == 0) {
+					continue;
+				}
+				if (!firstHost) {
+					builder.append(',');
+				}
+				firstHost = false;
+				appendJsonString(builder, entry.getKey()).append(":{");
+				boolean firstMethod = true;
+				for (Code method : METHODS) {
+					if (countOutcomes(distributions, method) == 0) {
+						continue;
+					}
+					if (!firstMethod) {
+						builder.append(',');
+					}
+					firstMethod = false;
+					builder.append('"').append(method).append("\":{");
+					boolean firstOutcome = true;
+					for (CacheOutcome outcome : OUTCOMES) {
+						Distribution distribution = distributions[index(method, outcome)];
+						if (isEmpty(distribution)) {
+							continue;
+						}
+						if (!firstOutcome) {
+							builder.append(',');
+						}
+						firstOutcome = false;
+						builder.append('"').append(outcome).append("\":{\"count\":").append(distribution.getCount());
+						builder.append(",\"mean\":").append(distribution.getMean());
+						for (int q = 0; q < QUANTILES.length; q++) {
+							builder.append(",\"").append(QUANTILE_NAMES[q]).append("\":").append(distribution.getPercentile(QUANTILES[q]));
+						}
+						builder.append(",\"max\":").append(distribution.getMax()).append('}');
+					}
+					builder.append('}');
+				}
+				builder.append('}');
+			}
+			builder.append("}}");
+			return builder.toString();
+		}
+
+		/**
+		 * Encodes the snapshot in CBOR with the same structure as
+		 * {@link #toJson()}.
+		 */
+		public byte[] toCbor() {
+			int hosts = 0;
+			for (Distribution[] distributions : origins.values()) {
+				if (countMethods(distributions) > 0) {
+					hosts++;
+				}
+			}
+
+			CborWriter writer = new CborWriter();
+			writer.startMap(3);
+			writer.writeText("since").writeUnsigned(since);
+			writer.writeText("time").writeUnsigned(time);
+			writer.writeText("origins").startMap(hosts);
+			for (Map.Entry<String, Distribution[]> entry : origins.entrySet()) {
+				Distribution[] distributions = entry.getValue();
+				int methods = countMethods(distributions);
+				if (methods == 0) {
+					continue;
+				}
+				writer.writeText(entry.getKey()).startMap(methods);
+				for (Code method : METHODS) {
+					int outcomes = countOutcomes(distributions, method);
+					if (outcomes == 0) {
+						continue;
+					}
+					writer.writeText(method.toString()).startMap(outcomes);
+					for (CacheOutcome outcome : OUTCOMES) {
+						Distribution distribution = distributions[index(method, outcome)];
+						if (isEmpty(distribution)) {
+							continue;
+						}
+						writer.writeText(outcome.toString()).startMap(3 + QUANTILES.length);
+						writer.writeText("count").writeUnsigned(distribution.getCount());
+						writer.writeText("mean").writeUnsigned(distribution.getMean());
+						for (int q = 0; q < QUANTILES.length; q++) {
+							writer.writeText(QUANTILE_NAMES[q]).writeUnsigned(distribution.getPercentile(QUANTILES[q]));
+						}
+						writer.writeText("max").writeUnsigned(distribution.getMax());
+					}
+				}
+			}
+			return writer.toByteArray();
+		}
+
+		/**
+		 * Formats the snapshot as human-readable text.
+		 */
+		public String toText() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("Served %d origin hosts in %d s%n", origins.size(), (time - since) / 1000));
+			for (Map.Entry<String, Distribution[]> entry : origins.entrySet()) {
+				builder.append(String.format("|- %s%n", entry.getKey()));
+				for (Code method : METHODS) {
+					for (CacheOutcome outcome : OUTCOMES) {
+						Distribution distribution = entry.getValue()[index(method, outcome)];
+						if (isEmpty(distribution)) {
+							continue;
+						}
+						builder.append(String.format("|\t |- %s %s: %d requests, mean %d us, p50 %d us, p99 %d us, max %d us%n",
+								method, outcome, distribution.getCount(), distribution.getMean(),
+								distribution.getPercentile(0.5), distribution.getPercentile(0.99), distribution.getMax()));
+					}
+				}
+			}
+			return builder.toString();
+		}
+
+		private static boolean isEmpty(Distribution distribution) {
+			return distribution == null || distribution.getCount() == 0;
+		}
+
+		private static int countOutcomes(Distribution[] distributions, Code method) {
+			int count = 0;
+			for (CacheOutcome outcome : OUTCOMES) {
+				if (!isEmpty(distributions[index(method, outcome)])) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		private static int countMethods(Distribution[] distributions) {
+			int count = 0;
+			for (Code method : METHODS) {
+				if (countOutcomes(distributions, method) > 0) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		private static StringBuilder appendJsonString(StringBuilder builder, String text) {
+			builder.append('"');
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c == '"' || c == '\\') {
+					builder.append('\\').append(c);
+				} else if (c < 0x20) {
+					builder.append(String.format("\\u%04x", (int) c));
+				} else {
+					builder.append(c);
+				}
+			}
+			return builder.append('"');
+		}
+	}
+}
@@ -45,12 +45,14 @@ import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.proxy.ProxyStatistics.CacheOutcome;
+import ch.ethz.inf.vs.californium.proxy.ProxyStatistics.Snapshot;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
 
 import com.google.common.cache.CacheStats;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 
 /**
  * Resource that encapsulate the proxy statistics.
@@ -60,7 +62,17 @@ import com.google.common.collect.Table;
  */
 public class StatsResource extends ResourceBase {
 	
-	private final Table<String, String, StatHelper> statsTable = HashBasedTable.create();
+	private final ProxyStatistics statistics = new ProxyStatistics();
+
+	/** The length of the window for deltas in milliseconds */
+	private final long window = NetworkConfig.getStandard().getInt(
+			NetworkConfigDefaults.HTTP_STATS_WINDOW) * 1000L;
+
+	/** The snapshot at the start of the current window */
+	private Snapshot windowStart = statistics.snapshot();
+
+	/** The statistics of the last completed window */
+	private Snapshot lastWindow = null;
 
 	private static String CACHE_LOG_NAME = "_cache_log.log";
 
@@ -78,7 +90,15 @@ public class StatsResource extends ResourceBase {
 		add(new ProxyStatResource("proxy"));
 	}
 
-	public void updateStatistics(Request request, boolean cachedResponse) {
+	/**
+	 * Records a request that has been served. Only requests with a proxy-uri
+	 * are recorded.
+	 * 
+	 * @param request the request
+	 * @param outcome how the cache took part
+	 * @param nanos the time to serve the request in nanoseconds
+	 */
+	public void updateStatistics(Request request, CacheOutcome outcome, long nanos) {
 		URI proxyUri = null;
 		try {
 			proxyUri = new URI(request.getOptions().getProxyURI());
@@ -92,63 +112,43 @@ public class StatsResource extends ResourceBase {
 			return;
 		}
 
-		// manage the address requester
+		// manage the address requested
 		String addressString = proxyUri.getHost();
 		if (addressString != null) {
-			// manage the resource requested
-			String resourceString = proxyUri.getPath();
-			if (resourceString != null) {
-				// check if there is already an entry for the row/column
-				// association
-				StatHelper statHelper = statsTable.get(addressString, resourceString);
-				if (statHelper == null) {
-					// create a new stat if it not present
-					statHelper = new StatHelper();
-
-					// add the new element to the table
-					statsTable.put(addressString, resourceString, statHelper);
-				}
-
-				// increment the count of the requests
-				statHelper.increment(cachedResponse);
-			}
+			statistics.record(addressString, request.getCode(), outcome, nanos);
 		}
 	}
 
 	/**
-	 * Builds a pretty print from the statistics gathered.
+	 * Gets the statistics of the proxy.
 	 * 
-	 * @return
+	 * @return the statistics
 	 */
-	private String getStatString() {
-		StringBuilder builder = new StringBuilder();
-
-		builder.append(String.format("Served %d addresses and %d resources\n", statsTable.rowKeySet().size(), statsTable.cellSet().size()));
-		builder.append("＿\n");
-		// iterate over every row (addresses)
-		for (String address : statsTable.rowKeySet()) {
-			builder.append(String.format("|- %s\n", address));
-			builder.append("|\t ＿\n");
-			// iterate over every column for a specific address
-			for (String resource : statsTable.row(address).keySet()) {
-				builder.append(String.format("|\t |- %s: \n", resource));
-
-				// get the statistics
-				StatHelper statHelper = statsTable.get(address, resource);
-				builder.append(String.format("|\t |------ total requests: %d\n", statHelper.getTotalCount()));
-				builder.append(String.format("|\t |------ total cached replies: %d\n", statHelper.getCachedCount()));
-				// builder.append(String.format("|\t |------ last period (%d sec) requests: %d\n",
-				// PERIOD_SECONDS, statHelper.getLastPeriodCount()));
-				// builder.append(String.format("|\t |------ last period (%d sec) avg delay (nanosec): %d\n",
-				// PERIOD_SECONDS, statHelper.getLastPeriodAvgDelay()));
-				builder.append("|\t |\n");
-			}
-			builder.append("|\t ￣\n");
-			builder.append("|\n");
+	public ProxyStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Gets the statistics of the last completed window. Windows are rolled
+	 * when read, so that the last window might be longer than configured if
+	 * nobody asked for a while.
+	 * 
+	 * @return the statistics of the last window or of the current one if none
+	 *         has been completed yet
+	 */
+	private synchronized Snapshot getWindowStatistics() {
+		Snapshot now = statistics.snapshot();
+		if (now.getTime() - windowStart.getTime() >= window) {
+			lastWindow = now.minus(windowStart);
+			windowStart = now;
 		}
-		builder.append("￣\n");
+		return lastWindow != null ? lastWindow : now.minus(windowStart);
+	}
 
-		return builder.length() == 0 ? "The proxy has not received any request, yet." : builder.toString();
+	private synchronized void resetStatistics() {
+		statistics.reset();
+		windowStart = statistics.snapshot();
+		lastWindow = null;
 	}
 
 	private static final class CacheStatResource extends ResourceBase {
@@ -264,61 +264,41 @@ public class StatsResource extends ResourceBase {
 		@Override
 		public void handleDELETE(CoapExchange exchange) {
 			// reset all the statistics
-			statsTable.clear();
+			resetStatistics();
 			exchange.respond(ResponseCode.DELETED);
 		}
 
-		/*
-		 * (non-Javadoc)
-		 * @see
-		 * ch.ethz.inf.vs.californium.endpoint.resources.LocalResource#performGET
-		 * (ch.ethz.inf.vs.californium.coap.GETRequest)
+		/**
+		 * Responds with the statistics since the last reset or, with the query
+		 * <code>delta</code>, of the last window. The representation is text,
+		 * JSON or CBOR depending on the accept option.
 		 */
 		@Override
 		public void handleGET(CoapExchange exchange) {
-			String payload = "Available commands:\n - GET: show statistics\n - POST write stats to file\n - DELETE: reset statistics\n\n";
-			payload += getStatString();
-			Response response = new Response(ResponseCode.CONTENT);
-			response.setPayload(payload);
-			response.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
-			exchange.respond(response);
-		}
-
-	}
-
-	/**
-	 * The Class StatisticsHelper.
-	 * 
-	 * @author Francesco Corazza
-	 */
-	private static class StatHelper {
-		private int totalCount = 0;
-		private int cachedCount = 0;
-
-		public int getCachedCount() {
-			return cachedCount;
-		}
-		
-		/**
-		 * @return the totalCount
-		 */
-		public int getTotalCount() {
-			return totalCount;
-		}
+			Snapshot snapshot = exchange.getRequestOptions().getURIQueries().contains("delta")
+					? getWindowStatistics() : statistics.snapshot();
 
-		public void increment(boolean cachedResponse) {
-			// add the total request counter
-			totalCount++;
-			if (cachedResponse) {
-				cachedCount++;
+			Response response = new Response(ResponseCode.CONTENT);
+			switch (exchange.getRequestOptions().getAccept()) {
+			case MediaTypeRegistry.APPLICATION_JSON:
+				response.setPayload(snapshot.toJson());
+				response.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_JSON);
+				break;
+			case MediaTypeRegistry.APPLICATION_CBOR:
+				response.setPayload(snapshot.toCbor());
+				response.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+				break;
+			case MediaTypeRegistry.TEXT_PLAIN:
+			case MediaTypeRegistry.UNDEFINED:
+				String payload = "Available commands:\n - GET: show statistics (?delta for the last window)\n - DELETE: reset statistics\n\n";
+				response.setPayload(payload + snapshot.toText());
+				response.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN);
+				break;
+			default:
+				exchange.respond(ResponseCode.NOT_ACCEPTABLE);
+				return;
 			}
-
-			// add the new request's timestamp to the list
-			// long currentTimestamp = System.nanoTime();
-			// lastPeriodTimestamps.add(currentTimestamp);
-
-			// clean the list by the old entries
-			// cleanTimestamps(currentTimestamp);
+			exchange.respond(response);
 		}
 	}
 }
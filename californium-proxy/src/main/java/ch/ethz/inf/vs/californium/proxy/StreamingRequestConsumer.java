@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+package ch.ethz.inf.vs.californium.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.logging.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.ParseException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncRequestConsumer;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.MessageObserver;
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.resources.proxy.CoapTranslator;
+import ch.ethz.inf.vs.californium.resources.proxy.HttpTranslator;
+import ch.ethz.inf.vs.californium.resources.proxy.TranslationException;
+
+/**
+ * Consumes the body of a large HTTP request and forwards it to the CoAP server
+ * block by block (Block1) while it arrives. The input from the HTTP connection
+ * is suspended until the CoAP server has acknowledged the current block.
+ * Hence, at most one block per transfer is held in memory and a slow CoAP
+ * server throttles the HTTP client.
+ * <p>
+ * The last block is held back until the HTTP request is complete. The request
+ * handler then calls {@link #sendLastBlock(MessageObserver)} to obtain the
+ * final response of the CoAP server. If the CoAP server refuses a block, the
+ * rest of the body is discarded and its response becomes the final response.
+ */
+final class StreamingRequestConsumer implements HttpAsyncRequestConsumer<HttpRequest> {
+
+	private static final Logger LOGGER = Logger.getLogger(StreamingRequestConsumer.class.getCanonicalName());
+
+	/** The context attribute under which a completed upload is registered */
+	static final String UPLOAD_ATTRIBUTE = "ch.ethz.inf.vs.californium.proxy.upload";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+	/** The request to the origin server from which the blocks are derived */
+	private final Request template;
+
+	/** The content of the current block */
+	private final ByteBuffer buffer;
+
+	/** The block size exponent */
+	private int szx;
+
+	/** The number of the next block to send */
+	private int num;
+
+	/** The response that ended the upload before the last block or null */
+	private Response abortResponse;
+
+	/** The control to resume the input when the block is acknowledged */
+	private IOControl ioctrl;
+
+	private HttpRequest httpRequest;
+	private Exception exception;
+	private volatile boolean done;
+
+	/**
+	 * Tests if the body of an HTTP request should be streamed to the CoAP
+	 * server. This is the case for PUT and POST requests with chunked transfer
+	 * encoding or a body larger than the maximum message size. Bodies in a
+	 * charset other than UTF-8 are not streamed since they must be converted as
+	 * a whole.
+	 * 
+	 * @param httpRequest the head of the HTTP request
+	 * @param maxMessageSize the size up to which bodies are sent in one message
+	 * @return true if the body should be streamed
+	 */
+	static boolean isStreamable(HttpRequest httpRequest, int maxMessageSize) {
+		String method = httpRequest.getRequestLine().getMethod();
+		if (!method.equalsIgnoreCase("put") && !method.equalsIgnoreCase("post")) {
+			return false;
+		}
+
+		Header type = httpRequest.getFirstHeader(HTTP.CONTENT_TYPE);
+		if (type != null) {
+			try {
+				Charset charset = ContentType.parse(type.getValue()).getCharset();
+				if (charset != null && !charset.equals(UTF_8) && !charset.equals(US_ASCII)) {
+					return false;
+				}
+			} catch (ParseException e) {
+				return false;
+			} catch (UnsupportedCharsetException e) {
+				return false;
+			}
+		}
+
+		if (httpRequest.containsHeader(HTTP.TRANSFER_ENCODING)) {
+			return true;
+		}
+		Header length = httpRequest.getFirstHeader(HTTP.CONTENT_LEN);
+		try {
+			return length != null && Long.parseLong(length.getValue().trim()) > maxMessageSize;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Instantiates a new consumer for the specified HTTP request. Only the
+	 * request line and headers are translated, the body is consumed later.
+	 * 
+	 * @param head the HTTP request whose body has not yet arrived
+	 * @param proxyResource the name of the proxy resource
+	 * @param blockSize the size of the blocks
+	 * @throws TranslationException if the request cannot be translated
+	 */
+	StreamingRequestConsumer(HttpRequest head, String proxyResource, int blockSize) throws TranslationException {
+		// translate a copy without entity to leave the body untouched
+		HttpRequest headers = new BasicHttpRequest(head.getRequestLine());
+		headers.setHeaders(head.getAllHeaders());
+		Request coapRequest = HttpTranslator.getCoapRequest(headers, proxyResource, true);
+		coapRequest.getOptions().setContentFormat(HttpTranslator.getCoapMediaType(head));
+
+		this.template = CoapTranslator.getRequest(coapRequest);
+		this.szx = BlockOption.size2Szx(blockSize);
+		this.buffer = ByteBuffer.allocate(BlockOption.szx2Size(szx));
+	}
+
+	@Override
+	public void requestReceived(HttpRequest request) {
+		this.httpRequest = request;
+	}
+
+	@Override
+	public synchronized void consumeContent(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+		if (abortResponse != null) {
+			// the server does not want the rest of the body
+			int read;
+			do {
+				buffer.clear();
+				read = decoder.read(buffer);
+			} while (read > 0);
+			return;
+		}
+
+		while (buffer.hasRemaining()) {
+			if (decoder.read(buffer) <= 0) {
+				break;
+			}
+		}
+
+		// the last block is sent when the request is complete
+		if (!buffer.hasRemaining() && !decoder.isCompleted()) {
+			this.ioctrl = ioctrl;
+			ioctrl.suspendInput();
+			sendBlock();
+		}
+	}
+
+	/**
+	 * Sends the full buffer as intermediate block.
+	 */
+	private void sendBlock() {
+		final int current = num;
+		Request block = newBlock(true);
+		block.setBlockwiseStreaming(true);
+		block.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onResponse(Response response) {
+				acknowledged(current, response);
+			}
+
+			@Override
+			public void onReject() {
+				abort(new Response(CoapTranslator.STATUS_TRANSLATION_ERROR));
+			}
+
+			@Override
+			public void onTimeout() {
+				abort(new Response(CoapTranslator.STATUS_TIMEOUT));
+			}
+
+			@Override
+			public void onCancel() {
+				abort(new Response(CoapTranslator.STATUS_TRANSLATION_ERROR));
+			}
+		});
+		LOGGER.finer("Send request block " + current);
+		block.send();
+	}
+
+	/**
+	 * Creates the request for the current content of the buffer and clears the
+	 * buffer.
+	 */
+	private Request newBlock(boolean m) {
+		buffer.flip();
+		byte[] payload = new byte[buffer.remaining()];
+		buffer.get(payload);
+		buffer.clear();
+		buffer.limit(BlockOption.szx2Size(szx));
+
+		Request block = new Request(template.getCode());
+		block.setType(template.getType());
+		block.setOptions(new OptionSet(template.getOptions()));
+		block.setDestination(template.getDestination());
+		block.setDestinationPort(template.getDestinationPort());
+		block.setPayload(payload);
+		// a body that fits into one block needs no Block1 option
+		if (m || num > 0) {
+			block.getOptions().setBlock1(szx, m, num);
+		}
+		return block;
+	}
+
+	private void acknowledged(int current, Response response) {
+		BlockOption block1 = response.getOptions().getBlock1();
+		if (response.getCode() != ResponseCode.CONTINUE || block1 == null || block1.getNum() != current) {
+			LOGGER.info("CoAP server ended the upload at block " + current + ": " + response);
+			abort(response);
+			return;
+		}
+
+		synchronized (this) {
+			// the server might ask for smaller blocks
+			int sent = (current + 1) * BlockOption.szx2Size(szx);
+			if (block1.getSzx() < szx) {
+				szx = block1.getSzx();
+				buffer.limit(BlockOption.szx2Size(szx));
+			}
+			num = sent / BlockOption.szx2Size(szx);
+		}
+		ioctrl.requestInput();
+	}
+
+	private void abort(Response response) {
+		synchronized (this) {
+			abortResponse = response;
+		}
+		ioctrl.requestInput();
+	}
+
+	/**
+	 * Sends the remaining content as last block. The observer is notified of
+	 * the final response of the CoAP server. If the upload has been aborted
+	 * before, the observer immediately receives the response that ended it.
+	 * 
+	 * @param observer the observer for the final response
+	 */
+	synchronized void sendLastBlock(MessageObserver observer) {
+		if (abortResponse != null) {
+			observer.onResponse(abortResponse);
+			return;
+		}
+
+		Request last = newBlock(false);
+		last.addMessageObserver(observer);
+		LOGGER.finer("Send last request block " + num);
+		last.send();
+	}
+
+	@Override
+	public void requestCompleted(HttpContext context) {
+		done = true;
+		context.setAttribute(UPLOAD_ATTRIBUTE, this);
+	}
+
+	@Override
+	public void failed(Exception ex) {
+		exception = ex;
+		done = true;
+	}
+
+	@Override
+	public Exception getException() {
+		return exception;
+	}
+
+	@Override
+	public HttpRequest getResult() {
+		return httpRequest;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public void close() throws IOException {
+	}
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+package ch.ethz.inf.vs.californium.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.HttpAsyncResponseProducer;
+import org.apache.http.protocol.HttpContext;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.resources.proxy.HttpTranslator;
+
+/**
+ * Produces the body of an HTTP response from a CoAP response that the origin
+ * server sends blockwise (Block2). The body is sent with chunked transfer
+ * encoding and the next block is only requested from the CoAP server when the
+ * previous one has been written to the HTTP connection. Hence, at most one
+ * block per transfer is held in memory and a slow HTTP client throttles the
+ * retrieval from the CoAP server.
+ * <p>
+ * If the CoAP server fails to deliver a block, or the representation changes
+ * during the transfer (different ETag), the HTTP connection is closed before
+ * the last chunk so that the client notices the truncated body.
+ */
+final class StreamingResponseProducer implements HttpAsyncResponseProducer {
+
+	private static final Logger LOGGER = Logger.getLogger(StreamingResponseProducer.class.getCanonicalName());
+
+	/** The HTTP response with the headers of the first block */
+	private final HttpResponse httpResponse;
+
+	/** The request to the origin server from which the blocks are derived */
+	private final Request template;
+
+	/** The ETag of the first block or null */
+	private final byte[] etag;
+
+	/** The block size exponent of the first block */
+	private final int szx;
+
+	/** The content of the current block that is not yet written */
+	private ByteBuffer block;
+
+	/** The number of the current block */
+	private int num;
+
+	/** Whether more blocks follow the current block */
+	private boolean more;
+
+	/** Whether the next block has been requested but not yet arrived */
+	private boolean fetching;
+
+	/** The control to resume the output when the next block arrives */
+	private IOControl ioctrl;
+
+	/** The reason why the transfer failed or null */
+	private String failure;
+
+	private boolean closed;
+
+	/**
+	 * Tests if a CoAP response is the first block of a response that should be
+	 * streamed to the HTTP client.
+	 * 
+	 * @param coapRequest the request that has been forwarded
+	 * @param coapResponse the response of the origin server
+	 * @return true if the remaining blocks should be streamed
+	 */
+	static boolean isStreamed(Request coapRequest, Response coapResponse) {
+		BlockOption block2 = coapResponse.getOptions().getBlock2();
+		return coapRequest.isBlockwiseStreaming()
+				&& coapResponse.getCode() == ResponseCode.CONTENT
+				&& block2 != null && block2.isM();
+	}
+
+	/**
+	 * Instantiates a new producer for the remaining blocks after the first
+	 * block of the response. The HTTP response must already contain the
+	 * translated status line and headers of the first block. Its entity is
+	 * replaced with a chunked entity that carries the content-type of the CoAP
+	 * payload without charset conversion as block boundaries might split
+	 * characters.
+	 * 
+	 * @param httpResponse the translated HTTP response
+	 * @param template the request to the origin server
+	 * @param first the first block of the CoAP response
+	 */
+	StreamingResponseProducer(HttpResponse httpResponse, Request template, Response first) {
+		this.httpResponse = httpResponse;
+		this.template = template;
+
+		OptionSet options = first.getOptions();
+		BlockOption block2 = options.getBlock2();
+		this.szx = block2.getSzx();
+		this.num = block2.getNum();
+		this.more = block2.isM();
+		this.etag = options.getETagCount() > 0 ? options.getETags().get(0) : null;
+		this.block = ByteBuffer.wrap(first.getPayload());
+
+		ContentType contentType = HttpTranslator.getHttpContentType(first);
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setChunked(true);
+		entity.setContentLength(-1);
+		entity.setContentType(contentType.toString());
+		httpResponse.setEntity(entity);
+		httpResponse.setHeader("content-type", contentType.toString());
+	}
+
+	@Override
+	public HttpResponse generateResponse() {
+		return httpResponse;
+	}
+
+	@Override
+	public synchronized void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+		if (failure != null) {
+			throw new IOException(failure);
+		}
+
+		if (block.hasRemaining()) {
+			encoder.write(block);
+			if (block.hasRemaining()) {
+				// the connection cannot take more at the moment
+				return;
+			}
+		}
+
+		if (!more) {
+			encoder.complete();
+		} else if (!fetching) {
+			// wait for the next block before writing again
+			fetching = true;
+			this.ioctrl = ioctrl;
+			ioctrl.suspendOutput();
+			fetch(num + 1);
+		}
+	}
+
+	/**
+	 * Requests the block with the specified number from the origin server.
+	 */
+	private void fetch(final int next) {
+		Request request = new Request(template.getCode());
+		request.setType(template.getType());
+		request.setOptions(new OptionSet(template.getOptions()));
+		request.setDestination(template.getDestination());
+		request.setDestinationPort(template.getDestinationPort());
+		request.setBlockwiseStreaming(true);
+		request.getOptions().setBlock2(szx, false, next);
+		// make sure not to use Observe for block retrieval
+		request.getOptions().removeObserve();
+
+		request.addMessageObserver(new MessageObserverAdapter() {
+			@Override
+			public void onResponse(Response response) {
+				received(next, response);
+			}
+
+			@Override
+			public void onReject() {
+				abort("Block " + next + " rejected by the CoAP server");
+			}
+
+			@Override
+			public void onTimeout() {
+				abort("Block " + next + " timed out");
+			}
+
+			@Override
+			public void onCancel() {
+				abort("Block " + next + " canceled");
+			}
+		});
+		LOGGER.finer("Request next response block " + next);
+		request.send();
+	}
+
+	private void received(int next, Response response) {
+		BlockOption block2 = response.getOptions().getBlock2();
+		if (response.getCode() != ResponseCode.CONTENT || block2 == null || block2.getNum() != next) {
+			abort("Unexpected response for block " + next + ": " + response);
+			return;
+		}
+		if (etag != null && !(response.getOptions().getETagCount() > 0
+				&& Arrays.equals(etag, response.getOptions().getETags().get(0)))) {
+			abort("Representation changed during the transfer of block " + next);
+			return;
+		}
+
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			block = ByteBuffer.wrap(response.getPayload());
+			num = next;
+			more = block2.isM();
+			fetching = false;
+		}
+		ioctrl.requestOutput();
+	}
+
+	private void abort(String reason) {
+		LOGGER.warning("Streaming the CoAP response failed: " + reason);
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			failure = reason;
+			fetching = false;
+		}
+		// let the next call to produceContent() abort the connection
+		ioctrl.requestOutput();
+	}
+
+	@Override
+	public void responseCompleted(HttpContext context) {
+		LOGGER.finer("Streamed CoAP response completed with block " + num);
+	}
+
+	@Override
+	public synchronized void failed(Exception ex) {
+		LOGGER.warning("Streaming the CoAP response aborted: " + ex.getMessage());
+		closed = true;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		block = null;
+	}
+}
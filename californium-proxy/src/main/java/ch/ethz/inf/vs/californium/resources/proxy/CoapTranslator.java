@@ -100,6 +100,9 @@ public final class CoapTranslator {
 		Request outgoingRequest = new Request(code);
 		outgoingRequest.setConfirmable(type == Type.CON);
 
+		// the blocks of a streamed request are transferred by the proxy itself
+		outgoingRequest.setBlockwiseStreaming(incomingRequest.isBlockwiseStreaming());
+
 		// copy payload
 		byte[] payload = incomingRequest.getPayload();
 		outgoingRequest.setPayload(payload);
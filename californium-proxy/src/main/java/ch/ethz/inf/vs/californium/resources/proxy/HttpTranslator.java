@@ -66,7 +66,6 @@ import org.apache.http.StatusLine;
 import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.EnglishReasonPhraseCatalog;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
@@ -83,6 +82,7 @@ import ch.ethz.inf.vs.californium.coap.Message;
 import ch.ethz.inf.vs.californium.coap.Option;
 import ch.ethz.inf.vs.californium.coap.OptionNumberRegistry;
 import ch.ethz.inf.vs.californium.coap.OptionNumberRegistry.optionFormats;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.proxy.MappingProperties;
@@ -98,13 +98,6 @@ public final class HttpTranslator {
 
 	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
-	private static final String KEY_COAP_CODE = "coap.response.code.";
-	private static final String KEY_COAP_OPTION = "coap.message.option.";
-	private static final String KEY_COAP_MEDIA = "coap.message.media.";
-	private static final String KEY_HTTP_CODE = "http.response.code.";
-	private static final String KEY_HTTP_METHOD = "http.request.method.";
-	private static final String KEY_HTTP_HEADER = "http.message.header.";
-	private static final String KEY_HTTP_CONTENT_TYPE = "http.message.content-type.";
 
 	/**
 	 * Property file containing the mappings between coap messages and http
@@ -112,6 +105,11 @@ public final class HttpTranslator {
 	 */
 	public static final Properties HTTP_TRANSLATION_PROPERTIES = new MappingProperties("Proxy.properties");
 
+	/**
+	 * The mappings of the property file compiled into lookup tables.
+	 */
+	private static volatile TranslationTables tables = TranslationTables.compile(HTTP_TRANSLATION_PROPERTIES);
+
 	// Error constants
 	public static final int STATUS_TIMEOUT = HttpStatus.SC_GATEWAY_TIMEOUT;
 	public static final int STATUS_NOT_FOUND = HttpStatus.SC_BAD_GATEWAY;
@@ -121,6 +119,15 @@ public final class HttpTranslator {
 
 	protected static final Logger LOGGER = Logger.getLogger(HttpTranslator.class.getName());
 
+	/**
+	 * Recompiles the lookup tables from {@link #HTTP_TRANSLATION_PROPERTIES}.
+	 * The properties are compiled once when the class is loaded; this method
+	 * must be called for later changes to the properties to take effect.
+	 */
+	public static void compileMappings() {
+		tables = TranslationTables.compile(HTTP_TRANSLATION_PROPERTIES);
+	}
+
 	/**
 	 * Gets the coap media type associated to the http entity. Firstly, it looks
 	 * for a valid mapping in the property file. If this step fails, then it
@@ -172,13 +179,16 @@ public final class HttpTranslator {
 			// get the value of the content-type
 			String httpContentTypeString = contentType.getMimeType();
 			// delete the last part (if any)
-			httpContentTypeString = httpContentTypeString.split(";")[0];
+			int parameters = httpContentTypeString.indexOf(';');
+			if (parameters >= 0) {
+				httpContentTypeString = httpContentTypeString.substring(0, parameters);
+			}
 
 			// retrieve the mapping from the property file
-			String coapContentTypeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_CONTENT_TYPE + httpContentTypeString);
+			Integer mappedContentType = tables.getCoapMediaType(httpContentTypeString);
 
-			if (coapContentTypeString != null) {
-				coapContentType = Integer.parseInt(coapContentTypeString);
+			if (mappedContentType != null) {
+				coapContentType = mappedContentType;
 			} else {
 				// try to parse the media type if the property file has given to
 				// mapping
@@ -220,35 +230,8 @@ public final class HttpTranslator {
 		// iterate over the headers
 		for (Header header : headers) {
 			try {
-				String headerName = header.getName().toLowerCase();
-				
-				// FIXME: CoAP does no longer support multiple accept-options.
-				// If an HTTP request contains multiple accepts, this method
-				// fails. Therefore, we currently skip accepts at the moment.
-				if (headerName.startsWith("accept"))
-						continue;
-	
-				// get the mapping from the property file
-				String optionCodeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_HEADER + headerName);
-	
-				// ignore the header if not found in the properties file
-				if (optionCodeString == null || optionCodeString.isEmpty()) {
-					continue;
-				}
-	
-				// get the option number
-				int optionNumber = OptionRegistry.RESERVED_0;
-				try {
-					optionNumber = Integer.parseInt(optionCodeString.trim());
-				} catch (Exception e) {
-					LOGGER.warning("Problems in the parsing: " + e.getMessage());
-					// ignore the option if not recognized
-					continue;
-				}
-	
-				// ignore the content-type because it will be handled within the
-				// payload
-				if (optionNumber == OptionRegistry.CONTENT_FORMAT) {
+				int optionNumber = getMappedOptionNumber(header);
+				if (optionNumber == TranslationTables.UNMAPPED) {
 					continue;
 				}
 	
@@ -332,6 +315,129 @@ public final class HttpTranslator {
 		return optionList;
 	}
 
+	/**
+	 * Translates the http headers into the specified option set. The mapping
+	 * is the same as in {@link #getCoapOptions(Header[])}, but the options
+	 * known to the option set are set directly through its typed setters
+	 * instead of creating an {@link Option} for each header. Only headers
+	 * mapped to other options fall back to {@link Option} objects.
+	 * 
+	 * @param headers the http headers
+	 * @param options the option set to fill
+	 */
+	public static void setCoapOptions(Header[] headers, OptionSet options) {
+		if (headers == null) {
+			throw new IllegalArgumentException("headers == null");
+		}
+		if (options == null) {
+			throw new IllegalArgumentException("options == null");
+		}
+
+		for (Header header : headers) {
+			int optionNumber = getMappedOptionNumber(header);
+			try {
+				switch (optionNumber) {
+				case TranslationTables.UNMAPPED:
+					break;
+				case OptionRegistry.ETAG:
+					options.addETag(header.getValue().trim().getBytes(ISO_8859_1));
+					break;
+				case OptionRegistry.IF_MATCH:
+					options.addIfMatch(header.getValue().trim().getBytes(ISO_8859_1));
+					break;
+				case OptionRegistry.IF_NONE_MATCH:
+					options.setIfNoneMatch(true);
+					break;
+				case OptionRegistry.MAX_AGE:
+					int maxAge = parseMaxAge(header.getValue());
+					if (maxAge >= 0) {
+						options.setMaxAge(maxAge);
+					} else {
+						LOGGER.warning("Cannot convert cache control in max-age option");
+					}
+					break;
+				default:
+					// rare options: use the generic translation
+					for (Option option : getCoapOptions(new Header[] { header })) {
+						options.addOption(option);
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				// e.g., an If-Match value longer than 8 bytes
+				LOGGER.warning("Could not parse header line "+header);
+			}
+		}
+	}
+
+	/**
+	 * Returns the option number the header is mapped to or
+	 * {@link TranslationTables#UNMAPPED} if the header is not mapped or must
+	 * not be translated into an option. The content-type is handled with the
+	 * payload and accept headers are skipped since CoAP does no longer support
+	 * multiple accept options.
+	 */
+	private static int getMappedOptionNumber(Header header) {
+		String headerName = header.getName();
+
+		// FIXME: CoAP does no longer support multiple accept-options.
+		// If an HTTP request contains multiple accepts, this method
+		// fails. Therefore, we currently skip accepts at the moment.
+		if (headerName.regionMatches(true, 0, "accept", 0, 6)) {
+			return TranslationTables.UNMAPPED;
+		}
+
+		// get the mapping from the compiled properties
+		int optionNumber = tables.getOptionNumber(headerName);
+
+		// ignore the content-type because it will be handled within the
+		// payload
+		if (optionNumber == OptionRegistry.CONTENT_FORMAT) {
+			return TranslationTables.UNMAPPED;
+		}
+		return optionNumber;
+	}
+
+	/**
+	 * Parses the max-age from a cache-control header value without splitting
+	 * the value. Returns 0 for no-cache and -1 if the value cannot be parsed.
+	 */
+	private static int parseMaxAge(String headerValue) {
+		if (headerValue.contains("no-cache")) {
+			return 0;
+		}
+
+		// only the first directive is considered
+		int end = headerValue.indexOf(',');
+		if (end < 0) {
+			end = headerValue.length();
+		}
+		int index = headerValue.indexOf('=');
+		if (index < 0 || index > end) {
+			index = -1;
+		}
+
+		// parse the trimmed number after the '='
+		int position = index + 1;
+		while (position < end && headerValue.charAt(position) <= ' ') {
+			position++;
+		}
+		while (end > position && headerValue.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (position == end) {
+			return -1;
+		}
+		long maxAge = 0;
+		for (int i = position; i < end; i++) {
+			char c = headerValue.charAt(i);
+			if (c < '0' || c > '9' || maxAge > Integer.MAX_VALUE) {
+				return -1;
+			}
+			maxAge = maxAge * 10 + (c - '0');
+		}
+		return maxAge > Integer.MAX_VALUE ? -1 : (int) maxAge;
+	}
+
 	/**
 	 * Method to map the http entity of a http message in a coherent payload for
 	 * the coap message. The method simply gets the bytes from the entity and,
@@ -418,20 +524,12 @@ public final class HttpTranslator {
 		}
 
 		// get the http method
-		String httpMethod = httpRequest.getRequestLine().getMethod().toLowerCase();
+		String httpMethod = httpRequest.getRequestLine().getMethod();
 
 		// get the coap method
-		String coapMethodString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_METHOD + httpMethod);
-		if (coapMethodString == null || coapMethodString.contains("error")) {
-			throw new InvalidMethodException(httpMethod + " method not mapped");
-		}
-
-		int coapMethod = 0;
-		try {
-			coapMethod = Integer.parseInt(coapMethodString.trim());
-		} catch (NumberFormatException e) {
-			LOGGER.warning("Cannot convert the http method in coap method: " + e);
-			throw new TranslationException("Cannot convert the http method in coap method", e);
+		int coapMethod = tables.getCoapMethod(httpMethod);
+		if (coapMethod < 0) {
+			throw new InvalidMethodException(httpMethod.toLowerCase() + " method not mapped");
 		}
 
 		// create the request
@@ -509,10 +607,7 @@ public final class HttpTranslator {
 		}
 
 		// translate the http headers in coap options
-		List<Option> coapOptions = getCoapOptions(httpRequest.getAllHeaders());
-//		coapRequest.setOptions(coapOptions);
-		for (Option option:coapOptions)
-			coapRequest.getOptions().addOption(option);
+		setCoapOptions(httpRequest.getAllHeaders(), coapRequest.getOptions());
 
 		// set the payload if the http entity is present
 		if (httpRequest instanceof HttpEntityEnclosingRequest) {
@@ -573,16 +668,16 @@ public final class HttpTranslator {
 			}
 		} else {
 			// get the translation from the property file
-			String coapCodeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_HTTP_CODE + httpCode);
+			int coapCodeValue = tables.getCoapCode(httpCode);
 
-			if (coapCodeString == null || coapCodeString.isEmpty()) {
+			if (coapCodeValue == TranslationTables.UNMAPPED) {
 				LOGGER.warning("coapCodeString == null");
 				throw new TranslationException("coapCodeString == null");
 			}
 
 			try {
-				coapCode = ResponseCode.valueOf(Integer.parseInt(coapCodeString.trim()));
-			} catch (NumberFormatException e) {
+				coapCode = ResponseCode.valueOf(coapCodeValue);
+			} catch (IllegalArgumentException e) {
 				LOGGER.warning("Cannot convert the status code in number: " + e.getMessage());
 				throw new TranslationException("Cannot convert the status code in number", e);
 			}
@@ -592,10 +687,7 @@ public final class HttpTranslator {
 		Response coapResponse = new Response(coapCode);
 
 		// translate the http headers in coap options
-		List<Option> coapOptions = getCoapOptions(httpResponse.getAllHeaders());
-//		coapResponse.addop(coapOptions);
-		for (Option option:coapOptions)
-			coapResponse.getOptions().addOption(option);
+		setCoapOptions(httpResponse.getAllHeaders(), coapResponse.getOptions());
 
 		// the response should indicate a max-age value (CoAP 10.1.1)
 //		if (coapResponse.getFirstOption(OptionRegistry.MAX_AGE) == null) {
@@ -626,15 +718,61 @@ public final class HttpTranslator {
 		return coapResponse;
 	}
 
+	/**
+	 * Gets the HTTP content-type of the payload of a CoAP message. If the
+	 * content-format is recognized, and a mapping is present in the properties
+	 * file, it is translated to the correspondent in HTTP, otherwise it is set
+	 * to application/octet-stream. Printable content-formats without mapping
+	 * get the charset of CoAP, namely UTF-8.
+	 * 
+	 * @param coapMessage
+	 *            the coap message
+	 * @return the content-type
+	 */
+	public static ContentType getHttpContentType(Message coapMessage) {
+		if (coapMessage == null) {
+			throw new IllegalArgumentException("coapMessage == null");
+		}
+
+		// if the content type is not set, translate with octect-stream
+		if (! coapMessage.getOptions().hasContentFormat()) {
+			return ContentType.APPLICATION_OCTET_STREAM;
+		}
+
+		// search for the media type inside the compiled properties
+		int coapContentType = coapMessage.getOptions().getContentFormat();
+		ContentType contentType = tables.getHttpContentType(coapContentType);
+
+		// if the content-type has not been found in the property file,
+		// try to get its string value (expressed in mime type)
+		if (contentType == null) {
+			String coapContentTypeString = MediaTypeRegistry.toString(coapContentType);
+
+			// if the coap content-type is printable, it is needed to
+			// set the default charset (i.e., UTF-8)
+			if (MediaTypeRegistry.isPrintable(coapContentType)) {
+				coapContentTypeString += "; charset=UTF-8";
+			}
+
+			// parse the content type
+			try {
+				contentType = ContentType.parse(coapContentTypeString);
+			} catch (UnsupportedCharsetException e) {
+				LOGGER.finer("Cannot convert string to ContentType: " + e.getMessage());
+				contentType = ContentType.APPLICATION_OCTET_STREAM;
+			}
+		}
+		return contentType;
+	}
+
 	/**
 	 * Generates an HTTP entity starting from a CoAP request. If the coap
 	 * message has no payload, it returns a null http entity. It takes the
-	 * payload from the CoAP message and encapsulates it in an entity. If the
-	 * content-type is recognized, and a mapping is present in the properties
-	 * file, it is translated to the correspondent in HTTP, otherwise it is set
-	 * to application/octet-stream. If the content-type has a charset, namely it
-	 * is printable, the payload is encapsulated in a StringEntity, if not it a
-	 * ByteArrayEntity is used.
+	 * payload from the CoAP message and encapsulates it in an entity with the
+	 * content-type given by {@link #getHttpContentType(Message)}. If the
+	 * content-type has a charset, namely it is printable, the payload is
+	 * converted to ISO-8859-1 where possible. The entity wraps the payload
+	 * bytes directly without decoding them to a string.
 	 * 
 	 * 
 	 * @param coapMessage
@@ -656,42 +794,7 @@ public final class HttpTranslator {
 		byte[] payload = coapMessage.getPayload();
 		if (payload != null && payload.length != 0) {
 
-			// get the coap content-type
-//			Integer coapContentType = coapMessage.getOptions().getContentFormat();
-			ContentType contentType = null;
-
-			// if the content type is not set, translate with octect-stream
-//			if (coapContentType == MediaTypeRegistry.UNDEFINED) {
-			if (! coapMessage.getOptions().hasContentFormat()) {
-				contentType = ContentType.APPLICATION_OCTET_STREAM;
-			} else {
-				int coapContentType = coapMessage.getOptions().getContentFormat();
-				// search for the media type inside the property file
-				String coapContentTypeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_COAP_MEDIA + coapContentType);
-
-				// if the content-type has not been found in the property file,
-				// try to get its string value (expressed in mime type)
-				if (coapContentTypeString == null || coapContentTypeString.isEmpty()) {
-					coapContentTypeString = MediaTypeRegistry.toString(coapContentType);
-
-					// if the coap content-type is printable, it is needed to
-					// set the default charset (i.e., UTF-8)
-					if (MediaTypeRegistry.isPrintable(coapContentType)) {
-						coapContentTypeString += "; charset=UTF-8";
-					}
-				}
-
-				// parse the content type
-				try {
-					contentType = ContentType.parse(coapContentTypeString);
-//				} catch (ParseException e) {
-//					LOGGER.finer("Cannot convert string to ContentType: " + e.getMessage());
-//					contentType = ContentType.APPLICATION_OCTET_STREAM;
-				} catch (UnsupportedCharsetException e) {
-					LOGGER.finer("Cannot convert string to ContentType: " + e.getMessage());
-					contentType = ContentType.APPLICATION_OCTET_STREAM;
-				}
-			}
+			ContentType contentType = getHttpContentType(coapMessage);
 
 			// get the charset
 			Charset charset = contentType.getCharset();
@@ -718,17 +821,11 @@ public final class HttpTranslator {
 						contentType = ContentType.create(contentType.getMimeType(), isoCharset);
 					}
 				}
-
-				// create the content
-				String payloadString = new String(payload, contentType.getCharset());
-
-				// create the entity
-				httpEntity = new StringEntity(payloadString, contentType);
-			} else {
-				// create the entity
-				httpEntity = new ByteArrayEntity(payload);
 			}
 
+			// create the entity on the encoded payload
+			httpEntity = new ByteArrayEntity(payload, contentType);
+
 			// set the content-type
 			((AbstractHttpEntity) httpEntity).setContentType(contentType.toString());
 		} // if (payload != null && payload.length != 0)
@@ -764,18 +861,19 @@ public final class HttpTranslator {
 			// different way
 			int optionNumber = option.getNumber();
 			if (optionNumber != OptionRegistry.CONTENT_FORMAT && optionNumber != OptionRegistry.PROXY_URI) {
-				// get the mapping from the property file
-				String headerName = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_COAP_OPTION + optionNumber);
+				// get the mapping from the compiled properties
+				String headerName = tables.getHeaderName(optionNumber);
 
 				// set the header
-				if (headerName != null && !headerName.isEmpty()) {
+				if (headerName != null) {
 					// format the value
 					String stringOptionValue = null;
-					if (OptionNumberRegistry.getFormatByNr(optionNumber) == optionFormats.STRING) {
+					optionFormats format = OptionNumberRegistry.getFormatByNr(optionNumber);
+					if (format == optionFormats.STRING) {
 						stringOptionValue = option.getStringValue();
-					} else if (OptionNumberRegistry.getFormatByNr(optionNumber) == optionFormats.INTEGER) {
+					} else if (format == optionFormats.INTEGER) {
 						stringOptionValue = Integer.toString(option.getIntegerValue());
-					} else if (OptionNumberRegistry.getFormatByNr(optionNumber) == optionFormats.OPAQUE) {
+					} else if (format == optionFormats.OPAQUE) {
 						stringOptionValue = new String(option.getValue());
 					} else {
 						// if the option is not formattable, skip it
@@ -913,21 +1011,13 @@ public final class HttpTranslator {
 
 		// get/set the response code
 		ResponseCode coapCode = coapResponse.getCode();
-		String httpCodeString = HTTP_TRANSLATION_PROPERTIES.getProperty(KEY_COAP_CODE + coapCode.value);
+		int httpCode = tables.getHttpCode(coapCode.value);
 
-		if (httpCodeString == null || httpCodeString.isEmpty()) {
+		if (httpCode == TranslationTables.UNMAPPED) {
 			LOGGER.warning("httpCodeString == null");
 			throw new TranslationException("httpCodeString == null");
 		}
 
-		int httpCode = 0;
-		try {
-			httpCode = Integer.parseInt(httpCodeString.trim());
-		} catch (NumberFormatException e) {
-			LOGGER.warning("Cannot convert the coap code in http status code" + e);
-			throw new TranslationException("Cannot convert the coap code in http status code", e);
-		}
-
 		// create the http response and set the status line
 		String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(httpCode, Locale.ENGLISH);
 		StatusLine statusLine = new BasicStatusLine(HttpVersion.HTTP_1_1, httpCode, reason);
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+
+package ch.ethz.inf.vs.californium.resources.proxy;
+
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import org.apache.http.ParseException;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Immutable lookup tables compiled from the mapping properties of the
+ * cross-proxy. The translators consult the properties for every header, code
+ * and media type of every message; the tables resolve the same mappings
+ * without string concatenation, case conversion or number parsing on the
+ * translation path. Header names, HTTP methods and mime types are looked up
+ * case-insensitively so that the values from the messages can be used as
+ * they are.
+ * 
+ * @see HttpTranslator
+ */
+final class TranslationTables {
+
+	private static final Logger LOGGER = Logger.getLogger(TranslationTables.class.getName());
+
+	static final String KEY_COAP_CODE = "coap.response.code.";
+	static final String KEY_COAP_OPTION = "coap.message.option.";
+	static final String KEY_COAP_MEDIA = "coap.message.media.";
+	static final String KEY_HTTP_CODE = "http.response.code.";
+	static final String KEY_HTTP_METHOD = "http.request.method.";
+	static final String KEY_HTTP_HEADER = "http.message.header.";
+	static final String KEY_HTTP_CONTENT_TYPE = "http.message.content-type.";
+
+	/** Marks an entry that has no mapping in the arrays. */
+	static final int UNMAPPED = -1;
+
+	/** Marks an HTTP method that is mapped to an error. */
+	static final int METHOD_ERROR = -2;
+
+	private static final int MAX_HTTP_CODE = 599;
+	private static final int MAX_COAP_CODE = 255;
+
+	private final Map<String, Integer> headerOptions = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<String, Integer> httpMethods = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<String, Integer> httpContentTypes = new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+	private final Map<Integer, ContentType> coapMediaTypes = new HashMap<Integer, ContentType>();
+	private final int[] httpCodes = new int[MAX_HTTP_CODE + 1];
+	private final int[] coapCodes = new int[MAX_COAP_CODE + 1];
+	private String[] optionHeaders = new String[0];
+
+	private TranslationTables() {
+		Arrays.fill(httpCodes, UNMAPPED);
+		Arrays.fill(coapCodes, UNMAPPED);
+	}
+
+	/**
+	 * Compiles the tables from the specified mapping properties. Entries that
+	 * cannot be parsed are logged and skipped, which has the same effect as a
+	 * missing entry had for the lookups in the properties.
+	 * 
+	 * @param properties the mapping properties
+	 * @return the compiled tables
+	 */
+	static TranslationTables compile(Properties properties) {
+		TranslationTables tables = new TranslationTables();
+		Map<Integer, String> optionHeaders = new HashMap<Integer, String>();
+		int maxOption = -1;
+
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key).trim();
+			if (value.isEmpty()) {
+				continue;
+			}
+			try {
+				if (key.startsWith(KEY_HTTP_HEADER)) {
+					tables.headerOptions.put(key.substring(KEY_HTTP_HEADER.length()), Integer.valueOf(value));
+				} else if (key.startsWith(KEY_HTTP_METHOD)) {
+					int method = value.contains("error") ? METHOD_ERROR : Integer.parseInt(value);
+					tables.httpMethods.put(key.substring(KEY_HTTP_METHOD.length()), method);
+				} else if (key.startsWith(KEY_HTTP_CONTENT_TYPE)) {
+					tables.httpContentTypes.put(key.substring(KEY_HTTP_CONTENT_TYPE.length()), Integer.valueOf(value));
+				} else if (key.startsWith(KEY_HTTP_CODE)) {
+					int httpCode = Integer.parseInt(key.substring(KEY_HTTP_CODE.length()));
+					if (httpCode >= 0 && httpCode <= MAX_HTTP_CODE) {
+						tables.httpCodes[httpCode] = Integer.parseInt(value);
+					}
+				} else if (key.startsWith(KEY_COAP_CODE)) {
+					int coapCode = Integer.parseInt(key.substring(KEY_COAP_CODE.length()));
+					if (coapCode >= 0 && coapCode <= MAX_COAP_CODE) {
+						tables.coapCodes[coapCode] = Integer.parseInt(value);
+					}
+				} else if (key.startsWith(KEY_COAP_OPTION)) {
+					int optionNumber = Integer.parseInt(key.substring(KEY_COAP_OPTION.length()));
+					optionHeaders.put(optionNumber, value);
+					maxOption = Math.max(maxOption, optionNumber);
+				} else if (key.startsWith(KEY_COAP_MEDIA)) {
+					int mediaType = Integer.parseInt(key.substring(KEY_COAP_MEDIA.length()));
+					tables.coapMediaTypes.put(mediaType, ContentType.parse(value));
+				}
+			} catch (NumberFormatException e) {
+				LOGGER.warning("Ignoring malformed mapping " + key + "=" + value);
+			} catch (ParseException e) {
+				LOGGER.warning("Ignoring malformed mapping " + key + "=" + value);
+			} catch (UnsupportedCharsetException e) {
+				LOGGER.warning("Ignoring mapping with unsupported charset " + key + "=" + value);
+			}
+		}
+
+		if (maxOption >= 0) {
+			tables.optionHeaders = new String[maxOption + 1];
+			for (Map.Entry<Integer, String> entry : optionHeaders.entrySet()) {
+				if (entry.getKey() >= 0) {
+					tables.optionHeaders[entry.getKey()] = entry.getValue();
+				}
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * Returns the CoAP option number mapped to the HTTP header or
+	 * {@link #UNMAPPED}.
+	 */
+	int getOptionNumber(String headerName) {
+		Integer optionNumber = headerOptions.get(headerName);
+		return optionNumber == null ? UNMAPPED : optionNumber;
+	}
+
+	/**
+	 * Returns the HTTP header name mapped to the CoAP option or null.
+	 */
+	String getHeaderName(int optionNumber) {
+		if (optionNumber < 0 || optionNumber >= optionHeaders.length) {
+			return null;
+		}
+		return optionHeaders[optionNumber];
+	}
+
+	/**
+	 * Returns the CoAP method code mapped to the HTTP method,
+	 * {@link #METHOD_ERROR} if the method is mapped to an error, or
+	 * {@link #UNMAPPED}.
+	 */
+	int getCoapMethod(String httpMethod) {
+		Integer method = httpMethods.get(httpMethod);
+		return method == null ? UNMAPPED : method;
+	}
+
+	/**
+	 * Returns the CoAP media type mapped to the HTTP mime type or null.
+	 */
+	Integer getCoapMediaType(String mimeType) {
+		return httpContentTypes.get(mimeType);
+	}
+
+	/**
+	 * Returns the HTTP content type mapped to the CoAP media type or null.
+	 */
+	ContentType getHttpContentType(int mediaType) {
+		return coapMediaTypes.get(mediaType);
+	}
+
+	/**
+	 * Returns the CoAP response code mapped to the HTTP status code or
+	 * {@link #UNMAPPED}.
+	 */
+	int getCoapCode(int httpCode) {
+		if (httpCode < 0 || httpCode > MAX_HTTP_CODE) {
+			return UNMAPPED;
+		}
+		return httpCodes[httpCode];
+	}
+
+	/**
+	 * Returns the HTTP status code mapped to the CoAP response code or
+	 * {@link #UNMAPPED}.
+	 */
+	int getHttpCode(int coapCode) {
+		if (coapCode < 0 || coapCode > MAX_COAP_CODE) {
+			return UNMAPPED;
+		}
+		return coapCodes[coapCode];
+	}
+}
@@ -42,13 +42,13 @@ public class CoapObserveRelation {
 		cancel.setToken(request.getToken());
 		cancel.setDestination(request.getDestination());
 		cancel.setDestinationPort(request.getDestinationPort());
+		// cancel old ongoing request, so that the token can be reused
+		request.cancel();
+		this.canceled = true;
 		// dispatch final response to the same message observers
 		for (MessageObserver mo: request.getMessageObservers())
 			cancel.addMessageObserver(mo);
 		cancel.send();
-		// cancel old ongoing request
-		request.cancel();
-		this.canceled = true;
 	}
 	
 	/**
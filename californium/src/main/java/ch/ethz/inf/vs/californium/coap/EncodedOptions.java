@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+package ch.ethz.inf.vs.californium.coap;
+
+/**
+ * EncodedOptions is the compact form of an {@link OptionSet}: a single array
+ * of (number, offset, length) entries sorted by option number over one shared
+ * byte buffer that holds the encoded option values. Use
+ * {@link OptionSet#encode(EncodedOptions)} to fill it.
+ * <p>
+ * The arrays only grow and are reused when the encoded options are cleared,
+ * so that a serializer that keeps one instance per thread encodes options
+ * without allocating anything. This class is not thread-safe.
+ */
+public final class EncodedOptions {
+
+	/** The number of ints per entry: number, offset and length */
+	private static final int ENTRY_SIZE = 3;
+
+	/** The entries */
+	private int[] entries;
+
+	/** The buffer with the encoded option values */
+	private byte[] values;
+
+	/** The number of entries */
+	private int count;
+
+	/** The number of bytes in the buffer */
+	private int position;
+
+	/**
+	 * Instantiates new empty encoded options.
+	 */
+	public EncodedOptions() {
+		this.entries = new int[16 * ENTRY_SIZE];
+		this.values = new byte[256];
+	}
+
+	/**
+	 * Removes all entries but keeps the arrays.
+	 */
+	public void clear() {
+		count = 0;
+		position = 0;
+	}
+
+	/**
+	 * Returns the number of options.
+	 *
+	 * @return the number of options
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the option number of the specified entry.
+	 *
+	 * @param index the index of the entry
+	 * @return the option number
+	 */
+	public int getNumber(int index) {
+		return entries[index * ENTRY_SIZE];
+	}
+
+	/**
+	 * Returns the offset of the value of the specified entry in the buffer
+	 * returned by {@link #getValues()}.
+	 *
+	 * @param index the index of the entry
+	 * @return the offset
+	 */
+	public int getOffset(int index) {
+		return entries[index * ENTRY_SIZE + 1];
+	}
+
+	/**
+	 * Returns the length of the value of the specified entry.
+	 *
+	 * @param index the index of the entry
+	 * @return the length in bytes
+	 */
+	public int getLength(int index) {
+		return entries[index * ENTRY_SIZE + 2];
+	}
+
+	/**
+	 * Returns the buffer that holds the values of all entries. The buffer is
+	 * only valid until the next modification.
+	 *
+	 * @return the buffer
+	 */
+	public byte[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Adds an option with an opaque value.
+	 *
+	 * @param number the option number
+	 * @param value the value
+	 */
+	public void add(int number, byte[] value) {
+		int offset = reserve(value.length);
+		System.arraycopy(value, 0, values, offset, value.length);
+		addEntry(number, offset, value.length);
+	}
+
+	/**
+	 * Adds an option with a string value encoded in UTF-8.
+	 *
+	 * @param number the option number
+	 * @param str the value
+	 */
+	public void add(int number, String str) {
+		int length = str.length();
+		int offset = reserve(length * 3); // at most 3 bytes per char
+		int index = offset;
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < 0x80) {
+				values[index++] = (byte) c;
+			} else if (c < 0x800) {
+				values[index++] = (byte) (0xC0 | (c >> 6));
+				values[index++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				values[index++] = (byte) (0xF0 | (cp >> 18));
+				values[index++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				values[index++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				values[index++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				values[index++] = '?'; // unpaired surrogate
+			} else {
+				values[index++] = (byte) (0xE0 | (c >> 12));
+				values[index++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				values[index++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		addEntry(number, offset, index - offset);
+	}
+
+	/**
+	 * Adds an option with an unsigned integer value in as few bytes as
+	 * possible, i.e., 0 in zero bytes.
+	 *
+	 * @param number the option number
+	 * @param val the value
+	 */
+	public void add(int number, long val) {
+		int length = 0;
+		while (length < 8 && (val >>> (length * 8)) != 0)
+			length++;
+		int offset = reserve(length);
+		for (int i = 0; i < length; i++)
+			values[offset + length - i - 1] = (byte) (val >>> (i * 8));
+		addEntry(number, offset, length);
+	}
+
+	/**
+	 * Sorts the entries by their option number. The sort is stable so that
+	 * repeated options keep their order.
+	 */
+	public void sort() {
+		// insertion sort: the entries are few and mostly sorted already
+		for (int i = 1; i < count; i++) {
+			int number = entries[i * ENTRY_SIZE];
+			int offset = entries[i * ENTRY_SIZE + 1];
+			int length = entries[i * ENTRY_SIZE + 2];
+			int j = i - 1;
+			while (j >= 0 && entries[j * ENTRY_SIZE] > number) {
+				System.arraycopy(entries, j * ENTRY_SIZE, entries, (j + 1) * ENTRY_SIZE, ENTRY_SIZE);
+				j--;
+			}
+			entries[(j + 1) * ENTRY_SIZE] = number;
+			entries[(j + 1) * ENTRY_SIZE + 1] = offset;
+			entries[(j + 1) * ENTRY_SIZE + 2] = length;
+		}
+	}
+
+	/*
+	 * Makes room for the specified number of bytes and returns the offset.
+	 */
+	private int reserve(int length) {
+		if (position + length > values.length) {
+			byte[] grown = new byte[Math.max(values.length * 2, position + length)];
+			System.arraycopy(values, 0, grown, 0, position);
+			values = grown;
+		}
+		return position;
+	}
+
+	private void addEntry(int number, int offset, int length) {
+		if ((count + 1) * ENTRY_SIZE > entries.length) {
+			int[] grown = new int[entries.length * 2];
+			System.arraycopy(entries, 0, grown, 0, count * ENTRY_SIZE);
+			entries = grown;
+		}
+		entries[count * ENTRY_SIZE] = number;
+		entries[count * ENTRY_SIZE + 1] = offset;
+		entries[count * ENTRY_SIZE + 2] = length;
+		position = offset + length;
+		count++;
+	}
+}
@@ -0,0 +1,173 @@
+package ch.ethz.inf.vs.californium.coap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+
+/**
+ * A LinkFilter is the compiled form of the URI queries of a discovery or
+ * resource directory request. It is built once per request and then matched
+ * against each resource without further parsing or allocation.
+ * <p>
+ * A resource matches if it matches every query. A query is either a flag
+ * (e.g., <tt>obs</tt>) that matches if the attribute is present, or a
+ * name-value-pair (e.g., <tt>rt=temperature-c</tt>) that matches if one of
+ * the attribute values or one of their space-separated parts equals the
+ * value. A value ending with "*" matches by prefix. The name <tt>href</tt>
+ * matches against the URI of the resource.
+ */
+public final class LinkFilter {
+
+	/** The filter that matches every resource */
+	private static final LinkFilter NONE = new LinkFilter(new Term[0]);
+
+	private final Term[] terms;
+
+	private LinkFilter(Term[] terms) {
+		this.terms = terms;
+	}
+
+	/**
+	 * Compiles the specified queries into a filter.
+	 *
+	 * @param queries the queries or null
+	 * @return the filter
+	 */
+	public static LinkFilter compile(List<String> queries) {
+		if (queries == null || queries.isEmpty()) {
+			return NONE;
+		}
+		List<Term> terms = new ArrayList<Term>(queries.size());
+		for (String query : queries) {
+			if (query.isEmpty()) {
+				continue;
+			}
+			int delim = query.indexOf('=');
+			if (delim < 0) {
+				terms.add(new Term(query, null, false));
+			} else {
+				String value = query.substring(delim + 1);
+				boolean prefix = value.endsWith("*");
+				if (prefix) {
+					value = value.substring(0, value.length() - 1);
+				}
+				terms.add(new Term(query.substring(0, delim), value, prefix));
+			}
+		}
+		return new LinkFilter(terms.toArray(new Term[terms.size()]));
+	}
+
+	/**
+	 * Returns true if the filter has no queries and matches every resource.
+	 *
+	 * @return true, if empty
+	 */
+	public boolean isEmpty() {
+		return terms.length == 0;
+	}
+
+	/**
+	 * Returns true if the specified resource matches all queries.
+	 *
+	 * @param resource the resource
+	 * @return true, if the resource matches
+	 */
+	public boolean matches(Resource resource) {
+		if (resource == null) return false;
+		for (Term term : terms) {
+			if (!term.matches(resource)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns true if the part [start, end) of actual equals or starts with
+	 * the expected value.
+	 */
+	private static boolean matches(String actual, int start, int end, String expected, boolean prefix) {
+		int length = expected.length();
+		if (prefix ? end - start < length : end - start != length) {
+			return false;
+		}
+		return actual.regionMatches(start, expected, 0, length);
+	}
+
+	/*
+	 * Returns true if the value or one of its space-separated parts matches.
+	 */
+	private static boolean matches(String actual, String expected, boolean prefix) {
+		if (matches(actual, 0, actual.length(), expected, prefix)) {
+			return true;
+		}
+		int start = 0;
+		int end;
+		while ((end = actual.indexOf(' ', start)) >= 0) {
+			if (matches(actual, start, end, expected, prefix)) {
+				return true;
+			}
+			start = end + 1;
+		}
+		// the last part, unless the value had no spaces
+		return start > 0 && matches(actual, start, actual.length(), expected, prefix);
+	}
+
+	/**
+	 * A single compiled query.
+	 */
+	private static final class Term {
+
+		private final String name;
+		private final String value;
+		private final boolean prefix;
+		private final boolean href;
+
+		private Term(String name, String value, boolean prefix) {
+			this.name = name;
+			this.value = value;
+			this.prefix = prefix;
+			this.href = value != null && name.equals(LinkFormat.LINK);
+		}
+
+		private boolean matches(Resource resource) {
+			if (href) {
+				return matchesURI(resource.getPath(), resource.getName());
+			}
+			List<String> values = resource.getAttributes().getAttributeValues(name);
+			if (value == null) {
+				// flag attribute
+				return !values.isEmpty();
+			}
+			// the values are a copy-on-write list, indexed access needs no lock or iterator
+			try {
+				for (int i = 0; i < values.size(); i++) {
+					if (LinkFilter.matches(values.get(i), value, prefix)) {
+						return true;
+					}
+				}
+			} catch (IndexOutOfBoundsException e) {
+				// the values have been replaced in the meantime
+			}
+			return false;
+		}
+
+		/*
+		 * Matches path + name without concatenating them.
+		 */
+		private boolean matchesURI(String path, String name) {
+			int length = value.length();
+			if (prefix) {
+				if (length <= path.length()) {
+					return path.startsWith(value);
+				}
+				return value.startsWith(path)
+						&& name.regionMatches(0, value, path.length(), length - path.length());
+			}
+			return length == path.length() + name.length()
+					&& value.startsWith(path)
+					&& value.regionMatches(path.length(), name, 0, name.length());
+		}
+	}
+}
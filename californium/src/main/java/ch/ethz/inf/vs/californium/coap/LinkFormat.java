@@ -1,10 +1,8 @@
 package ch.ethz.inf.vs.californium.coap;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.regex.Pattern;
@@ -45,7 +43,7 @@ public class LinkFormat {
 	
 	public static String serializeTree(Resource resource) {
 		StringBuilder buffer = new StringBuilder();
-		List<String> noQueries = Collections.emptyList();
+		LinkFilter noQueries = LinkFilter.compile(null);
 		
 		// only include children, not the entry point itself
 		for (Resource child:resource.getChildren()) {
@@ -58,14 +56,18 @@ public class LinkFormat {
 	}
 	
 	public static void serializeTree(Resource resource, List<String> queries, StringBuilder buffer) {
+		serializeTree(resource, LinkFilter.compile(queries), buffer);
+	}
+	
+	public static void serializeTree(Resource resource, LinkFilter filter, StringBuilder buffer) {
 		// add the current resource to the buffer
 		if (resource.isVisible()
-				&& LinkFormat.matches(resource, queries)) {
+				&& filter.matches(resource)) {
 			buffer.append(LinkFormat.serializeResource(resource));
 		}
 		
 		for (Resource child:resource.getChildren()) {
-			serializeTree(child, queries, buffer);
+			serializeTree(child, filter, buffer);
 		}
 	}
 
@@ -88,7 +90,7 @@ public class LinkFormat {
 			buffer.append(";");
 			
 			// Make a copy to not  depend on thread-safety
-			buffer.append(serializeAttribute(attr, new LinkedList<String>(values)));
+			buffer.append(serializeAttribute(attr, new ArrayList<String>(values)));
 		}
 		return buffer;
 	}
@@ -111,7 +113,7 @@ public class LinkFormat {
 		
 		linkFormat.append(delimiter);
 		
-		if (values.size()>1 || !values.get(0).matches("^[0-9]+$")) {
+		if (values.size()>1 || !isCardinal(values.get(0))) {
 			linkFormat.append('"');
 			quotes = true;
 		}
@@ -132,113 +134,61 @@ public class LinkFormat {
 		return linkFormat;
 	}
 	
-	public static boolean matches(Resource resource, List<String> queries) {
-		
-		if (resource==null) return false;
-		if (queries==null || queries.size()==0) return true;
-		
-		ResourceAttributes attributes = resource.getAttributes();
-		String path = resource.getPath()+resource.getName();
-		
-		for (String s : queries) {
-			int delim = s.indexOf("=");
-			if (delim != -1) {
-				
-				// split name-value-pair
-				String attrName = s.substring(0, delim);
-				String expected = s.substring(delim+1);
-
-				if (attrName.equals(LinkFormat.LINK)) {
-					if (expected.endsWith("*")) {
-						return path.startsWith(expected.substring(0, expected.length()-1));
-					} else {
-						return path.equals(expected);
-					}
-				} else if (attributes.containsAttribute(attrName)) {
-					// lookup attribute value
-					for (String actual : attributes.getAttributeValues(attrName)) {
-					
-						// get prefix length according to "*"
-						int prefixLength = expected.indexOf('*');
-						if (prefixLength >= 0 && prefixLength < actual.length()) {
-					
-							// reduce to prefixes
-							expected = expected.substring(0, prefixLength);
-							actual = actual.substring(0, prefixLength);
-						}
-						
-						// handle case like rt=[Type1 Type2]
-						if (actual.indexOf(" ") > -1) { // if contains white space
-							String[] parts = actual.split(" ");
-							for (String part : parts) { // check each part for match
-								if (part.equals(expected)) {
-									return true;
-								}
-							}
-						}
-						
-						// compare strings
-						if (expected.equals(actual)) {
-							return true;
-						}
-					}
-				}
-			} else {
-				// flag attribute
-				if (attributes.getAttributeValues(s).size()>0) {
-					return true;
-				}
-			}
+	private static boolean isCardinal(String value) {
+		if (value.isEmpty()) return false;
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') return false;
 		}
-		return false;
+		return true;
+	}
+	
+	/**
+	 * Returns true if the resource matches all queries. Use a
+	 * {@link LinkFilter} to match many resources against the same queries.
+	 * 
+	 * @param resource the resource
+	 * @param queries the queries
+	 * @return true, if the resource matches
+	 */
+	public static boolean matches(Resource resource, List<String> queries) {
+		return LinkFilter.compile(queries).matches(resource);
 	}
 	
 	public static Set<WebLink> parse(String linkFormat) {
-		Pattern DELIMITER = Pattern.compile("\\s*,+\\s*");
 
-		Set<WebLink> links = new ConcurrentSkipListSet<WebLink>();
+		final Set<WebLink> links = new ConcurrentSkipListSet<WebLink>();
 		
 		if (linkFormat!=null) {
-			Scanner scanner = new Scanner(linkFormat);
-			String path = null;
-			while ((path = scanner.findInLine("</[^>]*>")) != null) {
+			LinkFormatParser.parse(linkFormat, new LinkFormatParser.Handler() {
 				
-				// Trim <...>
-				path = path.substring(1, path.length() - 1);
+				private WebLink link;
 				
-				WebLink link = new WebLink(path);
+				public void startLink(String uri) {
+					link = new WebLink(uri);
+				}
 				
-				// Read link format attributes
-				String attr = null;
-				while (scanner.findWithinHorizon(DELIMITER, 1)==null && (attr = scanner.findInLine(WORD))!=null) {
-					if (scanner.findWithinHorizon("=", 1) != null) {
-						String value = null;
-						if ((value = scanner.findInLine(QUOTED_STRING)) != null) {
-							value = value.substring(1, value.length()-1); // trim " "
-							if (attr.equals(TITLE)) {
-								link.getAttributes().addAttribute(attr, value);
-							} else {
-								for (String part : value.split("\\s", 0)) {
-									link.getAttributes().addAttribute(attr, part);
-								}
-							}
-						} else if ((value = scanner.findInLine(WORD)) != null) {
-							link.getAttributes().setAttribute(attr, value);
-						} else if ((value = scanner.findInLine(CARDINAL)) != null) {
-							link.getAttributes().setAttribute(attr, value);
-						} else if (scanner.hasNext()) {
-							value = scanner.next();
-						}
-						
-					} else {
+				public void attribute(String attr, String value, boolean quoted) {
+					if (value == null) {
 						// flag attribute without value
 						link.getAttributes().addAttribute(attr);
+					} else if (!quoted) {
+						link.getAttributes().setAttribute(attr, value);
+					} else if (attr.equals(TITLE)) {
+						link.getAttributes().addAttribute(attr, value);
+					} else {
+						for (String part : value.split("\\s", 0)) {
+							if (!part.isEmpty()) {
+								link.getAttributes().addAttribute(attr, part);
+							}
+						}
 					}
 				}
 				
-				links.add(link);
-			}
-			scanner.close();
+				public void endLink() {
+					links.add(link);
+				}
+			});
 		}
 		return links;
 	}
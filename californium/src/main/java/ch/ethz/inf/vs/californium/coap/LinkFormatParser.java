@@ -0,0 +1,237 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Institute for Pervasive Computing, ETH Zurich.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ * 
+ * This file is part of the Californium (Cf) CoAP framework.
+ ******************************************************************************/
+package ch.ethz.inf.vs.californium.coap;
+
+import java.nio.charset.Charset;
+
+/**
+ * A single-pass parser for the CoRE Link Format (RFC 6690). The parser reads
+ * the bytes of a payload directly and reports each link and its attributes to
+ * a {@link Handler}, so that the caller can build its own representation
+ * without intermediate strings for the whole payload. Delimiters are ASCII
+ * and cannot occur within UTF-8 multi-byte sequences, so only URIs, names,
+ * and values are decoded.
+ * <p>
+ * The parser is lenient with whitespace and repeated delimiters. It stops at
+ * the first link that is not enclosed in &lt;&gt; or not followed by a
+ * delimiter and reports the input as malformed.
+ */
+public final class LinkFormatParser {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The handler receives the links in the order of the payload.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called when a new link starts.
+		 * 
+		 * @param uri the URI-reference between &lt; and &gt;
+		 */
+		public void startLink(String uri);
+
+		/**
+		 * Called for each attribute of the current link.
+		 * 
+		 * @param name the attribute name
+		 * @param value the value without quotes or null for a flag attribute
+		 * @param quoted true, if the value was a quoted-string
+		 */
+		public void attribute(String name, String value, boolean quoted);
+
+		/**
+		 * Called after the last attribute of the current link.
+		 */
+		public void endLink();
+	}
+
+	private LinkFormatParser() {
+		// only static methods
+	}
+
+	/**
+	 * Parses the specified link format string.
+	 * 
+	 * @param linkFormat the link format
+	 * @param handler the handler for the links
+	 * @return true, if the whole input was well-formed
+	 */
+	public static boolean parse(String linkFormat, Handler handler) {
+		return parse(linkFormat.getBytes(UTF8), handler);
+	}
+
+	/**
+	 * Parses the specified UTF-8 encoded link format payload.
+	 * 
+	 * @param payload the payload
+	 * @param handler the handler for the links
+	 * @return true, if the whole payload was well-formed
+	 */
+	public static boolean parse(byte[] payload, Handler handler) {
+		int length = payload.length;
+		int pos = 0;
+		while (true) {
+			// skip delimiters between links
+			while (pos < length && (payload[pos] == ',' || isWhitespace(payload[pos]))) {
+				++pos;
+			}
+			if (pos == length) {
+				return true;
+			}
+			if (payload[pos] != '<') {
+				return false;
+			}
+			int end = indexOf(payload, '>', pos + 1);
+			if (end < 0) {
+				return false;
+			}
+			handler.startLink(decode(payload, pos + 1, end));
+			pos = end + 1;
+
+			// link-params
+			while (true) {
+				pos = skipWhitespace(payload, pos);
+				if (pos == length || payload[pos] == ',') {
+					break;
+				}
+				if (payload[pos] != ';') {
+					handler.endLink();
+					return false;
+				}
+				pos = skipWhitespace(payload, pos + 1);
+
+				int start = pos;
+				while (pos < length && isTokenChar(payload[pos])) {
+					++pos;
+				}
+				if (pos == start) {
+					// empty parameter as in ";;"
+					continue;
+				}
+				String name = decode(payload, start, pos);
+
+				pos = skipWhitespace(payload, pos);
+				if (pos < length && payload[pos] == '=') {
+					pos = skipWhitespace(payload, pos + 1);
+					if (pos < length && payload[pos] == '"') {
+						end = endOfQuotedString(payload, pos + 1);
+						if (end < 0) {
+							handler.endLink();
+							return false;
+						}
+						handler.attribute(name, unescape(decode(payload, pos + 1, end)), true);
+						pos = end + 1;
+					} else {
+						start = pos;
+						while (pos < length && isTokenChar(payload[pos])) {
+							++pos;
+						}
+						handler.attribute(name, decode(payload, start, pos), false);
+					}
+				} else {
+					// flag attribute
+					handler.attribute(name, null, false);
+				}
+			}
+			handler.endLink();
+		}
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+
+	/*
+	 * Anything but delimiters, whitespace, and quotes; also accepts non-ASCII
+	 * bytes of extended values.
+	 */
+	private static boolean isTokenChar(byte b) {
+		return b != ';' && b != ',' && b != '=' && b != '"' && b != '<' && b != '>' && !isWhitespace(b);
+	}
+
+	private static int skipWhitespace(byte[] payload, int pos) {
+		while (pos < payload.length && isWhitespace(payload[pos])) {
+			++pos;
+		}
+		return pos;
+	}
+
+	private static int indexOf(byte[] payload, char c, int from) {
+		for (int i = from; i < payload.length; ++i) {
+			if (payload[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int endOfQuotedString(byte[] payload, int from) {
+		for (int i = from; i < payload.length; ++i) {
+			if (payload[i] == '\\') {
+				++i; // skip quoted-pair
+			} else if (payload[i] == '"') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String decode(byte[] payload, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			if (payload[i] < 0) {
+				return new String(payload, start, end - start, UTF8);
+			}
+		}
+		// ASCII needs no decoder
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; ++i) {
+			chars[i - start] = (char) payload[i];
+		}
+		return new String(chars);
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder builder = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i);
+			}
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+}
@@ -1,5 +1,6 @@
 package ch.ethz.inf.vs.californium.coap;
 
+import java.nio.charset.Charset;
 import java.util.Arrays;
 
 /**
@@ -27,6 +28,9 @@ import java.util.Arrays;
  */
 public class Option implements Comparable<Option> {
 
+	/** Option strings are always UTF-8, independent of the platform */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	/** The option number. */
 	private int number;
 	
@@ -143,7 +147,7 @@ public class Option implements Comparable<Option> {
 	 * @return the string value
 	 */
 	public String getStringValue() {
-		return new String(value);
+		return new String(value, UTF8);
 	}
 	
 	/**
@@ -191,7 +195,7 @@ public class Option implements Comparable<Option> {
 	public void setStringValue(String str) {
 		if (str == null)
 			throw new NullPointerException();
-		value = str.getBytes();
+		value = str.getBytes(UTF8);
 	}
 	
 	/**
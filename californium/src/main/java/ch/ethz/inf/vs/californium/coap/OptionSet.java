@@ -33,7 +33,6 @@ package ch.ethz.inf.vs.californium.coap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import ch.ethz.inf.vs.californium.Utils;
@@ -74,31 +73,34 @@ public class OptionSet {
 	// Arbitrary options
 	private List<Option> others;
 	
+	/** The value of options without value */
+	private static final byte[] EMPTY = new byte[0];
+	
 	// TODO: When receiving, uri_host/port should be those from the sender 
 	/*
 	 * Once a list is touched and constructed it must never become null again.
 	 * Non-lists can be null though.
 	 */
 	public OptionSet() {
-		if_match_list       = null; // new LinkedList<byte[]>();
+		if_match_list       = null; // new ArrayList<byte[]>();
 		uri_host            = null; // from sender
-		etag_list           = null; // new LinkedList<byte[]>();
+		etag_list           = null; // new ArrayList<byte[]>();
 		if_none_match       = false;
 		uri_port            = null; // from sender
-		location_path_list  = null; // new LinkedList<String>();
-		uri_path_list       = null; // new LinkedList<String>();
+		location_path_list  = null; // new ArrayList<String>();
+		uri_path_list       = null; // new ArrayList<String>();
 		content_format      = null;
 		max_age             = null;
-		uri_query_list      = null; // new LinkedList<String>();
+		uri_query_list      = null; // new ArrayList<String>();
 		accept              = null;
-		location_query_list = null; // new LinkedList<String>();
+		location_query_list = null; // new ArrayList<String>();
 		proxy_uri           = null;
 		proxy_scheme        = null;
 		block1              = null;
 		block2              = null;
 		observe             = null;
 		
-		others              = null; // new LinkedList<>();
+		others              = null; // new ArrayList<>();
 	}
 	
 	public void clear() {
@@ -119,7 +121,7 @@ public class OptionSet {
 			uri_query_list.clear();
 		accept = null;
 		if (location_query_list != null)
-			location_path_list.clear();
+			location_query_list.clear();
 		proxy_uri = null;
 		proxy_scheme = null;
 		block1 = null;
@@ -171,7 +173,7 @@ public class OptionSet {
 	 */
 	private <T> List<T> copyList(List<T> list) {
 		if (list == null) return null;
-		else return new LinkedList<T>(list);
+		else return new ArrayList<T>(list);
 	}
 	
 	/////////////////////// Getter and Setter ///////////////////////
@@ -182,10 +184,7 @@ public class OptionSet {
 	 */
 	public List<byte[]> getIfMatch() {
 		if (if_match_list == null)
-			synchronized (this) {
-				if (if_match_list == null)
-					if_match_list = new LinkedList<byte[]>();
-			}
+			if_match_list = new ArrayList<byte[]>();
 		return if_match_list;
 	}
 	
@@ -242,10 +241,7 @@ public class OptionSet {
 	
 	public List<byte[]> getETags() {
 		if (etag_list == null)
-			synchronized (this) {
-				if (etag_list == null)
-					etag_list = new LinkedList<byte[]>();
-			}
+			etag_list = new ArrayList<byte[]>();
 		return etag_list;
 	}
 	
@@ -312,10 +308,7 @@ public class OptionSet {
 	
 	public List<String> getLocationPaths() {
 		if (location_path_list == null)
-			synchronized (this) {
-				if (location_path_list == null)
-					location_path_list = new LinkedList<String>();
-			}
+			location_path_list = new ArrayList<String>();
 		return location_path_list;
 	}
 
@@ -372,10 +365,7 @@ public class OptionSet {
 	
 	public List<String> getURIPaths() {
 		if (uri_path_list == null)
-			synchronized (this) {
-				if (uri_path_list == null)
-					uri_path_list = new LinkedList<String>();
-			}
+			uri_path_list = new ArrayList<String>();
 		return uri_path_list;
 	}
 	
@@ -486,10 +476,7 @@ public class OptionSet {
 	
 	public List<String> getURIQueries() {
 		if (uri_query_list == null)
-			synchronized (this) {
-				if (uri_query_list == null)
-					uri_query_list = new LinkedList<String>();
-			}
+			uri_query_list = new ArrayList<String>();
 		return uri_query_list;
 	}
 	
@@ -571,10 +558,7 @@ public class OptionSet {
 	
 	public List<String> getLocationQueries() {
 		if (location_query_list == null)
-			synchronized (this) {
-				if (location_query_list == null)
-					location_query_list = new LinkedList<String>();
-			}
+			location_query_list = new ArrayList<String>();
 		return location_query_list;
 	}
 	
@@ -733,20 +717,106 @@ public class OptionSet {
 	}
 	
 	public boolean hasOption(int number) {
-		return Collections.binarySearch(asSortedList(), new Option(number)) >= 0;
+		switch (number) {
+		case CoAP.OptionRegistry.IF_MATCH:       if (if_match_list != null && !if_match_list.isEmpty()) return true; break;
+		case CoAP.OptionRegistry.URI_HOST:       if (hasURIHost()) return true; break;
+		case CoAP.OptionRegistry.ETAG:           if (etag_list != null && !etag_list.isEmpty()) return true; break;
+		case CoAP.OptionRegistry.IF_NONE_MATCH:  if (hasIfNoneMatch()) return true; break;
+		case CoAP.OptionRegistry.URI_PORT:       if (hasURIPort()) return true; break;
+		case CoAP.OptionRegistry.LOCATION_PATH:  if (location_path_list != null && !location_path_list.isEmpty()) return true; break;
+		case CoAP.OptionRegistry.URI_PATH:       if (uri_path_list != null && !uri_path_list.isEmpty()) return true; break;
+		case CoAP.OptionRegistry.CONTENT_FORMAT: if (hasContentFormat()) return true; break;
+		case CoAP.OptionRegistry.MAX_AGE:        if (hasMaxAge()) return true; break;
+		case CoAP.OptionRegistry.URI_QUERY:      if (uri_query_list != null && !uri_query_list.isEmpty()) return true; break;
+		case CoAP.OptionRegistry.ACCEPT:         if (hasAccept()) return true; break;
+		case CoAP.OptionRegistry.LOCATION_QUERY: if (location_query_list != null && !location_query_list.isEmpty()) return true; break;
+		case CoAP.OptionRegistry.PROXY_URI:      if (hasProxyURI()) return true; break;
+		case CoAP.OptionRegistry.PROXY_SCHEME:   if (hasProxyScheme()) return true; break;
+		case CoAP.OptionRegistry.BLOCK1:         if (hasBlock1()) return true; break;
+		case CoAP.OptionRegistry.BLOCK2:         if (hasBlock2()) return true; break;
+		case CoAP.OptionRegistry.OBSERVE:        if (hasObserve()) return true; break;
+		}
+		if (others != null)
+			for (int i = 0; i < others.size(); i++)
+				if (others.get(i).getNumber() == number) return true;
+		return false;
 	}
 	
 	private List<Option> getOthers() {
 		if (others == null)
-			synchronized (this) {
-				if (others == null)
-					others = new LinkedList<Option>();
-			}
+			others = new ArrayList<Option>();
 		return others;
 	}
 	
+	/**
+	 * Encodes all options into the specified compact form sorted by their
+	 * option numbers. Other than {@link #asSortedList()}, this does not create
+	 * an {@link Option} for every option and allocates nothing as long as the
+	 * arrays of the encoded options are large enough.
+	 * 
+	 * @param encoded the encoded options to fill
+	 * @return the encoded options
+	 */
+	public EncodedOptions encode(EncodedOptions encoded) {
+		encoded.clear();
+		if (if_match_list != null) for (int i = 0; i < if_match_list.size(); i++)
+			encoded.add(CoAP.OptionRegistry.IF_MATCH, if_match_list.get(i));
+		if (hasURIHost())
+			encoded.add(CoAP.OptionRegistry.URI_HOST, uri_host);
+		if (etag_list != null) for (int i = 0; i < etag_list.size(); i++)
+			encoded.add(CoAP.OptionRegistry.ETAG, etag_list.get(i));
+		if (hasIfNoneMatch())
+			encoded.add(CoAP.OptionRegistry.IF_NONE_MATCH, EMPTY);
+		if (hasURIPort())
+			encoded.add(CoAP.OptionRegistry.URI_PORT, uri_port.intValue());
+		if (location_path_list != null) for (int i = 0; i < location_path_list.size(); i++)
+			encoded.add(CoAP.OptionRegistry.LOCATION_PATH, location_path_list.get(i));
+		if (uri_path_list != null) for (int i = 0; i < uri_path_list.size(); i++)
+			encoded.add(CoAP.OptionRegistry.URI_PATH, uri_path_list.get(i));
+		if (hasContentFormat())
+			encoded.add(CoAP.OptionRegistry.CONTENT_FORMAT, content_format.intValue());
+		if (hasMaxAge())
+			encoded.add(CoAP.OptionRegistry.MAX_AGE, max_age.longValue());
+		if (uri_query_list != null) for (int i = 0; i < uri_query_list.size(); i++)
+			encoded.add(CoAP.OptionRegistry.URI_QUERY, uri_query_list.get(i));
+		if (hasAccept())
+			encoded.add(CoAP.OptionRegistry.ACCEPT, accept.intValue());
+		if (location_query_list != null) for (int i = 0; i < location_query_list.size(); i++)
+			encoded.add(CoAP.OptionRegistry.LOCATION_QUERY, location_query_list.get(i));
+		if (hasProxyURI())
+			encoded.add(CoAP.OptionRegistry.PROXY_URI, proxy_uri);
+		if (hasProxyScheme())
+			encoded.add(CoAP.OptionRegistry.PROXY_SCHEME, proxy_scheme);
+		
+		if (hasBlock1())
+			encoded.add(CoAP.OptionRegistry.BLOCK1, toBlockValue(block1));
+		if (hasBlock2())
+			encoded.add(CoAP.OptionRegistry.BLOCK2, toBlockValue(block2));
+		
+		if (hasObserve())
+			encoded.add(CoAP.OptionRegistry.OBSERVE, observe.intValue());
+		
+		if (others != null) for (int i = 0; i < others.size(); i++) {
+			Option option = others.get(i);
+			encoded.add(option.getNumber(), option.getValue());
+		}
+		
+		encoded.sort();
+		return encoded;
+	}
+	
+	/*
+	 * Returns the block option as unsigned integer, which encodes to the same
+	 * bytes as BlockOption.getValue() but without allocating them.
+	 */
+	private static long toBlockValue(BlockOption block) {
+		return (block.getNum() << 4) | (block.isM() ? 1<<3 : 0) | block.getSzx();
+	}
+	
 	/**
 	 * Returns all options in a list sorted according to their option numbers.
+	 * This creates a new {@link Option} for every option. Serializers should
+	 * use {@link #encode(EncodedOptions)} instead.
 	 * 
 	 * @return the sorted list
 	 */
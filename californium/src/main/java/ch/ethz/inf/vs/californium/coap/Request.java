@@ -69,6 +69,9 @@ public class Request extends Message {
 	/** Marks this request as multicast request */
 	private boolean multicast;
 	
+	/** Marks this request as one whose blocks are handled by the application */
+	private boolean blockwiseStreaming;
+	
 	/** The current response for the request. */
 	private Response response;
 	
@@ -145,6 +148,30 @@ public class Request extends Message {
 		this.multicast = multicast;
 	}
 	
+	/**
+	 * Tests if the blocks of this request and its response are handled by the
+	 * application rather than by the blockwise layer.
+	 * 
+	 * @return true if the application transfers the blocks itself
+	 */
+	public boolean isBlockwiseStreaming() {
+		return blockwiseStreaming;
+	}
+	
+	/**
+	 * Defines whether the application handles the blocks of this request and
+	 * its response itself. If set, the blockwise layer neither splits the
+	 * payload of this request nor assembles the response. The application sets
+	 * the Block1 and Block2 options and receives each response block as soon as
+	 * it arrives. This allows to stream large bodies without holding the whole
+	 * payload in memory.
+	 * 
+	 * @param blockwiseStreaming if the application transfers the blocks itself
+	 */
+	public void setBlockwiseStreaming(boolean blockwiseStreaming) {
+		this.blockwiseStreaming = blockwiseStreaming;
+	}
+	
 	public Request setPayload(String payload) {
 		super.setPayload(payload);
 		return this;
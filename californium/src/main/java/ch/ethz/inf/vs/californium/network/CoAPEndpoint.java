@@ -4,17 +4,22 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.CoAP.Type;
 import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
 import ch.ethz.inf.vs.californium.network.serialization.DataParser;
 import ch.ethz.inf.vs.californium.network.serialization.Serializer;
@@ -103,6 +108,9 @@ public class CoAPEndpoint implements Endpoint {
 	/** The configuration of this endpoint */
 	private final NetworkConfig config;
 	
+	/** The observer that applies configuration changes to the UDP connector, if any */
+	private NetworkConfigObserver connectorObserver;
+	
 	/** The executor to run tasks for this endpoint and its layers */
 	private ScheduledExecutorService executor;
 	
@@ -121,6 +129,9 @@ public class CoAPEndpoint implements Endpoint {
 	/** The serializer to serialize messages to bytes */
 	private Serializer serializer;
 	
+	/** The random numbers generator for the leisure of multicast responses */
+	private final Random random = new Random();
+	
 	/**
 	 * Instantiates a new endpoint.
 	 */
@@ -158,6 +169,7 @@ public class CoAPEndpoint implements Endpoint {
 	 */
 	public CoAPEndpoint(InetSocketAddress address, NetworkConfig config) {
 		this(createUDPConnector(address, config), config);
+		this.connectorObserver = followConfiguration((UDPConnector) connector);
 	}
 	
 	/**
@@ -197,6 +209,35 @@ public class CoAPEndpoint implements Endpoint {
 		return c;
 	}
 	
+	/**
+	 * Makes the specified UDP connector follow changes of the configuration
+	 * while it is running, until the endpoint is destroyed.
+	 *
+	 * @param c the connector
+	 * @return the observer added to the configuration
+	 */
+	private NetworkConfigObserver followConfiguration(final UDPConnector c) {
+		NetworkConfigObserver observer = new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				if (NetworkConfigDefaults.UDP_CONNECTOR_RECEIVER_THREAD_COUNT.equals(key))
+					c.setReceiverThreadCount(config.getInt(key));
+				if (NetworkConfigDefaults.UDP_CONNECTOR_SENDER_THREAD_COUNT.equals(key))
+					c.setSenderThreadCount(config.getInt(key));
+				if (NetworkConfigDefaults.UDP_CONNECTOR_RECEIVE_BUFFER.equals(key))
+					c.setReceiveBufferSize(config.getInt(key));
+				if (NetworkConfigDefaults.UDP_CONNECTOR_SEND_BUFFER.equals(key))
+					c.setSendBufferSize(config.getInt(key));
+				if (NetworkConfigDefaults.UDP_CONNECTOR_LOG_PACKETS.equals(key))
+					c.setLogPackets(config.getBoolean(key));
+				if (NetworkConfigDefaults.UDP_CONNECTOR_DATAGRAM_SIZE.equals(key))
+					c.setReceiverPacketSize(config.getInt(key));
+			}
+		};
+		config.addConfigObserver(observer);
+		return observer;
+	}
+	
 	/* (non-Javadoc)
 	 * @see ch.ethz.inf.vs.californium.network.Endpoint#start()
 	 */
@@ -268,6 +309,10 @@ public class CoAPEndpoint implements Endpoint {
 		if (started)
 			stop();
 		connector.destroy();
+		if (connectorObserver != null)
+			config.removeConfigObserver(connectorObserver);
+		matcher.destroy();
+		coapstack.destroy();
 		for (EndpointObserver obs:observers)
 			obs.destroyed(this);
 	}
@@ -372,7 +417,44 @@ public class CoAPEndpoint implements Endpoint {
 //				}
 //			}
 //		});
-		coapstack.sendResponse(exchange, response);
+		Request request = exchange.getRequest();
+		if (request != null && request.isMulticast() && exchange.getResponse() == null) {
+			sendMulticastResponse(exchange, response);
+		} else {
+			coapstack.sendResponse(exchange, response);
+		}
+	}
+	
+	/*
+	 * Responds to a request that has been received over multicast. Error
+	 * responses are suppressed since they are of no use to the client and
+	 * would only add to the burst of responses. The others are delayed by a
+	 * random time within the leisure period so that the responses of all
+	 * servers in the group do not arrive at the same time.
+	 */
+	private void sendMulticastResponse(final Exchange exchange, final Response response) {
+		ResponseCode code = response.getCode();
+		if (ResponseCode.isClientError(code) || ResponseCode.isServerError(code)) {
+			LOGGER.fine("Suppress error response "+code+" to multicast request");
+			exchange.setComplete();
+			return;
+		}
+		int leisure = config.getInt(NetworkConfigDefaults.DEFAULT_LEISURE);
+		if (leisure <= 0) {
+			coapstack.sendResponse(exchange, response);
+			return;
+		}
+		int delay = random.nextInt(leisure);
+		LOGGER.finer("Delay response to multicast request by "+delay+" ms");
+		executor.schedule(new Runnable() {
+			public void run() {
+				try {
+					coapstack.sendResponse(exchange, response);
+				} catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Exception while sending response to multicast request", t);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
 	}
 	
 	/* (non-Javadoc)
@@ -512,7 +594,8 @@ public class CoAPEndpoint implements Endpoint {
 					request = parser.parseRequest();
 				} catch (IllegalStateException e) {
 					String log = "message format error caused by " + raw.getInetSocketAddress();
-					if (!parser.isReply()) {
+					// never reset a multicast request
+					if (!parser.isReply() && !raw.isMulticast()) {
 						// manually build RST from raw information
 						EmptyMessage rst = new EmptyMessage(Type.RST);
 						rst.setDestination(raw.getAddress());
@@ -528,6 +611,7 @@ public class CoAPEndpoint implements Endpoint {
 				}
 				request.setSource(raw.getAddress());
 				request.setSourcePort(raw.getPort());
+				request.setMulticast(raw.isMulticast());
 				
 				LOGGER.fine(String.format("Received req %s-%s [%5d][%s] from %s",
 					request.getType(), request.getCode(), request.getMID(), request.getTokenString(),
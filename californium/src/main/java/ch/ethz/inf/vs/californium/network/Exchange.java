@@ -495,20 +495,25 @@ public class Exchange {
 	 */
 	public static final class KeyToken {
 
-		protected final byte[] token;
+		/** The token as number, see {@link TokenGenerator#toLong(byte[])} */
+		protected final long token;
+		protected final int length;
 		protected final byte[] address;
 		protected final int port;
 		private final int hash;
 
 		public KeyToken(byte[] token, byte[] address, int port) {
+			this(TokenGenerator.toLong(token), token.length, address, port);
+		}
+		
+		public KeyToken(long token, int length, byte[] address, int port) {
 			if (address == null)
 				throw new NullPointerException();
-			if (token == null)
-				throw new NullPointerException();
 			this.token = token;
+			this.length = length;
 			this.address = address;
 			this.port = port;
-			this.hash = (port*31 + Arrays.hashCode(token)) * 31 + Arrays.hashCode(address);
+			this.hash = (port*31 + (int) (token ^ (token >>> 32))) * 31 + Arrays.hashCode(address);
 		}
 		
 		@Override
@@ -521,12 +526,13 @@ public class Exchange {
 			if (! (o instanceof KeyToken))
 				return false;
 			KeyToken key = (KeyToken) o;
-			return Arrays.equals(token, key.token) && port == key.port && Arrays.equals(address, key.address);
+			return token == key.token && length == key.length && port == key.port && Arrays.equals(address, key.address);
 		}
 		
 		@Override
 		public String toString() {
-			return "KeyToken["+Utils.toHexString(token)+" from "+Utils.toHexString(address)+":"+port+"]";
+			String hex = length == 0 ? "" : String.format("%0"+(2*length)+"x", token);
+			return "KeyToken["+hex+" from "+Utils.toHexString(address)+":"+port+"]";
 		}
 	}
 	
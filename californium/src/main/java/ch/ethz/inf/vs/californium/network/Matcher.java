@@ -3,6 +3,7 @@ package ch.ethz.inf.vs.californium.network;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -17,8 +18,11 @@ import ch.ethz.inf.vs.californium.network.Exchange.KeyUri;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 import ch.ethz.inf.vs.californium.network.deduplication.Deduplicator;
 import ch.ethz.inf.vs.californium.network.deduplication.DeduplicatorFactory;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
 
 public class Matcher {
 
@@ -38,18 +42,41 @@ public class Matcher {
 	
 	private ConcurrentHashMap<KeyUri, Exchange> ongoingExchanges; // for blockwise
 	
-	// TODO: Multicast Exchanges: should not be removed from deduplicator
-	private Deduplicator deduplicator;
+	/*
+	 * Outgoing multicast requests by token only (with an empty address), since
+	 * the responses come from the unicast addresses of the servers in the group.
+	 */
+	private ConcurrentHashMap<KeyToken, Exchange> multicastExchanges;
+	private static final byte[] ANY_ADDRESS = new byte[0];
+	
+	// Incoming multicast requests are deduplicated like unicast requests
+	// since the key contains the source of the request.
+	private volatile Deduplicator deduplicator;
+	// The replaced deduplicator until its entries have expired
+	private volatile Deduplicator retiring;
 	// Idea: Only store acks/rsts and not the whole exchange. Responses should be sent CON.
 	
+	private final NetworkConfig config;
+	private final NetworkConfigObserver configObserver;
+	
 	public Matcher(NetworkConfig config) {
 		this.started = false;
+		this.config = config;
 		this.exchangesByMID = new ConcurrentHashMap<KeyMID, Exchange>();
 		this.exchangesByToken = new ConcurrentHashMap<KeyToken, Exchange>();
 		this.ongoingExchanges = new ConcurrentHashMap<KeyUri, Exchange>();
+		this.multicastExchanges = new ConcurrentHashMap<KeyToken, Exchange>();
 
 		DeduplicatorFactory factory = DeduplicatorFactory.getDeduplicatorFactory();
 		this.deduplicator = factory.createDeduplicator(config);
+		this.configObserver = new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				if (NetworkConfigDefaults.DEDUPLICATOR.equals(key))
+					replaceDeduplicator();
+			}
+		};
+		config.addConfigObserver(configObserver);
 		
 		if (config.getBoolean(NetworkConfigDefaults.USE_RANDOM_MID_START))
 			currendMID = new AtomicInteger(new Random().nextInt(1<<16));
@@ -68,14 +95,78 @@ public class Matcher {
 		if (!started) return;
 		else started = false;
 		deduplicator.stop();
+		retire(retiring);
 		clear();
 	}
 	
+	/**
+	 * Stops the matcher and no longer follows changes of the configuration.
+	 * The matcher must not be used afterwards.
+	 */
+	public synchronized void destroy() {
+		stop();
+		config.removeConfigObserver(configObserver);
+	}
+	
 	public synchronized void setExecutor(ScheduledExecutorService executor) {
 		deduplicator.setExecutor(executor);
 		this.executor = executor;
 	}
 	
+	/*
+	 * Replaces the deduplicator with one of the configured type while the
+	 * matcher keeps running. The previous deduplicator keeps running and is
+	 * consulted first until the requests that have arrived before have
+	 * expired, so that their duplicates are still detected.
+	 */
+	private synchronized void replaceDeduplicator() {
+		final Deduplicator previous = deduplicator;
+		Deduplicator replacement = DeduplicatorFactory.getDeduplicatorFactory().createDeduplicator(config);
+		if (executor != null)
+			replacement.setExecutor(executor);
+		if (started)
+			replacement.start();
+		retire(retiring);
+		deduplicator = replacement;
+		if (started) {
+			retiring = previous;
+			executor.schedule(new Runnable() {
+				public void run() {
+					retire(previous);
+				}
+			}, config.getLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE), TimeUnit.MILLISECONDS);
+		} else {
+			previous.stop();
+		}
+		LOGGER.config("Replaced deduplicator with "+replacement.getClass().getSimpleName());
+	}
+	
+	/*
+	 * Stops the specified replaced deduplicator unless this has already
+	 * happened.
+	 */
+	private synchronized void retire(Deduplicator previous) {
+		if (previous != null && previous == retiring) {
+			retiring = null;
+			previous.stop();
+			previous.clear();
+		}
+	}
+	
+	/*
+	 * Looks for the exchange of an earlier request with the same key in the
+	 * replaced deduplicator before it is stored in the current one.
+	 */
+	private Exchange findPrevious(KeyMID key, Exchange exchange) {
+		Deduplicator previous = retiring;
+		if (previous != null) {
+			Exchange prev = previous.find(key);
+			if (prev != null)
+				return prev;
+		}
+		return deduplicator.findPrevious(key, exchange);
+	}
+	
 	public void sendRequest(Exchange exchange, Request request) {
 		if (request.getMID() == Message.NONE)
 			request.setMID(currendMID.getAndIncrement()%(1<<16));
@@ -87,6 +178,11 @@ public class Matcher {
 		 * If this request goes lost, we do not get anything back.
 		 */
 		
+		if (request.isMulticast()) {
+			sendMulticastRequest(exchange, request);
+			return;
+		}
+		
 		KeyMID idByMID = new KeyMID(request.getMID(), 
 				request.getDestination().getAddress(), request.getDestinationPort());
 		KeyToken idByTok = new KeyToken(request.getToken(),
@@ -94,10 +190,49 @@ public class Matcher {
 		
 		exchange.setObserver(exchangeObserver);
 		
-		LOGGER.fine("Stored open request by "+idByMID+", "+idByTok);
+		Exchange previous = exchangesByToken.putIfAbsent(idByTok, exchange);
+		while (previous != null && previous != exchange) {
+			if (!previous.isComplete() && !previous.getRequest().isCanceled()) {
+				// only possible with tokens that have not been generated by the TokenLayer
+				LOGGER.warning("Token "+request.getTokenString()+" is already in use by "+previous.getRequest()+", canceling "+request);
+				request.cancel();
+				return;
+			}
+			// the previous exchange is over but has not been cleaned up yet
+			if (exchangesByToken.replace(idByTok, previous, exchange))
+				break;
+			previous = exchangesByToken.putIfAbsent(idByTok, exchange);
+		}
 		
+		LOGGER.fine("Stored open request by "+idByMID+", "+idByTok);
 		exchangesByMID.put(idByMID, exchange);
-		exchangesByToken.put(idByTok, exchange);
+	}
+
+	/*
+	 * A multicast request is answered by any number of servers. The exchange
+	 * collects their responses until the servers have had their leisure and
+	 * one more ACK_TIMEOUT for the responses to arrive.
+	 */
+	private void sendMulticastRequest(final Exchange exchange, Request request) {
+		exchange.setObserver(exchangeObserver);
+		
+		LOGGER.fine("Stored open multicast request by token "+request.getTokenString());
+		multicastExchanges.put(new KeyToken(request.getToken(), ANY_ADDRESS, 0), exchange);
+		
+		long period = config.getInt(NetworkConfigDefaults.DEFAULT_LEISURE)
+				+ config.getInt(NetworkConfigDefaults.ACK_TIMEOUT);
+		executor.schedule(new Runnable() {
+			public void run() {
+				if (exchange.isComplete()) return;
+				if (exchange.getRequest().getResponse() == null) {
+					// no server of the group has responded
+					exchange.setTimedOut();
+					exchange.getRequest().setTimedOut(true);
+				} else {
+					exchange.setComplete();
+				}
+			}
+		}, period, TimeUnit.MILLISECONDS);
 	}
 
 	public void sendResponse(Exchange exchange, Response response) {
@@ -124,6 +259,15 @@ public class Matcher {
 				response.getDestination().getAddress(), response.getDestinationPort());
 		exchangesByMID.put(idByMID, exchange);
 		
+		// Keep the keys of the notifications of an observe relation only as
+		// long as the client may answer them with an RST
+		ObserveRelation relation = exchange.getRelation();
+		if (relation != null && response.getOptions().hasObserve()) {
+			long lifetime = config.getLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+			for (KeyMID expired:relation.addNotificationKey(idByMID, lifetime))
+				exchangesByMID.remove(expired, exchange);
+		}
+		
 		if (response.getOptions().hasBlock2()) {
 			Request request = exchange.getRequest();
 			KeyUri idByUri = new KeyUri(request.getURI(),
@@ -184,7 +328,7 @@ public class Matcher {
 		if (!request.getOptions().hasBlock1() && !request.getOptions().hasBlock2()) {
 
 			Exchange exchange = new Exchange(request, Origin.REMOTE);
-			Exchange previous = deduplicator.findPrevious(idByMID, exchange);
+			Exchange previous = findPrevious(idByMID, exchange);
 			if (previous == null) {
 				return exchange;
 				
@@ -203,7 +347,7 @@ public class Matcher {
 			Exchange ongoing = ongoingExchanges.get(idByUri);
 			if (ongoing != null) {
 				
-				Exchange prev = deduplicator.findPrevious(idByMID, ongoing);
+				Exchange prev = findPrevious(idByMID, ongoing);
 				if (prev != null) {
 					LOGGER.info("Message is a duplicate: "+request);
 					request.setDuplicate(true);
@@ -221,7 +365,7 @@ public class Matcher {
 				 */
 				
 				Exchange exchange = new Exchange(request, Origin.REMOTE);
-				Exchange previous = deduplicator.findPrevious(idByMID, exchange);
+				Exchange previous = findPrevious(idByMID, exchange);
 				LOGGER.fine("New ongoing exchange for remote Block1 request with key "+idByUri);
 				if (previous == null) {
 					ongoingExchanges.put(idByUri, exchange);
@@ -251,11 +395,13 @@ public class Matcher {
 				response.getSource().getAddress(), response.getSourcePort());
 		
 		Exchange exchange = exchangesByToken.get(idByTok);
+		if (exchange == null && !multicastExchanges.isEmpty())
+			exchange = multicastExchanges.get(new KeyToken(response.getToken(), ANY_ADDRESS, 0));
 		
 		if (exchange != null) {
 			// There is an exchange with the given token
 			
-			Exchange prev = deduplicator.findPrevious(idByMID, exchange);
+			Exchange prev = findPrevious(idByMID, exchange);
 			if (prev != null) { // (and thus it holds: prev == exchange)
 				LOGGER.fine("Duplicate response "+response);
 				response.setDuplicate(true);
@@ -297,6 +443,12 @@ public class Matcher {
 		if (exchange != null) {
 			LOGGER.fine("Exchange got reply: Cleaning up "+idByMID);
 			exchangesByMID.remove(idByMID);
+			ObserveRelation relation = exchange.getRelation();
+			if (relation != null && message.getType() == Type.RST) {
+				// the RST cancels the relation, the other notifications are over
+				for (KeyMID key:relation.clearNotificationKeys())
+					exchangesByMID.remove(key, exchange);
+			}
 			return exchange;
 		} else {
 			LOGGER.info("Matcher received empty message that does not match any exchange: "+message);
@@ -309,6 +461,7 @@ public class Matcher {
 		this.exchangesByMID.clear();
 		this.exchangesByToken.clear();
 		this.ongoingExchanges.clear();
+		this.multicastExchanges.clear();
 		deduplicator.clear();
 	}
 	
@@ -320,13 +473,19 @@ public class Matcher {
 			if (exchange.getOrigin() == Origin.LOCAL) {
 				// this endpoint created the Exchange by issuing a request
 				Request request = exchange.getRequest();
+				if (request.isMulticast()) {
+					LOGGER.fine("Multicast exchange completed: Cleaning up "+request.getTokenString());
+					multicastExchanges.remove(new KeyToken(request.getToken(), ANY_ADDRESS, 0), exchange);
+					return;
+				}
 				KeyToken idByTok = new KeyToken(exchange.getCurrentRequest().getToken(), request.getDestination().getAddress(), request.getDestinationPort());
 				KeyMID idByMID = new KeyMID(request.getMID(), request.getDestination().getAddress(), request.getDestinationPort());
 				
 				LOGGER.fine("Exchange completed: Cleaning up "+idByTok);
-				exchangesByToken.remove(idByTok);
+				// the token might already belong to a new exchange
+				exchangesByToken.remove(idByTok, exchange);
 				// in case an empty ACK was lost
-				exchangesByMID.remove(idByMID);
+				exchangesByMID.remove(idByMID, exchange);
 			
 			} else {
 				// this endpoint created the Exchange to respond a request
@@ -349,6 +508,12 @@ public class Matcher {
 					LOGGER.warning("++++++++++++++++++Remote ongoing completed, cleaning up "+midKey);
 					exchangesByMID.remove(midKey);
 				}
+				
+				ObserveRelation relation = exchange.getRelation();
+				if (relation != null) {
+					for (KeyMID key:relation.clearNotificationKeys())
+						exchangesByMID.remove(key, exchange);
+				}
 			}
 		}
 		
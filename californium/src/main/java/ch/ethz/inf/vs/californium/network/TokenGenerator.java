@@ -0,0 +1,98 @@
+package ch.ethz.inf.vs.californium.network;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * The TokenGenerator issues the tokens of the requests of an endpoint. A token
+ * is a primitive <code>long</code> of {@link #TOKEN_LENGTH} bytes: the upper
+ * four bytes are a random salt that is chosen once per generator, the lower
+ * four bytes are a counter. Tokens of the same endpoint therefore cannot
+ * collide before the counter wraps around, and tokens of different endpoints
+ * or of a restarted endpoint differ by their salt.
+ * <p>
+ * Tokens are only converted to byte arrays when they are set on a message.
+ * The matcher converts them back to a <code>long</code> with
+ * {@link #toLong(byte[])} to look up the exchange without hashing an array.
+ */
+public class TokenGenerator {
+
+	/** The length of the tokens in bytes */
+	public static final int TOKEN_LENGTH = 8;
+
+	/** The salt in the upper four bytes */
+	private final long salt;
+
+	/** The counter in the lower four bytes */
+	private final AtomicInteger counter;
+
+	/**
+	 * Instantiates a new token generator. If USE_RANDOM_TOKEN_START is set,
+	 * the salt and the start of the counter are random, otherwise both are 0.
+	 *
+	 * @param config the configuration
+	 */
+	public TokenGenerator(NetworkConfig config) {
+		if (config.getBoolean(NetworkConfigDefaults.USE_RANDOM_TOKEN_START)) {
+			Random random = new Random();
+			this.salt = ((long) random.nextInt()) << 32;
+			this.counter = new AtomicInteger(random.nextInt());
+		} else {
+			this.salt = 0;
+			this.counter = new AtomicInteger(0);
+		}
+	}
+
+	/**
+	 * Returns the next token.
+	 *
+	 * @return the token
+	 */
+	public long next() {
+		return salt | (counter.incrementAndGet() & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the next token as byte array of {@link #TOKEN_LENGTH} bytes.
+	 *
+	 * @return the token
+	 */
+	public byte[] nextBytes() {
+		return toBytes(next());
+	}
+
+	/**
+	 * Converts the specified token into a byte array of {@link #TOKEN_LENGTH}
+	 * bytes in network byte order.
+	 *
+	 * @param token the token
+	 * @return the byte array
+	 */
+	public static byte[] toBytes(long token) {
+		byte[] bytes = new byte[TOKEN_LENGTH];
+		for (int i = TOKEN_LENGTH - 1; i >= 0; i--) {
+			bytes[i] = (byte) token;
+			token >>>= 8;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Converts the specified token of 0-8 bytes into a <code>long</code>.
+	 * Since leading zeros get lost, the length of the token must be compared
+	 * as well to tell two tokens apart.
+	 *
+	 * @param token the token
+	 * @return the long
+	 */
+	public static long toLong(byte[] token) {
+		long value = 0;
+		for (int i = 0; i < token.length; i++) {
+			value = (value << 8) | (token[i] & 0xFF);
+		}
+		return value;
+	}
+}
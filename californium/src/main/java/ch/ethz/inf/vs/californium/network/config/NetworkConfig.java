@@ -5,15 +5,23 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 /**
  * The configuration for a Californium server, endpoint and/or connector.
+ * <p>
+ * The typed getters parse a value only once and then return it from a
+ * lock-free cache until the value is set again or the configuration is
+ * loaded. Components that read values on the message path should
+ * nevertheless keep them in fields and update them through a
+ * {@link NetworkConfigObserver}.
  */
 public class NetworkConfig {
 
@@ -97,7 +105,10 @@ public class NetworkConfig {
 	/** The properties. */
 	private Properties properties;
 	
-	private List<NetworkConfigObserver> observers = new LinkedList<NetworkConfigObserver>();
+	/** The parsed values of the typed getters. */
+	private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+	
+	private List<NetworkConfigObserver> observers = new CopyOnWriteArrayList<NetworkConfigObserver>();
 	
 	/**
 	 * Instantiates a new network configiguration and sets the default values
@@ -109,14 +120,27 @@ public class NetworkConfig {
 	}
 	
 	/**
-	 * Load the properties from the specified configuration file.
+	 * Load the properties from the specified configuration file. The
+	 * observers are notified about every loaded property.
 	 *
 	 * @param file the file
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	public void load(File file) throws IOException {
+		Properties loaded = new Properties();
 		InputStream inStream = new FileInputStream(file);
-		properties.load(inStream);
+		try {
+			loaded.load(inStream);
+		} finally {
+			inStream.close();
+		}
+		properties.putAll(loaded);
+		values.clear();
+		for (String key:loaded.stringPropertyNames()) {
+			String value = loaded.getProperty(key);
+			for (NetworkConfigObserver obs:observers)
+				obs.changed(key, value);
+		}
 	}
 	
 	/**
@@ -159,10 +183,16 @@ public class NetworkConfig {
 	 * @return the int
 	 */
 	public int getInt(String key) {
+		Object cached = values.get(key);
+		if (cached instanceof Integer) {
+			return (Integer) cached;
+		}
 		String value = properties.getProperty(key);
 		if (value != null) {
 			try {
-				return Integer.parseInt(value);
+				int parsed = Integer.parseInt(value);
+				cache(key, value, parsed);
+				return parsed;
 			} catch (NumberFormatException e) {
 				LOGGER.log(Level.WARNING, "Could not convert property \"" + key + "\" with value \"" + value + "\" to integer", e);
 			}
@@ -179,10 +209,16 @@ public class NetworkConfig {
 	 * @return the long
 	 */
 	public long getLong(String key) {
+		Object cached = values.get(key);
+		if (cached instanceof Long) {
+			return (Long) cached;
+		}
 		String value = properties.getProperty(key);
 		if (value != null) {
 			try {
-				return Long.parseLong(value);
+				long parsed = Long.parseLong(value);
+				cache(key, value, parsed);
+				return parsed;
 			} catch (NumberFormatException e) {
 				LOGGER.log(Level.WARNING, "Could not convert property \"" + key + "\" with value \"" + value + "\" to long", e);
 				return 0;
@@ -200,10 +236,16 @@ public class NetworkConfig {
 	 * @return the float
 	 */
 	public float getFloat(String key) {
+		Object cached = values.get(key);
+		if (cached instanceof Float) {
+			return (Float) cached;
+		}
 		String value = properties.getProperty(key);
 		if (value != null) {
 			try {
-				return Float.parseFloat(value);
+				float parsed = Float.parseFloat(value);
+				cache(key, value, parsed);
+				return parsed;
 			} catch (NumberFormatException e) {
 				LOGGER.log(Level.WARNING, "Could not convert property \"" + key + "\" with value \"" + value + "\" to float", e);
 				return 0;
@@ -221,10 +263,16 @@ public class NetworkConfig {
 	 * @return the double
 	 */
 	public double getDouble(String key) {
+		Object cached = values.get(key);
+		if (cached instanceof Double) {
+			return (Double) cached;
+		}
 		String value = properties.getProperty(key);
 		if (value != null) {
 			try {
-				return Double.parseDouble(value);
+				double parsed = Double.parseDouble(value);
+				cache(key, value, parsed);
+				return parsed;
 			} catch (NumberFormatException e) {
 				LOGGER.log(Level.WARNING, "Could not convert property \"" + key + "\" with value \"" + value + "\" to double", e);
 				return 0;
@@ -242,10 +290,16 @@ public class NetworkConfig {
 	 * @return the boolean
 	 */
 	public boolean getBoolean(String key) {
+		Object cached = values.get(key);
+		if (cached instanceof Boolean) {
+			return (Boolean) cached;
+		}
 		String value = properties.getProperty(key);
 		if (value != null) {
 			try {
-				return Boolean.parseBoolean(value);
+				boolean parsed = Boolean.parseBoolean(value);
+				cache(key, value, parsed);
+				return parsed;
 			} catch (NumberFormatException e) {
 				LOGGER.log(Level.WARNING, "Could not convert property \"" + key + "\" with value \"" + value + "\" to boolean", e);
 				return false;
@@ -256,6 +310,15 @@ public class NetworkConfig {
 		return false;
 	}
 	
+	/**
+	 * Caches the parsed value unless the property has been set concurrently.
+	 */
+	private void cache(String key, String value, Object parsed) {
+		values.put(key, parsed);
+		if (!value.equals(properties.getProperty(key)))
+			values.remove(key, parsed);
+	}
+	
 	/**
 	 * Associates the specified value with the specified key.
 	 *
@@ -265,6 +328,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig set(String key, Object value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -279,6 +343,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig setString(String key, String value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -293,6 +358,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig setInt(String key, int value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -307,6 +373,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig setLong(String key, long value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -321,6 +388,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig setFloat(String key, float value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -335,6 +403,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig setDouble(String key, double value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -349,6 +418,7 @@ public class NetworkConfig {
 	 */
 	public NetworkConfig setBoolean(String key, boolean value) {
 		properties.put(key, String.valueOf(value));
+		values.remove(key);
 		for (NetworkConfigObserver obs:observers)
 			obs.changed(key, value);
 		return this;
@@ -57,8 +57,22 @@ public class NetworkConfigDefaults {
 	public static final String HTTP_PORT = "HTTP_PORT";
 	public static final String HTTP_SERVER_SOCKET_TIMEOUT = "HTTP_SERVER_SOCKET_TIMEOUT";
 	public static final String HTTP_SERVER_SOCKET_BUFFER_SIZE = "HTTP_SERVER_SOCKET_BUFFER_SIZE";
+	public static final String HTTP_SERVER_IO_THREADS = "HTTP_SERVER_IO_THREADS";
+	public static final String HTTP_SERVER_KEEP_ALIVE = "HTTP_SERVER_KEEP_ALIVE";
+	public static final String HTTP_SERVER_MAX_KEEP_ALIVE_REQUESTS = "HTTP_SERVER_MAX_KEEP_ALIVE_REQUESTS";
+	public static final String HTTP_SERVER_MAX_PENDING_REQUESTS = "HTTP_SERVER_MAX_PENDING_REQUESTS";
 	public static final String HTTP_CACHE_RESPONSE_MAX_AGE = "HTTP_CACHE_RESPONSE_MAX_AGE";
 	public static final String HTTP_CACHE_SIZE = "HTTP_CACHE_SIZE";
+	public static final String HTTP_CACHE_PERSISTENT_FILE = "HTTP_CACHE_PERSISTENT_FILE";
+	public static final String HTTP_CACHE_PERSISTENT_SIZE = "HTTP_CACHE_PERSISTENT_SIZE";
+	public static final String HTTP_STATS_WINDOW = "HTTP_STATS_WINDOW";
+	
+	public static final String RD_DEFAULT_LIFETIME = "RD_DEFAULT_LIFETIME";
+	public static final String RD_DEFAULT_DOMAIN = "RD_DEFAULT_DOMAIN";
+	public static final String RD_VALIDATION_TIMEOUT = "RD_VALIDATION_TIMEOUT";
+	public static final String RD_VALIDATION_MAX_OUTSTANDING = "RD_VALIDATION_MAX_OUTSTANDING";
+	public static final String RD_VALIDATION_MAX_OUTSTANDING_PER_SUBNET = "RD_VALIDATION_MAX_OUTSTANDING_PER_SUBNET";
+	public static final String RD_VALIDATION_RATE = "RD_VALIDATION_RATE";
 	
 	public static final String MAX_TRANSMIT_WAIT = "MAX_TRANSMIT_WAIT";
 	
@@ -99,8 +113,22 @@ public class NetworkConfigDefaults {
 		config.setInt(HTTP_PORT, 8080);
 		config.setInt(HTTP_SERVER_SOCKET_TIMEOUT, 100000);
 		config.setInt(HTTP_SERVER_SOCKET_BUFFER_SIZE, 8192);
+		config.setInt(HTTP_SERVER_IO_THREADS, 0); // number of cores
+		config.setBoolean(HTTP_SERVER_KEEP_ALIVE, true);
+		config.setInt(HTTP_SERVER_MAX_KEEP_ALIVE_REQUESTS, 100); // 0 for unlimited
+		config.setInt(HTTP_SERVER_MAX_PENDING_REQUESTS, 1024); // 0 for unlimited
 		config.setInt(HTTP_CACHE_RESPONSE_MAX_AGE, 86400);
 		config.setInt(HTTP_CACHE_SIZE, 32);
+		config.setString(HTTP_CACHE_PERSISTENT_FILE, ""); // disabled
+		config.setInt(HTTP_CACHE_PERSISTENT_SIZE, 16 * 1024 * 1024); // bytes
+		config.setInt(HTTP_STATS_WINDOW, 60); // seconds
+		
+		config.setInt(RD_DEFAULT_LIFETIME, 86400); // seconds
+		config.setString(RD_DEFAULT_DOMAIN, "local");
+		config.setInt(RD_VALIDATION_TIMEOUT, 60); // seconds
+		config.setInt(RD_VALIDATION_MAX_OUTSTANDING, 64);
+		config.setInt(RD_VALIDATION_MAX_OUTSTANDING_PER_SUBNET, 4);
+		config.setInt(RD_VALIDATION_RATE, 32); // requests per second
 		
 		config.setLong(MAX_TRANSMIT_WAIT, 93 * 1000);
 	}
@@ -1,5 +1,10 @@
 package ch.ethz.inf.vs.californium.network.config;
 
+/**
+ * An empty implementation of {@link NetworkConfigObserver}. The typed methods
+ * forward to {@link #changed(String, Object)}, so that an observer that does
+ * not care about the type only needs to override that method.
+ */
 public class NetworkConfigObserverAdapter implements NetworkConfigObserver {
 
 	@Override
@@ -9,32 +14,32 @@ public class NetworkConfigObserverAdapter implements NetworkConfigObserver {
 
 	@Override
 	public void changed(String key, String value) {
-		// do nothing
+		changed(key, (Object) value);
 	}
 
 	@Override
 	public void changed(String key, int value) {
-		// do nothing
+		changed(key, (Object) value);
 	}
 
 	@Override
 	public void changed(String key, long value) {
-		// do nothing
+		changed(key, (Object) value);
 	}
 
 	@Override
 	public void changed(String key, float value) {
-		// do nothing
+		changed(key, (Object) value);
 	}
 
 	@Override
 	public void changed(String key, double value) {
-		// do nothing
+		changed(key, (Object) value);
 	}
 
 	@Override
 	public void changed(String key, boolean value) {
-		// do nothing
+		changed(key, (Object) value);
 	}
-	
+
 }
@@ -11,6 +11,8 @@ import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 
 /**
  * This deduplicator is probably inferior to the {@link SweepDeduplicator}. This
@@ -34,10 +36,15 @@ public class CropRotation implements Deduplicator {
 	
 	private boolean started;
 
-	private long period;
+	private volatile long period;
 	private Rotation rotation;
 	
-	public CropRotation(NetworkConfig config) {
+	/** The configuration and the observer that follows its changes while started */
+	private final NetworkConfig config;
+	private final NetworkConfigObserver configObserver;
+	
+	public CropRotation(final NetworkConfig config) {
+		this.config = config;
 		this.rotation = new Rotation();
 		maps = new ExchangeMap[3];
 		maps[0] = new ExchangeMap();
@@ -46,10 +53,21 @@ public class CropRotation implements Deduplicator {
 		first = 0;
 		second = 1;
 		period = config.getInt(NetworkConfigDefaults.CROP_ROTATION_PERIOD);
+		this.configObserver = new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				if (NetworkConfigDefaults.CROP_ROTATION_PERIOD.equals(key))
+					period = config.getInt(NetworkConfigDefaults.CROP_ROTATION_PERIOD);
+			}
+		};
 	}
 	
 	@Override
 	public synchronized void start() {
+		if (!started) {
+			period = config.getInt(NetworkConfigDefaults.CROP_ROTATION_PERIOD);
+			config.addConfigObserver(configObserver);
+		}
 		started = true;
 		rotation.schedule();
 	}
@@ -57,17 +75,17 @@ public class CropRotation implements Deduplicator {
 	@Override
 	public synchronized void stop() {
 		started = false;
+		config.removeConfigObserver(configObserver);
 		rotation.cancel();
 		clear();
 	}
 
 	@Override
 	public synchronized void setExecutor(ScheduledExecutorService executor) {
-		started = false;
 		rotation.cancel();
 		this.executor = executor;
 		if (started)
-			start();
+			rotation.schedule();
 	}
 
 	@Override
@@ -12,6 +12,8 @@ import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 
 /**
  * This deduplicator uses a hash map to store incoming messages. The
@@ -26,26 +28,50 @@ public class SweepDeduplicator implements Deduplicator {
 	/** The hash map with all incoming messages. */
 	private ConcurrentHashMap<KeyMID, Exchange> incommingMessages;
 	
-	private NetworkConfig config;
+	/** The exchange lifecycle and the sweep interval in milliseconds */
+	private volatile int lifecycle;
+	private volatile long period;
+	
 	private SweepAlgorithm algorithm;
 	
 	private ScheduledExecutorService executor;
 	
 	private boolean started = false;
 	
-	public SweepDeduplicator(NetworkConfig config) {
+	/** The configuration and the observer that follows its changes while started */
+	private final NetworkConfig config;
+	private final NetworkConfigObserver configObserver;
+	
+	public SweepDeduplicator(final NetworkConfig config) {
 		this.config = config;
+		this.lifecycle = config.getInt(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+		this.period = config.getLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL);
+		this.configObserver = new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				if (NetworkConfigDefaults.EXCHANGE_LIFECYCLE.equals(key))
+					lifecycle = config.getInt(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+				if (NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL.equals(key))
+					period = config.getLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL);
+			}
+		};
 		incommingMessages = new ConcurrentHashMap<KeyMID, Exchange>();
 		algorithm = new SweepAlgorithm();
 	}
 	
 	public void start() {
+		if (!started) {
+			lifecycle = config.getInt(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+			period = config.getLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL);
+			config.addConfigObserver(configObserver);
+		}
 		started = true;
 		algorithm.schedule();
 	}
 	
 	public void stop() {
 		started = false;
+		config.removeConfigObserver(configObserver);
 		algorithm.cancel();
 	}
 	
@@ -109,7 +135,6 @@ public class SweepDeduplicator implements Deduplicator {
 		 * Iterate through all entries and remove the obsolete ones.
 		 */
 		private void sweep() {
-			int lifecycle = config.getInt(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
 			long oldestAllowed = System.currentTimeMillis() - lifecycle;
 			
 			// Notice that the guarantees from the ConcurrentHashMap guarantee
@@ -131,7 +156,6 @@ public class SweepDeduplicator implements Deduplicator {
 		 * Reschedule this task again.
 		 */
 		private void schedule() {
-			long period = config.getLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL);
 			future = executor.schedule(this, period, TimeUnit.MILLISECONDS);
 		}
 		
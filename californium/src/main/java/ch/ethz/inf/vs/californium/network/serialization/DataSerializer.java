@@ -1,113 +1,226 @@
 package ch.ethz.inf.vs.californium.network.serialization;
 
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.CODE_BITS;
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.MESSAGE_ID_BITS;
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.OPTION_DELTA_BITS;
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.OPTION_LENGTH_BITS;
 import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.PAYLOAD_MARKER;
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.TOKEN_LENGTH_BITS;
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.TYPE_BITS;
 import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.VERSION;
-import static ch.ethz.inf.vs.californium.coap.CoAP.MessageFormat.VERSION_BITS;
 
-import java.util.List;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.EncodedOptions;
 import ch.ethz.inf.vs.californium.coap.Message;
-import ch.ethz.inf.vs.californium.coap.Option;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 
 /**
- * The DataSerialized serializes outgoing messages to byte arrays.
+ * The DataSerialized serializes outgoing messages to byte arrays. It first
+ * computes the exact size of the encoded message and then writes header,
+ * token, options and payload byte by byte in a single pass, either into a new
+ * array of exactly that size or into a buffer supplied by the caller, e.g., a
+ * pooled send buffer. The options are encoded into {@link EncodedOptions}
+ * that are reused per thread, so that no {@link ch.ethz.inf.vs.californium.coap.Option}
+ * objects are created. The serializer has no other state and can be shared.
  */
 // TODO: Should we call this "Encoder/Decoder"?
 public class DataSerializer {
+
+	/** The size of the fixed header */
+	private static final int HEADER_LENGTH = 4;
 	
-	private DatagramWriter writer;
-	
+	/** The encoded options of the message that the thread serializes */
+	private static final ThreadLocal<EncodedOptions> ENCODED_OPTIONS = new ThreadLocal<EncodedOptions>() {
+		@Override protected EncodedOptions initialValue() {
+			return new EncodedOptions();
+		}
+	};
+
 	public byte[] serializeRequest(Request request) {
-		writer = new DatagramWriter();
-		Code code = request.getCode();
-		serializeMessage(request, code == null ? 0 : code.value);
-		return writer.toByteArray();
+		return serialize(request, getCode(request));
 	}
-	
+
 	public byte[] serializeResponse(Response response) {
-		writer = new DatagramWriter();
-		serializeMessage(response, response.getCode().value);
-		return writer.toByteArray();
+		return serialize(response, getCode(response));
 	}
-	
+
 	public byte[] serializeEmptyMessage(Message message) {
-		writer = new DatagramWriter();
-		serializeMessage(message, 0);
-		return writer.toByteArray();
+		return serialize(message, 0);
+	}
+
+	/**
+	 * Serializes the specified message into the specified array starting at
+	 * the specified offset.
+	 *
+	 * @param message the message
+	 * @param buffer the buffer
+	 * @param offset the offset of the first byte
+	 * @return the number of bytes written
+	 * @throws IndexOutOfBoundsException if the message does not fit into the
+	 *             buffer
+	 */
+	public int serialize(Message message, byte[] buffer, int offset) {
+		EncodedOptions options = encodeOptions(message);
+		int length = getSize(message, options);
+		if (offset < 0 || offset + length > buffer.length)
+			throw new IndexOutOfBoundsException("Message of "+length+" bytes does not fit into buffer of "+buffer.length+" bytes at offset "+offset);
+		write(message, getCode(message), options, buffer, offset);
+		return length;
+	}
+
+	/**
+	 * Serializes the specified message into the specified buffer at its
+	 * current position and advances the position. Heap buffers are written
+	 * directly into their backing array.
+	 *
+	 * @param message the message
+	 * @param buffer the buffer
+	 * @return the number of bytes written
+	 * @throws BufferOverflowException if the message does not fit
+	 *             into the remaining buffer
+	 */
+	public int serialize(Message message, ByteBuffer buffer) {
+		EncodedOptions options = encodeOptions(message);
+		int length = getSize(message, options);
+		if (length > buffer.remaining())
+			throw new BufferOverflowException();
+		if (buffer.hasArray()) {
+			write(message, getCode(message), options, buffer.array(), buffer.arrayOffset() + buffer.position());
+			buffer.position(buffer.position() + length);
+		} else {
+			// direct buffers have no array to write into
+			byte[] bytes = new byte[length];
+			write(message, getCode(message), options, bytes, 0);
+			buffer.put(bytes);
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the number of bytes the specified message takes when it is
+	 * serialized.
+	 *
+	 * @param message the message
+	 * @return the size in bytes
+	 */
+	public int getSize(Message message) {
+		return getSize(message, encodeOptions(message));
+	}
+
+	private byte[] serialize(Message message, int code) {
+		EncodedOptions options = encodeOptions(message);
+		byte[] bytes = new byte[getSize(message, options)];
+		write(message, code, options, bytes, 0);
+		return bytes;
+	}
+
+	private static EncodedOptions encodeOptions(Message message) {
+		return message.getOptions().encode(ENCODED_OPTIONS.get());
 	}
 	
-	private void serializeMessage(Message message, int code) {
+	private static int getCode(Message message) {
+		if (message instanceof Request) {
+			Code code = ((Request) message).getCode();
+			return code == null ? 0 : code.value;
+		} else if (message instanceof Response) {
+			return ((Response) message).getCode().value;
+		} else {
+			return 0;
+		}
+	}
+
+	private static int getSize(Message message, EncodedOptions options) {
 		if (message.getToken() == null)
 			throw new NullPointerException("No Token has been set, not even an empty byte[0]");
-		writer.write(VERSION, VERSION_BITS);
-		writer.write(message.getType().value, TYPE_BITS);
-		writer.write(message.getToken().length, TOKEN_LENGTH_BITS);
-		writer.write(code, CODE_BITS);
-		writer.write(message.getMID(), MESSAGE_ID_BITS);
-		writer.writeBytes(message.getToken());
-		
-		List<Option> options = message.getOptions().asSortedList(); // already sorted
+		int size = HEADER_LENGTH + message.getToken().length;
 		int lastOptionNumber = 0;
-		for (Option option:options) {
-			
-			// write 4-bit option delta
-			int optionDelta = option.getNumber() - lastOptionNumber;
+		for (int i = 0; i < options.size(); i++) {
+			int optionLength = options.getLength(i);
+			size += 1 + getExtendedSize(options.getNumber(i) - lastOptionNumber)
+					+ getExtendedSize(optionLength) + optionLength;
+			lastOptionNumber = options.getNumber(i);
+		}
+		byte[] payload = message.getPayload();
+		if (payload != null && payload.length > 0)
+			size += 1 + payload.length;
+		return size;
+	}
+
+	/*
+	 * Writes the message at the offset. The buffer must have room for it.
+	 */
+	private static void write(Message message, int code, EncodedOptions options, byte[] buffer, int offset) {
+		byte[] token = message.getToken();
+		int mid = message.getMID();
+		int index = offset;
+		buffer[index++] = (byte) ((VERSION << 6) | (message.getType().value << 4) | token.length);
+		buffer[index++] = (byte) code;
+		buffer[index++] = (byte) (mid >>> 8);
+		buffer[index++] = (byte) mid;
+		System.arraycopy(token, 0, buffer, index, token.length);
+		index += token.length;
+
+		int lastOptionNumber = 0;
+		byte[] values = options.getValues();
+		for (int i = 0; i < options.size(); i++) {
+
+			// 4-bit option delta and 4-bit option length
+			int optionDelta = options.getNumber(i) - lastOptionNumber;
 			int optionDeltaNibble = getOptionNibble(optionDelta);
-			writer.write(optionDeltaNibble, OPTION_DELTA_BITS);
-			
-			// write 4-bit option length
-			int optionLength = option.getLength();
+			int optionLength = options.getLength(i);
 			int optionLengthNibble = getOptionNibble(optionLength);
-			writer.write(optionLengthNibble, OPTION_LENGTH_BITS);
-			
-			// write extended option delta field (0 - 2 bytes)
-			if (optionDeltaNibble == 13) {
-				writer.write(optionDelta - 13, 8);
-			} else if (optionDeltaNibble == 14) {
-				writer.write(optionDelta - 269, 16);
-			}
-			
-			// write extended option length field (0 - 2 bytes)
-			if (optionLengthNibble == 13) {
-				writer.write(optionLength - 13, 8);
-			} else if (optionLengthNibble == 14) {
-				writer.write(optionLength - 269, 16);
-			}
-
-			// write option value
-			writer.writeBytes(option.getValue());
+			buffer[index++] = (byte) ((optionDeltaNibble << 4) | optionLengthNibble);
+
+			// extended option delta and length fields (0 - 2 bytes each)
+			index = writeExtended(optionDelta, optionDeltaNibble, buffer, index);
+			index = writeExtended(optionLength, optionLengthNibble, buffer, index);
+
+			// option value
+			System.arraycopy(values, options.getOffset(i), buffer, index, optionLength);
+			index += optionLength;
 
 			// update last option number
-			lastOptionNumber = option.getNumber();
+			lastOptionNumber = options.getNumber(i);
 		}
-		
+
 		byte[] payload = message.getPayload();
 		if (payload != null && payload.length > 0) {
 			// if payload is present and of non-zero length, it is prefixed by
 			// an one-byte Payload Marker (0xFF) which indicates the end of
 			// options and the start of the payload
-			writer.writeByte(PAYLOAD_MARKER);
-			writer.writeBytes(payload);
+			buffer[index++] = PAYLOAD_MARKER;
+			System.arraycopy(payload, 0, buffer, index, payload.length);
 		}
 	}
-	
+
+	private static int writeExtended(int value, int nibble, byte[] buffer, int index) {
+		if (nibble == 13) {
+			buffer[index++] = (byte) (value - 13);
+		} else if (nibble == 14) {
+			int extended = value - 269;
+			buffer[index++] = (byte) (extended >>> 8);
+			buffer[index++] = (byte) extended;
+		}
+		return index;
+	}
+
+	/*
+	 * Returns the number of bytes of the extended option delta or length.
+	 */
+	private static int getExtendedSize(int optionValue) {
+		switch (getOptionNibble(optionValue)) {
+		case 13: return 1;
+		case 14: return 2;
+		default: return 0;
+		}
+	}
+
 	/**
 	 * Returns the 4-bit option header value.
-	 * 
+	 *
 	 * @param optionValue
 	 *            the option value (delta or length) to be encoded.
 	 * @return the 4-bit option header value.
 	 */
-	private int getOptionNibble(int optionValue) {
+	private static int getOptionNibble(int optionValue) {
 		if (optionValue <= 12) {
 			return optionValue;
 		} else if (optionValue <= 255 + 13) {
@@ -118,5 +231,5 @@ public class DataSerializer {
 			throw new IllegalArgumentException("Unsupported option delta "+optionValue);
 		}
 	}
-	
+
 }
@@ -11,6 +11,9 @@ import ch.ethz.inf.vs.elements.RawData;
  */
 public class Serializer {
 
+	/** The stateless encoder shared by all serializers */
+	private static final DataSerializer ENCODER = new DataSerializer();
+
 	/**
 	 * Serializes the specified request. Message identifier, message code,
 	 * token, options and payload are converted into a byte array and wrapped in
@@ -24,7 +27,7 @@ public class Serializer {
 	public RawData serialize(Request request) {
 		byte[] bytes = request.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeRequest(request);
+			bytes = ENCODER.serializeRequest(request);
 		request.setBytes(bytes);
 		return new RawData(bytes, request.getDestination(), request.getDestinationPort());
 	}
@@ -41,7 +44,7 @@ public class Serializer {
 	public RawData serialize(Response response) {
 		byte[] bytes = response.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeResponse(response);
+			bytes = ENCODER.serializeResponse(response);
 		response.setBytes(bytes);
 		return new RawData(bytes, response.getDestination(), response.getDestinationPort());
 	}
@@ -59,7 +62,7 @@ public class Serializer {
 	public RawData serialize(EmptyMessage message) {
 		byte[] bytes = message.getBytes();
 		if (bytes == null)
-			bytes = new DataSerializer().serializeEmptyMessage(message);
+			bytes = ENCODER.serializeEmptyMessage(message);
 		message.setBytes(bytes);
 		return new RawData(bytes, message.getDestination(), message.getDestinationPort());
 	}
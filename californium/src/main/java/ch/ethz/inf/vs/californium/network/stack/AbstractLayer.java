@@ -123,6 +123,13 @@ public abstract class AbstractLayer implements Layer {
 		this.executor = executor;
 	}
 	
+	/**
+	 * Releases the resources of this layer when its endpoint is destroyed,
+	 * e.g., the observers it has added to the configuration. The layer must
+	 * not be used afterwards.
+	 */
+	public void destroy() { }
+	
 	/**
 	 * Reject the specified message. Rejecting an ACK or RST is not allowed.
 	 *
@@ -15,6 +15,7 @@ import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 
 public class BlockwiseLayer extends AbstractLayer {
@@ -65,20 +66,30 @@ public class BlockwiseLayer extends AbstractLayer {
 	private int maxMsgSize;
 	private int defaultBlockSize;
 	
-	public BlockwiseLayer(NetworkConfig config) {
+	private final NetworkConfig config;
+	private final NetworkConfigObserver configObserver;
+	
+	public BlockwiseLayer(final NetworkConfig config) {
+		this.config = config;
 		this.maxMsgSize = config.getInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE);
 		this.defaultBlockSize = config.getInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE);
 		LOGGER.config("Blockwise14 layer uses MAX_MESSAGE_SIZE: "+maxMsgSize+" and DEFAULT_BLOCK_SIZE:"+defaultBlockSize);
 		
-		config.addConfigObserver(new NetworkConfigObserverAdapter() {
+		this.configObserver = new NetworkConfigObserverAdapter() {
 			@Override
-			public void changed(String key, int value) {
+			public void changed(String key, Object value) {
 				if (NetworkConfigDefaults.MAX_MESSAGE_SIZE.equals(key))
-					maxMsgSize = value;
+					maxMsgSize = config.getInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE);
 				if (NetworkConfigDefaults.DEFAULT_BLOCK_SIZE.equals(key))
-					defaultBlockSize = value;
+					defaultBlockSize = config.getInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE);
 			}
-		});
+		};
+		config.addConfigObserver(configObserver);
+	}
+	
+	@Override
+	public void destroy() {
+		config.removeConfigObserver(configObserver);
 	}
 	
 	@Override
@@ -239,8 +250,10 @@ public class BlockwiseLayer extends AbstractLayer {
 	
 	@Override
 	public void receiveResponse(Exchange exchange, Response response) {
-		if (!response.getOptions().hasBlock1() && !response.getOptions().hasBlock2()) {
-			// There is no block1 or block2 option, therefore it is a normal response
+		if (!response.getOptions().hasBlock1() && !response.getOptions().hasBlock2()
+				|| exchange.getRequest().isBlockwiseStreaming()) {
+			// There is no block1 or block2 option, therefore it is a normal response.
+			// Blocks of a streaming request go directly to the application.
 			exchange.setResponse(response);
 			super.receiveResponse(exchange, response);
 			return;
@@ -251,8 +264,9 @@ public class BlockwiseLayer extends AbstractLayer {
 			BlockOption block1 = response.getOptions().getBlock1();
 			LOGGER.finer("Response acknowledges block "+block1);
 			
+			// The status is null if the application has sent the block itself
 			BlockwiseStatus status = exchange.getRequestBlockStatus();
-			if (! status.isComplete()) {
+			if (status != null && ! status.isComplete()) {
 				// TODO: the response code should be CONTINUE. Otherwise deliver
 				// Send next block
 				int currentSize = 1 << (4 + status.getCurrentSzx());
@@ -482,7 +496,9 @@ public class BlockwiseLayer extends AbstractLayer {
 	}
 	
 	private boolean requiresBlockwise(Request request) {
-		if (request.getCode() == Code.PUT || request.getCode() == Code.POST) {
+		if (request.isBlockwiseStreaming()) {
+			return false;
+		} else if (request.getCode() == Code.PUT || request.getCode() == Code.POST) {
 			return request.getPayloadSize() > maxMsgSize;
 		} else return false;
 	}
@@ -126,6 +126,12 @@ public class CoapStack {
 			layer.setExecutor(executor);
 	}
 	
+	public void destroy() {
+		for (Layer layer:layers)
+			if (layer instanceof AbstractLayer)
+				((AbstractLayer) layer).destroy();
+	}
+	
 	public void setDeliverer(MessageDeliverer deliverer) {
 		this.deliverer = deliverer;
 	}
@@ -140,6 +146,8 @@ public class CoapStack {
 		@Override
 		public void sendRequest(Exchange exchange, Request request) {
 			exchange.setRequest(request);
+			if (request.getDestination() != null && request.getDestination().isMulticastAddress())
+				request.setMulticast(true);
 			super.sendRequest(exchange, request);
 		}
 		
@@ -163,7 +171,8 @@ public class CoapStack {
 
 		@Override
 		public void receiveResponse(Exchange exchange, Response response) {
-			if (!response.getOptions().hasObserve())
+			// a multicast exchange completes when its response period ends
+			if (!response.getOptions().hasObserve() && !exchange.getRequest().isMulticast())
 				exchange.setComplete();
 			if (deliverer != null) {
 				deliverer.deliverResponse(exchange, response); // notify request that response has arrived
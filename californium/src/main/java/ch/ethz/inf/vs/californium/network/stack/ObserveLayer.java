@@ -61,7 +61,9 @@ public class ObserveLayer extends AbstractLayer {
 			 * former CON is acknowledged or timeouts, it starts the youngest
 			 * notification (In case of a timeout, it keeps the retransmission
 			 * counter). When a fresh/younger notification arrives but must be
-			 * postponed we forget any former notification.
+			 * postponed we forget any former notification. The notification
+			 * in transit is the current response of the exchange, so that the
+			 * relation only has to keep the youngest postponed one.
 			 */
 			if (response.getType() == Type.CON) {
 				prepareSelfReplacement(exchange, response);
@@ -71,13 +73,12 @@ public class ObserveLayer extends AbstractLayer {
 			// decision which notification is the youngest to send next must be
 			// synchronized
 			synchronized (exchange) {
-				Response current = relation.getCurrentControlNotification();
-				if (current != null && isInTransit(current)) {
+				Response current = exchange.getCurrentResponse();
+				if (current != null && current != response && isInTransit(current)) {
 					LOGGER.fine("A former notification is still in transit. Postpone " + response);
 					relation.setNextControlNotification(response);
 					return;
 				} else {
-					relation.setCurrentControlNotification(response);
 					relation.setNextControlNotification(null);
 				}
 			}
@@ -94,8 +95,9 @@ public class ObserveLayer extends AbstractLayer {
 	private boolean isInTransit(Response response) {
 		Type type = response.getType();
 		boolean acked = response.isAcknowledged();
+		boolean rejected = response.isRejected();
 		boolean timeout = response.isTimedOut();
-		boolean result = type == Type.CON && !acked && !timeout;
+		boolean result = type == Type.CON && !acked && !rejected && !timeout;
 		return result;
 	}
 
@@ -149,6 +151,7 @@ public class ObserveLayer extends AbstractLayer {
 		
 		private Exchange exchange;
 		private Response response;
+		private boolean retransmitted;
 		
 		public NotificationController(Exchange exchange, Response response) {
 			this.exchange = exchange;
@@ -159,12 +162,13 @@ public class ObserveLayer extends AbstractLayer {
 		public void onAcknowledgement() {
 			synchronized (exchange) {
 				ObserveRelation relation = exchange.getRelation();
+				if (!retransmitted)
+					relation.reportDelivery();
 				Response next = relation.getNextControlNotification();
-				relation.setCurrentControlNotification(next); // next may be null
 				relation.setNextControlNotification(null);
 				if (next != null) {
 					LOGGER.fine("Notification has been acknowledged, send the next one");
-					ObserveLayer.super.sendResponse(exchange, next); // TODO: make this as new task?
+					ObserveLayer.super.sendResponse(exchange, next);
 				}
 			}
 		}
@@ -172,26 +176,24 @@ public class ObserveLayer extends AbstractLayer {
 		@Override
 		public void onRetransmission() {
 			synchronized (exchange) {
-				final ObserveRelation relation = exchange.getRelation();
-				final Response next = relation.getNextControlNotification();
+				ObserveRelation relation = exchange.getRelation();
+				if (!retransmitted) {
+					retransmitted = true;
+					relation.reportLoss();
+				}
+				Response next = relation.getNextControlNotification();
 				if (next != null) {
 					LOGGER.fine("The notification has timed out and there is a younger notification. Send the younger one");
 					relation.setNextControlNotification(null);
-					// Send the next notification
+					// The retransmission task skips the canceled notification,
+					// so that the younger one can be sent right away
 					response.cancel();
-					Type nt = next.getType();
-					if (nt != Type.CON); {
-						LOGGER.finer("The next notification's type was "+nt+". Since it replaces a CON control notification, it becomes a CON as well");
+					if (next.getType() != Type.CON) {
+						LOGGER.finer("The next notification's type was "+next.getType()+". Since it replaces a CON control notification, it becomes a CON as well");
 						prepareSelfReplacement(exchange, next);
 						next.setType(Type.CON); // Force the next to be a Confirmable as well
 					}
-					relation.setCurrentControlNotification(next);
-					// Create a new task for sending next response so that we can leave the sync-block
-					executor.execute(new Runnable() {
-						public void run() {
-							ObserveLayer.super.sendResponse(exchange, next);
-						}
-					});
+					ObserveLayer.super.sendResponse(exchange, next);
 				}
 			}
 		}
@@ -14,6 +14,8 @@ import ch.ethz.inf.vs.californium.network.Exchange;
 import ch.ethz.inf.vs.californium.network.Exchange.Origin;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 
 /**
  * The reliability layer 
@@ -26,15 +28,37 @@ public class ReliabilityLayer extends AbstractLayer {
 	/** The random numbers generator for the back-off timer */
 	private Random rand = new Random();
 	
-	/** The configuration */ 
-	private NetworkConfig config;
+	/** The current retransmission parameters */ 
+	private volatile Parameters parameters;
+	
+	/** The configuration and the observer that follows its changes */
+	private final NetworkConfig config;
+	private final NetworkConfigObserver configObserver;
 	
 	/**
 	 * Constructs a new reliability layer.
 	 * @param config the configuration
 	 */
-	public ReliabilityLayer(NetworkConfig config) {
+	public ReliabilityLayer(final NetworkConfig config) {
 		this.config = config;
+		this.parameters = new Parameters(config);
+		
+		this.configObserver = new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				if (NetworkConfigDefaults.ACK_TIMEOUT.equals(key)
+						|| NetworkConfigDefaults.ACK_RANDOM_FACTOR.equals(key)
+						|| NetworkConfigDefaults.ACK_TIMEOUT_SCALE.equals(key)
+						|| NetworkConfigDefaults.MAX_RETRANSMIT.equals(key))
+					parameters = new Parameters(config);
+			}
+		};
+		config.addConfigObserver(configObserver);
+	}
+	
+	@Override
+	public void destroy() {
+		config.removeConfigObserver(configObserver);
 	}
 	
 	/**
@@ -47,6 +71,10 @@ public class ReliabilityLayer extends AbstractLayer {
 		
 		if (request.getType() == null)
 			request.setType(Type.CON);
+		if (request.isMulticast() && request.getType() == Type.CON) {
+			LOGGER.fine("Multicast requests must be non-confirmable, switching to NON");
+			request.setType(Type.NON);
+		}
 		
 		if (request.getType() == Type.CON) {
 			prepareRetransmission(exchange, new RetransmissionTask(exchange, request) {
@@ -62,7 +90,8 @@ public class ReliabilityLayer extends AbstractLayer {
 	 * Makes sure that the response type is correct. The response type for a NON
 	 * can be NON or CON. The response type for a CON should either be an ACK
 	 * with a piggy-backed response or, if an empty ACK has already be sent, a
-	 * CON or NON with a separate response.
+	 * CON or NON with a separate response. A multicast request is never
+	 * acknowledged and therefore responded with a NON.
 	 */
 	@Override
 	public void sendResponse(final Exchange exchange, final Response response) {
@@ -75,7 +104,7 @@ public class ReliabilityLayer extends AbstractLayer {
 		Type respType = response.getType();
 		if (respType == null) {
 			Type reqType = exchange.getCurrentRequest().getType();
-			if (reqType == Type.CON) {
+			if (reqType == Type.CON && !exchange.getCurrentRequest().isMulticast()) {
 				if (exchange.getCurrentRequest().isAcknowledged()) {
 					// send separate response
 					response.setType(Type.CON);
@@ -121,14 +150,12 @@ public class ReliabilityLayer extends AbstractLayer {
 		 * random number between ACK_TIMEOUT and (ACK_TIMEOUT *
 		 * ACK_RANDOM_FACTOR)
 		 */
+		Parameters parameters = this.parameters;
 		int timeout;
 		if (exchange.getFailedTransmissionCount() == 0) {
-			int ack_timeout = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT);
-			float ack_random_factor = config.getFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR);
-			timeout = getRandomTimeout(ack_timeout, (int) (ack_timeout*ack_random_factor));
+			timeout = getRandomTimeout(parameters.ackTimeout, parameters.maxInitialTimeout);
 		} else {
-			int ack_timeout_scale = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT_SCALE);
-			timeout = ack_timeout_scale * exchange.getCurrentTimeout();
+			timeout = parameters.ackTimeoutScale * exchange.getCurrentTimeout();
 		}
 		exchange.setCurrentTimeout(timeout);
 		
@@ -288,7 +315,7 @@ public class ReliabilityLayer extends AbstractLayer {
 					LOGGER.finest("Timeout: canceled (MID="+message.getMID()+"), do not retransmit");
 					return;
 					
-				} else if (failedCount <= config.getInt(NetworkConfigDefaults.MAX_RETRANSMIT)) {
+				} else if (failedCount <= parameters.maxRetransmit) {
 					LOGGER.finer("Timeout: retransmit message, failed: "+failedCount+", message: "+message);
 					
 					// Trigger MessageObservers
@@ -311,4 +338,22 @@ public class ReliabilityLayer extends AbstractLayer {
 		public abstract void retransmit();
 	}
 	
+	/*
+	 * The retransmission parameters read from the configuration at once, so
+	 * that a message never uses a mix of old and new values.
+	 */
+	private static class Parameters {
+		
+		private final int ackTimeout;
+		private final int maxInitialTimeout;
+		private final int ackTimeoutScale;
+		private final int maxRetransmit;
+		
+		private Parameters(NetworkConfig config) {
+			this.ackTimeout = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT);
+			this.maxInitialTimeout = (int) (ackTimeout * config.getFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR));
+			this.ackTimeoutScale = config.getInt(NetworkConfigDefaults.ACK_TIMEOUT_SCALE);
+			this.maxRetransmit = config.getInt(NetworkConfigDefaults.MAX_RETRANSMIT);
+		}
+	}
 }
@@ -1,33 +1,29 @@
 package ch.ethz.inf.vs.californium.network.stack;
 
-import java.util.Random;
-import java.util.concurrent.atomic.AtomicInteger;
-
 import ch.ethz.inf.vs.californium.coap.EmptyMessage;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.TokenGenerator;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
-import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 
 /**
- * Doesn't do much yet except for setting a simple token. Notice that empty
- * tokens must be represented as byte array of length 0 (not null).
+ * Sets a token issued by a {@link TokenGenerator} on requests that have none.
+ * Notice that empty tokens must be represented as byte array of length 0 (not
+ * null).
  */
 public class TokenLayer extends AbstractLayer {
 	
-	private AtomicInteger counter;
+	private final TokenGenerator generator;
 	
 	public TokenLayer(NetworkConfig config) {
-		if (config.getBoolean(NetworkConfigDefaults.USE_RANDOM_TOKEN_START))
-			counter = new AtomicInteger(new Random().nextInt());
-		else counter = new AtomicInteger(0);
+		this.generator = new TokenGenerator(config);
 	}
 	
 	@Override
 	public void sendRequest(Exchange exchange, Request request) {
 		if (request.getToken() == null)
-			request.setToken(createNewToken());
+			request.setToken(generator.nextBytes());
 //		if (exchange.getCurrentRequest().getToken() == null)
 //			throw new NullPointerException("Sending request's token cannot be null, use byte[0] for empty tokens");
 		super.sendRequest(exchange, request);
@@ -66,13 +62,4 @@ public class TokenLayer extends AbstractLayer {
 	public void receiveEmptyMessage(Exchange exchange, EmptyMessage message) {
 		super.receiveEmptyMessage(exchange, message);
 	}
-	
-	/**
-	 * Create a new token
-	 * @return the new token
-	 */
-	private byte[] createNewToken() {
-		int token = counter.incrementAndGet();
-		return new byte[] { (byte) (token>>>24), (byte) (token>>>16), (byte) (token>>>8), (byte) token}; 
-	}
 }
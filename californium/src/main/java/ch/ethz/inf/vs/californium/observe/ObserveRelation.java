@@ -1,10 +1,15 @@
 package ch.ethz.inf.vs.californium.observe;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 import ch.ethz.inf.vs.californium.server.resources.Resource;
@@ -31,8 +36,18 @@ public class ObserveRelation {
 	/** The exchange that has established the observe relationship */
 	private final Exchange exchange;
 	
-	private Response recentControlNotification;
+	/*
+	 * The notification in transit is the current response of the exchange.
+	 * Only the latest notification that has to wait for it is kept here;
+	 * intermediate ones are replaced.
+	 */
 	private Response nextControlNotification;
+	
+	/*
+	 * The matcher's keys of the notifications that the client may still
+	 * answer with an ACK or RST, oldest first, and when they were sent.
+	 */
+	private final ArrayDeque<NotificationKey> notificationKeys = new ArrayDeque<NotificationKey>();
 
 	/*
 	 * This value is false at first and must be set to true by the resource if
@@ -41,8 +56,16 @@ public class ObserveRelation {
 	/** Indicates if the relation is established */
 	private boolean established;
 	
+	/*
+	 * The number of NON notifications that may be sent in a row before a CON.
+	 * It is halved when a CON notification has to be retransmitted and grows
+	 * by one with every CON that is acknowledged without retransmission.
+	 * Guarded by this, since notifications and ACKs are processed by
+	 * different threads.
+	 */
+	private int nonLimit = CHECK_INTERVAL_COUNT;
+	private int nonCounter = 1;
 	private long interestCheckTimer = System.currentTimeMillis();
-	private int interestCheckCounter = 1;
 	
 	/**
 	 * Constructs a new observe relation.
@@ -88,6 +111,7 @@ public class ObserveRelation {
 	public void cancel() {
 		LOGGER.info("Cancel observe relation from "+endpoint.getAddress()+" with "+resource.getURI());
 		this.established = false;
+		this.nextControlNotification = null;
 		resource.removeObserveRelation(this);
 		endpoint.removeObserveRelation(this);
 	}
@@ -139,30 +163,111 @@ public class ObserveRelation {
 		return endpoint.getAddress();
 	}
 
-	public boolean check() {
+	/**
+	 * Returns true if the next notification should be sent as CON to check
+	 * whether the client is still interested and to learn about losses. This
+	 * is the case when the adaptive number of NON notifications has been sent
+	 * or NOTIFICATION_CHECK_INTERVAL has passed since the last check.
+	 *
+	 * @return true if the next notification should be a CON
+	 */
+	public synchronized boolean check() {
 		boolean check = false;
 		check |= this.interestCheckTimer + CHECK_INTERVAL_TIME < System.currentTimeMillis();
-		check |= (++interestCheckCounter >= CHECK_INTERVAL_COUNT);
+		check |= (++nonCounter >= nonLimit);
 		if (check) {
 			this.interestCheckTimer = System.currentTimeMillis();
-			this.interestCheckCounter = 0;
+			this.nonCounter = 0;
 		}
 		return check;
 	}
-
-	public Response getCurrentControlNotification() {
-		return recentControlNotification;
+	
+	/**
+	 * Reports that a CON notification has been acknowledged without
+	 * retransmission. Allows one more NON notification in a row.
+	 */
+	public synchronized void reportDelivery() {
+		if (nonLimit < CHECK_INTERVAL_COUNT)
+			nonLimit++;
 	}
-
-	public void setCurrentControlNotification(Response recentControlNotification) {
-		this.recentControlNotification = recentControlNotification;
+	
+	/**
+	 * Reports that a CON notification had to be retransmitted. Halves the
+	 * number of NON notifications in a row so that the client gets the latest
+	 * state reliably while the path is lossy.
+	 */
+	public synchronized void reportLoss() {
+		nonLimit = Math.max(1, nonLimit / 2);
+		nonCounter = 0;
 	}
 
+	/**
+	 * Returns the notification that waits for the one in transit.
+	 *
+	 * @return the next notification or null
+	 */
 	public Response getNextControlNotification() {
 		return nextControlNotification;
 	}
 
+	/**
+	 * Sets the notification that waits for the one in transit and thereby
+	 * drops any older notification that has been waiting.
+	 *
+	 * @param nextControlNotification the next notification or null
+	 */
 	public void setNextControlNotification(Response nextControlNotification) {
 		this.nextControlNotification = nextControlNotification;
 	}
+	
+	/**
+	 * Adds the matcher's key of a new notification and removes the keys of
+	 * the notifications that have been sent more than the specified lifetime
+	 * ago. The key of a retransmission is only kept once.
+	 *
+	 * @param key the key of the new notification
+	 * @param lifetime the exchange lifetime [ms]
+	 * @return the keys whose lifetime has ended
+	 */
+	public synchronized List<KeyMID> addNotificationKey(KeyMID key, long lifetime) {
+		long now = System.currentTimeMillis();
+		List<KeyMID> expired = Collections.emptyList();
+		NotificationKey oldest;
+		while ((oldest = notificationKeys.peekFirst()) != null && oldest.time + lifetime < now) {
+			if (expired.isEmpty())
+				expired = new ArrayList<KeyMID>();
+			expired.add(notificationKeys.removeFirst().key);
+		}
+		NotificationKey latest = notificationKeys.peekLast();
+		if (latest == null || !key.equals(latest.key))
+			notificationKeys.add(new NotificationKey(key, now));
+		return expired;
+	}
+
+	/**
+	 * Removes the matcher's keys of all notifications.
+	 *
+	 * @return the keys
+	 */
+	public synchronized List<KeyMID> clearNotificationKeys() {
+		List<KeyMID> keys = new ArrayList<KeyMID>(notificationKeys.size());
+		for (NotificationKey notification:notificationKeys)
+			keys.add(notification.key);
+		notificationKeys.clear();
+		return keys;
+	}
+	
+	/*
+	 * The matcher's key of a notification and when it was sent.
+	 */
+	private static final class NotificationKey {
+		
+		private final KeyMID key;
+		private final long time;
+		
+		private NotificationKey(KeyMID key, long time) {
+			this.key = key;
+			this.time = time;
+		}
+	}
 }
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -16,6 +17,8 @@ import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
 import ch.ethz.inf.vs.californium.network.Endpoint;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserver;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
 import ch.ethz.inf.vs.californium.server.resources.DiscoveryResource;
 import ch.ethz.inf.vs.californium.server.resources.Resource;
@@ -85,8 +88,17 @@ public class Server implements ServerInterface {
 	/** The executor of the server for its endpoints (can be null). */
 	private ScheduledExecutorService executor;
 	
+	/** Indicates whether the server has created the executor itself. */
+	private boolean ownExecutor;
+	
+	/** The endpoints that have been added before the server had an executor. */
+	private final List<Endpoint> withoutExecutor = new ArrayList<Endpoint>();
+	
 	private NetworkConfig config;
 	
+	/** The observer that follows changes of the configuration until the server is destroyed. */
+	private final NetworkConfigObserver configObserver;
+	
 	/**
 	 * Constructs a default server. The server starts after the method
 	 * {@link #start()} is called. If a server starts and has no specific ports
@@ -122,8 +134,14 @@ public class Server implements ServerInterface {
 		} else {
 			this.config = NetworkConfig.getStandard();
 		}
-		this.executor = Executors.newScheduledThreadPool(
-				config.getInt(NetworkConfigDefaults.SERVER_THRESD_NUMER));
+		this.configObserver = new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				if (NetworkConfigDefaults.SERVER_THRESD_NUMER.equals(key))
+					resizeExecutor();
+			}
+		};
+		this.config.addConfigObserver(configObserver);
 		this.deliverer = new ServerMessageDeliverer(root);
 		
 		ResourceBase well_known = new ResourceBase(".well-known");
@@ -171,12 +189,37 @@ public class Server implements ServerInterface {
 		addEndpoint(endpoint);
 	}
 	
-	public void setExecutor(ScheduledExecutorService executor) {
+	/**
+	 * Sets the executor for all endpoints of the server, e.g., an executor
+	 * that several servers share. If no executor has been set when the server
+	 * starts, the server creates its own. The server shuts down the executor
+	 * it has created itself but not the executor set by this method.
+	 *
+	 * @param executor the executor
+	 */
+	public synchronized void setExecutor(ScheduledExecutorService executor) {
+		if (ownExecutor && executor != this.executor) {
+			this.executor.shutdown();
+			ownExecutor = false;
+		}
 		this.executor = executor;
+		withoutExecutor.clear();
 		for (Endpoint ep:endpoints)
 			ep.setExecutor(executor);
 	}
 	
+	/*
+	 * Adjusts the number of threads of the server's own executor to the
+	 * configuration while the server is running.
+	 */
+	private synchronized void resizeExecutor() {
+		if (ownExecutor && executor instanceof ScheduledThreadPoolExecutor) {
+			int threads = config.getInt(NetworkConfigDefaults.SERVER_THRESD_NUMER);
+			((ScheduledThreadPoolExecutor) executor).setCorePoolSize(threads);
+			LOGGER.config("Server executor uses "+threads+" threads");
+		}
+	}
+	
 	/**
 	 * Starts the server by starting all endpoints this server is assigned to.
 	 * Each endpoint binds to its port. If no endpoint is assigned to the
@@ -190,6 +233,16 @@ public class Server implements ServerInterface {
 			LOGGER.info("No endpoints have been defined for server, setting up default endpoint at port " + port);
 			bind(port);
 		}
+		synchronized (this) {
+			if (executor == null) {
+				executor = Executors.newScheduledThreadPool(
+						config.getInt(NetworkConfigDefaults.SERVER_THRESD_NUMER));
+				ownExecutor = true;
+				for (Endpoint ep:withoutExecutor)
+					ep.setExecutor(executor);
+				withoutExecutor.clear();
+			}
+		}
 		int started = 0;
 		for (Endpoint ep:endpoints) {
 			try {
@@ -222,8 +275,11 @@ public class Server implements ServerInterface {
 	@Override
 	public void destroy() {
 		LOGGER.info("Destroy server");
+		config.removeConfigObserver(configObserver);
 		for (Endpoint ep:endpoints)
 			ep.destroy();
+		if (!ownExecutor)
+			return; // the executor is shared
 		executor.shutdown(); // cannot be started again
 		try {
 			boolean succ = executor.awaitTermination(5, TimeUnit.SECONDS);
@@ -256,17 +312,22 @@ public class Server implements ServerInterface {
 	
 	/**
 	 * Adds an Endpoint to the server. WARNING: It automatically configures the
-	 * default executor of the server. Endpoints that should use their own
-	 * executor (e.g., to prioritize or balance request handling) either set it
-	 * afterwards before starting the server or override the setExecutor()
-	 * method of the special Endpoint.
+	 * default executor of the server. If no executor has been set, the server
+	 * configures the endpoint with the executor it creates when it starts.
+	 * Endpoints that should use their own executor (e.g., to prioritize or
+	 * balance request handling) either set it after the server's executor
+	 * has been set or override the setExecutor() method of the special
+	 * Endpoint.
 	 * 
 	 * @param endpoint the endpoint to add
 	 */
 	@Override
-	public void addEndpoint(Endpoint endpoint) {
+	public synchronized void addEndpoint(Endpoint endpoint) {
 		endpoint.setMessageDeliverer(deliverer);
-		endpoint.setExecutor(executor);
+		if (executor != null)
+			endpoint.setExecutor(executor);
+		else
+			withoutExecutor.add(endpoint);
 		endpoints.add(endpoint);
 	}
 	
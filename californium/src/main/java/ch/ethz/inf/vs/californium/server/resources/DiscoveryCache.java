@@ -0,0 +1,240 @@
+package ch.ethz.inf.vs.californium.server.resources;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.ethz.inf.vs.californium.coap.LinkFilter;
+import ch.ethz.inf.vs.californium.coap.LinkFormat;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+
+/**
+ * The DiscoveryCache keeps the link-format serialization of each resource of
+ * a resource tree and the serialization of the whole tree. It observes every
+ * resource of the tree and only invalidates the links of the resources that
+ * have changed. The serialization of the whole tree is rebuilt from the
+ * cached links of the resources when it is requested after a change.
+ */
+class DiscoveryCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The root of the resource tree */
+	private final Resource root;
+
+	/** The observers of the resources of the tree */
+	private final ConcurrentMap<Resource, LinkObserver> observers;
+
+	/** The serialized link of each resource including the trailing comma */
+	private final ConcurrentMap<Resource, byte[]> links;
+
+	/** Incremented with every change of the tree */
+	private final AtomicInteger version;
+
+	/** The serialization of the whole tree or null */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * Instantiates a new cache for the tree of the specified root resource.
+	 *
+	 * @param root the root
+	 */
+	DiscoveryCache(Resource root) {
+		this.root = root;
+		this.observers = new ConcurrentHashMap<Resource, LinkObserver>();
+		this.links = new ConcurrentHashMap<Resource, byte[]>();
+		this.version = new AtomicInteger();
+		attach(root);
+	}
+
+	/**
+	 * Returns the link format of all visible resources below the root and its
+	 * ETag.
+	 *
+	 * @return the snapshot
+	 */
+	Snapshot getSnapshot() {
+		Snapshot current = snapshot;
+		int v = version.get();
+		if (current == null || current.version != v) {
+			List<byte[]> result = new ArrayList<byte[]>();
+			for (Resource child:root.getChildren()) {
+				collect(child, LinkFilter.compile(null), result);
+			}
+			current = new Snapshot(v, concat(result));
+			// a concurrent change might have happened while collecting
+			if (version.get() == v) {
+				snapshot = current;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Returns the link format of the visible resources in the subtree of the
+	 * specified resource that match the queries. The resource itself is only
+	 * included if it is not the root of the tree.
+	 *
+	 * @param resource the resource
+	 * @param queries the queries or null
+	 * @return the link format
+	 */
+	byte[] getLinks(Resource resource, List<String> queries) {
+		LinkFilter filter = LinkFilter.compile(queries);
+		List<byte[]> result = new ArrayList<byte[]>();
+		if (resource == root) {
+			for (Resource child:root.getChildren()) {
+				collect(child, filter, result);
+			}
+		} else {
+			collect(resource, filter, result);
+		}
+		return concat(result);
+	}
+
+	private void collect(Resource resource, LinkFilter filter, List<byte[]> result) {
+		if (resource.isVisible() && filter.matches(resource)) {
+			result.add(getLink(resource));
+		}
+		for (Resource child:resource.getChildren()) {
+			collect(child, filter, result);
+		}
+	}
+
+	private byte[] getLink(Resource resource) {
+		byte[] link = links.get(resource);
+		if (link == null) {
+			int v = version.get();
+			link = LinkFormat.serializeResource(resource).toString().getBytes(UTF8);
+			if (observers.containsKey(resource) && version.get() == v) {
+				links.put(resource, link);
+				// discard if invalidated between the check and the put
+				if (version.get() != v) {
+					links.remove(resource, link);
+				}
+			}
+		}
+		return link;
+	}
+
+	/*
+	 * Concatenates the links and drops the trailing comma.
+	 */
+	private static byte[] concat(List<byte[]> links) {
+		int length = 0;
+		for (byte[] link:links) {
+			length += link.length;
+		}
+		if (length == 0) {
+			return new byte[0];
+		}
+		byte[] payload = new byte[length - 1];
+		int offset = 0;
+		for (byte[] link:links) {
+			int count = Math.min(link.length, payload.length - offset);
+			System.arraycopy(link, 0, payload, offset, count);
+			offset += count;
+		}
+		return payload;
+	}
+
+	private void attach(Resource resource) {
+		LinkObserver observer = new LinkObserver(resource);
+		if (observers.putIfAbsent(resource, observer) == null) {
+			resource.addObserver(observer);
+		}
+		for (Resource child:resource.getChildren()) {
+			attach(child);
+		}
+	}
+
+	private void detach(Resource resource) {
+		LinkObserver observer = observers.remove(resource);
+		if (observer != null) {
+			resource.removeObserver(observer);
+		}
+		links.remove(resource);
+		for (Resource child:resource.getChildren()) {
+			detach(child);
+		}
+	}
+
+	private void invalidate(Resource resource) {
+		version.incrementAndGet();
+		if (resource != null) {
+			links.remove(resource);
+		}
+	}
+
+	/**
+	 * The serialization of the whole tree at a specific version.
+	 */
+	static class Snapshot {
+
+		private final int version;
+
+		/** The link format payload */
+		final byte[] payload;
+
+		/** The ETag of the payload */
+		final byte[] etag;
+
+		private Snapshot(int version, byte[] payload) {
+			this.version = version;
+			this.payload = payload;
+
+			int hash = Arrays.hashCode(payload);
+			this.etag = new byte[] { (byte) (hash >>> 24), (byte) (hash >>> 16), (byte) (hash >>> 8), (byte) hash };
+		}
+	}
+
+	/**
+	 * Invalidates the cached link of a resource when it changes and keeps
+	 * track of added and removed children.
+	 */
+	private class LinkObserver implements ResourceAttributesObserver {
+
+		private final Resource resource;
+
+		private LinkObserver(Resource resource) {
+			this.resource = resource;
+		}
+
+		@Override
+		public void changedName(String old) {
+			invalidate(resource);
+		}
+
+		@Override
+		public void changedPath(String old) {
+			invalidate(resource);
+		}
+
+		@Override
+		public void changedAttributes() {
+			invalidate(resource);
+		}
+
+		@Override
+		public void addedChild(Resource child) {
+			attach(child);
+			invalidate(child);
+		}
+
+		@Override
+		public void removedChild(Resource child) {
+			detach(child);
+			invalidate(child);
+		}
+
+		@Override
+		public void addedObserveRelation(ObserveRelation relation) { }
+
+		@Override
+		public void removedObserveRelation(ObserveRelation relation) { }
+	}
+}
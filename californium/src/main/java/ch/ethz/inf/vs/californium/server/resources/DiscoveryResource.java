@@ -1,8 +1,10 @@
 package ch.ethz.inf.vs.californium.server.resources;
 
+import java.nio.charset.Charset;
 import java.util.List;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.LinkFilter;
 import ch.ethz.inf.vs.californium.coap.LinkFormat;
 import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 
@@ -10,15 +12,24 @@ import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
  * The DiscoveryResource implements CoAP's discovery service. It is typically
  * accessible over CoAP on the well-known URI: <tt>/.well-known/core</tt>. It
  * responds to GET requests with a list of the server's resources, i.e. links.
+ * <p>
+ * The links are served from a {@link DiscoveryCache} that observes the
+ * resource tree. Unfiltered discovery responds with a cached payload and an
+ * ETag, so that clients can revalidate their copy with 2.03 (Valid).
  */
 public class DiscoveryResource extends ResourceBase {
 
 	/** The Constant CORE. */
 	public static final String CORE = "core";
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
 	/** The root of the server's resource tree */
 	private final Resource root;
 	
+	/** The cached link format of the resource tree */
+	private final DiscoveryCache cache;
+	
 	/**
 	 * Instantiates a new discovery resource.
 	 *
@@ -37,6 +48,7 @@ public class DiscoveryResource extends ResourceBase {
 	public DiscoveryResource(String name, Resource root) {
 		super(name);
 		this.root = root;
+		this.cache = new DiscoveryCache(root);
 	}
 	
 	/**
@@ -46,8 +58,19 @@ public class DiscoveryResource extends ResourceBase {
 	 */
 	@Override
 	public void handleGET(CoapExchange exchange) {
-		String tree = discoverTree(root, exchange.getRequestOptions().getURIQueries());
-		exchange.respond(ResponseCode.CONTENT, tree, MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+		List<String> queries = exchange.getRequestOptions().getURIQueries();
+		if (queries.isEmpty()) {
+			DiscoveryCache.Snapshot snapshot = cache.getSnapshot();
+			exchange.setETag(snapshot.etag);
+			if (exchange.getRequestOptions().containsETag(snapshot.etag)) {
+				exchange.respond(ResponseCode.VALID);
+			} else {
+				exchange.respond(ResponseCode.CONTENT, snapshot.payload, MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+			}
+		} else {
+			byte[] links = cache.getLinks(root, queries);
+			exchange.respond(ResponseCode.CONTENT, links, MediaTypeRegistry.APPLICATION_LINK_FORMAT);
+		}
 	}
 	
 	/**
@@ -60,9 +83,15 @@ public class DiscoveryResource extends ResourceBase {
 	 * @return the list of resources as string
 	 */
 	public String discoverTree(Resource root, List<String> queries) {
+		if (root == this.root) {
+			byte[] links = queries.isEmpty() ? cache.getSnapshot().payload : cache.getLinks(root, queries);
+			return new String(links, UTF8);
+		}
+		
+		LinkFilter filter = LinkFilter.compile(queries);
 		StringBuilder buffer = new StringBuilder();
 		for (Resource child:root.getChildren()) {
-			LinkFormat.serializeTree(child, queries, buffer);
+			LinkFormat.serializeTree(child, filter, buffer);
 		}
 		
 		// remove last comma ',' of the buffer
@@ -31,11 +31,11 @@
 package ch.ethz.inf.vs.californium.server.resources;
 
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import ch.ethz.inf.vs.californium.coap.LinkFormat;
 
@@ -51,11 +51,25 @@ public class ResourceAttributes {
 	/** Contains the resource's attributes specified in the CoRE Link Format. */
 	private final ConcurrentMap<String, AttributeValues> attributes;
 	
+	/** The resource that is notified about changes or null */
+	private final ResourceBase resource;
+	
 	/**
 	 * Instantiates a new resource attributes.
 	 */
 	public ResourceAttributes() {
-		attributes = new ConcurrentHashMap<String, AttributeValues>();
+		this(null);
+	}
+	
+	/**
+	 * Instantiates new resource attributes that notify the specified resource
+	 * when they change.
+	 *
+	 * @param resource the resource or null
+	 */
+	ResourceAttributes(ResourceBase resource) {
+		this.attributes = new ConcurrentHashMap<String, AttributeValues>();
+		this.resource = resource;
 	}
 	
 	/**
@@ -87,6 +101,7 @@ public class ResourceAttributes {
 	 */
 	public void setTitle(String title) {
 		findAttributeValues(LinkFormat.TITLE).setOnly(title);
+		changed();
 	}
 	
 	/**
@@ -96,6 +111,7 @@ public class ResourceAttributes {
 	 */
 	public void addResourceType(String type) {
 		findAttributeValues(LinkFormat.RESOURCE_TYPE).add(type);
+		changed();
 	}
 	
 	/**
@@ -103,6 +119,7 @@ public class ResourceAttributes {
 	 */
 	public void clearResourceType() {
 		attributes.remove(LinkFormat.RESOURCE_TYPE);
+		changed();
 	}
 	
 	/**
@@ -121,6 +138,7 @@ public class ResourceAttributes {
 	 */
 	public void addInterfaceDescription(String description) {
 		findAttributeValues(LinkFormat.INTERFACE_DESCRIPTION).add(description);
+		changed();
 	}
 	
 	/**
@@ -139,6 +157,7 @@ public class ResourceAttributes {
 	 */
 	public void setMaximumSizeEstimate(String size) {
 		findAttributeValues(LinkFormat.MAX_SIZE_ESTIMATE).setOnly(size);
+		changed();
 	}
 	
 	/**
@@ -148,6 +167,7 @@ public class ResourceAttributes {
 	 */
 	public void setMaximumSizeEstimate(int size) {
 		findAttributeValues(LinkFormat.MAX_SIZE_ESTIMATE).setOnly(Integer.toString(size));
+		changed();
 	}
 	
 	/**
@@ -166,6 +186,7 @@ public class ResourceAttributes {
 	 */
 	public void addContentType(int type) {
 		findAttributeValues(LinkFormat.CONTENT_TYPE).add(Integer.toString(type));
+		changed();
 	}
 	
 	/**
@@ -182,6 +203,7 @@ public class ResourceAttributes {
 	 */
 	public void clearContentType() {
 		attributes.remove(LinkFormat.CONTENT_TYPE);
+		changed();
 	}
 	
 	/**
@@ -189,6 +211,7 @@ public class ResourceAttributes {
 	 */
 	public void setObservable() {
 		findAttributeValues(LinkFormat.OBSERVABLE).setOnly("");
+		changed();
 	}
 	
 	/**
@@ -209,6 +232,7 @@ public class ResourceAttributes {
 	 */
 	public void setAttribute(String attr, String value) {
 		findAttributeValues(attr).setOnly(value);
+		changed();
 	}
 	
 	/**
@@ -229,6 +253,7 @@ public class ResourceAttributes {
 	 */
 	public void addAttribute(String attr, String value) {
 		findAttributeValues(attr).add(value);
+		changed();
 	}
 	
 	/**
@@ -238,6 +263,15 @@ public class ResourceAttributes {
 	 */
 	public void clearAttribute(String attr) {
 		attributes.remove(attr);
+		changed();
+	}
+	
+	/**
+	 * Removes all attributes.
+	 */
+	public void clear() {
+		attributes.clear();
+		changed();
 	}
 	
 	/**
@@ -251,19 +285,16 @@ public class ResourceAttributes {
 	}
 	
 	/**
-	 * Returns a {@link Set} view of the attribute names. If the map is modified
-	 * while an iteration over the set is in progress (except through the
-	 * iterator's own <tt>remove</tt> operation), the results of the iteration
-	 * are undefined. The set supports element removal, which removes the
-	 * corresponding mapping from the map, via the <tt>Iterator.remove</tt>,
-	 * <tt>Set.remove</tt>, <tt>removeAll</tt>, <tt>retainAll</tt>, and
-	 * <tt>clear</tt> operations. It does not support the <tt>add</tt> or
-	 * <tt>addAll</tt> operations.
+	 * Returns an unmodifiable {@link Set} view of the attribute names. If the
+	 * attributes are modified while an iteration over the set is in progress,
+	 * the results of the iteration are undefined. Use
+	 * {@link #clearAttribute(String)} or {@link #clear()} to remove attributes,
+	 * so that the resource learns about the change.
 	 * 
 	 * @return a set view of the attribute names
 	 */
 	public Set<String> getAttributeKeySet() {
-		return attributes.keySet();
+		return Collections.unmodifiableSet(attributes.keySet());
 	}
 	
 	/**
@@ -278,6 +309,15 @@ public class ResourceAttributes {
 		else return Collections.emptyList();
 	}
 	
+	/**
+	 * Notifies the resource that the attributes have changed.
+	 */
+	private void changed() {
+		if (resource != null) {
+			resource.changedAttributes();
+		}
+	}
+	
 	/**
 	 * Find the attribute values for the specified attribute.
 	 *
@@ -300,9 +340,8 @@ public class ResourceAttributes {
 	 */
 	private final static class AttributeValues {
 		 
-		/** The list. */
-		private final List<String> list = 
-				Collections.synchronizedList(new LinkedList<String>());
+		/** The list. Readers, e.g., a link filter, need no lock since values rarely change. */
+		private final List<String> list = new CopyOnWriteArrayList<String>();
 		
 		/**
 		 * Gets all values.
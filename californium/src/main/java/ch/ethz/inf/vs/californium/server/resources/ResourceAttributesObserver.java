@@ -0,0 +1,15 @@
+package ch.ethz.inf.vs.californium.server.resources;
+
+/**
+ * A {@link ResourceObserver} that is also notified when the link description
+ * of a resource changes. It is added to a resource like any other resource
+ * observer.
+ */
+public interface ResourceAttributesObserver extends ResourceObserver {
+
+	/**
+	 * Invoked when the attributes or the visibility of the resource have
+	 * changed, i.e., its link description.
+	 */
+	public void changedAttributes();
+}
@@ -187,7 +187,7 @@ public  class ResourceBase implements Resource {
 		this.name = name;
 		this.path = "";
 		this.visible = visible;
-		this.attributes = new ResourceAttributes();
+		this.attributes = new ResourceAttributes(this);
 		this.children = new ConcurrentHashMap<String, Resource>();
 		this.observers = new CopyOnWriteArrayList<ResourceObserver>();
 		this.observeRelations = new ObserveRelationContainer();
@@ -633,6 +633,17 @@ public  class ResourceBase implements Resource {
 	 */
 	public void setVisible(boolean visible) {
 		this.visible = visible;
+		changedAttributes();
+	}
+	
+	/**
+	 * Notifies all {@link ResourceAttributesObserver}s that the attributes or
+	 * the visibility of this resource have changed.
+	 */
+	void changedAttributes() {
+		for (ResourceObserver obs:observers)
+			if (obs instanceof ResourceAttributesObserver)
+				((ResourceAttributesObserver) obs).changedAttributes();
 	}
 	
 	/* (non-Javadoc)
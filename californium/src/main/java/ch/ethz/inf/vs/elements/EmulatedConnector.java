@@ -0,0 +1,81 @@
+package ch.ethz.inf.vs.elements;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A connector of an {@link EmulatedNetwork}. It has no threads of its own,
+ * hence, a JVM can run thousands of endpoints with emulated connectors.
+ * Datagrams to addresses of stopped connectors are lost.
+ */
+public class EmulatedConnector implements Connector {
+
+	private final EmulatedNetwork network;
+	private final InetSocketAddress address;
+
+	private volatile RawDataChannel receiver;
+	private volatile boolean running;
+
+	/** The time when the link is free for the next datagram [ns], guarded by this */
+	long linkFree;
+
+	EmulatedConnector(EmulatedNetwork network, InetSocketAddress address) {
+		if (address == null)
+			throw new NullPointerException();
+		this.network = network;
+		this.address = address;
+	}
+
+	@Override
+	public synchronized void start() {
+		if (running) return;
+		network.register(this);
+		running = true;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) return;
+		running = false;
+		network.unregister(this);
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null)
+			throw new NullPointerException();
+		if (running)
+			network.send(this, msg);
+	}
+
+	/*
+	 * Called by the network to deliver a datagram. Returns the receiver or
+	 * null if the connector cannot receive it.
+	 */
+	RawDataChannel getChannel() {
+		return running ? receiver : null;
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public EmulatedNetwork getNetwork() {
+		return network;
+	}
+
+	@Override
+	public String toString() {
+		return "Emulated "+address;
+	}
+}
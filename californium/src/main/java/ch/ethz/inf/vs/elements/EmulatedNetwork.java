@@ -0,0 +1,317 @@
+package ch.ethz.inf.vs.elements;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An emulated network connects {@link EmulatedConnector}s within the same JVM
+ * without any sockets. It delays, drops and reorders the datagrams according
+ * to the configured network conditions:
+ * <ul>
+ * <li>latency: the one-way delay of every datagram in milliseconds</li>
+ * <li>jitter: a uniformly distributed additional delay up to the specified
+ * milliseconds</li>
+ * <li>loss: the probability that a datagram is dropped</li>
+ * <li>reorder: the probability that a datagram is held back by another
+ * latency, so that the following datagrams overtake it</li>
+ * <li>bandwidth: the bytes per second each connector can send, 0 for
+ * unlimited. Datagrams queue up behind each other at the sender.</li>
+ * </ul>
+ * The conditions can be changed at any time. A single thread delivers all
+ * datagrams to the receivers, which is enough since the endpoints hand the
+ * datagrams to their executors right away. The random decisions come from a
+ * generator with a given seed, so that runs with the same seed and the same
+ * sequence of datagrams drop and delay the same datagrams.
+ */
+public class EmulatedNetwork {
+
+	private final static Logger LOGGER = Logger.getLogger(EmulatedNetwork.class.toString());
+
+	/** The port of the connectors that are created with an address */
+	public static final int DEFAULT_PORT = 5683;
+
+	private final ConcurrentHashMap<InetSocketAddress, EmulatedConnector> connectors;
+	private final DelayQueue<Datagram> queue;
+	private final Random random;
+	private final AtomicInteger nextAddress;
+	private final AtomicLong sequence;
+
+	private volatile int latency; // [ms]
+	private volatile int jitter; // [ms]
+	private volatile double loss;
+	private volatile double reorder;
+	private volatile long bandwidth; // [bytes/s]
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong undeliverable = new AtomicLong();
+
+	private Thread deliverer;
+
+	public EmulatedNetwork() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Creates a new emulated network without latency and loss.
+	 *
+	 * @param seed the seed for the random decisions
+	 */
+	public EmulatedNetwork(long seed) {
+		this.connectors = new ConcurrentHashMap<InetSocketAddress, EmulatedConnector>();
+		this.queue = new DelayQueue<Datagram>();
+		this.random = new Random(seed);
+		this.nextAddress = new AtomicInteger(1);
+		this.sequence = new AtomicLong();
+	}
+
+	/**
+	 * Creates a connector with a new address of the form 10.x.y.z and the
+	 * port {@link #DEFAULT_PORT}.
+	 *
+	 * @return the connector
+	 */
+	public EmulatedConnector createConnector() {
+		int n = nextAddress.getAndIncrement();
+		byte[] address = new byte[] { 10, (byte) (n >> 16), (byte) (n >> 8), (byte) n };
+		try {
+			return createConnector(new InetSocketAddress(InetAddress.getByAddress(address), DEFAULT_PORT));
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e); // cannot happen for 4 bytes
+		}
+	}
+
+	/**
+	 * Creates a connector with the specified address. It receives datagrams
+	 * once it has been started.
+	 *
+	 * @param address the address
+	 * @return the connector
+	 */
+	public EmulatedConnector createConnector(InetSocketAddress address) {
+		return new EmulatedConnector(this, address);
+	}
+
+	/**
+	 * Starts the thread that delivers the datagrams.
+	 */
+	public synchronized void start() {
+		if (deliverer != null) return;
+		deliverer = new Thread("EmulatedNetwork") {
+			public void run() {
+				deliver();
+			} };
+		deliverer.setDaemon(true);
+		deliverer.start();
+	}
+
+	/**
+	 * Stops the thread that delivers the datagrams and drops the datagrams
+	 * that are still in transit.
+	 */
+	public synchronized void stop() {
+		if (deliverer == null) return;
+		deliverer.interrupt();
+		deliverer = null;
+		queue.clear();
+	}
+
+	void register(EmulatedConnector connector) {
+		if (connectors.putIfAbsent(connector.getAddress(), connector) != null)
+			throw new IllegalStateException("Address "+connector.getAddress()+" is already in use");
+	}
+
+	void unregister(EmulatedConnector connector) {
+		connectors.remove(connector.getAddress(), connector);
+	}
+
+	/*
+	 * Decides whether the datagram is lost and when it arrives.
+	 */
+	void send(EmulatedConnector sender, RawData raw) {
+		sent.incrementAndGet();
+		bytes.addAndGet(raw.getSize());
+		long now = System.nanoTime();
+		long delay = TimeUnit.MILLISECONDS.toNanos(latency);
+		boolean drop;
+		synchronized (random) {
+			drop = loss > 0 && random.nextDouble() < loss;
+			if (jitter > 0)
+				delay += (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(jitter));
+			if (reorder > 0 && random.nextDouble() < reorder)
+				delay += TimeUnit.MILLISECONDS.toNanos(Math.max(1, latency));
+		}
+
+		// the datagram leaves the sender after the previous ones
+		long departure = now;
+		long bw = bandwidth;
+		if (bw > 0) {
+			synchronized (sender) {
+				sender.linkFree = Math.max(now, sender.linkFree) + raw.getSize() * 1000000000L / bw;
+				departure = sender.linkFree;
+			}
+		}
+
+		if (drop) {
+			lost.incrementAndGet();
+			return;
+		}
+		InetSocketAddress source = sender.getAddress();
+		RawData datagram = new RawData(raw.getBytes(), source.getAddress(), source.getPort());
+		queue.add(new Datagram(departure + delay, sequence.incrementAndGet(), datagram, raw.getInetSocketAddress()));
+	}
+
+	private void deliver() {
+		try {
+			while (true) {
+				Datagram datagram = queue.take();
+				EmulatedConnector receiver = connectors.get(datagram.destination);
+				RawDataChannel channel = receiver == null ? null : receiver.getChannel();
+				if (channel != null) {
+					// count first, the receiver may already respond
+					delivered.incrementAndGet();
+					channel.receiveData(datagram.raw);
+				} else {
+					undeliverable.incrementAndGet();
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.fine("Emulated network has stopped");
+		} catch (RuntimeException e) {
+			LOGGER.log(Level.SEVERE, "Emulated network has crashed", e);
+		}
+	}
+
+	/**
+	 * Sets the seed for the random decisions about loss, jitter and
+	 * reordering.
+	 *
+	 * @param seed the seed
+	 * @return this network
+	 */
+	public EmulatedNetwork setSeed(long seed) {
+		synchronized (random) {
+			random.setSeed(seed);
+		}
+		return this;
+	}
+
+	public int getLatency() {
+		return latency;
+	}
+
+	public EmulatedNetwork setLatency(int latency) {
+		this.latency = latency;
+		return this;
+	}
+
+	public int getJitter() {
+		return jitter;
+	}
+
+	public EmulatedNetwork setJitter(int jitter) {
+		this.jitter = jitter;
+		return this;
+	}
+
+	public double getLoss() {
+		return loss;
+	}
+
+	public EmulatedNetwork setLoss(double loss) {
+		this.loss = loss;
+		return this;
+	}
+
+	public double getReorder() {
+		return reorder;
+	}
+
+	public EmulatedNetwork setReorder(double reorder) {
+		this.reorder = reorder;
+		return this;
+	}
+
+	public long getBandwidth() {
+		return bandwidth;
+	}
+
+	public EmulatedNetwork setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+		return this;
+	}
+
+	/** Returns the number of datagrams the connectors have sent. */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/** Returns the number of bytes the connectors have sent. */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/** Returns the number of datagrams the network has dropped. */
+	public long getLost() {
+		return lost.get();
+	}
+
+	/** Returns the number of datagrams the network has delivered. */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/** Returns the number of datagrams for which there was no receiver. */
+	public long getUndeliverable() {
+		return undeliverable.get();
+	}
+
+	public void resetStatistics() {
+		sent.set(0);
+		bytes.set(0);
+		lost.set(0);
+		delivered.set(0);
+		undeliverable.set(0);
+	}
+
+	private static class Datagram implements Delayed {
+
+		private final long time; // [ns]
+		private final long sequence;
+		private final RawData raw;
+		private final InetSocketAddress destination;
+
+		private Datagram(long time, long sequence, RawData raw, InetSocketAddress destination) {
+			this.time = time;
+			this.sequence = sequence;
+			this.raw = raw;
+			this.destination = destination;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			Datagram other = (Datagram) o;
+			if (time != other.time)
+				return time < other.time ? -1 : 1;
+			// datagrams due at the same time keep their order
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package ch.ethz.inf.vs.elements;
+
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory connector exchanges datagrams with the other in-memory
+ * connectors of the same JVM without any sockets. A client and a server in the
+ * same process, e.g., the translation resources and the local services of a
+ * gateway, can use it to talk CoAP to each other in microseconds instead of a
+ * round trip through the kernel:
+ *
+ * <pre>
+ * server.addEndpoint(new CoAPEndpoint(new InMemoryConnector(5683), config));
+ * CoAPEndpoint client = new CoAPEndpoint(new InMemoryConnector(), config);
+ * </pre>
+ *
+ * The connectors are registered under their address while they are started.
+ * Datagrams to addresses without a started in-memory connector are dropped,
+ * i.e., they never reach a UDP socket with the same address.
+ * <p>
+ * Each connector has a lock-free inbox. A sender appends the datagram and, if
+ * no other thread is currently doing so, hands the datagrams in the inbox to
+ * the receiver. The receiver is therefore called by one thread at a time and in
+ * the order of the datagrams, as with the receiver thread of a
+ * {@link UDPConnector}, but the connector needs no threads of its own. The
+ * endpoint only schedules the processing on its executor, so that senders are
+ * not blocked.
+ * <p>
+ * The bytes of a datagram are passed on without copying. The messages are
+ * still serialized and parsed by the endpoints since a message object belongs
+ * to the exchange and the stack of one endpoint and cannot be shared.
+ */
+public class InMemoryConnector implements Connector {
+
+	private final static Logger LOGGER = Logger.getLogger(InMemoryConnector.class.toString());
+
+	/** The first of the ports up to 65535 for connectors without a port */
+	public static final int EPHEMERAL_PORTS = 49152;
+	private static final int EPHEMERAL_PORT_COUNT = 65536 - EPHEMERAL_PORTS;
+
+	private static final ConcurrentHashMap<InetSocketAddress, InMemoryConnector> connectors =
+			new ConcurrentHashMap<InetSocketAddress, InMemoryConnector>();
+	private static final AtomicInteger nextPort = new AtomicInteger();
+
+	private final ConcurrentLinkedQueue<RawData> inbox;
+	private final AtomicBoolean delivering;
+
+	private volatile InetSocketAddress address;
+	private final boolean ephemeral;
+
+	private volatile RawDataChannel receiver;
+	private volatile boolean running;
+
+	/**
+	 * Creates a connector on the loopback address with the next free port from
+	 * {@link #EPHEMERAL_PORTS} on.
+	 */
+	public InMemoryConnector() {
+		this(new InetSocketAddress(getLoopbackAddress(), 0));
+	}
+
+	/**
+	 * Creates a connector on the loopback address with the specified port.
+	 *
+	 * @param port the port
+	 */
+	public InMemoryConnector(int port) {
+		this(new InetSocketAddress(getLoopbackAddress(), port));
+	}
+
+	/**
+	 * Creates a connector with the specified address. If the port is 0, the
+	 * connector gets the next free port from {@link #EPHEMERAL_PORTS} on when
+	 * it is started.
+	 *
+	 * @param address the address
+	 */
+	public InMemoryConnector(InetSocketAddress address) {
+		if (address == null)
+			throw new NullPointerException();
+		this.address = address;
+		this.ephemeral = address.getPort() == 0;
+		this.inbox = new ConcurrentLinkedQueue<RawData>();
+		this.delivering = new AtomicBoolean();
+	}
+
+	@Override
+	public synchronized void start() throws BindException {
+		if (running) return;
+		if (ephemeral) {
+			InetSocketAddress candidate = null;
+			for (int i=0;i<EPHEMERAL_PORT_COUNT && candidate == null;i++) {
+				int port = EPHEMERAL_PORTS + (nextPort.getAndIncrement() & (EPHEMERAL_PORT_COUNT - 1));
+				candidate = new InetSocketAddress(address.getAddress(), port);
+				if (connectors.putIfAbsent(candidate, this) != null)
+					candidate = null;
+			}
+			if (candidate == null)
+				throw new BindException("No free in-memory port on "+address.getAddress()+" from "+EPHEMERAL_PORTS+" on");
+			address = candidate;
+		} else if (connectors.putIfAbsent(address, this) != null) {
+			throw new BindException("Address "+address+" is already in use");
+		}
+		running = true;
+		LOGGER.fine("In-memory connector started on "+address);
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (!running) return;
+		running = false;
+		connectors.remove(address, this);
+		inbox.clear();
+		if (ephemeral)
+			address = new InetSocketAddress(address.getAddress(), 0);
+	}
+
+	@Override
+	public void destroy() {
+		stop();
+	}
+
+	@Override
+	public void send(RawData msg) {
+		if (msg == null)
+			throw new NullPointerException();
+		if (!running) return;
+		InMemoryConnector destination = connectors.get(msg.getInetSocketAddress());
+		if (destination == null) {
+			LOGGER.finer("No in-memory connector at "+msg.getInetSocketAddress());
+			return;
+		}
+		InetSocketAddress source = address;
+		destination.receive(new RawData(msg.getBytes(), source.getAddress(), source.getPort()));
+	}
+
+	/*
+	 * Appends the datagram to the inbox and delivers the inbox unless another
+	 * thread is already delivering it. A datagram that is appended right after
+	 * the other thread has found the inbox empty is delivered by the loop
+	 * below, which checks the inbox again after releasing the flag.
+	 */
+	private void receive(RawData raw) {
+		inbox.offer(raw);
+		while (!inbox.isEmpty() && delivering.compareAndSet(false, true)) {
+			try {
+				RawData next;
+				while ((next = inbox.poll()) != null) {
+					RawDataChannel channel = receiver;
+					if (running && channel != null)
+						channel.receiveData(next);
+				}
+			} finally {
+				delivering.set(false);
+			}
+		}
+	}
+
+	@Override
+	public void setRawDataReceiver(RawDataChannel receiver) {
+		this.receiver = receiver;
+	}
+
+	@Override
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	@Override
+	public String toString() {
+		return "In-memory "+address;
+	}
+
+	private static InetAddress getLoopbackAddress() {
+		try {
+			return InetAddress.getByAddress("localhost", new byte[] { 127, 0, 0, 1 });
+		} catch (UnknownHostException e) {
+			throw new IllegalStateException(e); // cannot happen for 4 bytes
+		}
+	}
+}
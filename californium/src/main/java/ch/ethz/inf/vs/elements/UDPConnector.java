@@ -22,7 +22,11 @@ import javax.xml.ws.Endpoint;
  * within a {@link RawData} by calling the method {@link #send(RawData)} on the
  * connector. When the connector receives a message, it invokes
  * {@link RawDataChannel#receiveData(RawData)}. UDP broadcast is allowed.
- * // TODO: describe that we can make many threads
+ * <p>
+ * The connector receives and sends with the configured number of threads. The
+ * buffer sizes, the thread counts, the packet size and packet logging can also
+ * be changed while the connector is running. Surplus threads terminate after
+ * their current datagram.
  */
 public class UDPConnector implements Connector {
 
@@ -30,7 +34,7 @@ public class UDPConnector implements Connector {
 	
 	public static final int UNDEFINED = 0;
 	
-	private boolean running;
+	private volatile boolean running;
 	
 	private DatagramSocket socket;
 	
@@ -51,8 +55,9 @@ public class UDPConnector implements Connector {
 	private int senderCount = 1;
 	private int receiverCount = 1;
 	
-	private int receiverPacketSize = 2048;
-	private boolean logPackets = false;
+	private volatile int receiverPacketSize = 2048;
+	private volatile boolean logPackets = false;
+	private boolean reuseAddress = false;
 	
 	public UDPConnector() {
 		this(new InetSocketAddress(0));
@@ -70,7 +75,9 @@ public class UDPConnector implements Connector {
 		if (running) return;
 		
 		// if localAddr is null or port is 0, the system decides
-		socket = new DatagramSocket(localAddr.getPort(), localAddr.getAddress());
+		socket = new DatagramSocket(null);
+		socket.setReuseAddress(reuseAddress);
+		socket.bind(localAddr);
 
 		this.running = true;
 		
@@ -145,6 +152,15 @@ public class UDPConnector implements Connector {
 		this.receiver = receiver;
 	}
 	
+	/**
+	 * Returns the receiver of incoming messages.
+	 *
+	 * @return the receiver
+	 */
+	protected RawDataChannel getRawDataReceiver() {
+		return receiver;
+	}
+	
 	public InetSocketAddress getAddress() {
 		if (socket == null) return localAddr;
 		else return new InetSocketAddress(socket.getLocalAddress(), socket.getLocalPort());
@@ -152,6 +168,9 @@ public class UDPConnector implements Connector {
 	
 	private abstract class Worker extends Thread {
 
+		/** Indicates that the thread is no longer needed */
+		private volatile boolean retired;
+
 		/**
 		 * Instantiates a new worker.
 		 *
@@ -167,11 +186,11 @@ public class UDPConnector implements Connector {
 		 */
 		public void run() {
 			LOGGER.config("Start "+getName());
-			while (running) {
+			while (running && !retired) {
 				try {
 					work();
 				} catch (Throwable t) {
-					if (running)
+					if (running && !retired)
 						LOGGER.log(Level.WARNING, "Exception \""+t+"\" in thread " + getName()+": running="+running, t);
 					else
 						LOGGER.info(getName()+" has successfully stopped");
@@ -197,6 +216,10 @@ public class UDPConnector implements Connector {
 		}
 		
 		protected void work() throws IOException {
+			if (size != receiverPacketSize) {
+				size = receiverPacketSize;
+				datagram = new DatagramPacket(new byte[size], size);
+			}
 			datagram.setLength(size);
 			socket.receive(datagram);
 			if (logPackets)
@@ -232,32 +255,77 @@ public class UDPConnector implements Connector {
 		}
 	}
 	
-	public void setReceiveBufferSize(int size) {
+	public synchronized void setReceiveBufferSize(int size) {
 		this.receiveBuffer = size;
+		if (running && size != UNDEFINED) {
+			try {
+				socket.setReceiveBufferSize(size);
+				receiveBuffer = socket.getReceiveBufferSize();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Cannot change the receive buffer size of "+localAddr, e);
+			}
+		}
 	}
 	
 	public int getReceiveBufferSize() {
 		return receiveBuffer;
 	}
 	
-	public void setSendBufferSize(int size) {
+	public synchronized void setSendBufferSize(int size) {
 		this.sendBuffer = size;
+		if (running && size != UNDEFINED) {
+			try {
+				socket.setSendBufferSize(size);
+				sendBuffer = socket.getSendBufferSize();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Cannot change the send buffer size of "+localAddr, e);
+			}
+		}
 	}
 	
 	public int getSendBufferSize() {
 		return sendBuffer;
 	}
 	
-	public void setReceiverThreadCount(int count) {
+	public synchronized void setReceiverThreadCount(int count) {
 		this.receiverCount = count;
+		if (running) {
+			while (receiverThreads.size() < count) {
+				Thread t = new Receiver("UDP-Receiver "+localAddr+"["+receiverThreads.size()+"]");
+				receiverThreads.add(t);
+				t.start();
+			}
+			retire(receiverThreads, count);
+		}
 	}
 	
 	public int getReceiverThreadCount() {
 		return receiverCount;
 	}
 	
-	public void setSenderThreadCount(int count) {
+	public synchronized void setSenderThreadCount(int count) {
 		this.senderCount = count;
+		if (running) {
+			while (senderThreads.size() < count) {
+				Thread t = new Sender("UDP-Sender "+localAddr+"["+senderThreads.size()+"]");
+				senderThreads.add(t);
+				t.start();
+			}
+			retire(senderThreads, count);
+		}
+	}
+	
+	/*
+	 * Lets the threads beyond the specified count terminate. A sender stops
+	 * waiting for the next datagram right away, a receiver after the next
+	 * datagram it receives.
+	 */
+	private void retire(List<Thread> threads, int count) {
+		while (threads.size() > Math.max(count, 1)) {
+			Worker worker = (Worker) threads.remove(threads.size() - 1);
+			worker.retired = true;
+			worker.interrupt();
+		}
 	}
 	
 	public int getSenderThreadCount() {
@@ -279,4 +347,19 @@ public class UDPConnector implements Connector {
 	public boolean isLogPackets() {
 		return logPackets;
 	}
+	
+	/**
+	 * Allows the socket to share its port with other sockets, e.g., with the
+	 * socket of a {@link UDPMulticastConnector}. Must be set before the
+	 * connector starts.
+	 *
+	 * @param reuseAddress whether to enable SO_REUSEADDR
+	 */
+	public void setReuseAddress(boolean reuseAddress) {
+		this.reuseAddress = reuseAddress;
+	}
+	
+	public boolean isReuseAddress() {
+		return reuseAddress;
+	}
 }
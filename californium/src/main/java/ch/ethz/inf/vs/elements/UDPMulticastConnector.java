@@ -0,0 +1,201 @@
+
+package ch.ethz.inf.vs.elements;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The UDPMulticastConnector is a {@link UDPConnector} that additionally joins
+ * one or more multicast groups. Datagrams sent to a group are received by a
+ * separate {@link MulticastSocket} and handed to the {@link RawDataChannel}
+ * with the multicast flag of the {@link RawData} set. Everything else,
+ * including all outgoing messages and unicast requests, goes over the unicast
+ * socket of the <code>UDPConnector</code>. Responses to multicast requests are
+ * therefore always sent from a unicast address as required by CoAP.
+ * <p>
+ * Both sockets share the same port. On Linux, the multicast socket is bound to
+ * the group address so that it only receives datagrams sent to the group. On
+ * platforms that do not allow binding to a multicast address (e.g., Windows),
+ * it falls back to the wildcard address and might also receive unicast
+ * datagrams. Conversely, a unicast socket bound to the wildcard address might
+ * receive the datagrams of the joined groups, too. The unicast address should
+ * therefore be a specific address of the interface to be used.
+ */
+public class UDPMulticastConnector extends UDPConnector {
+
+	public final static Logger LOGGER = Logger.getLogger(UDPMulticastConnector.class.toString());
+
+	/** The joined multicast groups */
+	private final InetAddress[] groups;
+
+	/** The network interface to join the groups on or null for the default */
+	private final InetAddress interfaceAddress;
+
+	private volatile boolean running;
+
+	private List<MulticastSocket> sockets;
+	private List<Thread> receiverThreads;
+
+	/**
+	 * Instantiates a new connector that listens on the specified unicast
+	 * address and joins the specified groups on the same port.
+	 *
+	 * @param address the unicast address
+	 * @param groups the multicast groups
+	 */
+	public UDPMulticastConnector(InetSocketAddress address, InetAddress... groups) {
+		this(address, null, groups);
+	}
+
+	/**
+	 * Instantiates a new connector that listens on the specified unicast
+	 * address and joins the specified groups on the same port and on the
+	 * network interface with the specified address.
+	 *
+	 * @param address the unicast address
+	 * @param interfaceAddress the address of the network interface or null
+	 * @param groups the multicast groups
+	 */
+	public UDPMulticastConnector(InetSocketAddress address, InetAddress interfaceAddress, InetAddress... groups) {
+		super(address);
+		if (address.getPort() == 0)
+			throw new IllegalArgumentException("Multicast connector requires a port");
+		for (InetAddress group:groups) {
+			if (!group.isMulticastAddress())
+				throw new IllegalArgumentException(group+" is not a multicast address");
+		}
+		this.groups = groups.clone();
+		this.interfaceAddress = interfaceAddress;
+		setReuseAddress(true);
+	}
+
+	@Override
+	public synchronized void start() throws IOException {
+		if (running) return;
+		super.start();
+
+		int port = getAddress().getPort();
+		sockets = new LinkedList<MulticastSocket>();
+		receiverThreads = new LinkedList<Thread>();
+		try {
+			for (InetAddress group:groups) {
+				MulticastSocket socket = createSocket(group, port);
+				sockets.add(socket);
+				receiverThreads.add(new MulticastReceiver("UDP-Multicast-Receiver "+group.getHostAddress()+":"+port, socket));
+			}
+		} catch (IOException e) {
+			for (MulticastSocket socket:sockets)
+				socket.close();
+			super.stop();
+			throw e;
+		}
+
+		running = true;
+		for (Thread t:receiverThreads)
+			t.start();
+		LOGGER.config("UDP multicast connector joined "+Arrays.toString(groups)+" on port "+port);
+	}
+
+	/*
+	 * Creates a socket bound to the group address (or the wildcard address if
+	 * the platform does not support that) and joins the group.
+	 */
+	private MulticastSocket createSocket(InetAddress group, int port) throws IOException {
+		MulticastSocket socket = new MulticastSocket(null);
+		socket.setReuseAddress(true);
+		try {
+			socket.bind(new InetSocketAddress(group, port));
+		} catch (SocketException e) {
+			LOGGER.fine("Cannot bind to "+group+" ("+e.getMessage()+"), binding to wildcard address");
+			socket.bind(new InetSocketAddress(port));
+		}
+		if (interfaceAddress != null)
+			socket.setInterface(interfaceAddress);
+		socket.joinGroup(group);
+		return socket;
+	}
+
+	@Override
+	public synchronized void stop() {
+		if (running) {
+			running = false;
+			for (Thread t:receiverThreads)
+				t.interrupt();
+			// the sockets are in the same order as the groups
+			int i = 0;
+			for (MulticastSocket socket:sockets) {
+				try {
+					socket.leaveGroup(groups[i++]);
+				} catch (IOException e) {
+					LOGGER.log(Level.FINE, "Cannot leave multicast group", e);
+				}
+				socket.close();
+			}
+			sockets = null;
+			receiverThreads = null;
+		}
+		super.stop();
+	}
+
+	/**
+	 * Returns the joined multicast groups.
+	 *
+	 * @return the groups
+	 */
+	public InetAddress[] getGroups() {
+		return groups.clone();
+	}
+
+	/**
+	 * Receives the datagrams of one multicast group and marks them as
+	 * multicast messages.
+	 */
+	private class MulticastReceiver extends Thread {
+
+		private final MulticastSocket socket;
+		private final DatagramPacket datagram;
+		private final int size;
+
+		private MulticastReceiver(String name, MulticastSocket socket) {
+			super(name);
+			setDaemon(true);
+			this.socket = socket;
+			this.size = getReceiverPacketSize();
+			this.datagram = new DatagramPacket(new byte[size], size);
+		}
+
+		public void run() {
+			LOGGER.config("Start "+getName());
+			while (running) {
+				try {
+					datagram.setLength(size);
+					socket.receive(datagram);
+					if (isLogPackets())
+						LOGGER.fine("Multicast connector ("+socket.getLocalSocketAddress()+") received "+datagram.getLength()+" bytes from "+datagram.getAddress()+":"+datagram.getPort());
+
+					byte[] bytes = Arrays.copyOfRange(datagram.getData(), datagram.getOffset(), datagram.getOffset() + datagram.getLength());
+					RawData msg = new RawData(bytes);
+					msg.setAddress(datagram.getAddress());
+					msg.setPort(datagram.getPort());
+					msg.setMulticast(true);
+
+					getRawDataReceiver().receiveData(msg);
+				} catch (Throwable t) {
+					if (running)
+						LOGGER.log(Level.WARNING, "Exception \""+t+"\" in thread " + getName()+": running="+running, t);
+					else
+						LOGGER.info(getName()+" has successfully stopped");
+				}
+			}
+		}
+	}
+}
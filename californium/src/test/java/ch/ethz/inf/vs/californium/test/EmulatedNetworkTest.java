@@ -0,0 +1,123 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.server.Server;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+import ch.ethz.inf.vs.elements.EmulatedNetwork;
+import ch.ethz.inf.vs.elements.RawData;
+
+/**
+ * This test exchanges requests and responses over an emulated network with
+ * latency and loss.
+ */
+public class EmulatedNetworkTest {
+
+	private static final String RESPONSE = "emulated";
+
+	private EmulatedNetwork network;
+	private NetworkConfig config;
+	private Server server;
+	private CoAPEndpoint client;
+	private InetSocketAddress serverAddress;
+
+	@Before
+	public void startupServer() throws Exception {
+		System.out.println("\nStart "+getClass().getSimpleName());
+		network = new EmulatedNetwork(42);
+		network.start();
+		config = new NetworkConfig();
+		config.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 200);
+		config.setInt(NetworkConfigDefaults.MAX_RETRANSMIT, 8);
+
+		server = new Server();
+		server.add(new ResourceBase("test") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, RESPONSE);
+			}
+		});
+		CoAPEndpoint endpoint = new CoAPEndpoint(network.createConnector(), config);
+		server.addEndpoint(endpoint);
+		server.start();
+		serverAddress = endpoint.getAddress();
+
+		client = new CoAPEndpoint(network.createConnector(), config);
+		client.start();
+	}
+
+	@After
+	public void shutdownServer() {
+		client.destroy();
+		server.destroy();
+		network.stop();
+		System.out.println("End "+getClass().getSimpleName());
+	}
+
+	@Test
+	public void testLatency() throws Exception {
+		network.setLatency(50);
+		long start = System.nanoTime();
+		Response response = get();
+		long rtt = (System.nanoTime() - start) / 1000000;
+		assertNotNull(response);
+		assertEquals(RESPONSE, response.getPayloadString());
+		assertTrue("Round trip took only "+rtt+" ms", rtt >= 100);
+		assertEquals(2, network.getSent());
+		assertEquals(2, network.getDelivered());
+	}
+
+	@Test
+	public void testRetransmissionsOnLoss() throws Exception {
+		network.setLatency(5).setLoss(0.3);
+		for (int i=0;i<10;i++) {
+			Response response = get();
+			assertNotNull("Request "+i+" has not completed", response);
+			assertEquals(RESPONSE, response.getPayloadString());
+		}
+		assertTrue(network.getLost() > 0);
+		// every lost request or response requires at least one more datagram
+		assertTrue(network.getSent() >= 20 + network.getLost());
+	}
+
+	@Test
+	public void testUndeliverable() throws Exception {
+		RawData raw = new RawData(new byte[] { 0x40, 0x01, 0x00, 0x01 }, serverAddress.getAddress(), serverAddress.getPort() + 1);
+		network.createConnector().send(raw); // connector not started
+		assertEquals(0, network.getSent());
+
+		server.stop();
+		Response response = get(500);
+		assertEquals(null, response);
+		assertTrue(network.getUndeliverable() > 0);
+	}
+
+	private Response get() throws InterruptedException {
+		return get(10000);
+	}
+
+	private Response get(long timeout) throws InterruptedException {
+		Request request = new Request(Code.GET);
+		request.getOptions().setURIPath("test");
+		request.setDestination(serverAddress.getAddress());
+		request.setDestinationPort(serverAddress.getPort());
+		client.sendRequest(request);
+		return request.waitForResponse(timeout);
+	}
+}
@@ -0,0 +1,144 @@
+package ch.ethz.inf.vs.californium.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.server.Server;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+import ch.ethz.inf.vs.elements.InMemoryConnector;
+
+/**
+ * This test exchanges requests and responses between a client and a server
+ * with in-memory connectors.
+ */
+public class InMemoryConnectorTest {
+
+	private static final String RESPONSE = "in-memory";
+	private static final int SERVER_PORT = 7777;
+
+	private Server server;
+	private CoAPEndpoint client;
+	private InetSocketAddress serverAddress;
+
+	@Before
+	public void startupServer() throws Exception {
+		System.out.println("\nStart "+getClass().getSimpleName());
+		NetworkConfig config = new NetworkConfig();
+		server = new Server();
+		server.add(new ResourceBase("test") {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, RESPONSE);
+			}
+
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CHANGED, exchange.getRequestPayload());
+			}
+		});
+		CoAPEndpoint endpoint = new CoAPEndpoint(new InMemoryConnector(SERVER_PORT), config);
+		server.addEndpoint(endpoint);
+		server.start();
+		serverAddress = endpoint.getAddress();
+
+		client = new CoAPEndpoint(new InMemoryConnector(), config);
+		client.start();
+	}
+
+	@After
+	public void shutdownServer() {
+		client.destroy();
+		server.destroy();
+		System.out.println("End "+getClass().getSimpleName());
+	}
+
+	@Test
+	public void testRequests() throws Exception {
+		for (int i=0;i<100;i++) {
+			Request request = request(Code.GET);
+			client.sendRequest(request);
+			Response response = request.waitForResponse(1000);
+			assertNotNull("Request "+i+" has not completed", response);
+			assertEquals(RESPONSE, response.getPayloadString());
+		}
+	}
+
+	@Test
+	public void testBlockwise() throws Exception {
+		byte[] payload = new byte[3000];
+		for (int i=0;i<payload.length;i++)
+			payload[i] = (byte) i;
+		Request request = request(Code.POST);
+		request.setPayload(payload);
+		client.sendRequest(request);
+		Response response = request.waitForResponse(5000);
+		assertNotNull(response);
+		assertEquals(ResponseCode.CHANGED, response.getCode());
+		assertEquals(true, Arrays.equals(payload, response.getPayload()));
+	}
+
+	@Test
+	public void testAddressInUse() throws Exception {
+		InMemoryConnector connector = new InMemoryConnector(SERVER_PORT);
+		try {
+			connector.start();
+			fail("Port "+SERVER_PORT+" is already in use");
+		} catch (BindException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testEphemeralPortsExhausted() throws Exception {
+		List<InMemoryConnector> started = new ArrayList<InMemoryConnector>();
+		try {
+			for (int port=InMemoryConnector.EPHEMERAL_PORTS;port<=65535;port++) {
+				InMemoryConnector connector = new InMemoryConnector();
+				connector.start();
+				started.add(connector);
+			}
+			fail("All ephemeral ports are in use");
+		} catch (BindException e) {
+			// expected, the client already uses one of the ports
+			assertEquals(65535 - InMemoryConnector.EPHEMERAL_PORTS, started.size());
+		} finally {
+			for (InMemoryConnector connector:started)
+				connector.destroy();
+		}
+	}
+
+	@Test
+	public void testStoppedServer() throws Exception {
+		server.stop();
+		Request request = request(Code.GET);
+		client.sendRequest(request);
+		assertNull(request.waitForResponse(500));
+	}
+
+	private Request request(Code code) {
+		Request request = new Request(code);
+		request.getOptions().setURIPath("test");
+		request.setDestination(serverAddress.getAddress());
+		request.setDestinationPort(serverAddress.getPort());
+		return request;
+	}
+}
@@ -0,0 +1,67 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.LinkFilter;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+public class LinkFilterTest {
+
+	private Resource temp;
+
+	@Before
+	public void setup() {
+		Resource root = new ResourceBase("");
+		Resource sensors = new ResourceBase("sensors");
+		temp = new ResourceBase("temp");
+		root.add(sensors);
+		sensors.add(temp);
+		temp.getAttributes().addAttribute("rt", "temperature-c outdoor");
+		temp.getAttributes().addInterfaceDescription("sensor");
+		temp.getAttributes().setObservable();
+		temp.getAttributes().addContentType(0);
+	}
+
+	@Test
+	public void testSingleQuery() {
+		Assert.assertTrue(matches("rt=temperature-c"));
+		Assert.assertTrue(matches("rt=outdoor"));
+		Assert.assertTrue(matches("rt=temperature-c outdoor"));
+		Assert.assertFalse(matches("rt=temperature"));
+		Assert.assertTrue(matches("rt=temp*"));
+		Assert.assertTrue(matches("rt=out*"));
+		Assert.assertTrue(matches("rt=*"));
+		Assert.assertFalse(matches("rt=indoor*"));
+		Assert.assertTrue(matches("obs"));
+		Assert.assertFalse(matches("title"));
+		Assert.assertFalse(matches("title=foo"));
+	}
+
+	@Test
+	public void testHref() {
+		Assert.assertTrue(matches("href=/sensors/temp"));
+		Assert.assertFalse(matches("href=/sensors/te"));
+		Assert.assertFalse(matches("href=/sensors/temp/x"));
+		Assert.assertTrue(matches("href=/sens*"));
+		Assert.assertTrue(matches("href=/sensors/te*"));
+		Assert.assertTrue(matches("href=/sensors/temp*"));
+		Assert.assertFalse(matches("href=/sensors/temps*"));
+	}
+
+	@Test
+	public void testCombinedQueries() {
+		Assert.assertTrue(matches("rt=temperature-c", "if=sensor", "ct=0"));
+		Assert.assertFalse(matches("rt=temperature-c", "if=actuator"));
+		Assert.assertFalse(matches("if=actuator", "rt=temperature-c"));
+		Assert.assertTrue(LinkFilter.compile(null).matches(temp));
+	}
+
+	private boolean matches(String... queries) {
+		return LinkFilter.compile(Arrays.asList(queries)).matches(temp);
+	}
+}
@@ -0,0 +1,63 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.WebLink;
+import ch.ethz.inf.vs.californium.coap.LinkFormat;
+import ch.ethz.inf.vs.californium.coap.LinkFormatParser;
+
+public class LinkFormatParserTest {
+
+	@Test
+	public void testParse() {
+		List<String> events = parse("</sensors/temp>;rt=\"temperature-c\";if=sensor;obs, </x>;title=\"a, \\\"b\\\"\";;ct=40");
+		Assert.assertEquals("[link /sensors/temp, rt=\"temperature-c\", if=sensor, obs, end, "
+				+ "link /x, title=\"a, \"b\"\", ct=40, end, well-formed]", events.toString());
+	}
+	
+	@Test
+	public void testMalformed() {
+		Assert.assertEquals("[link /a, end, malformed]", parse("</a>,/b").toString());
+		Assert.assertEquals("[link /a, end, malformed]", parse("</a> rt=x").toString());
+		Assert.assertEquals("[link /a, end, malformed]", parse("</a>;title=\"open").toString());
+		Assert.assertEquals("[malformed]", parse("<unterminated").toString());
+	}
+	
+	@Test
+	public void testUTF8() {
+		List<String> events = parse("</x>;title=\"Gr\u00fc\u00dfe\"");
+		Assert.assertEquals("title=\"Gr\u00fc\u00dfe\"", events.get(1));
+	}
+	
+	@Test
+	public void testLinkFormatParse() {
+		Set<WebLink> links = LinkFormat.parse("</sensors/temp>;rt=\"temperature-c light\";obs,</sensors/light>;ct=0");
+		Assert.assertEquals(2, links.size());
+		WebLink temp = links.toArray(new WebLink[2])[1];
+		Assert.assertEquals("/sensors/temp", temp.getURI());
+		Assert.assertEquals("[temperature-c, light]", temp.getAttributes().getResourceTypes().toString());
+		Assert.assertTrue(temp.getAttributes().hasObservable());
+	}
+	
+	private static List<String> parse(String linkFormat) {
+		final List<String> events = new ArrayList<String>();
+		boolean wellFormed = LinkFormatParser.parse(linkFormat, new LinkFormatParser.Handler() {
+			public void startLink(String uri) {
+				events.add("link " + uri);
+			}
+			public void attribute(String name, String value, boolean quoted) {
+				events.add(value == null ? name : quoted ? name + "=\"" + value + "\"" : name + "=" + value);
+			}
+			public void endLink() {
+				events.add("end");
+			}
+		});
+		events.add(wellFormed ? "well-formed" : "malformed");
+		return events;
+	}
+}
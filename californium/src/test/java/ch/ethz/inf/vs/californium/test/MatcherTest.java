@@ -0,0 +1,167 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.Matcher;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+import ch.ethz.inf.vs.californium.observe.ObservingEndpoint;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This test tests how the matcher stores and finds the exchanges of
+ * outgoing requests.
+ */
+public class MatcherTest {
+
+	private static final byte[] TOKEN = new byte[] { 1, 2, 3, 4 };
+
+	private ScheduledExecutorService executor;
+	private NetworkConfig config;
+	private Matcher matcher;
+
+	@Before
+	public void setup() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		config = new NetworkConfig();
+		matcher = new Matcher(config);
+		matcher.setExecutor(executor);
+		matcher.start();
+	}
+
+	@After
+	public void after() {
+		matcher.stop();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testTokenCollision() throws Exception {
+		Exchange first = newExchange(1);
+		matcher.sendRequest(first, first.getRequest());
+		Exchange second = newExchange(2);
+		matcher.sendRequest(second, second.getRequest());
+
+		// the request with the token in use is not sent
+		Assert.assertTrue(second.getRequest().isCanceled());
+		Assert.assertFalse(first.getRequest().isCanceled());
+		Assert.assertSame(first, matcher.receiveResponse(newResponse(1)));
+	}
+
+	@Test
+	public void testTokenOfCanceledRequest() throws Exception {
+		Exchange first = newExchange(1);
+		matcher.sendRequest(first, first.getRequest());
+		first.getRequest().cancel();
+		Exchange second = newExchange(2);
+		matcher.sendRequest(second, second.getRequest());
+		Assert.assertFalse(second.getRequest().isCanceled());
+
+		// the cleanup of the first exchange keeps the second one
+		first.setComplete();
+		Assert.assertSame(second, matcher.receiveResponse(newResponse(2)));
+	}
+
+	@Test
+	public void testRstForOlderNotification() throws Exception {
+		Request request = new Request(Code.GET, Type.CON);
+		request.setSource(InetAddress.getByName("10.0.0.1"));
+		request.setSourcePort(5683);
+		request.setToken(TOKEN);
+		Exchange exchange = new Exchange(request, Origin.REMOTE);
+		ObservingEndpoint endpoint = new ObservingEndpoint(new InetSocketAddress(request.getSource(), request.getSourcePort()));
+		exchange.setRelation(new ObserveRelation(endpoint, new ResourceBase("res"), exchange));
+		matcher.sendResponse(exchange, newNotification(10, 1));
+		matcher.sendResponse(exchange, newNotification(11, 2));
+
+		// the client may reject any notification within the exchange lifetime
+		EmptyMessage rst = new EmptyMessage(Type.RST);
+		rst.setMID(10);
+		rst.setSource(request.getSource());
+		rst.setSourcePort(request.getSourcePort());
+		Assert.assertSame(exchange, matcher.receiveEmptyMessage(rst));
+
+		// the RST has ended the relation
+		rst.setMID(11);
+		Assert.assertNull(matcher.receiveEmptyMessage(rst));
+	}
+
+	@Test
+	public void testRetransmission() throws Exception {
+		Exchange exchange = newExchange(1);
+		matcher.sendRequest(exchange, exchange.getRequest());
+		matcher.sendRequest(exchange, exchange.getRequest());
+		Assert.assertFalse(exchange.getRequest().isCanceled());
+		Assert.assertSame(exchange, matcher.receiveResponse(newResponse(1)));
+	}
+
+	@Test
+	public void testReplaceDeduplicator() throws Exception {
+		Exchange exchange = matcher.receiveRequest(newIncomingRequest(1));
+		config.setString(NetworkConfigDefaults.DEDUPLICATOR, NetworkConfigDefaults.DEDUPLICATOR_CROP_ROTATION);
+
+		// the replaced deduplicator still detects the duplicate
+		Request duplicate = newIncomingRequest(1);
+		Assert.assertSame(exchange, matcher.receiveRequest(duplicate));
+		Assert.assertTrue(duplicate.isDuplicate());
+	}
+
+	private static Request newIncomingRequest(int mid) throws Exception {
+		Request request = new Request(Code.GET, Type.CON);
+		request.setSource(InetAddress.getByName("10.0.0.1"));
+		request.setSourcePort(5683);
+		request.setToken(TOKEN);
+		request.setMID(mid);
+		return request;
+	}
+
+	private static Exchange newExchange(int mid) throws Exception {
+		Request request = new Request(Code.GET, Type.CON);
+		request.setDestination(InetAddress.getByName("10.0.0.1"));
+		request.setDestinationPort(5683);
+		request.setToken(TOKEN);
+		request.setMID(mid);
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		exchange.setRequest(request);
+		return exchange;
+	}
+
+	private static Response newNotification(int mid, int number) throws Exception {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.NON);
+		response.setMID(mid);
+		response.setToken(TOKEN);
+		response.getOptions().setObserve(number);
+		response.setDestination(InetAddress.getByName("10.0.0.1"));
+		response.setDestinationPort(5683);
+		response.setLast(false);
+		return response;
+	}
+
+	private static Response newResponse(int mid) throws Exception {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.ACK);
+		response.setMID(mid);
+		response.setToken(TOKEN);
+		response.setSource(InetAddress.getByName("10.0.0.1"));
+		response.setSourcePort(5683);
+		return response;
+	}
+}
@@ -0,0 +1,83 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.net.InetAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.Matcher;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+
+/**
+ * This test tests that the matcher collects the responses of all servers to a
+ * multicast request in the same exchange.
+ */
+public class MulticastMatcherTest {
+
+	private static final byte[] TOKEN = new byte[] { 1, 2, 3, 4 };
+
+	private ScheduledExecutorService executor;
+	private Matcher matcher;
+
+	@Before
+	public void setup() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		matcher = new Matcher(new NetworkConfig());
+		matcher.setExecutor(executor);
+		matcher.start();
+	}
+
+	@After
+	public void after() {
+		matcher.stop();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testResponsesFromGroup() throws Exception {
+		Request request = new Request(Code.GET, Type.NON);
+		request.setDestination(InetAddress.getByName("224.0.1.187"));
+		request.setDestinationPort(5683);
+		request.setToken(TOKEN);
+		request.setMulticast(true);
+		Exchange exchange = new Exchange(request, Origin.LOCAL);
+		exchange.setRequest(request);
+		matcher.sendRequest(exchange, request);
+
+		Response first = newResponse("10.0.0.1", 100);
+		Assert.assertSame(exchange, matcher.receiveResponse(first));
+		Assert.assertFalse(first.isDuplicate());
+
+		Response second = newResponse("10.0.0.2", 100);
+		Assert.assertSame(exchange, matcher.receiveResponse(second));
+		Assert.assertFalse(second.isDuplicate());
+
+		Response duplicate = newResponse("10.0.0.1", 100);
+		Assert.assertSame(exchange, matcher.receiveResponse(duplicate));
+		Assert.assertTrue(duplicate.isDuplicate());
+
+		exchange.setComplete();
+		Assert.assertNull(matcher.receiveResponse(newResponse("10.0.0.3", 200)));
+	}
+
+	private static Response newResponse(String source, int mid) throws Exception {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.NON);
+		response.setMID(mid);
+		response.setToken(TOKEN);
+		response.setSource(InetAddress.getByName(source));
+		response.setSourcePort(5683);
+		return response;
+	}
+}
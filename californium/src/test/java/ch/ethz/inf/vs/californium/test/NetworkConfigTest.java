@@ -0,0 +1,72 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigObserverAdapter;
+
+public class NetworkConfigTest {
+
+	@Test
+	public void testCachedValuesFollowChanges() {
+		NetworkConfig config = new NetworkConfig();
+		config.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 1000);
+		Assert.assertEquals(1000, config.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+		Assert.assertEquals(1000, config.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+
+		config.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 3000);
+		Assert.assertEquals(3000, config.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+		Assert.assertEquals(3000L, config.getLong(NetworkConfigDefaults.ACK_TIMEOUT));
+
+		config.set(NetworkConfigDefaults.ACK_RANDOM_FACTOR, 2.0f);
+		Assert.assertTrue(config.getFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR) == 2.0f);
+	}
+
+	@Test
+	public void testAdapterForwardsTypedChanges() {
+		final List<String> changed = new ArrayList<String>();
+		NetworkConfig config = new NetworkConfig();
+		config.addConfigObserver(new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				changed.add(key + "=" + value);
+			}
+		});
+		config.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 1000);
+		config.setFloat(NetworkConfigDefaults.ACK_RANDOM_FACTOR, 1.5f);
+		config.setBoolean(NetworkConfigDefaults.USE_RANDOM_MID_START, false);
+		Assert.assertEquals("[ACK_TIMEOUT=1000, ACK_RANDOM_FACTOR=1.5, USE_RANDOM_MID_START=false]", changed.toString());
+	}
+
+	@Test
+	public void testLoadNotifiesObservers() throws Exception {
+		final List<String> changed = new ArrayList<String>();
+		NetworkConfig config = new NetworkConfig();
+		Assert.assertEquals(2000, config.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+		config.addConfigObserver(new NetworkConfigObserverAdapter() {
+			@Override
+			public void changed(String key, Object value) {
+				changed.add(key + "=" + value);
+			}
+		});
+
+		File file = File.createTempFile("NetworkConfigTest", ".properties");
+		try {
+			FileWriter writer = new FileWriter(file);
+			writer.write(NetworkConfigDefaults.ACK_TIMEOUT + "=5000\n");
+			writer.close();
+			config.load(file);
+		} finally {
+			file.delete();
+		}
+		Assert.assertEquals("[ACK_TIMEOUT=5000]", changed.toString());
+		Assert.assertEquals(5000, config.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+	}
+}
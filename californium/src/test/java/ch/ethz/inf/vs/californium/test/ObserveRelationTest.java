@@ -0,0 +1,88 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.observe.ObserveRelation;
+import ch.ethz.inf.vs.californium.observe.ObservingEndpoint;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This test tests that an observe relation mixes in CON notifications more
+ * often when CON notifications get lost and less often when they are
+ * acknowledged right away.
+ */
+public class ObserveRelationTest {
+
+	private ObserveRelation relation;
+
+	@Before
+	public void setup() {
+		ObservingEndpoint endpoint = new ObservingEndpoint(new InetSocketAddress(5683));
+		Exchange exchange = new Exchange(Request.newGet(), Origin.REMOTE);
+		relation = new ObserveRelation(endpoint, new ResourceBase("res"), exchange);
+	}
+
+	@Test
+	public void testAdaptiveChecks() {
+		// a lossy path makes every notification a CON
+		for (int i = 0; i < 10; i++) {
+			relation.reportLoss();
+		}
+		Assert.assertEquals(0, countNonBetweenChecks());
+		Assert.assertEquals(0, countNonBetweenChecks());
+
+		// every acknowledged CON allows one more NON in a row
+		relation.reportDelivery();
+		relation.reportDelivery();
+		Assert.assertEquals(2, countNonBetweenChecks());
+
+		relation.reportLoss();
+		Assert.assertEquals(0, countNonBetweenChecks());
+	}
+
+	@Test
+	public void testCoalesceNotifications() {
+		Response first = new Response(ResponseCode.CONTENT);
+		Response second = new Response(ResponseCode.CONTENT);
+		relation.setNextControlNotification(first);
+		relation.setNextControlNotification(second);
+		Assert.assertSame(second, relation.getNextControlNotification());
+
+		relation.cancel();
+		Assert.assertNull(relation.getNextControlNotification());
+	}
+
+	@Test
+	public void testNotificationKeys() throws Exception {
+		KeyMID first = new KeyMID(1, new byte[] { 10, 0, 0, 1 }, 5683);
+		KeyMID second = new KeyMID(2, new byte[] { 10, 0, 0, 1 }, 5683);
+		Assert.assertTrue(relation.addNotificationKey(first, 1000).isEmpty());
+		// a retransmission has the same key
+		Assert.assertTrue(relation.addNotificationKey(first, 1000).isEmpty());
+		Thread.sleep(10);
+		Assert.assertEquals(Collections.singletonList(first), relation.addNotificationKey(second, 5));
+		Assert.assertEquals(Collections.singletonList(second), relation.clearNotificationKeys());
+	}
+
+	/*
+	 * Returns the number of NON notifications until the next CON.
+	 */
+	private int countNonBetweenChecks() {
+		int count = 0;
+		while (!relation.check()) {
+			count++;
+		}
+		return count;
+	}
+}
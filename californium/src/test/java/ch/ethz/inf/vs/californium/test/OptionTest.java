@@ -7,7 +7,10 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
 import ch.ethz.inf.vs.californium.coap.CoAP.OptionRegistry;
+import ch.ethz.inf.vs.californium.coap.EncodedOptions;
 import ch.ethz.inf.vs.californium.coap.Option;
 import ch.ethz.inf.vs.californium.coap.OptionSet;
 
@@ -140,4 +143,35 @@ public class OptionTest {
 		options.clearETags();
 		Assert.assertFalse(options.hasOption(OptionRegistry.ETAG));
 	}
+	
+	@Test
+	public void testEncodedOptions() {
+		OptionSet options = new OptionSet();
+		options.addOption(new Option(43, "other"));
+		options.setObserve(0);
+		options.setBlock2(2, true, 300);
+		options.addURIPath("r\u00e9sum\u00e9");
+		options.addURIPath("\u20ac");
+		options.addURIQuery("a=1");
+		options.setContentFormat(0);
+		options.setMaxAge(70000);
+		options.setURIPort(5683);
+		options.addETag(new byte[] {1, 2, 3});
+		options.setIfNoneMatch(true);
+
+		EncodedOptions encoded = options.encode(new EncodedOptions());
+		List<Option> sorted = options.asSortedList();
+		Assert.assertEquals(sorted.size(), encoded.size());
+		for (int i = 0; i < sorted.size(); i++) {
+			Option option = sorted.get(i);
+			Assert.assertEquals(option.getNumber(), encoded.getNumber(i));
+			byte[] value = new byte[encoded.getLength(i)];
+			System.arraycopy(encoded.getValues(), encoded.getOffset(i), value, 0, value.length);
+			assertArrayEquals(option.getValue(), value);
+		}
+		
+		// the encoded options can be reused
+		options.clearURIPaths();
+		Assert.assertEquals(sorted.size() - 2, options.encode(encoded).size());
+	}
 }
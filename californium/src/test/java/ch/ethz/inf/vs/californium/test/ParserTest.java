@@ -4,6 +4,9 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.junit.Test;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.Code;
@@ -68,4 +71,39 @@ public class ParserTest {
 		assertArrayEquals(response.getToken(), result.getToken());
 		assertEquals(response.getOptions().asSortedList(), result.getOptions().asSortedList());
 	}
+	
+	@Test
+	public void testSerializationIntoBuffer() {
+		Response response = new Response(ResponseCode.CONTENT);
+		response.setType(Type.CON);
+		response.setMID(65535);
+		response.setToken(new byte[] {1, 2, 3});
+		byte[] etag = new byte[8];
+		byte[] large = new byte[300];
+		Arrays.fill(large, (byte) 'x');
+		response.getOptions().addETag(etag)
+							.addOption(new Option(1000, large))
+							.addOption(new Option(2000, "value"));
+		response.setPayload("payload");
+		
+		DataSerializer serializer = new DataSerializer();
+		byte[] bytes = serializer.serializeResponse(response);
+		assertEquals(bytes.length, serializer.getSize(response));
+		
+		byte[] buffer = new byte[bytes.length + 10];
+		assertEquals(bytes.length, serializer.serialize(response, buffer, 5));
+		assertArrayEquals(bytes, Arrays.copyOfRange(buffer, 5, 5 + bytes.length));
+		
+		ByteBuffer byteBuffer = ByteBuffer.allocate(bytes.length + 2);
+		byteBuffer.put((byte) 0);
+		serializer.serialize(response, byteBuffer);
+		assertEquals(bytes.length + 1, byteBuffer.position());
+		assertArrayEquals(bytes, Arrays.copyOfRange(byteBuffer.array(), 1, 1 + bytes.length));
+		
+		Response result = new DataParser(bytes).parseResponse();
+		assertEquals(65535, result.getMID());
+		assertEquals(Type.CON, result.getType());
+		assertEquals(response.getOptions().asSortedList(), result.getOptions().asSortedList());
+		assertEquals("payload", result.getPayloadString());
+	}
 }
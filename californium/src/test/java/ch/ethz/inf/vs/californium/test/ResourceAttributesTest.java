@@ -55,6 +55,41 @@ public class ResourceAttributesTest {
 				);
 	}
 	
+	@Test
+	public void testDiscoveryInvalidation() {
+		DiscoveryResource discovery = new DiscoveryResource(root);
+		Assert.assertTrue(discovery.discoverTree(root, new LinkedList<String>()).contains("rt=\"light-lux\""));
+		
+		Resource sensors = root.getChild("sensors");
+		Resource light = sensors.getChild("light");
+		light.getAttributes().clearResourceType();
+		light.getAttributes().addResourceType("light-lx");
+		String serialized = discovery.discoverTree(root, new LinkedList<String>());
+		Assert.assertTrue(serialized.contains("rt=\"light-lx\""));
+		Assert.assertFalse(serialized.contains("rt=\"light-lux\""));
+		
+		Resource humidity = new ResourceBase("humidity");
+		sensors.add(humidity);
+		Assert.assertTrue(discovery.discoverTree(root, new LinkedList<String>()).contains("</sensors/humidity>"));
+		
+		sensors.remove(light);
+		Assert.assertFalse(discovery.discoverTree(root, new LinkedList<String>()).contains("</sensors/light>"));
+		
+		((ResourceBase) humidity).setVisible(false);
+		Assert.assertFalse(discovery.discoverTree(root, new LinkedList<String>()).contains("</sensors/humidity>"));
+	}
+	
+	@Test
+	public void testUnmodifiableKeySet() {
+		try {
+			// removing an attribute must notify the resource
+			root.getChild("sensors").getAttributes().getAttributeKeySet().clear();
+			Assert.fail("The key set must not be modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+	
 	@Test
 	public void testDiscoveryFiltering() {
 		Request request = Request.newGet();
@@ -0,0 +1,45 @@
+package ch.ethz.inf.vs.californium.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.network.Exchange.KeyToken;
+import ch.ethz.inf.vs.californium.network.TokenGenerator;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+
+public class TokenGeneratorTest {
+
+	private static final byte[] ADDRESS = new byte[] { 127, 0, 0, 1 };
+
+	@Test
+	public void testUniqueTokens() {
+		TokenGenerator generator = new TokenGenerator(new NetworkConfig());
+		Set<KeyToken> keys = new HashSet<KeyToken>();
+		for (int i = 0; i < 10000; i++) {
+			byte[] token = generator.nextBytes();
+			Assert.assertEquals(TokenGenerator.TOKEN_LENGTH, token.length);
+			Assert.assertTrue(keys.add(new KeyToken(token, ADDRESS, 5683)));
+		}
+	}
+
+	@Test
+	public void testConversion() {
+		long token = 0x0102030405060708L;
+		byte[] bytes = TokenGenerator.toBytes(token);
+		Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }, bytes);
+		Assert.assertEquals(token, TokenGenerator.toLong(bytes));
+		Assert.assertEquals(-1L, TokenGenerator.toLong(TokenGenerator.toBytes(-1L)));
+		Assert.assertEquals(0L, TokenGenerator.toLong(new byte[0]));
+	}
+
+	@Test
+	public void testKeyTokenLength() {
+		KeyToken key = new KeyToken(new byte[] { 0, 1 }, ADDRESS, 5683);
+		Assert.assertEquals(key, new KeyToken(new byte[] { 0, 1 }, ADDRESS, 5683));
+		Assert.assertFalse(key.equals(new KeyToken(new byte[] { 1 }, ADDRESS, 5683)));
+		Assert.assertFalse(key.equals(new KeyToken(new byte[] { 0, 1 }, ADDRESS, 5684)));
+	}
+}
@@ -0,0 +1,188 @@
+package ch.ethz.inf.vs.californium.test.lockstep;
+
+import static ch.ethz.inf.vs.californium.coap.CoAP.Code.GET;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Code.PUT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CHANGED;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CONTENT;
+import static ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode.CONTINUE;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Type.ACK;
+import static ch.ethz.inf.vs.californium.coap.CoAP.Type.CON;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.ethz.inf.vs.californium.coap.BlockOption;
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.Endpoint;
+import ch.ethz.inf.vs.californium.network.EndpointManager.ClientMessageDeliverer;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+
+/**
+ * This test checks that a client leaves the blocks of a request with
+ * blockwise streaming to the application, as the HTTP proxy does when it
+ * streams chunked bodies.
+ */
+public class BlockwiseStreamingTest {
+
+	private LockstepEndpoint server;
+	
+	private Endpoint client;
+	private int clientPort = 0;
+	
+	private ClientBlockwiseInterceptor clientInterceptor = new ClientBlockwiseInterceptor();
+	
+	@Before
+	public void setupClient() throws IOException {
+		System.out.println("\nStart "+getClass().getSimpleName());
+		
+		NetworkConfig config = new NetworkConfig()
+			.setInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE, 128)
+			.setInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE, 128)
+			.setInt(NetworkConfigDefaults.ACK_TIMEOUT, 200) // client retransmits after 200 ms
+			.setInt(NetworkConfigDefaults.ACK_RANDOM_FACTOR, 1);
+		client = new CoAPEndpoint(new InetSocketAddress(clientPort), config);
+		client.setMessageDeliverer(new ClientMessageDeliverer());
+		client.addInterceptor(clientInterceptor);
+		client.start();
+		clientPort = client.getAddress().getPort();
+		System.out.println("Client binds to port "+clientPort);
+	}
+	
+	@After
+	public void shutdownClient() {
+		System.out.println();
+		client.destroy();
+		System.out.println("End "+getClass().getSimpleName());
+	}
+	
+	/**
+	 * With blockwise streaming, the application retrieves a single block and
+	 * the client neither fetches nor assembles the other blocks.
+	 * <pre>
+	 * CLIENT                                                     SERVER
+	 * |                                                          |
+	 * | CON [MID=1234], GET, /status, 2:1/0/128          ------> |
+	 * |                                                          |
+	 * | <------   ACK [MID=1234], 2.05 Content, 2:1/1/128        |
+	 * </pre>
+	 */
+	@Test
+	public void testRandomAccessGET() throws Exception {
+		System.out.println("Random access GET with blockwise streaming:");
+		String respPayload = generatePayload(300);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		Request request = createRequest(GET, path);
+		request.setBlockwiseStreaming(true);
+		request.getOptions().setBlock2(BlockOption.size2Szx(128), false, 1);
+		client.sendRequest(request);
+		
+		server.expectRequest(CON, GET, path).storeBoth("A").block2(1, false, 128).go();
+		server.sendResponse(ACK, CONTENT).loadBoth("A").block2(1, true, 128).payload(respPayload.substring(128, 256)).go();
+		
+		Response response = request.waitForResponse(1000);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CONTENT, response.getCode());
+		Assert.assertEquals("Client received wrong block:", 1, response.getOptions().getBlock2().getNum());
+		Assert.assertEquals("Client received wrong payload:", respPayload.substring(128, 256), response.getPayloadString());
+		
+		printServerLog();
+	}
+	
+	/**
+	 * The application sends the blocks of a PUT request itself. The client
+	 * delivers the 2.31 Continue response of the streamed block and the final
+	 * response of the last block which has been sent without streaming.
+	 * <pre>
+	 * CLIENT                                                     SERVER
+	 * |                                                          |
+	 * | CON [MID=1234], PUT, /options, 1:0/1/128    ------>      |
+	 * |                                                          |
+	 * | <------   ACK [MID=1234], 2.31 Continue, 1:0/1/128       |
+	 * |                                                          |
+	 * | CON [MID=1235], PUT, /options, 1:1/0/128    ------>      |
+	 * |                                                          |
+	 * | <------   ACK [MID=1235], 2.04 Changed, 1:1/0/128        |
+	 * </pre>
+	 */
+	@Test
+	public void testStreamingPUT() throws Exception {
+		System.out.println("Blockwise PUT streamed by the application:");
+		String reqtPayload = generatePayload(200);
+		String respPayload = generatePayload(50);
+		String path = "test";
+		server = createLockstepEndpoint();
+		
+		Request first = createRequest(PUT, path);
+		first.setBlockwiseStreaming(true);
+		first.getOptions().setBlock1(BlockOption.size2Szx(128), true, 0);
+		first.setPayload(reqtPayload.substring(0, 128));
+		client.sendRequest(first);
+		
+		server.expectRequest(CON, PUT, path).storeBoth("A").block1(0, true, 128).payload(reqtPayload.substring(0, 128)).go();
+		server.sendResponse(ACK, CONTINUE).loadBoth("A").block1(0, true, 128).go();
+		
+		Response response = first.waitForResponse(1000);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CONTINUE, response.getCode());
+		
+		Request last = createRequest(PUT, path);
+		last.getOptions().setBlock1(BlockOption.size2Szx(128), false, 1);
+		last.setPayload(reqtPayload.substring(128, 200));
+		client.sendRequest(last);
+		
+		server.expectRequest(CON, PUT, path).storeBoth("B").block1(1, false, 128).payload(reqtPayload.substring(128, 200)).go();
+		server.sendResponse(ACK, CHANGED).loadBoth("B").block1(1, false, 128).payload(respPayload).go();
+		
+		response = last.waitForResponse(1000);
+		Assert.assertNotNull("Client received no response", response);
+		Assert.assertEquals("Client received wrong response code:", CHANGED, response.getCode());
+		Assert.assertEquals("Client received wrong payload:", respPayload, response.getPayloadString());
+		
+		printServerLog();
+	}
+	
+	private LockstepEndpoint createLockstepEndpoint() {
+		try {
+			LockstepEndpoint endpoint = new LockstepEndpoint();
+			endpoint.setDestination(new InetSocketAddress(InetAddress.getLocalHost(), clientPort));
+			return endpoint;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private Request createRequest(Code code, String path) throws Exception {
+		Request request = new Request(code);
+		String uri = "coap://"+InetAddress.getLocalHost().getHostAddress()+":"+(server.getPort())+"/"+path;
+		request.setURI(uri);
+		return request; 
+	}
+	
+	private void printServerLog() {
+		System.out.println(clientInterceptor.toString());
+		clientInterceptor.clear();
+	}
+	
+	private static String generatePayload(int length) {
+		StringBuffer buffer = new StringBuffer();
+		Random rand = new Random();
+		while(buffer.length() < length) {
+			buffer.append(rand.nextInt());
+		}
+		return buffer.substring(0, length);
+	}
+}
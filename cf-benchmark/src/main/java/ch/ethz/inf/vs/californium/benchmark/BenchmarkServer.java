@@ -101,6 +101,7 @@ public class BenchmarkServer {
 			
 		server.add(new BenchmarkResource("benchmark"));
 		server.add(new FibonacciResource("fibonacci"));
+		server.add(new ObservableResource("observe"));
 		server.add(new ShutDownResource("shutdown"));
 		
 		server.addEndpoint(new CoAPEndpoint(sockAddr));
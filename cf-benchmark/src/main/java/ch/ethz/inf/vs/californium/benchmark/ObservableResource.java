@@ -0,0 +1,70 @@
+package ch.ethz.inf.vs.californium.benchmark;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * This resource notifies its observers every second. Its children notify
+ * their observers at the period in milliseconds given by their name, e.g.,
+ * coap://localhost:5683/observe/100 ten times per second. The children are
+ * created when they are requested for the first time, so that benchmark
+ * scenarios can choose any notification rate. Since every child keeps its
+ * timer task, at most {@link #MAX_CHILDREN} children are created.
+ */
+public class ObservableResource extends ResourceBase {
+
+	public static final int DEFAULT_PERIOD = 1000; // [ms]
+	public static final int MAX_PERIOD = 3600 * 1000; // [ms]
+	public static final int MAX_CHILDREN = 64;
+
+	private final Timer timer;
+	private final boolean parent; // only the top resource creates children
+	private volatile int counter;
+
+	public ObservableResource(String name) {
+		this(name, DEFAULT_PERIOD, new Timer("ObservableResource", true), true);
+	}
+
+	private ObservableResource(String name, int period, Timer timer, boolean parent) {
+		super(name);
+		this.timer = timer;
+		this.parent = parent;
+		setObservable(true);
+		getAttributes().setObservable();
+		timer.scheduleAtFixedRate(new TimerTask() {
+			public void run() {
+				counter++;
+				changed();
+			} }, period, period);
+	}
+
+	@Override
+	public synchronized Resource getChild(String name) {
+		Resource child = super.getChild(name);
+		if (child == null && parent) {
+			int period;
+			try {
+				period = Integer.parseInt(name);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (period < 1 || period > MAX_PERIOD || !name.equals(Integer.toString(period)))
+				return null; // no leading zeros, so that each period has only one child
+			if (getChildren().size() >= MAX_CHILDREN)
+				return null;
+			child = new ObservableResource(name, period, timer, false);
+			add(child);
+		}
+		return child;
+	}
+
+	@Override
+	public void handleGET(CoapExchange exchange) {
+		exchange.respond(ResponseCode.CONTENT, Integer.toString(counter));
+	}
+}
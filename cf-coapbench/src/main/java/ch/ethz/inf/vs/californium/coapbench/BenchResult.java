@@ -0,0 +1,164 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+import java.util.Locale;
+
+/**
+ * The result of a benchmark run or of one interval of it: the number of
+ * completed requests, timeouts and errors and the latency histogram in
+ * microseconds. Results of several clients or slaves for the same run and
+ * interval can be merged with {@link #add(BenchResult)}.
+ */
+public class BenchResult {
+
+	/** The interval number of the result of a whole run */
+	public static final int TOTAL = -1;
+
+	public static final String CSV_HEADER = "name,interval,start,duration,completed,throughput,timeouts,errors,p50,p90,p99,p999,max,mean";
+
+	private final String name;
+	private final int interval;
+	private long start; // [ms since epoch]
+	private long duration; // [ms]
+	private long completed;
+	private long timeouts;
+	private long errors;
+	private final LatencyHistogram histogram;
+
+	public BenchResult(String name, int interval, long start, long duration) {
+		this(name, interval, start, duration, new LatencyHistogram());
+	}
+
+	private BenchResult(String name, int interval, long start, long duration, LatencyHistogram histogram) {
+		if (name.indexOf(' ') >= 0 || name.indexOf('|') >= 0)
+			throw new IllegalArgumentException("Name must not contain spaces or '|': "+name);
+		this.name = name;
+		this.interval = interval;
+		this.start = start;
+		this.duration = duration;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Adds the counters and latencies of the specified result to this result.
+	 * The durations overlap, hence, the longer one is kept.
+	 *
+	 * @param other the other result
+	 */
+	public void add(BenchResult other) {
+		completed += other.completed;
+		timeouts += other.timeouts;
+		errors += other.errors;
+		duration = Math.max(duration, other.duration);
+		start = Math.min(start, other.start);
+		histogram.add(other.histogram);
+	}
+
+	public void addCompleted(long completed) {
+		this.completed += completed;
+	}
+
+	public void addTimeouts(long timeouts) {
+		this.timeouts += timeouts;
+	}
+
+	public void addErrors(long errors) {
+		this.errors += errors;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getThroughput() {
+		return duration == 0 ? 0 : completed * 1000L / duration;
+	}
+
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+
+	public String toCSV() {
+		return String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.1f",
+				name, interval, start, duration, completed, getThroughput(), timeouts, errors,
+				histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+				histogram.getMax(), histogram.getMean());
+	}
+
+	public String toJSON() {
+		return String.format(Locale.US, "{\"name\":\"%s\",\"interval\":%d,\"start\":%d,\"duration\":%d,"
+				+ "\"completed\":%d,\"throughput\":%d,\"timeouts\":%d,\"errors\":%d,"
+				+ "\"latency_us\":{\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d,\"mean\":%.1f}}",
+				name, interval, start, duration, completed, getThroughput(), timeouts, errors,
+				histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+				histogram.getMax(), histogram.getMean());
+	}
+
+	/**
+	 * Encodes this result into a string without spaces that a slave sends to
+	 * the master.
+	 *
+	 * @return the string
+	 */
+	public String encode() {
+		return name + "|" + interval + "|" + start + "|" + duration + "|" + completed
+				+ "|" + timeouts + "|" + errors + "|" + histogram.encode();
+	}
+
+	/**
+	 * Decodes a result that has been encoded with {@link #encode()}.
+	 *
+	 * @param encoded the encoded result
+	 * @return the result
+	 * @throws IllegalArgumentException if the string is no encoded result
+	 */
+	public static BenchResult decode(String encoded) {
+		String[] parts = encoded.split("\\|");
+		if (parts.length != 8)
+			throw new IllegalArgumentException("Not an encoded result: "+encoded);
+		try {
+			BenchResult result = new BenchResult(parts[0], Integer.parseInt(parts[1]),
+					Long.parseLong(parts[2]), Long.parseLong(parts[3]), LatencyHistogram.decode(parts[7]));
+			result.completed = Long.parseLong(parts[4]);
+			result.timeouts = Long.parseLong(parts[5]);
+			result.errors = Long.parseLong(parts[6]);
+			return result;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not an encoded result: "+encoded, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "%s, interval=%d, completed=%d, throughput=%d, timeouts=%d, errors=%d | %d, %d, %d, %d, %d, %.1f",
+				name, interval, completed, getThroughput(), timeouts, errors,
+				histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+				histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9),
+				histogram.getMax(), histogram.getMean());
+	}
+}
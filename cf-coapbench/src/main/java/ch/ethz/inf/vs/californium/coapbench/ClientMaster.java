@@ -5,9 +5,19 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import ch.ethz.inf.vs.californium.CoapClient;
 import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
@@ -15,6 +25,13 @@ import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 /**
  * The master keeps a TCP connection to all client slaves. The master sends
  * commands to all slaves. Use @1 to send a command only to client with id 1.
+ * <p>
+ * Each bench command gets a run name. The slaves send the results of each
+ * interval and of the whole run back to the master, which merges the results
+ * of all slaves of a run and hands them to the result listener, e.g., a
+ * {@link ResultWriter}. Slaves that disconnect are no longer waited for.
+ * Once the whole run is merged, the intervals that not all slaves have sent
+ * are dropped.
  */
 public class ClientMaster implements Runnable {
 
@@ -35,6 +52,12 @@ public class ClientMaster implements Runnable {
 	
 	private String last = "";
 	
+	private int runs;
+	private ResultListener listener;
+	
+	/** The benchmarks whose total result is not complete yet by run name */
+	private Map<String, Run> active = new HashMap<String, Run>();
+	
 	public ClientMaster(int port) throws Exception {
 		this.masterSocket = new ServerSocket(port);
 		this.slaves = new LinkedList<Slave>();
@@ -106,10 +129,91 @@ public class ClientMaster implements Runnable {
 	}
 	
 	private void command(Command command) {
-		for (Slave s:getSlaves(command.getAt())) {
-			System.out.println("Send \""+command.getBody()+"\" to "+s);
-			s.send(command.getBody());
+		List<Slave> targets = getSlaves(command.getAt());
+		String body = command.getBody();
+		if (body.startsWith(CMD_BENCH) && !command.getParameters().isEmpty()) {
+			String run = "run" + (++runs);
+			synchronized (this) {
+				active.put(run, new Run(targets));
+			}
+			body = body + " -run " + run;
+		}
+		for (Slave s:targets) {
+			System.out.println("Send \""+body+"\" to "+s);
+			s.send(body);
+		}
+	}
+	
+	/*
+	 * Merges the result of a slave with the results of the other slaves and
+	 * publishes the merged result once all slaves have sent theirs.
+	 */
+	private void received(Slave slave, BenchResult result) {
+		List<Aggregate> completed;
+		synchronized (this) {
+			Run run = active.get(result.getName());
+			if (run == null) {
+				// not started by this master or already over
+				Aggregate aggregate = new Aggregate(result);
+				aggregate.reporters.add(slave);
+				completed = new ArrayList<Aggregate>();
+				completed.add(aggregate);
+			} else {
+				Aggregate aggregate = run.intervals.get(result.getInterval());
+				if (aggregate == null) {
+					aggregate = new Aggregate(result);
+					run.intervals.put(result.getInterval(), aggregate);
+				} else {
+					aggregate.result.add(result);
+				}
+				aggregate.reporters.add(slave);
+				completed = complete(result.getName(), run);
+				if (run.over)
+					active.remove(result.getName());
+			}
+		}
+		publish(completed);
+	}
+	
+	/*
+	 * Removes the merged results of the run that all remaining slaves have
+	 * sent. Once the total result is complete, the run is over and the
+	 * intervals that are still incomplete are dropped.
+	 */
+	private List<Aggregate> complete(String name, Run run) {
+		List<Aggregate> completed = new ArrayList<Aggregate>();
+		Aggregate total = run.intervals.remove(BenchResult.TOTAL);
+		Iterator<Aggregate> intervals = run.intervals.values().iterator();
+		while (intervals.hasNext()) {
+			Aggregate aggregate = intervals.next();
+			if (aggregate.reporters.containsAll(run.slaves)) {
+				completed.add(aggregate);
+				intervals.remove();
+			}
 		}
+		if (total != null && total.reporters.containsAll(run.slaves)) {
+			if (!run.intervals.isEmpty())
+				System.out.println("Drop "+run.intervals.size()+" incomplete intervals of "+name);
+			run.intervals.clear();
+			run.over = true;
+			completed.add(total);
+		} else if (total != null) {
+			run.intervals.put(BenchResult.TOTAL, total);
+		}
+		return completed;
+	}
+	
+	private void publish(List<Aggregate> completed) {
+		for (Aggregate aggregate:completed) {
+			if (aggregate.result.getInterval() == BenchResult.TOTAL)
+				System.out.println("Result of "+aggregate.reporters.size()+" slaves: "+aggregate.result);
+			if (listener != null)
+				listener.receive(aggregate.result);
+		}
+	}
+	
+	public void setResultListener(ResultListener listener) {
+		this.listener = listener;
 	}
 	
 	private void post(Command command) throws InterruptedException {
@@ -174,16 +278,85 @@ public class ClientMaster implements Runnable {
 	public void remove(Slave slave) {
 		System.out.println("Remove slave "+slave);
 		slaves.remove(slave);
+		List<Aggregate> completed = new ArrayList<Aggregate>();
+		synchronized (this) {
+			Iterator<Map.Entry<String, Run>> runs = active.entrySet().iterator();
+			while (runs.hasNext()) {
+				Map.Entry<String, Run> entry = runs.next();
+				Run run = entry.getValue();
+				if (!run.slaves.remove(slave))
+					continue;
+				if (run.slaves.isEmpty()) {
+					System.out.println("No slave left for "+entry.getKey()+", drop its results");
+					runs.remove();
+				} else {
+					completed.addAll(complete(entry.getKey(), run));
+					if (run.over)
+						runs.remove();
+				}
+			}
+		}
+		publish(completed);
+	}
+	
+	private static class Run {
+		
+		/** The slaves that run the benchmark and are still connected */
+		private final Set<Slave> slaves;
+		/** The merged results that not all slaves have sent yet by interval */
+		private final Map<Integer, Aggregate> intervals = new TreeMap<Integer, Aggregate>();
+		private boolean over;
+		
+		private Run(List<Slave> slaves) {
+			this.slaves = new HashSet<Slave>(slaves);
+		}
+	}
+	
+	private static class Aggregate {
+		
+		private final BenchResult result;
+		private final Set<Slave> reporters = new HashSet<Slave>();
+		
+		private Aggregate(BenchResult result) {
+			this.result = result;
+		}
 	}
 	
-	private class Slave {
+	private class Slave implements Runnable {
 		
 		private Socket socket;
 		private Scanner in;
+		private BlockingQueue<String> pings = new LinkedBlockingQueue<String>();
 		
 		public Slave(Socket socket) throws Exception {
 			this.socket = socket;
 			this.in = new Scanner(socket.getInputStream());
+			Thread reader = new Thread(this, "Slave "+socket.getRemoteSocketAddress());
+			reader.setDaemon(true);
+			reader.start();
+		}
+		
+		/*
+		 * Reads the results and ping responses of the slave.
+		 */
+		public void run() {
+			try {
+				while (true) {
+					String line = in.nextLine();
+					if (line.startsWith(ClientSlave.CMD_RESULT)) {
+						try {
+							received(this, BenchResult.decode(line.substring(ClientSlave.CMD_RESULT.length()).trim()));
+						} catch (IllegalArgumentException e) {
+							System.out.println("Invalid result from "+this+": "+e.getMessage());
+						}
+					} else {
+						pings.offer(line);
+					}
+				}
+			} catch (NoSuchElementException e) {
+				// When slave is shutdown, we arrive here
+				remove(this);
+			}
 		}
 		
 		public boolean send(String command) {
@@ -207,9 +380,11 @@ public class ClientMaster implements Runnable {
 		public int ping() {
 			try {
 				long t0 = System.nanoTime();
+				pings.clear();
 				boolean succ = send(CMD_PING);
 				if (!succ) return -1;
-				in.nextLine(); // wait for response
+				if (pings.poll(10, TimeUnit.SECONDS) == null) // wait for response
+					return -1;
 				long dt = System.nanoTime() - t0;
 				return (int) (dt / 1000000);
 			} catch (Exception e) {
@@ -229,6 +404,9 @@ public class ClientMaster implements Runnable {
 			"Send a signal to all clients each starting 50 clients for 60 seconds with the command"
 			+ "\n    bench -c 50 -t 60 coap://localhost:5683/fibonacci?n=20"
 			+ "\n"
+			+ "\nSend the merged results of all clients every 5 seconds to the result file of the master"
+			+ "\n    bench -c 50 -t 60 -interval 5 coap://localhost:5683/fibonacci?n=20"
+			+ "\n"
 			+ "\nCreate a new log file my_name (no spaces allowed)"
 			+ "\n    bench -new-log my_name"
 			+ "\n"
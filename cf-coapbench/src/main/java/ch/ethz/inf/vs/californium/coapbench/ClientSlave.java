@@ -17,6 +17,7 @@ public class ClientSlave {
 	public static final String CMD_STRESS = "stress";
 	public static final String CMD_BENCH = "bench";
 	public static final String CMD_APACHE_BENCH = "ab";
+	public static final String CMD_RESULT = "result";
 	
 	private InetAddress address;
 	private int port;
@@ -103,7 +104,7 @@ public class ClientSlave {
 		}
 	}
 	
-	public void send(String response) {
+	public synchronized void send(String response) {
 		try {
 //			System.out.println("Send "+response);
 			socket.getOutputStream().write(response.getBytes());
@@ -125,6 +126,13 @@ public class ClientSlave {
 		if (this.vcm == null) {
 			this.vcm = new VirtualClientManager();
 			this.vcm.setVerbose(verbose);
+			// recording into histograms is cheap and the master merges the latencies
+			this.vcm.setEnableLatency(true);
+			this.vcm.addResultListener(new ResultListener() {
+				public void receive(BenchResult result) {
+					// the master merges the results of all slaves
+					send(CMD_RESULT + " " + result.encode());
+				} });
 		}
 		
 		int clients = CoapBench.DEFAULT_CLIENTS;
@@ -133,6 +141,8 @@ public class ClientSlave {
 			clients = command.getInt("-c");
 		if (command.has("-t"))
 			time = command.getInt("-t");
+		vcm.setName(command.has("-run") ? command.getString("-run") : null);
+		vcm.setInterval(command.has("-interval") ? command.getInt("-interval") * 1000L : 0);
 		
 		List<String> parameters = command.getParameters();
 		if (parameters.size() > 0) {
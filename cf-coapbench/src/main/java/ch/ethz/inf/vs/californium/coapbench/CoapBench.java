@@ -11,10 +11,14 @@ public class CoapBench {
 	// Modes: normal, master, slave
 	public static final String MASTER = "-master";
 	public static final String SLAVE = "-slave";
+	public static final String EMULATE = "-emulate";
 
 	// Defaults
 	public static final int DEFAULT_CLIENTS = 1;
 	public static final int DEFAULT_TIME = 30; // [s]
+	public static final String OPEN_LOOP_LOG_FILE = "coapbench_openloop";
+	public static final String DEFAULT_FORMAT = ResultWriter.JSON;
+	public static final String DEFAULT_RESULT_FILE = "coapbench_results";
 
 	public static final String DEFAULT_MASTER_ADDRESS = "localhost";
 	public static final int DEFAULT_MASTER_PORT = 58888; 
@@ -28,6 +32,8 @@ public class CoapBench {
 					mainMaster(args);
 				} else if (args[0].equals(SLAVE)) {
 					mainSlave(args);
+				} else if (args[0].equals(EMULATE)) {
+					EmulationBench.main(args);
 				} else {
 					mainBench(args);
 				}
@@ -47,6 +53,13 @@ public class CoapBench {
 		int time = DEFAULT_TIME;
 		int index = 0;
 		boolean withLatency = false;
+		String rates = null;
+		boolean poisson = false;
+		int sockets = OpenLoopClient.DEFAULT_SOCKETS;
+		int interval = 0;
+		String format = DEFAULT_FORMAT;
+		String file = null;
+		String scenario = null;
 		while (index < args.length) {
 			String arg = args[index];
 			
@@ -58,6 +71,20 @@ public class CoapBench {
 				bindAddr = args[index+1];
 			} else if ("-latency".equals(arg)) {
 				withLatency = true; index++; continue;
+			} else if ("-rate".equals(arg)) {
+				rates = args[index+1];
+			} else if ("-poisson".equals(arg)) {
+				poisson = true; index++; continue;
+			} else if ("-sockets".equals(arg)) {
+				sockets = Integer.parseInt(args[index+1]);
+			} else if ("-interval".equals(arg)) {
+				interval = Integer.parseInt(args[index+1]);
+			} else if ("-format".equals(arg)) {
+				format = args[index+1];
+			} else if ("-o".equals(arg)) {
+				file = args[index+1];
+			} else if ("-scenario".equals(arg)) {
+				scenario = args[index+1];
 			} else if ("-h".equals(arg)) {
 				printUsage();
 				return;
@@ -71,6 +98,13 @@ public class CoapBench {
 			}
 			index += 2;
 		}
+		Scenario sc = null;
+		if (scenario != null) {
+			sc = Scenario.load(scenario);
+			// a target on the command line overrides the one of the scenario
+			if (target != null) sc.setTarget(new URI(target));
+			else if (sc.getTarget() != null) target = sc.getTarget().toString();
+		}
 		if (target == null) {
 			System.err.println("Error: No target specified");
 			printUsage();
@@ -87,22 +121,75 @@ public class CoapBench {
 			System.err.println("Note that on some systems (e.g. Windows) it now is not possible to send requests to localhost.");
 		}
 		
+		ResultWriter writer = new ResultWriter(file != null ? file : DEFAULT_RESULT_FILE+"."+format, format);
+		
+		if (sc != null) {
+			ScenarioRunner runner = new ScenarioRunner(sc, bindSAddr);
+			runner.setInterval(interval*1000);
+			runner.addResultListener(writer);
+			runner.run();
+			writer.close();
+			System.exit(0);
+		}
+		
+		if (rates != null) {
+			runOpenLoop(uri, bindSAddr, convertSeries(rates), poisson, sockets, time, writer);
+			writer.close();
+			System.exit(0);
+		}
+		
 		int[] series = convertSeries(clients);
 		VirtualClientManager manager = new VirtualClientManager(uri, bindSAddr);
 		if (withLatency) manager.setEnableLatency(true);
+		manager.setInterval(interval*1000);
+		manager.addResultListener(writer);
 		manager.runConcurrencySeries(series, time*1000);
+		writer.close();
 		
 //		Thread.sleep(time*1000 + 1000);
 		System.exit(0); // stop all threads from virtual client manager
 	}
 	
+	/*
+	 * Runs the open-loop client with each rate of the series and logs the
+	 * latency percentiles in microseconds.
+	 */
+	private static void runOpenLoop(URI uri, InetSocketAddress bindAddr, int[] rates, boolean poisson, int sockets, int time, ResultListener listener) throws Exception {
+		OpenLoopClient client = new OpenLoopClient(uri, bindAddr, sockets);
+		client.setPoisson(poisson);
+		LogFile log = new LogFile(OPEN_LOOP_LOG_FILE);
+		log.format("Rate, Time, Sent, Received, Timeouts, Errors, Max send delay | 50%%, 90%%, 99%%, 99.9%%, 100%%, mean (us)\n");
+		for (int i=0;i<rates.length;i++) {
+			System.err.println("\nSend "+rates[i]+" requests/s"+(poisson ? " with Poisson arrivals" : "")+" for "+time+" s");
+			long start = System.currentTimeMillis();
+			client.run(rates[i], time*1000);
+			LatencyHistogram h = client.getHistogram();
+			BenchResult result = new BenchResult("rate="+rates[i], BenchResult.TOTAL, start, time*1000L);
+			result.addCompleted(client.getReceived());
+			result.addTimeouts(client.getTimeouts());
+			result.addErrors(client.getErrors());
+			result.getHistogram().add(h);
+			listener.receive(result);
+			log.format("rate=%d, t=%d, sent=%d, received=%d, timeouts=%d, errors=%d, behind=%d | %d, %d, %d, %d, %d, %.1f\n",
+					rates[i], time, client.getSent(), client.getReceived(), client.getTimeouts(), client.getErrors(), client.getMaxSendDelay(),
+					h.getValueAtPercentile(50), h.getValueAtPercentile(90), h.getValueAtPercentile(99),
+					h.getValueAtPercentile(99.9), h.getMax(), h.getMean());
+		}
+	}
+	
 	public static void mainMaster(String[] args) throws Exception {
 		int port = DEFAULT_MASTER_PORT;
+		String format = DEFAULT_FORMAT;
+		String file = null;
 		int index = 1;
 		while (index < args.length) {
 			String arg = args[index];
 			if ("-p".equals(arg)) {
 				port = Integer.parseInt(args[index+1]);
+			} else if ("-format".equals(arg)) {
+				format = args[index+1];
+			} else if ("-o".equals(arg)) {
+				file = args[index+1];
 			} else {
 				System.err.println("Unknwon arg "+arg);
 				printUsage();
@@ -110,7 +197,9 @@ public class CoapBench {
 			}
 			index += 2;
 		}
-		new ClientMaster(port).start();
+		ClientMaster master = new ClientMaster(port);
+		master.setResultListener(new ResultWriter(file != null ? file : DEFAULT_RESULT_FILE+"."+format, format));
+		master.start();
 	}
 	
 	public static void mainSlave(String[] args) throws Exception {
@@ -174,7 +263,7 @@ public class CoapBench {
 	public static void printUsage() {
 		System.out.println(
 				"SYNOPSIS"
-				+ "\n    CoAPBench [[OPTIONS] URI | -master OPTIONS | -slave OPTIONS] [-v]" 
+				+ "\n    CoAPBench [[OPTIONS] URI | -scenario FILE [OPTIONS] [URI] | -master OPTIONS | -slave OPTIONS | -emulate OPTIONS] [-v]" 
 				+ "\n"
 				+ "\nURI: The target URI to benchmark"
 				+ "\n"
@@ -186,10 +275,44 @@ public class CoapBench {
 				+ "\n            Limit the duration of the benchmark to TIME seconds (default is " + DEFAULT_TIME + ")."
 				+ "\n    -b ADDRESS"
 				+ "\n            Bind the clients to the specified local address (by default the system chooses)."
+				+ "\n    -rate RATE"
+				+ "\n            Send RATE requests per second open-loop, i.e., independent of the responses, instead of using closed-loop clients."
+				+ "\n            The latency is measured from the intended send time. A list of rates, e.g., 1000,2000,5000, runs one after the other."
+				+ "\n    -poisson"
+				+ "\n            Send the open-loop requests with Poisson arrivals instead of at constant intervals."
+				+ "\n    -sockets SOCKETS"
+				+ "\n            The number of sockets the open-loop requests are sent from (default is " + OpenLoopClient.DEFAULT_SOCKETS + ")."
+				+ "\n    -scenario FILE"
+				+ "\n            Run the mixed workload of requests, observers, blockwise uploads and client churn described in FILE."
+				+ "\n            See the class Scenario for the format. The results are reported per operation class."
+				+ "\n    -interval SECONDS"
+				+ "\n            Also write the result of every interval of SECONDS seconds, not only the result of the whole run."
+				+ "\n    -format FORMAT"
+				+ "\n            Write the results as json (one object per line) or csv (default is " + DEFAULT_FORMAT + ")."
+				+ "\n    -o FILE"
+				+ "\n            The file to write the results to (default is " + DEFAULT_RESULT_FILE + ".FORMAT)."
 				+ "\n"
 				+ "\nOPTIONS for the master are:"
 				+ "\n    -p PORT"
 				+ "\n            The port on which the master waits for slaves."
+				+ "\n    -format FORMAT"
+				+ "\n            Write the merged results of all slaves as json or csv (default is " + DEFAULT_FORMAT + ")."
+				+ "\n    -o FILE"
+				+ "\n            The file to write the merged results to (default is " + DEFAULT_RESULT_FILE + ".FORMAT)."
+				+ "\n"
+				+ "\nOPTIONS for the emulation of a server and its clients over an in-memory network are:"
+				+ "\n    -c CLIENTS, -n REQUESTS"
+				+ "\n            The number of client endpoints (default is " + EmulationBench.DEFAULT_CLIENTS + ") and the requests each sends one after the other (default is " + EmulationBench.DEFAULT_REQUESTS + ")."
+				+ "\n    -latency MS, -jitter MS, -loss PERCENT, -reorder PERCENT, -bandwidth BYTES_PER_S"
+				+ "\n            The conditions of the emulated network (default is no latency, no loss and unlimited bandwidth)."
+				+ "\n    -payload BYTES, -upload BYTES"
+				+ "\n            The size of the responses and the requests. Large ones are transferred blockwise."
+				+ "\n    -non, -timeout MS"
+				+ "\n            Send NON requests. Requests count as failed after MS milliseconds (default is " + EmulationBench.DEFAULT_TIMEOUT + ")."
+				+ "\n    -config KEY=VALUE"
+				+ "\n            Override a value of the network configuration, e.g., ACK_TIMEOUT=1000. Can be repeated."
+				+ "\n    -seed SEED, -format FORMAT, -o FILE"
+				+ "\n            The seed of the random decisions of the network (default is 0) and the result file as above."
 				+ "\n"
 				+ "\nOPTIONS for the slave are:"
 				+ "\n    -a ADDRESS"
@@ -201,6 +324,18 @@ public class CoapBench {
 				+ "\nStart 50 clients that concurrently send GET requests for 60 seconds"
 				+ "\n    java -jar coapbench.jar -c 50 -t 60 coap://localhost:5683/benchmark"
 				+ "\n"
+				+ "\nSend 10000 GET requests per second with Poisson arrivals for 60 seconds"
+				+ "\n    java -jar coapbench.jar -rate 10000 -poisson -t 60 coap://localhost:5683/benchmark"
+				+ "\n"
+				+ "\nWrite the latency percentiles of every second as CSV to results.csv"
+				+ "\n    java -jar coapbench.jar -c 50 -t 60 -interval 1 -format csv -o results.csv coap://localhost:5683/benchmark"
+				+ "\n"
+				+ "\nRun the scenario in the file telemetry.scenario against a server on another host"
+				+ "\n    java -jar coapbench.jar -scenario telemetry.scenario coap://192.168.1.33:5683"
+				+ "\n"
+				+ "\nEmulate 1000 clients that download 4 KiB blockwise over a network with 100 ms latency and 5% loss"
+				+ "\n    java -jar coapbench.jar -emulate -c 1000 -n 10 -payload 4096 -latency 100 -loss 5 -config ACK_TIMEOUT=1000"
+				+ "\n"
 				+ "\nStart a master listening on port 8888 for slaves"
 				+ "\n    java -jar coapbench.jar -master -p 8888"
 				+ "\n"
@@ -0,0 +1,349 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.interceptors.MessageInterceptor;
+import ch.ethz.inf.vs.californium.server.Server;
+import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+import ch.ethz.inf.vs.elements.EmulatedNetwork;
+
+/**
+ * The emulation benchmark runs a server and thousands of client endpoints in
+ * one JVM over an {@link EmulatedNetwork} with the specified latency, jitter,
+ * loss, reordering and bandwidth. No kernel UDP is involved, so that the
+ * results only depend on the network conditions and the configuration of
+ * the reliability and blockwise layers, e.g., ACK_TIMEOUT or
+ * DEFAULT_BLOCK_SIZE.
+ * <p>
+ * Each client sends its requests one after the other. The benchmark reports
+ * the completion time of the requests including all blocks and
+ * retransmissions, the goodput, i.e., the payload bytes of completed requests
+ * and responses per second, and the number of retransmitted requests.
+ */
+public class EmulationBench {
+
+	public static final int DEFAULT_CLIENTS = 100;
+	public static final int DEFAULT_REQUESTS = 100;
+	public static final int DEFAULT_TIMEOUT = 30000; // [ms]
+	public static final String RESOURCE = "emulation";
+
+	private final EmulatedNetwork network;
+	private final NetworkConfig config;
+	private int clients = DEFAULT_CLIENTS;
+	private int requests = DEFAULT_REQUESTS;
+	private int payload; // response payload [bytes]
+	private int upload; // request payload [bytes]
+	private Type type = Type.CON;
+	private int timeout = DEFAULT_TIMEOUT; // [ms]
+	private ScheduledExecutorService executor;
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retransmissions = new AtomicLong();
+
+	public EmulationBench(EmulatedNetwork network, NetworkConfig config) {
+		this.network = network;
+		this.config = config;
+	}
+
+	/**
+	 * Runs the benchmark and blocks until all clients have sent all their
+	 * requests.
+	 *
+	 * @param name the name of the result
+	 * @return the result of the whole run
+	 * @throws Exception if an endpoint cannot be started
+	 */
+	public BenchResult run(String name) throws Exception {
+		CaliforniumLogger.disableLogging();
+		executor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+		network.start();
+
+		Server server = new Server();
+		server.setExecutor(executor);
+		final byte[] content = new byte[payload];
+		server.add(new ResourceBase(RESOURCE) {
+			@Override
+			public void handleGET(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CONTENT, content);
+			}
+
+			@Override
+			public void handlePOST(CoapExchange exchange) {
+				exchange.respond(ResponseCode.CHANGED, content);
+			}
+		});
+		CoAPEndpoint serverEndpoint = new CoAPEndpoint(network.createConnector(), config);
+		server.addEndpoint(serverEndpoint);
+		server.start();
+		InetSocketAddress serverAddress = serverEndpoint.getAddress();
+
+		List<CoAPEndpoint> endpoints = new ArrayList<CoAPEndpoint>(clients);
+		for (int i=0;i<clients;i++) {
+			CoAPEndpoint endpoint = new CoAPEndpoint(network.createConnector(), config);
+			endpoint.setExecutor(executor);
+			endpoint.addInterceptor(new RetransmissionCounter());
+			endpoint.start();
+			endpoints.add(endpoint);
+		}
+
+		System.err.format(Locale.US, "\nEmulate %d clients with %d requests each, latency %d ms, jitter %d ms, loss %.1f%%, reorder %.1f%%, bandwidth %s\n",
+				clients, requests, network.getLatency(), network.getJitter(), network.getLoss() * 100, network.getReorder() * 100,
+				network.getBandwidth() > 0 ? network.getBandwidth()+" bytes/s" : "unlimited");
+		network.resetStatistics();
+		CountDownLatch latch = new CountDownLatch(clients);
+		long start = System.currentTimeMillis();
+		long timestamp = System.nanoTime();
+		for (CoAPEndpoint endpoint:endpoints)
+			new Client(endpoint, serverAddress, latch).next();
+		latch.await();
+		long duration = (System.nanoTime() - timestamp) / 1000000;
+
+		for (CoAPEndpoint endpoint:endpoints)
+			endpoint.destroy();
+		server.destroy();
+		network.stop();
+		executor.shutdown();
+
+		BenchResult result = new BenchResult(name, BenchResult.TOTAL, start, duration);
+		result.addCompleted(completed.get());
+		result.addTimeouts(failed.get());
+		synchronized (histogram) {
+			result.getHistogram().add(histogram);
+		}
+		long goodput = duration == 0 ? 0 : completed.get() * (payload + upload) * 1000L / duration;
+		System.out.format(Locale.US, "%s\n  goodput %d bytes/s, retransmitted requests %d, datagrams %d, bytes %d, lost %d\n",
+				result, goodput, retransmissions.get(), network.getSent(), network.getBytes(), network.getLost());
+		return result;
+	}
+
+	public void setClients(int clients) {
+		this.clients = clients;
+	}
+
+	public void setRequests(int requests) {
+		this.requests = requests;
+	}
+
+	/**
+	 * Sets the size of the responses. Responses larger than the maximum
+	 * message size are transferred blockwise (Block2).
+	 */
+	public void setPayload(int payload) {
+		this.payload = payload;
+	}
+
+	/**
+	 * Sets the size of the requests. Requests with a payload are POSTs and,
+	 * if larger than the maximum message size, transferred blockwise (Block1).
+	 */
+	public void setUpload(int upload) {
+		this.upload = upload;
+	}
+
+	public void setType(Type type) {
+		this.type = type;
+	}
+
+	/**
+	 * Sets the time after which a request counts as failed. CON requests also
+	 * fail when the reliability layer gives up, but the blockwise layer does
+	 * not forward the timeout of a block to the request, and NON requests are
+	 * not retransmitted at all.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public long getRetransmissions() {
+		return retransmissions.get();
+	}
+
+	/*
+	 * A client sends the next request when the previous one has completed.
+	 * It needs no thread of its own.
+	 */
+	private class Client {
+
+		private final CoAPEndpoint endpoint;
+		private final InetSocketAddress server;
+		private final CountDownLatch latch;
+		private final byte[] content;
+		private int sent;
+
+		private Client(CoAPEndpoint endpoint, InetSocketAddress server, CountDownLatch latch) {
+			this.endpoint = endpoint;
+			this.server = server;
+			this.latch = latch;
+			this.content = new byte[upload];
+		}
+
+		private void next() {
+			if (sent++ == requests) {
+				latch.countDown();
+				return;
+			}
+			Request request = new Request(upload > 0 ? Code.POST : Code.GET, type);
+			request.getOptions().setURIPath(RESOURCE);
+			if (upload > 0)
+				request.setPayload(content);
+			request.setDestination(server.getAddress());
+			request.setDestinationPort(server.getPort());
+			request.addMessageObserver(new Attempt(this, request));
+			endpoint.sendRequest(request);
+		}
+	}
+
+	/*
+	 * Completes a request exactly once, either with its response or with a
+	 * failure, and lets the client send the next one.
+	 */
+	private class Attempt extends MessageObserverAdapter implements Runnable {
+
+		private final Client client;
+		private final Request request;
+		private final long timestamp;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private Attempt(Client client, Request request) {
+			this.client = client;
+			this.request = request;
+			this.timestamp = System.nanoTime();
+			executor.schedule(this, timeout, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void onResponse(Response response) {
+			if (!done.compareAndSet(false, true)) return;
+			long micros = (System.nanoTime() - timestamp) / 1000;
+			completed.incrementAndGet();
+			synchronized (histogram) {
+				histogram.record(micros);
+			}
+			client.next();
+		}
+
+		@Override
+		public void onReject() {
+			fail();
+		}
+
+		@Override
+		public void onTimeout() {
+			fail();
+		}
+
+		// the timeout
+		public void run() {
+			if (fail())
+				request.cancel();
+		}
+
+		private boolean fail() {
+			if (!done.compareAndSet(false, true)) return false;
+			failed.incrementAndGet();
+			client.next();
+			return true;
+		}
+	}
+
+	/*
+	 * Counts the requests that the reliability layer sends again, i.e., with
+	 * the same MID as the previous request of the endpoint. This includes the
+	 * blocks of blockwise transfers.
+	 */
+	private class RetransmissionCounter implements MessageInterceptor {
+
+		private int lastMID = -1;
+
+		public synchronized void sendRequest(Request request) {
+			if (request.getMID() == lastMID)
+				retransmissions.incrementAndGet();
+			lastMID = request.getMID();
+		}
+
+		public void sendResponse(Response response) { }
+		public void sendEmptyMessage(EmptyMessage message) { }
+		public void receiveRequest(Request request) { }
+		public void receiveResponse(Response response) { }
+		public void receiveEmptyMessage(EmptyMessage message) { }
+	}
+
+	public static void main(String[] args) throws Exception {
+		EmulatedNetwork network = new EmulatedNetwork(0);
+		NetworkConfig config = new NetworkConfig();
+		EmulationBench bench = new EmulationBench(network, config);
+		String format = CoapBench.DEFAULT_FORMAT;
+		String file = null;
+		int index = 0;
+		if (index < args.length && "-emulate".equals(args[index]))
+			index++;
+		while (index < args.length) {
+			String arg = args[index];
+			String value = index+1 < args.length ? args[index+1] : null;
+			if ("-c".equals(arg)) {
+				bench.setClients(Integer.parseInt(value));
+			} else if ("-n".equals(arg)) {
+				bench.setRequests(Integer.parseInt(value));
+			} else if ("-latency".equals(arg)) {
+				network.setLatency(Integer.parseInt(value));
+			} else if ("-jitter".equals(arg)) {
+				network.setJitter(Integer.parseInt(value));
+			} else if ("-loss".equals(arg)) {
+				network.setLoss(Double.parseDouble(value) / 100);
+			} else if ("-reorder".equals(arg)) {
+				network.setReorder(Double.parseDouble(value) / 100);
+			} else if ("-bandwidth".equals(arg)) {
+				network.setBandwidth(Long.parseLong(value));
+			} else if ("-payload".equals(arg)) {
+				bench.setPayload(Integer.parseInt(value));
+			} else if ("-upload".equals(arg)) {
+				bench.setUpload(Integer.parseInt(value));
+			} else if ("-non".equals(arg)) {
+				bench.setType(Type.NON); index++; continue;
+			} else if ("-seed".equals(arg)) {
+				network.setSeed(Long.parseLong(value));
+			} else if ("-timeout".equals(arg)) {
+				bench.setTimeout(Integer.parseInt(value));
+			} else if ("-config".equals(arg)) {
+				// e.g., -config ACK_TIMEOUT=1000
+				int eq = value.indexOf('=');
+				config.set(value.substring(0, eq), value.substring(eq + 1));
+			} else if ("-format".equals(arg)) {
+				format = value;
+			} else if ("-o".equals(arg)) {
+				file = value;
+			} else {
+				System.err.println("Unknwon arg "+arg);
+				CoapBench.printUsage();
+				return;
+			}
+			index += 2;
+		}
+		ResultWriter writer = new ResultWriter(file != null ? file : CoapBench.DEFAULT_RESULT_FILE+"."+format, format);
+		writer.receive(bench.run("emulation"));
+		writer.close();
+		System.exit(0);
+	}
+}
@@ -0,0 +1,167 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+/**
+ * A histogram of latencies in microseconds in the style of an HDR histogram.
+ * Values below 256 have their own bucket, larger values share buckets of
+ * which each covers less than 1% of its value. Recording a value therefore
+ * takes constant time and no memory, and percentiles are accurate to two
+ * significant digits up to the largest trackable value of one hour. A
+ * histogram takes about 26 kB.
+ * <p>
+ * Histograms of several clients or slaves can be merged with
+ * {@link #add(LatencyHistogram)} and sent as text with {@link #encode()} and
+ * {@link #decode(String)}. This class is not thread-safe.
+ */
+public class LatencyHistogram {
+
+	/** The number of bits of the values with their own bucket */
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+	/** The largest value that is tracked [us], larger values are clamped */
+	public static final long MAX_VALUE = 3600L * 1000 * 1000;
+
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long max;
+
+	public LatencyHistogram() {
+		this.counts = new long[getIndex(MAX_VALUE) + 1];
+	}
+
+	/**
+	 * Records the specified latency.
+	 *
+	 * @param micros the latency in microseconds
+	 */
+	public void record(long micros) {
+		if (micros < 0) micros = 0;
+		if (micros > MAX_VALUE) micros = MAX_VALUE;
+		counts[getIndex(micros)]++;
+		count++;
+		sum += micros;
+		if (micros > max) max = micros;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Returns the latency below or at which the specified percentage of all
+	 * recorded latencies lies, e.g., 99.9 for the 99.9th percentile.
+	 *
+	 * @param percentile the percentile between 0 and 100
+	 * @return the latency in microseconds or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) return 0;
+		long rank = (long) Math.ceil(percentile / 100 * count);
+		if (rank < 1) rank = 1;
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(getHighestValue(i), max);
+		}
+		return max;
+	}
+
+	/**
+	 * Adds all latencies of the specified histogram to this histogram.
+	 *
+	 * @param other the other histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Encodes this histogram into a string without spaces of the form
+	 * <code>count:sum:max:index=count,index=count,...</code> with only the
+	 * buckets that are not empty.
+	 *
+	 * @return the string
+	 */
+	public String encode() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(count).append(':').append(sum).append(':').append(max).append(':');
+		boolean first = true;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) continue;
+			if (!first) builder.append(',');
+			builder.append(i).append('=').append(counts[i]);
+			first = false;
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Decodes a histogram that has been encoded with {@link #encode()}.
+	 *
+	 * @param encoded the encoded histogram
+	 * @return the histogram
+	 * @throws IllegalArgumentException if the string is no encoded histogram
+	 */
+	public static LatencyHistogram decode(String encoded) {
+		String[] parts = encoded.split(":", -1);
+		if (parts.length != 4)
+			throw new IllegalArgumentException("Not an encoded histogram: "+encoded);
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.count = Long.parseLong(parts[0]);
+		histogram.sum = Long.parseLong(parts[1]);
+		histogram.max = Long.parseLong(parts[2]);
+		if (!parts[3].isEmpty()) {
+			for (String bucket:parts[3].split(",")) {
+				int eq = bucket.indexOf('=');
+				histogram.counts[Integer.parseInt(bucket.substring(0, eq))] = Long.parseLong(bucket.substring(eq + 1));
+			}
+		}
+		return histogram;
+	}
+
+	public void reset() {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = 0;
+		count = 0;
+		sum = 0;
+		max = 0;
+	}
+
+	/*
+	 * Values below SUB_BUCKET_COUNT map to themselves. Larger values are
+	 * shifted right until they have SUB_BUCKET_BITS bits. Each shift adds
+	 * SUB_BUCKET_HALF buckets since the top bit is always set.
+	 */
+	private static int getIndex(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >> shift) - SUB_BUCKET_HALF;
+	}
+
+	/*
+	 * Returns the largest value that maps to the bucket with the index.
+	 */
+	private static long getHighestValue(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+		long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+		return ((sub + 1) << shift) - 1;
+	}
+}
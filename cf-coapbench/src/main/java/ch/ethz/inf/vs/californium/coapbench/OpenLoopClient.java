@@ -0,0 +1,336 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.serialization.Serializer;
+
+/**
+ * The open-loop client sends requests at a fixed target rate, no matter how
+ * fast the server responds. The requests leave from a small number of
+ * non-blocking sockets either at constant intervals or with Poisson arrivals.
+ * A receiver thread matches the responses to the requests by their token and
+ * MID.
+ * <p>
+ * Each socket numbers its requests with its own sequential MID. The server
+ * remembers a MID for the exchange lifetime, so a socket must not send more
+ * than 65536 requests within that time. If the rate requires it, more
+ * sockets than specified are opened.
+ * <p>
+ * The latency of a request is measured from the time the request was
+ * supposed to be sent according to the rate, not from the time it actually
+ * left. When the sender falls behind, e.g., because of a GC pause, the delay
+ * is therefore part of the latency and is not hidden (coordinated omission).
+ * A request without response until its slot is reused or the run ends counts
+ * as timeout, but does not stall the sender.
+ */
+public class OpenLoopClient {
+
+	public static final int DEFAULT_SOCKETS = 4;
+
+	/** The time to wait for outstanding responses after the last request [ms] */
+	public static final int DRAIN_TIME = 2000;
+
+	/** The number of outstanding requests that can be tracked, a power of two */
+	private static final int SLOTS = 1 << 18;
+	private static final long NONE = -1;
+	private static final int MIDS = 1 << 16;
+
+	private static final int TOKEN_OFFSET = 4;
+	private static final int TOKEN_LENGTH = 8;
+
+	private final InetSocketAddress destination;
+	private final InetSocketAddress bindAddr;
+	private final int socketCount;
+	private final byte[] prototype;
+
+	private boolean poisson;
+
+	/** The token of the request in each slot or NONE */
+	private AtomicLongArray tokens;
+	/** The intended send time of the request in each slot [ns] */
+	private long[] intended;
+	/** The MID of the request in each slot */
+	private int[] mids;
+
+	private DatagramChannel[] channels;
+	private volatile boolean sending;
+	private volatile boolean receiving;
+
+	// written by the sender
+	private long sent;
+	private long timeouts;
+	private long behind; // the largest delay of the sender [ns]
+
+	// written by the receiver
+	private long received;
+	private long errors;
+	private LatencyHistogram histogram;
+
+	public OpenLoopClient(URI uri, InetSocketAddress bindAddr) throws Exception {
+		this(uri, bindAddr, DEFAULT_SOCKETS);
+	}
+
+	public OpenLoopClient(URI uri, InetSocketAddress bindAddr, int sockets) throws Exception {
+		int port = uri.getPort() < 0 ? 5683 : uri.getPort();
+		this.destination = new InetSocketAddress(InetAddress.getByName(uri.getHost()), port);
+		this.bindAddr = bindAddr;
+		this.socketCount = sockets;
+
+		Request request = new Request(Code.GET);
+		request.setType(Type.CON);
+		request.setToken(new byte[TOKEN_LENGTH]);
+		request.setMID(0);
+		request.setURI(uri);
+		this.prototype = new Serializer().serialize(request).getBytes();
+
+		this.intended = new long[SLOTS];
+		this.mids = new int[SLOTS];
+		this.tokens = new AtomicLongArray(SLOTS);
+		this.histogram = new LatencyHistogram();
+	}
+
+	/**
+	 * Sends requests at the specified rate for the specified time, waits
+	 * {@link #DRAIN_TIME} ms for the last responses and returns.
+	 *
+	 * @param rate the number of requests per second
+	 * @param time the duration in milliseconds
+	 * @throws Exception if the sockets cannot be opened
+	 */
+	public void run(final int rate, int time) throws Exception {
+		reset();
+		long lifetime = NetworkConfig.getStandard().getLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE);
+		int sockets = (int) Math.max(socketCount, (rate * lifetime / 1000 + MIDS - 1) / MIDS);
+		if (sockets > socketCount)
+			System.err.println("Warning: "+socketCount+" sockets would reuse MIDs within the exchange lifetime at "+rate+" requests/s, use "+sockets+" sockets");
+		open(sockets);
+		try {
+			Thread receiver = new Thread("OpenLoopReceiver") {
+				public void run() {
+					receive();
+				} };
+			Thread sender = new Thread("OpenLoopSender") {
+				public void run() {
+					send(rate);
+				} };
+			receiving = true;
+			sending = true;
+			receiver.start();
+			sender.start();
+
+			Thread.sleep(time);
+			sending = false;
+			sender.join();
+			Thread.sleep(DRAIN_TIME);
+			receiving = false;
+			receiver.join();
+
+			for (int i = 0; i < SLOTS; i++)
+				if (tokens.get(i) != NONE) timeouts++;
+		} finally {
+			close();
+		}
+	}
+
+	private void send(int rate) {
+		Random random = new Random();
+		ByteBuffer buffer = ByteBuffer.wrap(prototype.clone());
+		double interval = 1e9 / rate;
+		long start = System.nanoTime();
+		double next = 0; // offset of the next request from start [ns]
+		long token = 0;
+		int[] nextMID = new int[channels.length];
+		try {
+			while (sending) {
+				long due = start + (long) next;
+				long now = System.nanoTime();
+				if (due - now > 100000) {
+					LockSupport.parkNanos(due - now - 50000);
+					continue;
+				} else while (now < due) {
+					now = System.nanoTime();
+				}
+				behind = Math.max(behind, now - due);
+
+				int slot = (int) (token & (SLOTS - 1));
+				if (tokens.get(slot) != NONE)
+					timeouts++; // the response of the previous request in this slot never came
+				int channel = (int) (token % channels.length);
+				int mid = nextMID[channel];
+				nextMID[channel] = (mid + 1) & (MIDS - 1);
+				intended[slot] = due;
+				mids[slot] = mid;
+				tokens.set(slot, token);
+
+				byte[] bytes = buffer.array();
+				bytes[2] = (byte) (mid >> 8);
+				bytes[3] = (byte) mid;
+				for (int i = 0; i < TOKEN_LENGTH; i++)
+					bytes[TOKEN_OFFSET + i] = (byte) (token >> (8 * (TOKEN_LENGTH - 1 - i)));
+				buffer.clear();
+				try {
+					channels[channel].write(buffer);
+				} catch (PortUnreachableException e) {
+					// the server is not there (yet), the request times out
+				}
+				sent++;
+				token++;
+
+				next += poisson ? -Math.log(1 - random.nextDouble()) * interval : interval;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void receive() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(2048);
+		ByteBuffer ack = ByteBuffer.allocate(4);
+		Selector selector = null;
+		try {
+			selector = Selector.open();
+			for (DatagramChannel channel:channels)
+				channel.register(selector, SelectionKey.OP_READ);
+			while (receiving) {
+				if (selector.select(100) == 0) continue;
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					DatagramChannel channel = (DatagramChannel) keys.next().channel();
+					keys.remove();
+					try {
+						buffer.clear();
+						while (channel.read(buffer) > 0) {
+							long now = System.nanoTime();
+							buffer.flip();
+							handleResponse(buffer, now, channel, ack);
+							buffer.clear();
+						}
+					} catch (PortUnreachableException e) {
+						// ICMP error from an earlier request, go on
+					}
+				}
+			}
+		} catch (IOException e) {
+			if (receiving) e.printStackTrace();
+		} finally {
+			if (selector != null)
+				try { selector.close(); } catch (IOException e) { }
+		}
+	}
+
+	private void handleResponse(ByteBuffer buffer, long now, DatagramChannel channel, ByteBuffer ack) throws IOException {
+		if (buffer.remaining() < TOKEN_OFFSET) return;
+		int first = buffer.get(0) & 0xFF;
+		int type = (first >> 4) & 0x3;
+		int tokenLength = first & 0xF;
+		int code = buffer.get(1) & 0xFF;
+		int mid = ((buffer.get(2) & 0xFF) << 8) | (buffer.get(3) & 0xFF);
+
+		if (type == Type.CON.value) {
+			// acknowledge separate responses
+			ack.clear();
+			ack.put((byte) (0x40 | (Type.ACK.value << 4))).put((byte) 0).putShort((short) mid).flip();
+			try {
+				channel.write(ack);
+			} catch (PortUnreachableException e) { }
+		}
+		if (code == 0 || tokenLength != TOKEN_LENGTH || buffer.remaining() < TOKEN_OFFSET + TOKEN_LENGTH)
+			return; // empty message or not ours
+
+		long token = 0;
+		for (int i = 0; i < TOKEN_LENGTH; i++)
+			token = (token << 8) | (buffer.get(TOKEN_OFFSET + i) & 0xFF);
+		int slot = (int) (token & (SLOTS - 1));
+		if (tokens.get(slot) != token)
+			return; // duplicate or too late
+		if (type == Type.ACK.value && mid != mids[slot])
+			return; // piggy-backed response with the wrong MID
+		long due = intended[slot];
+		if (!tokens.compareAndSet(slot, token, NONE))
+			return;
+		received++;
+		if ((code >> 5) != 2) errors++;
+		histogram.record((now - due) / 1000);
+	}
+
+	private void open(int sockets) throws IOException {
+		channels = new DatagramChannel[sockets];
+		for (int i = 0; i < sockets; i++) {
+			DatagramChannel channel = DatagramChannel.open();
+			channel.socket().bind(bindAddr);
+			channel.connect(destination);
+			channel.configureBlocking(false);
+			channels[i] = channel;
+		}
+	}
+
+	private void close() {
+		for (DatagramChannel channel:channels)
+			try { channel.close(); } catch (IOException e) { }
+	}
+
+	private void reset() {
+		for (int i = 0; i < SLOTS; i++)
+			tokens.set(i, NONE);
+		sent = 0;
+		timeouts = 0;
+		behind = 0;
+		received = 0;
+		errors = 0;
+		histogram.reset();
+	}
+
+	public boolean isPoisson() {
+		return poisson;
+	}
+
+	public void setPoisson(boolean poisson) {
+		this.poisson = poisson;
+	}
+
+	public long getSent() {
+		return sent;
+	}
+
+	public long getReceived() {
+		return received;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Returns the largest delay of a request behind its intended send time.
+	 *
+	 * @return the delay in microseconds
+	 */
+	public long getMaxSendDelay() {
+		return behind / 1000;
+	}
+
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+}
@@ -0,0 +1,75 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+/**
+ * A recorder collects the completed requests, timeouts, errors and latencies
+ * of one client since it has last been drained. The client records from its
+ * own thread, while the manager drains all recorders into one result at the
+ * end of each interval. The lock is therefore hardly ever contended.
+ */
+public class Recorder {
+
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	private long completed;
+	private long timeouts;
+	private long errors;
+
+	// the totals are kept for the getters of the clients
+	private long totalCompleted;
+	private long totalTimeouts;
+
+	/**
+	 * Records a completed request.
+	 *
+	 * @param micros the latency in microseconds or a negative value if the
+	 *            latency has not been measured
+	 */
+	public synchronized void completed(long micros) {
+		completed++;
+		totalCompleted++;
+		if (micros >= 0)
+			histogram.record(micros);
+	}
+
+	public synchronized void timeout() {
+		timeouts++;
+		totalTimeouts++;
+	}
+
+	public synchronized void error() {
+		errors++;
+	}
+
+	/**
+	 * Adds everything recorded since the last call to the specified result
+	 * and starts over.
+	 *
+	 * @param result the result
+	 */
+	public synchronized void drainTo(BenchResult result) {
+		result.addCompleted(completed);
+		result.addTimeouts(timeouts);
+		result.addErrors(errors);
+		result.getHistogram().add(histogram);
+		histogram.reset();
+		completed = 0;
+		timeouts = 0;
+		errors = 0;
+	}
+
+	public synchronized void reset() {
+		histogram.reset();
+		completed = 0;
+		timeouts = 0;
+		errors = 0;
+		totalCompleted = 0;
+		totalTimeouts = 0;
+	}
+
+	public synchronized long getTotalCompleted() {
+		return totalCompleted;
+	}
+
+	public synchronized long getTotalTimeouts() {
+		return totalTimeouts;
+	}
+}
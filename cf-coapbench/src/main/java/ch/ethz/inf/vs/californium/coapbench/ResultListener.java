@@ -0,0 +1,10 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+/**
+ * A result listener receives the result of each interval of a benchmark run
+ * and the result of the whole run with the interval {@link BenchResult#TOTAL}.
+ */
+public interface ResultListener {
+
+	public void receive(BenchResult result);
+}
@@ -0,0 +1,59 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * The result writer writes benchmark results to a file for dashboards and
+ * scripts, either as CSV with a header line or as JSON with one object per
+ * line. The file is flushed after every result, so that it can be followed
+ * while the benchmark is running.
+ */
+public class ResultWriter implements ResultListener {
+
+	public static final String JSON = "json";
+	public static final String CSV = "csv";
+
+	private final BufferedWriter out;
+	private final boolean json;
+
+	/**
+	 * Creates a new writer that overwrites the specified file.
+	 *
+	 * @param name the file name
+	 * @param format {@link #JSON} or {@link #CSV}
+	 * @throws IOException if the file cannot be created
+	 */
+	public ResultWriter(String name, String format) throws IOException {
+		if (JSON.equals(format)) json = true;
+		else if (CSV.equals(format)) json = false;
+		else throw new IllegalArgumentException("Unknown format "+format+", use "+JSON+" or "+CSV);
+		this.out = new BufferedWriter(new FileWriter(name));
+		if (!json) {
+			out.write(BenchResult.CSV_HEADER);
+			out.newLine();
+			out.flush();
+		}
+		System.out.println("Write results as "+format+" to "+name);
+	}
+
+	@Override
+	public synchronized void receive(BenchResult result) {
+		try {
+			out.write(json ? result.toJSON() : result.toCSV());
+			out.newLine();
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
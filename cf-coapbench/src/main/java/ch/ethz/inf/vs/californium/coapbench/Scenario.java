@@ -0,0 +1,344 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import ch.ethz.inf.vs.californium.coap.CoAP.Code;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+
+/**
+ * A scenario describes a mixed workload for the {@link ScenarioRunner}. It is
+ * read from a file with one setting or operation class per line. Everything
+ * after a '#' is a comment.
+ * <pre>
+ * target   coap://localhost:5683
+ * duration 60         # seconds
+ * clients  100        # simulated devices, each with its own endpoint
+ * churn    2          # devices that leave and are replaced per second
+ * think    100        # ms a device waits between two requests
+ * block    256        # block size of blockwise transfers
+ * timeout  10000      # ms until a request counts as timed out
+ *
+ * #        name     weight type method path       [payload=BYTES]
+ * request  status   70     CON  GET    /benchmark
+ * request  report   25     NON  POST   /benchmark payload=64
+ * request  firmware 5      CON  PUT    /benchmark payload=65536
+ *
+ * #        name     count  type path
+ * observe  sensor   300    NON  /observe/1000
+ * </pre>
+ * Each device picks its next request according to the weights. Requests
+ * with a payload larger than the block size are sent blockwise (Block1). The
+ * observers are distributed evenly over the devices. A device that is
+ * replaced by churn simply disappears and the new device registers its
+ * observers anew.
+ */
+public class Scenario {
+
+	public static final int DEFAULT_CLIENTS = 1;
+	public static final int DEFAULT_TIMEOUT = VirtualClient.TIMEOUT; // [ms]
+
+	private URI target;
+	private int duration = CoapBench.DEFAULT_TIME; // [s]
+	private int clients = DEFAULT_CLIENTS;
+	private double churn; // [clients/s]
+	private int think; // [ms]
+	private int block; // [bytes] or 0 for the default of the network config
+	private int timeout = DEFAULT_TIMEOUT; // [ms]
+
+	private final List<Operation> operations = new ArrayList<Operation>();
+	private final List<Observation> observations = new ArrayList<Observation>();
+	private int totalWeight;
+
+	/**
+	 * Loads the scenario from the specified file.
+	 *
+	 * @param file the file name
+	 * @return the scenario
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file contains an invalid line
+	 */
+	public static Scenario load(String file) throws IOException {
+		Reader reader = new FileReader(file);
+		try {
+			return parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parses a scenario.
+	 *
+	 * @param reader the reader
+	 * @return the scenario
+	 * @throws IOException if the reader fails
+	 * @throws IllegalArgumentException if a line is invalid
+	 */
+	public static Scenario parse(Reader reader) throws IOException {
+		Scenario scenario = new Scenario();
+		BufferedReader in = new BufferedReader(reader);
+		Set<String> names = new HashSet<String>();
+		String line;
+		int number = 0;
+		while ((line = in.readLine()) != null) {
+			number++;
+			int comment = line.indexOf('#');
+			if (comment >= 0)
+				line = line.substring(0, comment);
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			try {
+				scenario.parseLine(line.split("\\s+"), names);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line "+number+": "+e.getMessage(), e);
+			}
+		}
+		if (scenario.operations.isEmpty() && scenario.observations.isEmpty())
+			throw new IllegalArgumentException("Scenario has neither requests nor observers");
+		return scenario;
+	}
+
+	private void parseLine(String[] parts, Set<String> names) {
+		String keyword = parts[0];
+		if ("request".equals(keyword)) {
+			if (parts.length < 6 || parts.length > 7)
+				throw new IllegalArgumentException("Expected: request NAME WEIGHT TYPE METHOD PATH [payload=BYTES]");
+			int payload = 0;
+			if (parts.length == 7) {
+				if (!parts[6].startsWith("payload="))
+					throw new IllegalArgumentException("Unknown option "+parts[6]);
+				payload = parseInt(parts[6].substring("payload=".length()), 0);
+			}
+			Operation operation = new Operation(checkName(parts[1], names), parseInt(parts[2], 1),
+					parseType(parts[3]), parseCode(parts[4]), parts[5], payload);
+			operations.add(operation);
+			totalWeight += operation.weight;
+
+		} else if ("observe".equals(keyword)) {
+			if (parts.length != 5)
+				throw new IllegalArgumentException("Expected: observe NAME COUNT TYPE PATH");
+			observations.add(new Observation(checkName(parts[1], names), parseInt(parts[2], 1),
+					parseType(parts[3]), parts[4]));
+
+		} else if (parts.length != 2) {
+			throw new IllegalArgumentException("Expected: "+keyword+" VALUE");
+		} else if ("target".equals(keyword)) {
+			try {
+				target = new URI(parts[1]);
+			} catch (URISyntaxException e) {
+				throw new IllegalArgumentException("Invalid target "+parts[1]);
+			}
+		} else if ("duration".equals(keyword)) {
+			duration = parseInt(parts[1], 1);
+		} else if ("clients".equals(keyword)) {
+			clients = parseInt(parts[1], 1);
+		} else if ("churn".equals(keyword)) {
+			try {
+				churn = Double.parseDouble(parts[1]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number: "+parts[1]);
+			}
+			if (churn < 0)
+				throw new IllegalArgumentException("Churn must not be negative");
+		} else if ("think".equals(keyword)) {
+			think = parseInt(parts[1], 0);
+		} else if ("block".equals(keyword)) {
+			block = parseInt(parts[1], 16);
+			if (block > 1024 || Integer.bitCount(block) != 1)
+				throw new IllegalArgumentException("Block size must be a power of two between 16 and 1024");
+		} else if ("timeout".equals(keyword)) {
+			timeout = parseInt(parts[1], 1);
+		} else {
+			throw new IllegalArgumentException("Unknown keyword "+keyword);
+		}
+	}
+
+	private static String checkName(String name, Set<String> names) {
+		if (name.indexOf('|') >= 0 || name.indexOf(',') >= 0)
+			throw new IllegalArgumentException("Name must not contain '|' or ',': "+name);
+		if (!names.add(name))
+			throw new IllegalArgumentException("Duplicate name "+name);
+		return name;
+	}
+
+	private static int parseInt(String value, int min) {
+		try {
+			int n = Integer.parseInt(value);
+			if (n < min)
+				throw new IllegalArgumentException("Value must be at least "+min+": "+value);
+			return n;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a number: "+value);
+		}
+	}
+
+	private static Type parseType(String type) {
+		if ("CON".equalsIgnoreCase(type)) return Type.CON;
+		if ("NON".equalsIgnoreCase(type)) return Type.NON;
+		throw new IllegalArgumentException("Type must be CON or NON: "+type);
+	}
+
+	private static Code parseCode(String method) {
+		try {
+			return Code.valueOf(method.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Method must be GET, POST, PUT or DELETE: "+method);
+		}
+	}
+
+	/**
+	 * Picks an operation class according to the weights.
+	 *
+	 * @param random the random number generator of the calling client
+	 * @return the operation or null if the scenario only has observers
+	 */
+	public Operation nextOperation(Random random) {
+		if (totalWeight == 0)
+			return null;
+		int r = random.nextInt(totalWeight);
+		for (Operation operation:operations) {
+			r -= operation.weight;
+			if (r < 0)
+				return operation;
+		}
+		throw new IllegalStateException(); // cannot happen
+	}
+
+	public URI getTarget() {
+		return target;
+	}
+
+	public void setTarget(URI target) {
+		this.target = target;
+	}
+
+	public int getDuration() {
+		return duration;
+	}
+
+	public int getClients() {
+		return clients;
+	}
+
+	public double getChurn() {
+		return churn;
+	}
+
+	public int getThink() {
+		return think;
+	}
+
+	public int getBlock() {
+		return block;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public List<Operation> getOperations() {
+		return operations;
+	}
+
+	public List<Observation> getObservations() {
+		return observations;
+	}
+
+	/**
+	 * A class of requests of the scenario.
+	 */
+	public static class Operation {
+
+		private final String name;
+		private final int weight;
+		private final Type type;
+		private final Code code;
+		private final String path;
+		private final byte[] payload;
+
+		private Operation(String name, int weight, Type type, Code code, String path, int payload) {
+			this.name = name;
+			this.weight = weight;
+			this.type = type;
+			this.code = code;
+			this.path = path;
+			this.payload = new byte[payload];
+			new Random(payload).nextBytes(this.payload);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public Code getCode() {
+			return code;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public byte[] getPayload() {
+			return payload;
+		}
+
+		@Override
+		public String toString() {
+			return name+" ("+weight+"x "+type+" "+code+" "+path+(payload.length > 0 ? ", "+payload.length+" bytes" : "")+")";
+		}
+	}
+
+	/**
+	 * A class of observers of the scenario.
+	 */
+	public static class Observation {
+
+		private final String name;
+		private final int count;
+		private final Type type;
+		private final String path;
+
+		private Observation(String name, int count, Type type, String path) {
+			this.name = name;
+			this.count = count;
+			this.type = type;
+			this.path = path;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		@Override
+		public String toString() {
+			return name+" ("+count+"x "+type+" observe "+path+")";
+		}
+	}
+}
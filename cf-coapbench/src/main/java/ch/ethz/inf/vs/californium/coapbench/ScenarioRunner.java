@@ -0,0 +1,343 @@
+package ch.ethz.inf.vs.californium.coapbench;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.coapbench.Scenario.Observation;
+import ch.ethz.inf.vs.californium.coapbench.Scenario.Operation;
+import ch.ethz.inf.vs.californium.network.CoAPEndpoint;
+import ch.ethz.inf.vs.californium.network.EndpointManager;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.elements.UDPConnector;
+
+/**
+ * The scenario runner drives the mixed workload of a {@link Scenario} against
+ * a server. Unlike the virtual clients, the simulated devices use a full
+ * Californium endpoint each, so that observe relations, blockwise transfers
+ * and retransmissions of CONs are handled as by real clients.
+ * <p>
+ * The results are reported per operation class. For requests, the latency
+ * is the time until the (last) response has arrived. For observers, each
+ * notification counts as completed and the latency is the time since the
+ * previous notification of the same relation, i.e., the histogram shows how
+ * regularly the notifications arrive.
+ */
+public class ScenarioRunner {
+
+	// the connector logs every start and stop of the hundreds of endpoints
+	private static final Logger CONNECTOR_LOGGER = Logger.getLogger(UDPConnector.class.toString());
+
+	private final Scenario scenario;
+	private final InetAddress destination;
+	private final int port;
+	private final InetSocketAddress bindAddr;
+	private final NetworkConfig config;
+	private final ScheduledExecutorService executor;
+	private final Timer timer;
+
+	/** The recorders by operation class in the order of the scenario */
+	private final Map<String, Recorder> recorders = new LinkedHashMap<String, Recorder>();
+	private final Map<String, BenchResult> totals = new LinkedHashMap<String, BenchResult>();
+	private final List<ResultListener> listeners = new CopyOnWriteArrayList<ResultListener>();
+
+	private Device[] devices;
+	private final Random random = new Random();
+	private int replaced;
+
+	private long interval; // [ms] or 0 for no intervals
+	private int intervalNumber;
+	private long intervalStart;
+
+	public ScenarioRunner(Scenario scenario, InetSocketAddress bindAddr) throws Exception {
+		URI target = scenario.getTarget();
+		if (target == null)
+			throw new IllegalArgumentException("Scenario has no target");
+		this.scenario = scenario;
+		this.destination = InetAddress.getByName(target.getHost());
+		this.port = target.getPort() >= 0 ? target.getPort() : EndpointManager.DEFAULT_COAP_PORT;
+		this.bindAddr = bindAddr;
+		this.config = new NetworkConfig();
+		if (scenario.getBlock() > 0) {
+			config.setInt(NetworkConfigDefaults.MAX_MESSAGE_SIZE, scenario.getBlock());
+			config.setInt(NetworkConfigDefaults.DEFAULT_BLOCK_SIZE, scenario.getBlock());
+		}
+		// all devices share one executor, only the connectors have own threads
+		this.executor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+		this.timer = new Timer("ScenarioRunner", true);
+		for (Operation operation:scenario.getOperations())
+			recorders.put(operation.getName(), new Recorder());
+		for (Observation observation:scenario.getObservations())
+			recorders.put(observation.getName(), new Recorder());
+		CaliforniumLogger.disableLogging();
+		CONNECTOR_LOGGER.setLevel(Level.SEVERE);
+	}
+
+	/**
+	 * Runs the scenario and blocks until it has finished.
+	 *
+	 * @return the results of the whole run per operation class
+	 * @throws Exception if the devices cannot be started
+	 */
+	public List<BenchResult> run() throws Exception {
+		System.err.println("\nRun scenario with "+scenario.getClients()+" clients against "+scenario.getTarget()+" for "+scenario.getDuration()+" s");
+		for (Operation operation:scenario.getOperations())
+			System.err.println("  request "+operation);
+		for (Observation observation:scenario.getObservations())
+			System.err.println("  observe "+observation);
+
+		long start = System.currentTimeMillis();
+		for (String name:recorders.keySet())
+			totals.put(name, new BenchResult(name, BenchResult.TOTAL, start, 0));
+		intervalNumber = 0;
+		intervalStart = start;
+
+		devices = new Device[scenario.getClients()];
+		for (int i=0;i<devices.length;i++) {
+			devices[i] = new Device(i);
+			devices[i].start();
+		}
+		long timestamp = System.nanoTime();
+
+		if (interval > 0) {
+			timer.scheduleAtFixedRate(new TimerTask() {
+				public void run() {
+					collectInterval();
+				} }, interval, interval);
+		}
+		if (scenario.getChurn() > 0) {
+			long period = Math.max(1, (long) (1000 / scenario.getChurn()));
+			timer.scheduleAtFixedRate(new TimerTask() {
+				public void run() {
+					replaceDevice();
+				} }, period, period);
+		}
+
+		Thread.sleep(scenario.getDuration() * 1000L);
+		timer.cancel();
+		synchronized (this) {
+			for (Device device:devices)
+				device.stop();
+		}
+		long duration = (System.nanoTime() - timestamp) / 1000000;
+
+		List<BenchResult> results = new ArrayList<BenchResult>();
+		synchronized (this) {
+			collectInterval();
+			for (BenchResult total:totals.values()) {
+				BenchResult result = new BenchResult(total.getName(), BenchResult.TOTAL, start, duration);
+				result.add(total);
+				results.add(result);
+			}
+		}
+		executor.shutdown();
+
+		System.err.println("Replaced "+replaced+" clients due to churn");
+		for (BenchResult result:results) {
+			System.out.println(result);
+			for (ResultListener listener:listeners)
+				listener.receive(result);
+		}
+		return results;
+	}
+
+	/*
+	 * Drains the recorders into the results of the current interval, adds
+	 * them to the totals and hands them to the listeners.
+	 */
+	private synchronized void collectInterval() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Recorder> entry:recorders.entrySet()) {
+			BenchResult result = new BenchResult(entry.getKey(), intervalNumber, intervalStart, now - intervalStart);
+			entry.getValue().drainTo(result);
+			totals.get(entry.getKey()).add(result);
+			if (interval > 0)
+				for (ResultListener listener:listeners)
+					listener.receive(result);
+		}
+		intervalNumber++;
+		intervalStart = now;
+	}
+
+	/*
+	 * A random device leaves and a new one with a new port and new observe
+	 * relations takes its place.
+	 */
+	private synchronized void replaceDevice() {
+		int index = random.nextInt(devices.length);
+		devices[index].stop();
+		devices[index] = new Device(index);
+		try {
+			devices[index].start();
+			replaced++;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void addResultListener(ResultListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeResultListener(ResultListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Sets the interval after which the results of all operation classes are
+	 * collected and handed to the result listeners.
+	 *
+	 * @param interval the interval in milliseconds or 0 for no intervals
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	private Request createRequest(Operation operation) {
+		Request request = new Request(operation.getCode(), operation.getType());
+		request.getOptions().setURIPath(operation.getPath());
+		if (operation.getPayload().length > 0)
+			request.setPayload(operation.getPayload());
+		request.setDestination(destination);
+		request.setDestinationPort(port);
+		return request;
+	}
+
+	/**
+	 * A simulated device with its own endpoint. It sends requests of the
+	 * scenario one after the other and holds its share of the observers.
+	 */
+	private class Device implements Runnable {
+
+		private final int index;
+		private final Random random;
+		private final CoAPEndpoint endpoint;
+		private final List<Request> observations = new ArrayList<Request>();
+		private final Thread thread;
+
+		private volatile boolean running;
+		private volatile Request current;
+
+		private Device(int index) {
+			this.index = index;
+			this.random = new Random();
+			this.endpoint = new CoAPEndpoint(new InetSocketAddress(bindAddr != null ? bindAddr.getAddress() : null, 0), config);
+			this.thread = new Thread(this, "Device "+index);
+			this.thread.setDaemon(true);
+		}
+
+		private void start() throws Exception {
+			endpoint.setExecutor(executor);
+			endpoint.start();
+			running = true;
+
+			// observer k of a class is held by device k % clients
+			int clients = devices.length;
+			for (Observation observation:scenario.getObservations()) {
+				for (int k=index;k<observation.getCount();k+=clients)
+					observe(observation);
+			}
+			if (!scenario.getOperations().isEmpty())
+				thread.start();
+		}
+
+		private void observe(Observation observation) {
+			final Recorder recorder = recorders.get(observation.getName());
+			Request request = Request.newGet();
+			request.setType(observation.getType());
+			request.setObserve();
+			request.getOptions().setURIPath(observation.getPath());
+			request.setDestination(destination);
+			request.setDestinationPort(port);
+			request.addMessageObserver(new MessageObserverAdapter() {
+				private long last;
+
+				@Override
+				public void onResponse(Response response) {
+					if (!running) return;
+					long now = System.nanoTime();
+					if (!ResponseCode.isSuccess(response.getCode()) || !response.getOptions().hasObserve()) {
+						recorder.error();
+					} else if (last != 0) {
+						recorder.completed((now - last) / 1000);
+					}
+					last = now;
+				}
+
+				@Override
+				public void onReject() {
+					if (running) recorder.error();
+				}
+
+				@Override
+				public void onTimeout() {
+					if (running) recorder.timeout();
+				}
+			});
+			observations.add(request);
+			endpoint.sendRequest(request);
+		}
+
+		public void run() {
+			try {
+				while (running) {
+					Operation operation = scenario.nextOperation(random);
+					Recorder recorder = recorders.get(operation.getName());
+					Request request = createRequest(operation);
+					current = request;
+					long timestamp = System.nanoTime();
+					endpoint.sendRequest(request);
+					Response response = request.waitForResponse(scenario.getTimeout());
+					if (!running)
+						break;
+					if (response == null) {
+						request.cancel();
+						if (request.isRejected()) recorder.error();
+						else recorder.timeout();
+					} else {
+						if (!ResponseCode.isSuccess(response.getCode()))
+							recorder.error();
+						recorder.completed((System.nanoTime() - timestamp) / 1000);
+					}
+					if (scenario.getThink() > 0)
+						Thread.sleep(scenario.getThink());
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			}
+		}
+
+		/*
+		 * The device disappears without canceling its observe relations, as
+		 * a device that is switched off or loses its connectivity would.
+		 */
+		private void stop() {
+			running = false;
+			thread.interrupt();
+			Request request = current;
+			if (request != null)
+				request.cancel();
+			for (Request observation:observations)
+				observation.cancel();
+			endpoint.destroy();
+		}
+	}
+}
@@ -25,15 +25,13 @@ public class VirtualClient implements Runnable {
 	private VeryEcoMessageProducer producer;
 	
 	private boolean runnable;
-	private int counter;
-	private int lost;
 	
 	private InetAddress destAddress;
 	private int destPort;
 	private byte[] mid;
 	private long timestamp;
 	
-	private IntArray latencies;
+	private Recorder recorder;
 	
 	private boolean checkMID = true;
 	private boolean checkCode = true;
@@ -45,7 +43,7 @@ public class VirtualClient implements Runnable {
 	
 	public VirtualClient(URI uri, InetSocketAddress addr) throws Exception {
 		this.mid = new byte[2];
-		this.latencies = new IntArray();
+		this.recorder = new Recorder();
 		this.producer = new VeryEcoMessageProducer();
 		this.pSend = new DatagramPacket(new byte[0], 0);
 		this.pRecv = new DatagramPacket(new byte[100], 100);
@@ -70,7 +68,6 @@ public class VirtualClient implements Runnable {
 	
 	public void run() {
 		try {
-			latencies.clear();
 			while (runnable) {
 				sendRequest();
 				receiveResponse();
@@ -99,14 +96,13 @@ public class VirtualClient implements Runnable {
 				latency = System.nanoTime() - timestamp;
 				byte[] resp = pRecv.getData();
 				mid_correct = checkMID(resp);
-				checkCode(resp);
 			} while (!mid_correct);
-			if (checkLatency)
-				latencies.add((int) (latency / 1000000));
-			counter++;
+			if (!checkCode(pRecv.getData()))
+				recorder.error();
+			recorder.completed(checkLatency ? latency / 1000 : -1);
 		} catch (SocketTimeoutException e) {
 //			System.out.println("Timeout occured");
-			lost++;
+			recorder.timeout();
 		}
 	}
 	
@@ -116,20 +112,25 @@ public class VirtualClient implements Runnable {
 	
 	public void reset() {
 		runnable = true;
-		counter = 0;
-		lost = 0;
+		recorder.reset();
 	}
 	
 	public int getCount() {
-		return counter;
+		return (int) recorder.getTotalCompleted();
 	}
 	
 	public int getTimeouts() {
-		return lost;
+		return (int) recorder.getTotalTimeouts();
 	}
 	
-	public IntArray getLatencies() {
-		return latencies;
+	/**
+	 * Returns the recorder with the completed requests, timeouts, errors and
+	 * latencies in microseconds since the manager has last drained it.
+	 * 
+	 * @return the recorder
+	 */
+	public Recorder getRecorder() {
+		return recorder;
 	}
 	
 	private void saveMID(byte[] bytes) {
@@ -148,11 +149,13 @@ public class VirtualClient implements Runnable {
 		return true;
 	}
 	
-	private void checkCode(byte[] bytes) {
+	private boolean checkCode(byte[] bytes) {
 		byte c = bytes[1];
 		if (checkCode && c != CoAP.ResponseCode.CONTENT.value) {
 			System.err.println("Did not receive Content as response code but "+c);
+			return false;
 		}
+		return true;
 	}
 
 	public boolean isCheckLatency() {
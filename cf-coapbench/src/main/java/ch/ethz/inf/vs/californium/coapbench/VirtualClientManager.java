@@ -5,13 +5,19 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The VirtualClient manager creates the virtual clients for the benchmarks.
  * Each virtual client sends request to the server as fast as the server can
  * handle them.
+ * <p>
+ * If an interval is set, the manager collects the results of all clients at
+ * the end of every interval and hands them to the result listeners. At the
+ * end of a run, the listeners also receive the result of the whole run.
  */
 public class VirtualClientManager {
 
@@ -31,6 +37,14 @@ public class VirtualClientManager {
 	
 	private boolean enableLatency = false;
 	private boolean verbose;
+	
+	private String name; // the name of the runs or null for "c=<clients>"
+	private long interval; // [ms] or 0 for no intervals
+	private TimerTask intervalTask;
+	private int intervalNumber;
+	private long intervalStart;
+	private BenchResult total;
+	private List<ResultListener> listeners = new CopyOnWriteArrayList<ResultListener>();
 
 	public VirtualClientManager() throws Exception {
 		this(null);
@@ -77,7 +91,7 @@ public class VirtualClientManager {
 	private void ensurelog() throws Exception {
 		if (log==null) {
 			log = new LogFile(LOG_FILE);
-			log.format("Concurrency, Time, Completed, Timeouts, Throughput | 50%%, 66%%, 75%%, 80%%, 90%%, 95%%, 98%%, 99%%, 100%%, stdev (ms)\n");
+			log.format("Concurrency, Time, Completed, Timeouts, Errors, Throughput | 50%%, 90%%, 99%%, 99.9%%, 100%%, mean (us)\n");
 		}
 	}
 	
@@ -112,68 +126,110 @@ public class VirtualClientManager {
 			threads[i] = new Thread(c);
 		}
 		System.err.println("\nStart "+count+" virtual clients for "+time+" ms");
+		String runName = name != null ? name : "c="+count;
+		total = new BenchResult(runName, BenchResult.TOTAL, System.currentTimeMillis(), 0);
+		intervalNumber = 0;
+		intervalStart = total.getStart();
 		for (int i=0;i<count;i++)
 			threads[i].start();
 		timestamp = System.nanoTime();
+		if (interval > 0) {
+			intervalTask = new TimerTask() {
+				public void run() {
+					collectInterval();
+				} };
+			timer.scheduleAtFixedRate(intervalTask, interval, interval);
+		}
 		timer.schedule(new TimerTask() {
 			public void run() {
 				stop();
 			} }, time);
 	}
 	
+	/*
+	 * Drains the recorders of all clients into the result of the current
+	 * interval, adds it to the total and hands it to the listeners.
+	 */
+	private synchronized BenchResult collectInterval() {
+		long now = System.currentTimeMillis();
+		BenchResult result = new BenchResult(total.getName(), intervalNumber++, intervalStart, now - intervalStart);
+		for (VirtualClient vc:clients)
+			vc.getRecorder().drainTo(result);
+		intervalStart = now;
+		total.add(result);
+		if (interval > 0)
+			for (ResultListener listener:listeners)
+				listener.receive(result);
+		return result;
+	}
+	
 	public void stop() {
 		float dt = (System.nanoTime() - timestamp) / 1000000f;
 		if (verbose)
 			System.out.println("Stop virtual clients and collect results");
+		if (intervalTask != null)
+			intervalTask.cancel();
 		for (VirtualClient vc:clients)
 			vc.stop();
-		int sum = 0;
-		int sumTimeout = 0;
-		IntArray latencies = new IntArray();
-		for (int i=0;i<clients.size();i++) {
-			VirtualClient client = clients.get(i);
-			int count = client.getCount();
-			int lost = client.getTimeouts();
-			latencies.add(client.getLatencies());
-			sum += count;
-			sumTimeout += lost;
-			if (verbose)
+		if (verbose) {
+			for (int i=0;i<clients.size();i++) {
+				VirtualClient client = clients.get(i);
+				int count = client.getCount();
 				System.out.format("Virtual client %2d received %7d, timeout %3d, throughput %d /s\n"
-					, i, count, lost, (int) (count * 1000L / dt));
+					, i, count, client.getTimeouts(), (int) (count * 1000L / dt));
+			}
 		}
-		int throughput = (int) (sum * 1000L / dt);
 		
-		int[] lats = latencies.getArray();
-		long latsum = 0;
-		for (int l:lats) latsum += l;
-		double mean = (double) latsum / lats.length;
-		double temp = 0;
-        for(int l :lats) temp += (mean-l)*(mean-l);
-        double var = Math.sqrt(temp / lats.length);
-           
-        if (lats.length > 0) {
-        	Arrays.sort(lats); // bad if length==0
-			int q50 = lats[(int) (lats.length/2)];
-			int q66 = lats[(int) (lats.length * 2L/3)];
-			int q75 = lats[(int) (lats.length * 3L/4)];
-			int q80 = lats[(int) (lats.length * 4L/5)];
-			int q90 = lats[(int) (lats.length * 9L/10)];
-			int q95 = lats[(int) (lats.length * 19L/20)];
-			int q98 = lats[(int) (lats.length * 98L/100)];
-			int q99 = lats[(int) (lats.length * 99L/100)];
-			int q100 = lats[lats.length - 1];
-			
-//			System.err.format("Total received %8d, timeout %4d, throughput %d /s\n"
-//					, sum, sumTimeout, throughput);
-			log.format("c=%d, t=%d, received=%d, timeouts=%d, throughput=%d | %d, %d, %d, %d, %d, %d, %d, %d, %d, %.1f\n",
-					count, time, sum, sumTimeout, throughput,
-					q50, q66, q75, q80, q90, q95, q98, q99, q100, var);
+		BenchResult result;
+		synchronized (this) {
+			collectInterval();
+			result = new BenchResult(total.getName(), BenchResult.TOTAL, total.getStart(), (long) dt);
+			result.add(total);
+		}
+		for (ResultListener listener:listeners)
+			listener.receive(result);
+		
+		LatencyHistogram latencies = result.getHistogram();
+		if (latencies.getCount() > 0) {
+			log.format("c=%d, t=%d, received=%d, timeouts=%d, errors=%d, throughput=%d | %d, %d, %d, %d, %d, %.1f\n",
+					count, time, result.getCompleted(), result.getTimeouts(), result.getErrors(), result.getThroughput(),
+					latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(90),
+					latencies.getValueAtPercentile(99), latencies.getValueAtPercentile(99.9),
+					latencies.getMax(), latencies.getMean());
         
-        } else {
-        	// no latency
-//        	System.err.format("Total received %8d, timeout %4d, throughput %d /s\n" , sum, sumTimeout, throughput);
-        	log.format("c=%d, t=%d, received=%d, timeouts=%d, throughput=%d, uri=%s\n", count, time, sum, sumTimeout, throughput, uri.toString());
-        }
+		} else {
+			// no latency
+			log.format("c=%d, t=%d, received=%d, timeouts=%d, errors=%d, throughput=%d, uri=%s\n",
+					count, time, result.getCompleted(), result.getTimeouts(), result.getErrors(), result.getThroughput(), uri.toString());
+		}
+	}
+	
+	public void addResultListener(ResultListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeResultListener(ResultListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Sets the name of the following runs. By default, a run is named after
+	 * the number of clients, e.g., "c=50".
+	 * 
+	 * @param name the name without spaces or null for the default
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Sets the interval after which the results of the clients are collected
+	 * and handed to the result listeners.
+	 * 
+	 * @param interval the interval in milliseconds or 0 for no intervals
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
 	}
 
 	public boolean isEnableLatency() {
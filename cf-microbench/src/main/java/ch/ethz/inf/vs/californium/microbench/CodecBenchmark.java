@@ -0,0 +1,132 @@
+package ch.ethz.inf.vs.californium.microbench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.EmptyMessage;
+import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
+import ch.ethz.inf.vs.californium.coap.Message;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.serialization.DataParser;
+import ch.ethz.inf.vs.californium.network.serialization.DataSerializer;
+
+/**
+ * Measures the throughput of the DataSerializer and the DataParser for
+ * messages of different shapes and payload sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	/** The shapes of the messages */
+	public enum Shape {
+		/** An empty ACK */
+		EMPTY,
+		/** A GET request with a path of three segments and a query */
+		GET,
+		/** A 2.05 response with Content-Format, Max-Age and ETag */
+		CONTENT,
+		/** A notification of a blockwise transfer with Observe and Block2 */
+		NOTIFICATION
+	}
+
+	@Param({"EMPTY", "GET", "CONTENT", "NOTIFICATION"})
+	public Shape shape;
+
+	@Param({"0", "64", "1024"})
+	public int payloadSize;
+
+	private final DataSerializer serializer = new DataSerializer();
+
+	private Message message;
+	private byte[] bytes;
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setup() {
+		CaliforniumLogger.disableLogging();
+		message = createMessage(shape, payloadSize);
+		bytes = serialize();
+		buffer = ByteBuffer.allocate(bytes.length);
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		if (message instanceof Request)
+			return serializer.serializeRequest((Request) message);
+		else if (message instanceof Response)
+			return serializer.serializeResponse((Response) message);
+		else
+			return serializer.serializeEmptyMessage(message);
+	}
+
+	@Benchmark
+	public int serializeIntoBuffer() {
+		buffer.clear();
+		return serializer.serialize(message, buffer);
+	}
+
+	@Benchmark
+	public Message parse() {
+		DataParser parser = new DataParser(bytes);
+		if (parser.isRequest())
+			return parser.parseRequest();
+		else if (parser.isResponse())
+			return parser.parseResponse();
+		else
+			return parser.parseEmptyMessage();
+	}
+
+	static Message createMessage(Shape shape, int payloadSize) {
+		Message message;
+		switch (shape) {
+		case EMPTY:
+			message = new EmptyMessage(Type.ACK);
+			message.setToken(new byte[0]);
+			break;
+		case GET:
+			message = Request.newGet();
+			message.getOptions().setURIPath("sensors/temperature/indoor").setURIQuery("unit=celsius");
+			break;
+		case CONTENT:
+			message = new Response(ResponseCode.CONTENT);
+			message.getOptions().setContentFormat(MediaTypeRegistry.TEXT_PLAIN).setMaxAge(30)
+					.addETag(new byte[] { 1, 2, 3, 4 });
+			break;
+		case NOTIFICATION:
+			message = new Response(ResponseCode.CONTENT);
+			message.getOptions().setObserve(4711).setContentFormat(MediaTypeRegistry.APPLICATION_JSON);
+			message.getOptions().setBlock2(6, true, 0);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown shape "+shape);
+		}
+		message.setType(shape == Shape.EMPTY ? Type.ACK : Type.CON);
+		message.setMID(0x1234);
+		if (shape != Shape.EMPTY) {
+			message.setToken(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+			message.setPayload(new byte[payloadSize]);
+		}
+		return message;
+	}
+}
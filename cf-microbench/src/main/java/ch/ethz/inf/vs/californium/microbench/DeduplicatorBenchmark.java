@@ -0,0 +1,101 @@
+package ch.ethz.inf.vs.californium.microbench;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.KeyMID;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.network.deduplication.Deduplicator;
+import ch.ethz.inf.vs.californium.network.deduplication.DeduplicatorFactory;
+
+/**
+ * Compares the SweepDeduplicator with CropRotation when several threads
+ * store the MIDs of incoming messages from many peers at once. The exchange
+ * lifecycle is shortened, so that both deduplicators have to remove old
+ * entries while they are under load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(4)
+@Fork(1)
+public class DeduplicatorBenchmark {
+
+	@Param({NetworkConfigDefaults.DEDUPLICATOR_MARK_AND_SWEEP, NetworkConfigDefaults.DEDUPLICATOR_CROP_ROTATION})
+	public String deduplicatorType;
+
+	@Param({"1", "1000"})
+	public int peers;
+
+	private ScheduledExecutorService executor;
+	private Deduplicator deduplicator;
+	private Exchange exchange;
+	private byte[][] addresses;
+
+	/** The MIDs and peers of each thread */
+	@State(Scope.Thread)
+	public static class Sender {
+
+		private int counter;
+
+		@Setup
+		public void setup(DeduplicatorBenchmark benchmark) {
+			counter = benchmark.hashCode() ^ System.identityHashCode(this);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		CaliforniumLogger.disableLogging();
+		NetworkConfig config = new NetworkConfig();
+		config.setString(NetworkConfigDefaults.DEDUPLICATOR, deduplicatorType);
+		config.setLong(NetworkConfigDefaults.EXCHANGE_LIFECYCLE, 2000);
+		config.setLong(NetworkConfigDefaults.MARK_AND_SWEEP_INTERVAL, 500);
+		config.setInt(NetworkConfigDefaults.CROP_ROTATION_PERIOD, 2000);
+
+		executor = Executors.newSingleThreadScheduledExecutor();
+		deduplicator = DeduplicatorFactory.getDeduplicatorFactory().createDeduplicator(config);
+		deduplicator.setExecutor(executor);
+		deduplicator.start();
+
+		exchange = new Exchange(Request.newGet(), Origin.REMOTE);
+		addresses = new byte[peers][];
+		for (int i = 0; i < peers; i++)
+			addresses[i] = new byte[] { 10, 0, (byte) (i >> 8), (byte) i };
+	}
+
+	@TearDown
+	public void tearDown() {
+		deduplicator.stop();
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public Exchange findPrevious(Sender sender) {
+		int counter = sender.counter++ & 0x7FFFFFFF;
+		byte[] address = addresses[counter % peers];
+		return deduplicator.findPrevious(new KeyMID((counter / peers) & 0xFFFF, address, 5683), exchange);
+	}
+}
@@ -0,0 +1,89 @@
+package ch.ethz.inf.vs.californium.microbench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.LinkFilter;
+import ch.ethz.inf.vs.californium.coap.LinkFormat;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
+
+/**
+ * Measures how long it takes to serialize resource trees of different sizes
+ * in the CoRE Link Format, once completely and once filtered by a query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkFormatBenchmark {
+
+	/** The number of children of each inner resource */
+	private static final int FAN_OUT = 10;
+
+	@Param({"10", "100", "1000", "10000"})
+	public int resources;
+
+	private ResourceBase root;
+	private LinkFilter filter;
+
+	@Setup
+	public void setup() {
+		CaliforniumLogger.disableLogging();
+		root = new ResourceBase("");
+		ResourceBase[] parents = new ResourceBase[] { root };
+		int created = 0;
+		while (created < resources) {
+			ResourceBase[] children = new ResourceBase[parents.length * FAN_OUT];
+			int count = 0;
+			for (ResourceBase parent:parents) {
+				for (int i = 0; i < FAN_OUT && created < resources; i++) {
+					ResourceBase child = createResource(created++);
+					parent.add(child);
+					children[count++] = child;
+				}
+			}
+			parents = Arrays.copyOf(children, count);
+		}
+		filter = LinkFilter.compile(Arrays.asList("rt=temperature"));
+	}
+
+	@Benchmark
+	public String serializeTree() {
+		return LinkFormat.serializeTree(root);
+	}
+
+	@Benchmark
+	public StringBuilder serializeTreeFiltered() {
+		StringBuilder buffer = new StringBuilder();
+		for (Resource child:root.getChildren())
+			LinkFormat.serializeTree(child, filter, buffer);
+		return buffer;
+	}
+
+	private static ResourceBase createResource(int number) {
+		ResourceBase resource = new ResourceBase("res" + number);
+		resource.getAttributes().setTitle("Resource " + number);
+		resource.getAttributes().addResourceType(number % 10 == 0 ? "temperature" : "light");
+		resource.getAttributes().addInterfaceDescription("sensor");
+		resource.getAttributes().addContentType(0);
+		if (number % 2 == 0)
+			resource.setObservable(true);
+		return resource;
+	}
+}
@@ -0,0 +1,108 @@
+package ch.ethz.inf.vs.californium.microbench;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.CoAP.Type;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.network.Exchange;
+import ch.ethz.inf.vs.californium.network.Exchange.Origin;
+import ch.ethz.inf.vs.californium.network.Matcher;
+import ch.ethz.inf.vs.californium.network.TokenGenerator;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+
+/**
+ * Measures how long the matcher takes to find the exchange of a response
+ * depending on the number of outstanding requests. The responses are
+ * delivered repeatedly and therefore also pass the duplicate detection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatcherBenchmark {
+
+	/** The number of different responses, a power of two */
+	private static final int RESPONSES = 1024;
+
+	/** The number of servers the requests go to */
+	private static final int PEERS = 100;
+
+	@Param({"100", "10000", "100000"})
+	public int exchanges;
+
+	private ScheduledExecutorService executor;
+	private Matcher matcher;
+	private Response[] responses;
+	private int index;
+
+	@Setup
+	public void setup() throws Exception {
+		CaliforniumLogger.disableLogging();
+		executor = Executors.newSingleThreadScheduledExecutor();
+		matcher = new Matcher(new NetworkConfig());
+		matcher.setExecutor(executor);
+		matcher.start();
+
+		InetAddress[] peers = new InetAddress[PEERS];
+		for (int i = 0; i < PEERS; i++)
+			peers[i] = InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) i });
+
+		Request[] requests = new Request[exchanges];
+		for (int i = 0; i < exchanges; i++) {
+			Request request = Request.newGet();
+			request.setDestination(peers[i % PEERS]);
+			request.setDestinationPort(5683);
+			request.setToken(TokenGenerator.toBytes(i));
+			Exchange exchange = new Exchange(request, Origin.LOCAL);
+			exchange.setRequest(request);
+			matcher.sendRequest(exchange, request);
+			requests[i] = request;
+		}
+
+		Random random = new Random(0);
+		responses = new Response[RESPONSES];
+		for (int i = 0; i < RESPONSES; i++) {
+			Request request = requests[random.nextInt(exchanges)];
+			Response response = new Response(ResponseCode.CONTENT);
+			response.setType(Type.NON);
+			response.setMID(random.nextInt(1 << 16));
+			response.setToken(request.getToken());
+			response.setSource(request.getDestination());
+			response.setSourcePort(request.getDestinationPort());
+			responses[i] = response;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		matcher.stop();
+		executor.shutdownNow();
+	}
+
+	@Benchmark
+	public Exchange receiveResponse() {
+		return matcher.receiveResponse(responses[index++ & (RESPONSES - 1)]);
+	}
+}
@@ -0,0 +1,28 @@
+package ch.ethz.inf.vs.californium.microbench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the microbenchmarks of the hot paths of Californium with the GC
+ * profiler, so that every result also shows the bytes allocated per
+ * operation. All JMH command line options can be used, e.g.,
+ * <pre>
+ * java -jar cf-microbench-0.18.6-final.jar CodecBenchmark -p shape=GET
+ * java -jar cf-microbench-0.18.6-final.jar -rf json -rff results.json
+ * </pre>
+ */
+public class MicroBench {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,64 @@
+package ch.ethz.inf.vs.californium.microbench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.ethz.inf.vs.californium.CaliforniumLogger;
+import ch.ethz.inf.vs.californium.coap.CoAP.OptionRegistry;
+import ch.ethz.inf.vs.californium.coap.EncodedOptions;
+import ch.ethz.inf.vs.californium.coap.Option;
+import ch.ethz.inf.vs.californium.coap.OptionSet;
+import ch.ethz.inf.vs.californium.microbench.CodecBenchmark.Shape;
+
+/**
+ * Compares materializing the options of a message as sorted list of
+ * {@link Option}s with encoding them into reused {@link EncodedOptions}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionSetBenchmark {
+
+	@Param({"GET", "CONTENT", "NOTIFICATION"})
+	public Shape shape;
+
+	private OptionSet options;
+	private EncodedOptions encoded;
+
+	@Setup
+	public void setup() {
+		CaliforniumLogger.disableLogging();
+		options = CodecBenchmark.createMessage(shape, 0).getOptions();
+		encoded = new EncodedOptions();
+	}
+
+	@Benchmark
+	public List<Option> asSortedList() {
+		return options.asSortedList();
+	}
+
+	@Benchmark
+	public EncodedOptions encode() {
+		return options.encode(encoded);
+	}
+
+	@Benchmark
+	public boolean hasOption() {
+		return options.hasOption(OptionRegistry.OBSERVE);
+	}
+}
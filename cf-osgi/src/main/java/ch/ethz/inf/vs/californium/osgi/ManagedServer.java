@@ -4,6 +4,9 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 
 import org.osgi.framework.BundleContext;
@@ -36,6 +39,18 @@ import ch.ethz.inf.vs.californium.server.resources.Resource;
  * </li>
  * </ul>
  * 
+ * When the configuration changes but the ports stay the same, the service
+ * applies the new properties to the running server instead of creating a new
+ * one, so that the endpoints keep serving requests. The layers, the
+ * deduplicator, the UDP connectors and the server's executor follow the
+ * changes of their properties. Only a change of the ports replaces the server.
+ * 
+ * Several managed servers, e.g., of different bundles, can share one
+ * container-wide executor for their endpoints and resources instead of
+ * creating a thread pool each. Only a {@link Server} can use a shared
+ * executor; other server implementations keep their own. The managed server
+ * never shuts down a shared executor.
+ * 
  * This managed service uses the <i>white board</i> pattern for registering resources,
  * i.e. the service tracks Californium {@code Resource} instances being added to the OSGi service registry
  * and automatically adds them to the managed Californium {@code ServerInterface} instance.
@@ -52,6 +67,9 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 	private ServiceTracker<Resource, Resource> resourceTracker;
 	private ServerInterfaceFactory serverFactory;
 	private EndpointFactory endpointFactory;
+	private ScheduledExecutorService executor;
+	private NetworkConfig networkConfig;
+	private Set<String> configuredKeys = new HashSet<String>();
 	
 	/**
 	 * Sets all required collaborators.
@@ -68,6 +86,21 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 		this(bundleContext, null, endpointFactory);
 	}
 
+	/**
+	 * Sets all required collaborators and the executor to share.
+	 * 
+	 * @param bundleContext the bundle context to be used for tracking {@code Resource}s
+	 * @param endpointFactory the factory to use for creating endpoints for the managed
+	 * server
+	 * @param executor the container-wide executor for the endpoints and resources of the
+	 * managed server or <code>null</code> if the server should create its own
+	 * @throws NullPointerException if the bundle context or the endpoint factory is <code>null</code>
+	 */
+	public ManagedServer(BundleContext bundleContext, EndpointFactory endpointFactory,
+			ScheduledExecutorService executor) {
+		this(bundleContext, null, endpointFactory, executor);
+	}
+
 	/**
 	 * Sets all required collaborators.
 	 * 
@@ -79,6 +112,21 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 	 */
 	public ManagedServer(BundleContext bundleContext, ServerInterfaceFactory serverFactory,
 			EndpointFactory endpointFactory) {
+		this(bundleContext, serverFactory, endpointFactory, null);
+	}
+
+	/**
+	 * Sets all required collaborators and the executor to share.
+	 * 
+	 * @param bundleContext the bundle context to be used for tracking {@code Resource}s
+	 * @param serverFactory the factory to use for creating new server instances
+	 * @param endpointFactory the factory to use for creating endpoints for the managed
+	 * server
+	 * @param executor the executor to share or <code>null</code>
+	 * @throws NullPointerException if the bundle context is <code>null</code>
+	 */
+	ManagedServer(BundleContext bundleContext, ServerInterfaceFactory serverFactory,
+			EndpointFactory endpointFactory, ScheduledExecutorService executor) {
 		if (bundleContext == null) {
 			throw new NullPointerException("BundleContext must not be null");
 		}
@@ -87,6 +135,7 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 		}
 		this.context = bundleContext;
 		this.endpointFactory = endpointFactory;
+		this.executor = executor;
 		if (serverFactory != null) {
 			this.serverFactory = serverFactory;
 		} else {
@@ -114,9 +163,10 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 	/**
 	 * Updates the configuration properties of the wrapped Californium server.
 	 * 
-	 * If the server is running when this method is called by ConfigAdmin, the server
-	 * is destroyed, a new instance is created using the given properties and finally
-	 * started.
+	 * If the server is running when this method is called by ConfigAdmin and
+	 * the ports have not changed, the properties are applied to the running
+	 * server. Otherwise, the server is destroyed, a new instance is created
+	 * using the given properties and finally started.
 	 *  
 	 * @param properties the properties to set on the server
 	 */
@@ -127,19 +177,26 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 		LOGGER.fine("Updating configuration of managed server instance");
 		
 		if (isRunning()) {
+			NetworkConfig candidate = new NetworkConfig();
+			apply(candidate, properties);
+			if (hasSamePorts(candidate)) {
+				reconfigure(properties);
+				return;
+			}
 			stop();
 		}
 		
-		NetworkConfig networkConfig = NetworkConfig.createStandardWithoutFile();
-		if (properties != null) {
-			for (Enumeration<String> allKeys = properties.keys(); allKeys.hasMoreElements(); ) {
-				String key = allKeys.nextElement();
-				networkConfig.set(key, properties.get(key));
-			}
-		}
+		networkConfig = NetworkConfig.createStandardWithoutFile();
+		configuredKeys = apply(networkConfig, properties);
 		
 		// create server instance with CoAP endpoint on configured port
 		managedServer = serverFactory.newServer(networkConfig);
+		if (executor != null) {
+			if (managedServer instanceof Server)
+				((Server) managedServer).setExecutor(executor);
+			else
+				LOGGER.warning("Managed server does not support a shared executor and uses its own");
+		}
 		
 		// add secure endpoint if configured
 		int securePort = networkConfig.getInt(NetworkConfigDefaults.PROPERTY_DEFAULT_COAPS_PORT);
@@ -167,6 +224,54 @@ public class ManagedServer implements ManagedService, ServiceTrackerCustomizer<R
 		return running;
 	}
 	
+	/*
+	 * Sets the properties on the configuration and returns their keys.
+	 */
+	private static Set<String> apply(NetworkConfig config, Dictionary<String, ?> properties) {
+		Set<String> keys = new HashSet<String>();
+		if (properties != null) {
+			for (Enumeration<String> allKeys = properties.keys(); allKeys.hasMoreElements(); ) {
+				String key = allKeys.nextElement();
+				config.set(key, properties.get(key));
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+	
+	private boolean hasSamePorts(NetworkConfig candidate) {
+		return candidate.getInt(NetworkConfigDefaults.DEFAULT_COAP_PORT) == networkConfig.getInt(NetworkConfigDefaults.DEFAULT_COAP_PORT)
+				&& candidate.getInt(NetworkConfigDefaults.PROPERTY_DEFAULT_COAPS_PORT) == networkConfig.getInt(NetworkConfigDefaults.PROPERTY_DEFAULT_COAPS_PORT);
+	}
+	
+	/*
+	 * Sets the changed properties on the configuration of the running server,
+	 * which notifies the observers of the configuration, and resets the
+	 * properties that are no longer configured to their defaults.
+	 */
+	private void reconfigure(Dictionary<String, ?> properties) {
+		LOGGER.fine("Reconfiguring running managed server instance");
+		Set<String> keys = new HashSet<String>();
+		if (properties != null) {
+			for (Enumeration<String> allKeys = properties.keys(); allKeys.hasMoreElements(); ) {
+				String key = allKeys.nextElement();
+				Object value = properties.get(key);
+				if (!String.valueOf(value).equals(networkConfig.getString(key))) {
+					networkConfig.set(key, value);
+				}
+				keys.add(key);
+			}
+		}
+		NetworkConfig defaults = new NetworkConfig();
+		for (String key:configuredKeys) {
+			String value = defaults.getString(key);
+			if (!keys.contains(key) && value != null && !value.equals(networkConfig.getString(key))) {
+				networkConfig.set(key, value);
+			}
+		}
+		configuredKeys = keys;
+	}
+	
 	/**
 	 * Stops and destroys the managed server instance.
 	 * 
@@ -3,6 +3,7 @@ package ch.ethz.inf.vs.californium.osgi;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -13,6 +14,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -23,6 +25,7 @@ import ch.ethz.inf.vs.californium.network.Endpoint;
 import ch.ethz.inf.vs.californium.network.EndpointManager;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.server.Server;
 import ch.ethz.inf.vs.californium.server.ServerInterface;
 import ch.ethz.inf.vs.californium.server.resources.Resource;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
@@ -42,6 +45,7 @@ public class ManagedServerTest {
 	
 	InetSocketAddress standardAddress = new InetSocketAddress(EndpointManager.DEFAULT_COAP_PORT);
 	InetSocketAddress secureAddress = new InetSocketAddress(EndpointManager.DEFAULT_COAP_PORT);
+	NetworkConfig serverConfig;
 	
 	@Before
 	public void setUp() {
@@ -64,6 +68,7 @@ public class ManagedServerTest {
 
 			@Override
 			public ServerInterface newServer(NetworkConfig config, int... ports) {
+				serverConfig = config;
 				for (int port : ports) {
 					if (port == standardAddress.getPort()) {
 						endpointList.add(standardEndpoint);
@@ -113,11 +118,55 @@ public class ManagedServerTest {
 		verify(server).start();
 		reset(server);
 		when(server.getEndpoints()).thenReturn(endpointList);
-		managedServer.updated(null);
+		Dictionary<String, String> props = new Hashtable<String, String>();
+		props.put(NetworkConfigDefaults.DEFAULT_COAP_PORT, "15683");
+		managedServer.updated(props);
 		verify(server).destroy();
 		verify(server).start();
 	}
 	
+	@Test
+	public void testUpdatedReconfiguresRunningServer() throws Exception {
+		managedServer.updated(null);
+		reset(server);
+		Dictionary<String, String> props = new Hashtable<String, String>();
+		props.put(NetworkConfigDefaults.ACK_TIMEOUT, "5000");
+		managedServer.updated(props);
+		verify(server, never()).destroy();
+		verify(server, never()).start();
+		assertEquals(5000, serverConfig.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+		
+		// properties that are no longer configured return to their defaults
+		managedServer.updated(null);
+		assertEquals(new NetworkConfig().getInt(NetworkConfigDefaults.ACK_TIMEOUT),
+				serverConfig.getInt(NetworkConfigDefaults.ACK_TIMEOUT));
+	}
+	
+	@Test
+	public void testServerUsesSharedExecutor() throws Exception {
+		ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+		Server sharing = mock(Server.class);
+		when(sharing.getEndpoints()).thenReturn(endpointList);
+		server = sharing;
+		managedServer = new ManagedServer(bundleContext, serverFactory, endpointFactory, executor);
+		managedServer.updated(null);
+		verify(sharing).setExecutor(executor);
+		
+		// stopping the managed server leaves the shared executor running
+		managedServer.stop();
+		verify(executor, never()).shutdown();
+	}
+	
+	@Test
+	public void testServerWithoutSharedExecutor() throws Exception {
+		ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+		managedServer = new ManagedServer(bundleContext, serverFactory, endpointFactory, executor);
+		managedServer.updated(null);
+		
+		// a server other than Server keeps its own executor and starts nevertheless
+		verify(server).start();
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testAddingService() throws Exception {
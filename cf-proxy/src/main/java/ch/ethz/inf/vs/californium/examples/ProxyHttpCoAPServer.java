@@ -75,6 +75,9 @@ public class ProxyHttpCoAPServer {
 		ProxyHttpServer httpServer = new ProxyHttpServer(8080);
 		httpServer.setProxyCoapResolver(new DirectProxyCoAPResolver(coap2coap));
 		
+		// make the proxy statistics available at coap://localhost:PORT/stats
+		targetServerA.add(httpServer.getStatsResource());
+		
 		System.out.println("CoAP resource \"target\" available over HTTP at: http://localhost:8080/proxy/coap://localhost:PORT/target");
 	}
 	
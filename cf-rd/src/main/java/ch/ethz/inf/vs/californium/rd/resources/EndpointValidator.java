@@ -0,0 +1,270 @@
+package ch.ethz.inf.vs.californium.rd.resources;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ch.ethz.inf.vs.californium.coap.MessageObserverAdapter;
+import ch.ethz.inf.vs.californium.coap.Request;
+import ch.ethz.inf.vs.californium.coap.Response;
+import ch.ethz.inf.vs.californium.rd.resources.LifetimeScheduler.Timeout;
+
+/**
+ * The EndpointValidator sends the validation requests for expired endpoints.
+ * Validations are queued per subnet (/24 for IPv4, /64 for IPv6) and sent in
+ * batches on the ticks of the {@link LifetimeScheduler}: each batch sends at
+ * most the configured number of requests per tick, taking one request of each
+ * subnet in turn, as long as neither the global nor the per-subnet limit of
+ * outstanding validations is reached. The responses are handled
+ * asynchronously, so that many endpoints expiring at the same time, e.g.,
+ * after a network partition, do not lead to a burst of requests.
+ */
+public class EndpointValidator {
+
+	private static final Logger LOGGER = Logger.getLogger(EndpointValidator.class.getCanonicalName());
+
+	private final int maxOutstanding;
+	private final int maxOutstandingPerSubnet;
+	private final int maxPerTick;
+
+	/** The queued validations per subnet in round-robin order */
+	private final LinkedHashMap<String, LinkedList<Validation>> queues = new LinkedHashMap<String, LinkedList<Validation>>();
+
+	/** The queued validations per endpoint */
+	private final Map<RDNodeResource, Validation> queued = new HashMap<RDNodeResource, Validation>();
+
+	/** The number of outstanding validations per subnet */
+	private final Map<String, Integer> outstandingPerSubnet = new HashMap<String, Integer>();
+
+	private final Timeout batchTimeout;
+
+	private int outstanding;
+
+	/**
+	 * Creates a new validator.
+	 *
+	 * @param scheduler the scheduler whose ticks trigger the batches
+	 * @param maxOutstanding the maximum number of outstanding validations
+	 * @param maxOutstandingPerSubnet the maximum number of outstanding
+	 *            validations per subnet
+	 * @param maxPerTick the maximum number of validations sent per tick
+	 */
+	public EndpointValidator(LifetimeScheduler scheduler, int maxOutstanding, int maxOutstandingPerSubnet, int maxPerTick) {
+		this.maxOutstanding = Math.max(maxOutstanding, 1);
+		this.maxOutstandingPerSubnet = Math.max(maxOutstandingPerSubnet, 1);
+		this.maxPerTick = Math.max(maxPerTick, 1);
+		this.batchTimeout = scheduler.newTimeout(new Runnable() {
+			public void run() {
+				sendBatch();
+			}
+		});
+	}
+
+	/**
+	 * Queues the validation of the specified endpoint. If the validation
+	 * request cannot be created, the endpoint is removed.
+	 *
+	 * @param node the endpoint
+	 */
+	public void validate(RDNodeResource node) {
+		Request request;
+		try {
+			request = node.createValidationRequest();
+		} catch (IllegalArgumentException e) {
+			LOGGER.warning("Cannot validate endpoint " + node.getContext() + ": " + e.getMessage());
+			node.delete();
+			return;
+		}
+
+		Validation validation = new Validation(node, request, getSubnet(request.getDestination()));
+		synchronized (this) {
+			if (queued.containsKey(node)) {
+				return;
+			}
+			queued.put(node, validation);
+			LinkedList<Validation> queue = queues.get(validation.subnet);
+			if (queue == null) {
+				queue = new LinkedList<Validation>();
+				queues.put(validation.subnet, queue);
+			}
+			queue.add(validation);
+
+			// collect the validations of this tick into the next batch
+			if (!batchTimeout.isPending()) {
+				batchTimeout.schedule(0);
+			}
+		}
+	}
+
+	/**
+	 * Removes the queued validation of the specified endpoint, e.g., because
+	 * the endpoint has updated its registration.
+	 *
+	 * @param node the endpoint
+	 * @return true, if a validation was queued
+	 */
+	public synchronized boolean cancel(RDNodeResource node) {
+		Validation validation = queued.remove(node);
+		if (validation == null) {
+			return false;
+		}
+		LinkedList<Validation> queue = queues.get(validation.subnet);
+		queue.remove(validation);
+		if (queue.isEmpty()) {
+			queues.remove(validation.subnet);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of queued validations.
+	 *
+	 * @return the number of queued validations
+	 */
+	public synchronized int getQueuedCount() {
+		return queued.size();
+	}
+
+	/**
+	 * Returns the number of validations that wait for a response.
+	 *
+	 * @return the number of outstanding validations
+	 */
+	public synchronized int getOutstandingCount() {
+		return outstanding;
+	}
+
+	/*
+	 * Sends the next batch of validations. Runs on the scheduler thread.
+	 */
+	private void sendBatch() {
+		List<Validation> batch = new ArrayList<Validation>();
+		synchronized (this) {
+			boolean progress = true;
+			while (progress && batch.size() < maxPerTick && outstanding < maxOutstanding) {
+				progress = false;
+				for (String subnet : new ArrayList<String>(queues.keySet())) {
+					if (batch.size() >= maxPerTick || outstanding >= maxOutstanding) {
+						break;
+					}
+					int count = getOutstanding(subnet);
+					if (count >= maxOutstandingPerSubnet) {
+						continue;
+					}
+					LinkedList<Validation> queue = queues.remove(subnet);
+					Validation validation = queue.poll();
+					if (!queue.isEmpty()) {
+						// move the subnet to the end of the round
+						queues.put(subnet, queue);
+					}
+					queued.remove(validation.node);
+					outstandingPerSubnet.put(subnet, count + 1);
+					++outstanding;
+					batch.add(validation);
+					progress = true;
+				}
+			}
+			if (!queues.isEmpty()) {
+				batchTimeout.schedule(0);
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			LOGGER.fine("Sending " + batch.size() + " validation requests");
+		}
+		for (Validation validation : batch) {
+			validation.send();
+		}
+	}
+
+	private synchronized void completed(Validation validation) {
+		int count = getOutstanding(validation.subnet) - 1;
+		if (count > 0) {
+			outstandingPerSubnet.put(validation.subnet, count);
+		} else {
+			outstandingPerSubnet.remove(validation.subnet);
+		}
+		--outstanding;
+	}
+
+	/*
+	 * Must be called while holding the lock.
+	 */
+	private int getOutstanding(String subnet) {
+		Integer count = outstandingPerSubnet.get(subnet);
+		return count != null ? count : 0;
+	}
+
+	private static String getSubnet(InetAddress address) {
+		if (address == null) {
+			return "";
+		}
+		byte[] bytes = address.getAddress();
+		// /24 for IPv4 and /64 for IPv6
+		int prefix = bytes.length == 4 ? 3 : 8;
+		StringBuilder subnet = new StringBuilder();
+		for (int i = 0; i < prefix; ++i) {
+			subnet.append(Integer.toHexString(bytes[i] & 0xFF)).append(':');
+		}
+		return subnet.toString();
+	}
+
+	private class Validation extends MessageObserverAdapter {
+
+		private final RDNodeResource node;
+		private final Request request;
+		private final String subnet;
+
+		private Validation(RDNodeResource node, Request request, String subnet) {
+			this.node = node;
+			this.request = request;
+			this.subnet = subnet;
+		}
+
+		private void send() {
+			if (node.getParent() == null) {
+				// removed while queued
+				completed(this);
+				return;
+			}
+			request.addMessageObserver(this);
+			try {
+				request.send();
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Failed to send validation request to " + node.getContext(), e);
+				completed(this);
+				node.delete();
+			}
+		}
+
+		@Override
+		public void onResponse(Response response) {
+			completed(this);
+			node.handleValidationResponse(response);
+		}
+
+		@Override
+		public void onTimeout() {
+			completed(this);
+			node.delete();
+		}
+
+		@Override
+		public void onReject() {
+			completed(this);
+			node.delete();
+		}
+
+		@Override
+		public void onCancel() {
+			completed(this);
+			node.delete();
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package ch.ethz.inf.vs.californium.rd.resources;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The LifetimeScheduler runs the lifetime expiry and validation of all
+ * registered endpoints on a single thread. Timeouts are kept in a hashed timing
+ * wheel with one slot per tick, so that scheduling, rescheduling on a refresh,
+ * and canceling a {@link Timeout} take constant time independent of the number
+ * of registrations. On each tick, the timeouts of the current slot that are due
+ * are collected under the lock and run as a batch afterwards.
+ * <p>
+ * The tasks run on the scheduler thread and must not block.
+ */
+public class LifetimeScheduler {
+
+	private static final Logger LOGGER = Logger.getLogger(LifetimeScheduler.class.getCanonicalName());
+
+	/** The default tick of one second matches the resolution of lifetimes */
+	public static final long DEFAULT_TICK = 1000; // ms
+
+	/** The default number of slots covers lifetimes up to about one hour per round */
+	public static final int DEFAULT_WHEEL_SIZE = 4096;
+
+	private static LifetimeScheduler standard;
+
+	private final Timeout[] wheel; // list heads of the slots
+	private final int mask;
+	private final long tick;
+
+	private final ScheduledExecutorService executor;
+
+	/** The number of ticks that have passed */
+	private long ticks;
+
+	/** The number of pending timeouts */
+	private int pending;
+
+	/**
+	 * Returns the scheduler shared by all endpoints of the resource directory.
+	 *
+	 * @return the standard scheduler
+	 */
+	public static synchronized LifetimeScheduler getStandard() {
+		if (standard == null) {
+			standard = new LifetimeScheduler(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+		}
+		return standard;
+	}
+
+	/**
+	 * Creates a new scheduler and starts its thread.
+	 *
+	 * @param tick the duration of a tick in milliseconds
+	 * @param wheelSize the number of slots, rounded up to a power of two
+	 */
+	public LifetimeScheduler(long tick, int wheelSize) {
+		if (tick <= 0) throw new IllegalArgumentException("Tick must be positive: " + tick);
+		int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+		if (size <= 0) size = 1;
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+		this.tick = tick;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "RD Lifetime Scheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				advance();
+			}
+		}, tick, tick, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a new timeout for the specified task. The timeout is not
+	 * scheduled yet and can be scheduled and canceled repeatedly.
+	 *
+	 * @param task the task to run when the timeout expires
+	 * @return the timeout
+	 */
+	public Timeout newTimeout(Runnable task) {
+		if (task == null) throw new NullPointerException();
+		return new Timeout(task);
+	}
+
+	/**
+	 * Returns the number of pending timeouts.
+	 *
+	 * @return the number of pending timeouts
+	 */
+	public synchronized int getPendingCount() {
+		return pending;
+	}
+
+	/**
+	 * Stops the scheduler thread. Pending timeouts will not run anymore.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/*
+	 * Advances the wheel by one tick and runs the timeouts that expired.
+	 */
+	private void advance() {
+		List<Timeout> expired = new ArrayList<Timeout>();
+		List<Integer> generations = new ArrayList<Integer>();
+		synchronized (this) {
+			int slot = (int) (ticks & mask);
+			Timeout timeout = wheel[slot];
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.rounds <= 0) {
+					unlink(timeout);
+					expired.add(timeout);
+					generations.add(timeout.generation);
+				} else {
+					--timeout.rounds;
+				}
+				timeout = next;
+			}
+			++ticks;
+		}
+
+		if (!expired.isEmpty()) {
+			LOGGER.finer("Running " + expired.size() + " expired timeouts");
+		}
+		for (int i = 0; i < expired.size(); ++i) {
+			Timeout timeout = expired.get(i);
+			synchronized (this) {
+				// skip timeouts that have been scheduled again or canceled
+				// since they expired
+				if (timeout.generation != generations.get(i)) {
+					continue;
+				}
+			}
+			try {
+				timeout.task.run();
+			} catch (RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Exception in expiry task", e);
+			}
+		}
+	}
+
+	/*
+	 * Must be called while holding the lock.
+	 */
+	private void link(Timeout timeout, long delay) {
+		// round up and skip the slot of the current tick, which is processed
+		// within one tick already, so that a timeout never expires early
+		long delayTicks = Math.max((delay + tick - 1) / tick, 0);
+		long deadline = ticks + delayTicks;
+		int slot = (int) (deadline & mask);
+		timeout.rounds = (deadline - ticks) / wheel.length;
+		timeout.slot = slot;
+		timeout.prev = null;
+		timeout.next = wheel[slot];
+		if (timeout.next != null) {
+			timeout.next.prev = timeout;
+		}
+		wheel[slot] = timeout;
+		++pending;
+	}
+
+	/*
+	 * Must be called while holding the lock.
+	 */
+	private void unlink(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			wheel[timeout.slot] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.slot = -1;
+		--pending;
+	}
+
+	/**
+	 * A Timeout runs its task once after the delay it has been scheduled with.
+	 * Scheduling it again before it expired replaces the previous delay.
+	 */
+	public class Timeout {
+
+		private final Runnable task;
+
+		// guarded by the scheduler
+		private Timeout prev;
+		private Timeout next;
+		private int slot = -1;
+		private long rounds;
+		private int generation;
+
+		private Timeout(Runnable task) {
+			this.task = task;
+		}
+
+		/**
+		 * Schedules the task to run after the specified delay. If the timeout
+		 * is already pending, it is moved to its new deadline.
+		 *
+		 * @param delay the delay in milliseconds
+		 */
+		public void schedule(long delay) {
+			synchronized (LifetimeScheduler.this) {
+				if (slot >= 0) {
+					unlink(this);
+				}
+				++generation;
+				link(this, delay);
+			}
+		}
+
+		/**
+		 * Cancels the timeout if it is pending.
+		 *
+		 * @return true, if the timeout was pending
+		 */
+		public boolean cancel() {
+			synchronized (LifetimeScheduler.this) {
+				++generation;
+				if (slot < 0) {
+					return false;
+				}
+				unlink(this);
+				return true;
+			}
+		}
+
+		/**
+		 * Checks if the timeout is scheduled and has not expired yet.
+		 *
+		 * @return true, if pending
+		 */
+		public boolean isPending() {
+			synchronized (LifetimeScheduler.this) {
+				return slot >= 0;
+			}
+		}
+	}
+}
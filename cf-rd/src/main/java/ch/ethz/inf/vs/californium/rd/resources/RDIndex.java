@@ -0,0 +1,374 @@
+package ch.ethz.inf.vs.californium.rd.resources;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import ch.ethz.inf.vs.californium.coap.LinkFilter;
+import ch.ethz.inf.vs.californium.coap.LinkFormat;
+import ch.ethz.inf.vs.californium.server.resources.Resource;
+
+/**
+ * The RDIndex keeps the registered endpoints of a resource directory in
+ * secondary indices on domain (d), endpoint name (ep), endpoint type (et), and
+ * the resource type (rt), interface description (if), and path (href) of their
+ * links. The indices of an endpoint are updated when it registers, updates its
+ * registration, or is removed, so that lookups take time proportional to the
+ * number of candidates instead of the number of registrations.
+ * <p>
+ * Values of rt, if, et, and href can be looked up exactly or by a prefix
+ * ending with "*". Space-separated values such as rt="Type1 Type2" are indexed
+ * as a whole and by each part.
+ */
+public class RDIndex {
+
+	private final Map<RDNodeResource, Entry> entries = new LinkedHashMap<RDNodeResource, Entry>();
+
+	private final TreeMap<String, Set<RDNodeResource>> domains = new TreeMap<String, Set<RDNodeResource>>();
+	private final Map<String, Set<RDNodeResource>> endpoints = new HashMap<String, Set<RDNodeResource>>();
+	private final TreeMap<String, Set<RDNodeResource>> endpointTypes = new TreeMap<String, Set<RDNodeResource>>();
+
+	private final TreeMap<String, Set<RDTagResource>> resourceTypes = new TreeMap<String, Set<RDTagResource>>();
+	private final TreeMap<String, Set<RDTagResource>> interfaces = new TreeMap<String, Set<RDTagResource>>();
+	private final TreeMap<String, Set<RDTagResource>> hrefs = new TreeMap<String, Set<RDTagResource>>();
+
+	/**
+	 * Adds the endpoint to the index or replaces the previous entries of the
+	 * endpoint with its current parameters and links.
+	 *
+	 * @param node the endpoint
+	 */
+	public void update(RDNodeResource node) {
+		// collect the links outside of the lock
+		Entry entry = new Entry(node);
+		synchronized (this) {
+			remove(node);
+			entries.put(node, entry);
+			put(domains, entry.domain, node);
+			put(endpoints, entry.endpoint, node);
+			put(endpointTypes, entry.endpointType, node);
+			for (Link link : entry.links) {
+				put(hrefs, link.href, link.resource);
+				for (String rt : link.resourceTypes) {
+					put(resourceTypes, rt, link.resource);
+				}
+				for (String ifd : link.interfaces) {
+					put(interfaces, ifd, link.resource);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the endpoint and its links from the index.
+	 *
+	 * @param node the endpoint
+	 * @return true, if the endpoint was indexed
+	 */
+	public synchronized boolean remove(RDNodeResource node) {
+		Entry entry = entries.remove(node);
+		if (entry == null) {
+			return false;
+		}
+		take(domains, entry.domain, node);
+		take(endpoints, entry.endpoint, node);
+		take(endpointTypes, entry.endpointType, node);
+		for (Link link : entry.links) {
+			take(hrefs, link.href, link.resource);
+			for (String rt : link.resourceTypes) {
+				take(resourceTypes, rt, link.resource);
+			}
+			for (String ifd : link.interfaces) {
+				take(interfaces, ifd, link.resource);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of indexed endpoints.
+	 *
+	 * @return the number of endpoints
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the domains that have at least one registered endpoint.
+	 *
+	 * @return the sorted domains
+	 */
+	public synchronized SortedSet<String> getDomains() {
+		return new TreeSet<String>(domains.keySet());
+	}
+
+	/**
+	 * Returns the endpoint with the specified name in the specified domain.
+	 *
+	 * @param endpoint the endpoint name
+	 * @param domain the domain
+	 * @return the endpoint or null if not registered
+	 */
+	public synchronized RDNodeResource getEndpoint(String endpoint, String domain) {
+		Set<RDNodeResource> nodes = endpoints.get(endpoint);
+		if (nodes != null) {
+			for (RDNodeResource node : nodes) {
+				if (domain.equals(entries.get(node).domain)) {
+					return node;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the endpoints that match the specified parameters. An empty or
+	 * null parameter matches all endpoints.
+	 *
+	 * @param domain the domain (d)
+	 * @param endpoint the endpoint name (ep)
+	 * @param endpointTypes the endpoint types (et) of which one must match
+	 * @return the matching endpoints
+	 */
+	public synchronized List<RDNodeResource> getEndpoints(String domain, String endpoint, Collection<String> endpointTypes) {
+		Collection<RDNodeResource> candidates = selectEndpoints(domain, endpoint);
+		if (endpointTypes != null && !endpointTypes.isEmpty()) {
+			// the union of the types can still be smaller than the candidates
+			Set<RDNodeResource> typed = new LinkedHashSet<RDNodeResource>();
+			for (String type : endpointTypes) {
+				typed.addAll(lookup(this.endpointTypes, type));
+			}
+			if (typed.size() < candidates.size()) {
+				typed.retainAll(candidates);
+				return new ArrayList<RDNodeResource>(typed);
+			}
+			List<RDNodeResource> result = new ArrayList<RDNodeResource>();
+			for (RDNodeResource node : candidates) {
+				if (typed.contains(node)) {
+					result.add(node);
+				}
+			}
+			return result;
+		}
+		return new ArrayList<RDNodeResource>(candidates);
+	}
+
+	/**
+	 * Returns the links of the endpoints matching domain and endpoint name
+	 * that match all of the specified queries, as with {@link LinkFilter}.
+	 * Queries on rt, if, and href are answered from the index; the other
+	 * queries are checked on the remaining candidate links. The href is the
+	 * path the endpoint registered the link with.
+	 *
+	 * @param domain the domain (d) or null for all
+	 * @param endpoint the endpoint name (ep) or null for all
+	 * @param queries the link queries
+	 * @return the matching links
+	 */
+	public synchronized List<RDTagResource> getResources(String domain, String endpoint, List<String> queries) {
+		Collection<RDNodeResource> candidates = selectEndpoints(domain, endpoint);
+		boolean allEndpoints = candidates.size() == entries.size();
+
+		Set<RDTagResource> result = null;
+		List<String> unindexed = new ArrayList<String>();
+		if (queries != null) {
+			for (String query : queries) {
+				TreeMap<String, Set<RDTagResource>> attributeIndex = null;
+				int delim = query.indexOf('=');
+				String value = delim < 0 ? null : query.substring(delim + 1);
+				if (value != null && isIndexable(value)) {
+					String name = query.substring(0, delim);
+					if (name.equals(LinkFormat.RESOURCE_TYPE)) {
+						attributeIndex = resourceTypes;
+					} else if (name.equals(LinkFormat.INTERFACE_DESCRIPTION)) {
+						attributeIndex = interfaces;
+					} else if (name.equals(LinkFormat.LINK)) {
+						attributeIndex = hrefs;
+					}
+				}
+				if (attributeIndex == null) {
+					unindexed.add(query);
+					continue;
+				}
+				Collection<RDTagResource> links = lookup(attributeIndex, value);
+				if (result == null) {
+					result = new LinkedHashSet<RDTagResource>();
+					for (RDTagResource link : links) {
+						if (allEndpoints || candidates.contains(link.getParentNode())) {
+							result.add(link);
+						}
+					}
+				} else {
+					result.retainAll(links instanceof Set ? links : new HashSet<RDTagResource>(links));
+				}
+			}
+		}
+
+		if (result == null) {
+			result = new LinkedHashSet<RDTagResource>();
+			for (RDNodeResource node : candidates) {
+				for (Link link : entries.get(node).links) {
+					result.add(link.resource);
+				}
+			}
+		}
+
+		if (!unindexed.isEmpty()) {
+			LinkFilter filter = LinkFilter.compile(unindexed);
+			Iterator<RDTagResource> it = result.iterator();
+			while (it.hasNext()) {
+				if (!filter.matches(it.next())) {
+					it.remove();
+				}
+			}
+		}
+		return new ArrayList<RDTagResource>(result);
+	}
+
+	/*
+	 * Returns the endpoints with the specified domain and name from the
+	 * smaller of both indices. Must be called while holding the lock.
+	 */
+	private Collection<RDNodeResource> selectEndpoints(String domain, String endpoint) {
+		boolean anyDomain = domain == null || domain.isEmpty();
+		boolean anyEndpoint = endpoint == null || endpoint.isEmpty();
+		if (anyDomain && anyEndpoint) {
+			return entries.keySet();
+		} else if (anyDomain) {
+			return get(endpoints, endpoint);
+		} else if (anyEndpoint) {
+			return get(domains, domain);
+		}
+		Set<RDNodeResource> byDomain = get(domains, domain);
+		Set<RDNodeResource> byEndpoint = get(endpoints, endpoint);
+		Set<RDNodeResource> smaller = byDomain.size() < byEndpoint.size() ? byDomain : byEndpoint;
+		Set<RDNodeResource> larger = smaller == byDomain ? byEndpoint : byDomain;
+		Set<RDNodeResource> result = new LinkedHashSet<RDNodeResource>();
+		for (RDNodeResource node : smaller) {
+			if (larger.contains(node)) {
+				result.add(node);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * A value can be looked up if it is exact or a prefix ending with "*".
+	 */
+	private static boolean isIndexable(String value) {
+		int wildcard = value.indexOf('*');
+		return wildcard < 0 || wildcard == value.length() - 1;
+	}
+
+	private static <T> Set<T> get(Map<String, Set<T>> index, String key) {
+		Set<T> values = index.get(key);
+		return values != null ? values : Collections.<T>emptySet();
+	}
+
+	private static <T> Collection<T> lookup(TreeMap<String, Set<T>> index, String value) {
+		if (!value.endsWith("*")) {
+			return get(index, value);
+		}
+		String prefix = value.substring(0, value.length() - 1);
+		Collection<T> result = new LinkedHashSet<T>();
+		for (Set<T> values : index.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+			result.addAll(values);
+		}
+		return result;
+	}
+
+	private static <T> void put(Map<String, Set<T>> index, String key, T value) {
+		if (key == null) {
+			return;
+		}
+		Set<T> values = index.get(key);
+		if (values == null) {
+			values = new LinkedHashSet<T>();
+			index.put(key, values);
+		}
+		values.add(value);
+	}
+
+	private static <T> void take(Map<String, Set<T>> index, String key, T value) {
+		if (key == null) {
+			return;
+		}
+		Set<T> values = index.get(key);
+		if (values != null) {
+			values.remove(value);
+			if (values.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+
+	/*
+	 * The values an endpoint was indexed with, kept to remove it again even
+	 * if its parameters have changed in the meantime.
+	 */
+	private static class Entry {
+
+		private final String domain;
+		private final String endpoint;
+		private final String endpointType;
+		private final List<Link> links = new ArrayList<Link>();
+
+		private Entry(RDNodeResource node) {
+			this.domain = node.getDomain();
+			this.endpoint = node.getEndpointIdentifier();
+			this.endpointType = node.getEndpointType();
+
+			String base = node.getURI();
+			LinkedList<Resource> todo = new LinkedList<Resource>(node.getChildren());
+			while (!todo.isEmpty()) {
+				Resource resource = todo.pop();
+				if (resource instanceof RDTagResource && resource.getAttributes().getCount() > 0) {
+					links.add(new Link((RDTagResource) resource, base));
+				}
+				todo.addAll(resource.getChildren());
+			}
+		}
+	}
+
+	private static class Link {
+
+		private final RDTagResource resource;
+		private final String href;
+		private final List<String> resourceTypes;
+		private final List<String> interfaces;
+
+		private Link(RDTagResource resource, String base) {
+			this.resource = resource;
+			this.href = resource.getURI().substring(base.length());
+			this.resourceTypes = split(resource.getAttributes().getResourceTypes());
+			this.interfaces = split(resource.getAttributes().getInterfaceDescriptions());
+		}
+
+		private static List<String> split(List<String> values) {
+			List<String> result = new ArrayList<String>(values);
+			for (String value : values) {
+				if (value.indexOf(' ') > -1) {
+					for (String part : value.split(" ")) {
+						if (!part.isEmpty() && !result.contains(part)) {
+							result.add(part);
+						}
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
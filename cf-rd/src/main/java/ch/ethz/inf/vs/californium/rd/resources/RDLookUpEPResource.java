@@ -1,8 +1,6 @@
 package ch.ethz.inf.vs.californium.rd.resources;
 
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.TreeSet;
 
@@ -10,7 +8,6 @@ import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.LinkFormat;
 import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
-import ch.ethz.inf.vs.californium.server.resources.Resource;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
 
 public class RDLookUpEPResource extends ResourceBase {
@@ -25,9 +22,7 @@ public class RDLookUpEPResource extends ResourceBase {
 	
 	@Override
 	public void handleGET(CoapExchange exchange) {
-		Collection<Resource> resources = rdResource.getChildren();
 		List<String> query = exchange.getRequestOptions().getURIQueries();
-		String result = "";
 		String domainQuery = "";
 		String endpointQuery = "";
 		TreeSet<String> endpointTypeQuery = new TreeSet<String>();
@@ -46,27 +41,16 @@ public class RDLookUpEPResource extends ResourceBase {
 			}
 		}
 		
-		Iterator<Resource>  resIt = resources.iterator();
-		
-		while (resIt.hasNext()){
-			Resource res = resIt.next();
-			if (res.getClass() == RDNodeResource.class){
-				RDNodeResource node = (RDNodeResource) res;
-				if ( (domainQuery.isEmpty() || domainQuery.equals(node.getDomain())) && 
-					 (endpointQuery.isEmpty() || endpointQuery.equals(node.getEndpointIdentifier())) &&
-					 (endpointTypeQuery.isEmpty() || endpointTypeQuery.contains(node.getEndpointType()))) {
-				
-					result += "<"+node.getContext()+">;"+LinkFormat.END_POINT+"=\""+node.getEndpointIdentifier()+"\"";
-					result += ";"+LinkFormat.DOMAIN+"=\""+node.getDomain()+"\"";
-					if(!node.getEndpointType().isEmpty()){
-						result += ";"+LinkFormat.RESOURCE_TYPE+"=\""+node.getEndpointType()+"\"";
-					}
-							
-					result += ",";
-				}
+		StringBuilder result = new StringBuilder();
+		for (RDNodeResource node : rdResource.getIndex().getEndpoints(domainQuery, endpointQuery, endpointTypeQuery)) {
+			result.append('<').append(node.getContext()).append(">;").append(LinkFormat.END_POINT).append("=\"").append(node.getEndpointIdentifier()).append('"');
+			result.append(';').append(LinkFormat.DOMAIN).append("=\"").append(node.getDomain()).append('"');
+			if(!node.getEndpointType().isEmpty()){
+				result.append(';').append(LinkFormat.RESOURCE_TYPE).append("=\"").append(node.getEndpointType()).append('"');
 			}
+			result.append(',');
 		}
-		if(result.isEmpty()){
+		if(result.length() == 0){
 			exchange.respond(ResponseCode.NOT_FOUND);
 		}
 		else{
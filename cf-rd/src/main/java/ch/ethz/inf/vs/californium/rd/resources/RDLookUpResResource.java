@@ -1,15 +1,12 @@
 package ch.ethz.inf.vs.californium.rd.resources;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.LinkFormat;
 import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
-import ch.ethz.inf.vs.californium.server.resources.Resource;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
 
 public class RDLookUpResResource extends ResourceBase {
@@ -24,8 +21,6 @@ public class RDLookUpResResource extends ResourceBase {
 	
 	@Override
 	public void handleGET(CoapExchange exchange) {
-		Collection<Resource> resources = rdResource.getChildren();
-		String result = "";
 		String domainQuery = "";
 		String endpointQuery = "";
 		List<String> toRemove = new ArrayList<String>(); 
@@ -53,23 +48,15 @@ public class RDLookUpResResource extends ResourceBase {
 		}
 		
 		
-		Iterator<Resource>  resIt = resources.iterator();
-		System.out.println(endpointQuery);
-				
 		query.removeAll(toRemove);
 		
-		while (resIt.hasNext()){
-			Resource res = resIt.next();
-			if (res.getClass() == RDNodeResource.class){
-				RDNodeResource node = (RDNodeResource) res;
-				if ( (domainQuery.isEmpty() || domainQuery.equals(node.getDomain())) && 
-					 (endpointQuery.isEmpty() || endpointQuery.equals(node.getEndpointIdentifier())) ) {
-					String link = node.toLinkFormat(query);
-					result += (!link.isEmpty()) ? link+"," : ""; 
-				}
-			}
+		StringBuilder result = new StringBuilder();
+		for (RDTagResource res : rdResource.getIndex().getResources(domainQuery, endpointQuery, query)) {
+			result.append(res.getParentNode().toLinkFormatItem(res));
+			result.append(',');
 		}
-		if(result.isEmpty()){
+		
+		if(result.length() == 0){
 			exchange.respond(ResponseCode.NOT_FOUND);
 		}
 		else{
@@ -1,18 +1,23 @@
 package ch.ethz.inf.vs.californium.rd.resources;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
+import ch.ethz.inf.vs.californium.coap.LinkFilter;
 import ch.ethz.inf.vs.californium.coap.LinkFormat;
+import ch.ethz.inf.vs.californium.coap.LinkFormatParser;
 import ch.ethz.inf.vs.californium.coap.MediaTypeRegistry;
 import ch.ethz.inf.vs.californium.coap.Request;
 import ch.ethz.inf.vs.californium.coap.Response;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
+import ch.ethz.inf.vs.californium.rd.resources.LifetimeScheduler.Timeout;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
 import ch.ethz.inf.vs.californium.server.resources.Resource;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
@@ -24,10 +29,11 @@ public class RDNodeResource extends ResourceBase {
 	/*
 	 * After the lifetime expires, the endpoint has RD_VALIDATION_TIMEOUT seconds
 	 * to update its entry before the RD enforces validation and removes the endpoint
-	 * if it does not respond.
+	 * if it does not respond. Both timeouts are handled by the shared
+	 * LifetimeScheduler and are rescheduled on updates.
 	 */
-	private Timer lifetimeTimer;
-	private Timer validationTimer;
+	private final Timeout lifetimeTimeout;
+	private final Timeout validationTimeout;
 	
 	private int lifeTime;
 	private long expiryTime;
@@ -37,13 +43,20 @@ public class RDNodeResource extends ResourceBase {
 	private String endpointType;
 	private String context;
 	
-	private byte[] etag = null;
+	private volatile byte[] etag = null;
+	
+	/** The registered links by path */
+	private final Map<String, RegisteredLink> registeredLinks = new HashMap<String, RegisteredLink>();
 	
 	
 	public RDNodeResource(String name, String endpointID, String domain) {
 		super(name);		
 		this.endpointIdentifier = endpointID;
 		this.domain = domain;
+		
+		LifetimeScheduler scheduler = LifetimeScheduler.getStandard();
+		this.lifetimeTimeout = scheduler.newTimeout(new ExpiryTask());
+		this.validationTimeout = scheduler.newTimeout(new ValidationTask());
 	}
 
 	/**
@@ -58,7 +71,7 @@ public class RDNodeResource extends ResourceBase {
 		LinkAttribute attr;
 		
 		String newEndpointType = "";
-		int newLifeTime = NetworkConfig.getStandard().getInt("RD_DEFAULT_LIFETIME");
+		int newLifeTime = NetworkConfig.getStandard().getInt(NetworkConfigDefaults.RD_DEFAULT_LIFETIME);
 		String newContext = "";
 		
 		/*
@@ -92,19 +105,26 @@ public class RDNodeResource extends ResourceBase {
 
 		// TODO check with draft authors if update should be atomic
 		if (newContext.equals("")) {
-			context = "coap://" + request.getSource()+":"+request.getSourcePort();
+			String host = request.getSource().getHostAddress();
+			if (host.indexOf(':') > -1) {
+				host = "[" + host + "]"; // IPv6 literal
+			}
+			context = "coap://" + host + ":" + request.getSourcePort();
 		} else {
 			Request checkRequest = Request.newGet();
 
 			try { 
-				checkRequest.setURI(context);
+				checkRequest.setURI(newContext);
 			} catch (Exception e) {
 				LOGGER.warning(e.toString());
 				return false;
 			}
+			context = newContext;
 		}
 		
-		return updateEndpointResources(request.getPayloadString());
+		boolean updated = updateEndpointResources(request.getPayload());
+		updateIndex();
+		return updated;
 	}
 
 	/*
@@ -113,31 +133,26 @@ public class RDNodeResource extends ResourceBase {
 	 * of readings, which is a subResource of the node.
 	 */
 	public ResourceBase addNodeResource(String path) {
-		Scanner scanner = new Scanner(path);
-		scanner.useDelimiter("/");
-		String next = "";
-		boolean resourceExist = false;
 		Resource resource = this; // It's the resource that represents the endpoint
 		
 		ResourceBase subResource = null;
-		while (scanner.hasNext()) {
-			resourceExist = false;
-			next = scanner.next();
-			for (Resource res : resource.getChildren()) {
-				if (res.getName().equals(next)) {
-					subResource = (ResourceBase) res;
-					resourceExist = true;
-				}
+		int start = 0;
+		while (start < path.length()) {
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = path.length();
 			}
-			if (!resourceExist) {
-				subResource = new RDTagResource(next,true, this);
-				resource.add(subResource);
+			if (end > start) {
+				String next = path.substring(start, end);
+				subResource = (ResourceBase) resource.getChild(next);
+				if (subResource == null) {
+					subResource = new RDTagResource(next,true, this);
+					resource.add(subResource);
+				}
+				resource = subResource;
 			}
-			resource = subResource;
+			start = end + 1;
 		}
-		subResource.setPath(resource.getPath());
-		subResource.setName(next);
-		scanner.close();
 		return subResource;
 	}
 
@@ -146,11 +161,13 @@ public class RDNodeResource extends ResourceBase {
 
 		LOGGER.info("Removing endpoint: "+getContext());
 		
-		if (lifetimeTimer!=null) {
-			lifetimeTimer.cancel();
-		}
-		if (validationTimer!=null) {
-			validationTimer.cancel();
+		lifetimeTimeout.cancel();
+		validationTimeout.cancel();
+		
+		RDResource rd = getRD();
+		if (rd != null) {
+			rd.getValidator().cancel(this);
+			rd.getIndex().remove(this);
 		}
 		
 		super.delete();
@@ -172,13 +189,6 @@ public class RDNodeResource extends ResourceBase {
 	@Override
 	public void handlePUT(CoapExchange exchange) {
 		
-		if (lifetimeTimer != null) {
-			lifetimeTimer.cancel();
-		}
-		if (validationTimer!=null) {
-			validationTimer.cancel();
-		}
-		
 		setParameters(exchange.advanced().getRequest());
 		
 		// complete the request
@@ -205,16 +215,13 @@ public class RDNodeResource extends ResourceBase {
 		
 		expiryTime = System.currentTimeMillis() + lifeTime * 1000;
 		
-		if (lifetimeTimer != null) {
-			lifetimeTimer.cancel();
-		}
-		if (validationTimer!=null) {
-			validationTimer.cancel();
-		}
+		validationTimeout.cancel();
+		lifetimeTimeout.schedule(lifeTime * 1000L); // from sec to ms
 		
-		lifetimeTimer = new Timer();
-		lifetimeTimer.schedule(new ExpiryTask(this), lifeTime * 1000);// from sec to ms
-	
+		RDResource rd = getRD();
+		if (rd != null) {
+			rd.getValidator().cancel(this);
+		}
 	}
 
 	
@@ -224,49 +231,121 @@ public class RDNodeResource extends ResourceBase {
 	 * register. Each resource is separated by ",". E.g. A node can
 	 * register a resource for reading the temperature and another one
 	 * for reading the humidity.
+	 * <p>
+	 * A non-empty payload replaces the registered links: only links that
+	 * are new or whose attributes have changed are (re-)created, and links
+	 * that are missing are removed. An empty payload keeps the links.
+	 * 
+	 * @return false, if the payload is not well-formed
 	 */
-	private boolean updateEndpointResources(String linkFormat) {
+	private synchronized boolean updateEndpointResources(byte[] payload) {
 
-		Scanner scanner = new Scanner(linkFormat);
+		if (payload == null || payload.length == 0) {
+			return true;
+		}
 		
-		scanner.useDelimiter(",");
-		List<String> pathResources = new ArrayList<String>();
-		while (scanner.hasNext()) {
-			pathResources.add(scanner.next());
+		final Map<String, List<String>> links = new LinkedHashMap<String, List<String>>();
+		boolean wellFormed = LinkFormatParser.parse(payload, new LinkFormatParser.Handler() {
+			
+			private List<String> attributes;
+			
+			public void startLink(String uri) {
+				attributes = new ArrayList<String>();
+				links.put(uri, attributes);
+			}
+			
+			public void attribute(String name, String value, boolean quoted) {
+				// name-value-pairs in order, empty value for flags
+				attributes.add(name);
+				attributes.add(value != null ? value : "");
+			}
+			
+			public void endLink() { }
+		});
+		
+		if (!wellFormed) {
+			return false;
 		}
-		for (String p : pathResources) {
-			scanner = new Scanner(p);
-
-			/*
-			 * get the path of the endpoint's resource. E.g. from
-			 * </readings/temp> it will select /readings/temp.
-			 */
-			String path = "", pathTemp = "";
-			if ((pathTemp = scanner.findInLine("</.*?>")) != null) {
-				path = pathTemp.substring(1, pathTemp.length() - 1);
-			} else {
-				scanner.close();
+		
+		for (String path : links.keySet()) {
+			// only paths of the endpoint can be registered
+			if (!path.startsWith("/") || path.length() == 1) {
 				return false;
 			}
+		}
+		
+		// remove the links that are no longer registered
+		Iterator<Map.Entry<String, RegisteredLink>> it = registeredLinks.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, RegisteredLink> entry = it.next();
+			if (!links.containsKey(entry.getKey())) {
+				it.remove();
+				removeNodeResource(entry.getValue().resource);
+			}
+		}
+		
+		// add new and update changed links
+		for (Map.Entry<String, List<String>> link : links.entrySet()) {
+			RegisteredLink registered = registeredLinks.get(link.getKey());
+			if (registered != null && registered.attributes.equals(link.getValue())) {
+				continue;
+			}
 			
-			ResourceBase resource = addNodeResource(path);
-			/*
-			 * Since created the subResource, get all the attributes from
-			 * the payload. Each parameter is separated by a ";".
-			 */
-			scanner.useDelimiter(";");
-			while (scanner.hasNext()) {
-				LinkAttribute attr = LinkAttribute.parse(scanner.next());
-				if (attr.getValue() == null)
-					resource.getAttributes().addAttribute(attr.getName());
-				else resource.getAttributes().addAttribute(attr.getName(), attr.getValue());
+			ResourceBase resource;
+			if (registered == null) {
+				resource = addNodeResource(link.getKey());
+			} else {
+				resource = registered.resource;
+				resource.getAttributes().clear();
+			}
+			
+			List<String> attributes = link.getValue();
+			for (int i = 0; i < attributes.size(); i += 2) {
+				resource.getAttributes().addAttribute(attributes.get(i), attributes.get(i + 1));
 			}
 			resource.getAttributes().addAttribute(LinkFormat.END_POINT, getEndpointIdentifier());
+			
+			registeredLinks.put(link.getKey(), new RegisteredLink(resource, attributes));
 		}
-		scanner.close();
 		
 		return true;
 	}
+	
+	/*
+	 * Removes the attributes of a link and the resources on its path that
+	 * are neither links nor lead to other links.
+	 */
+	private void removeNodeResource(ResourceBase resource) {
+		resource.getAttributes().clear();
+		
+		Resource current = resource;
+		while (current != this && current.getChildren().isEmpty() && current.getAttributes().getCount() == 0) {
+			Resource parent = current.getParent();
+			parent.remove(current);
+			current = parent;
+		}
+	}
+
+	/*
+	 * Updates the entries of this endpoint in the index of the RD.
+	 */
+	private void updateIndex() {
+		RDResource rd = getRD();
+		if (rd != null) {
+			rd.getIndex().update(this);
+		}
+	}
+	
+	/*
+	 * Returns the RD this endpoint is registered at or null if removed.
+	 */
+	private RDResource getRD() {
+		Resource parent = getParent();
+		if (parent instanceof RDResource) {
+			return (RDResource) parent;
+		}
+		return null;
+	}
 
 	// TODO: Merge into LinkFormat class
 	/*
@@ -279,7 +358,7 @@ public class RDNodeResource extends ResourceBase {
 		StringBuilder builder = new StringBuilder();
 		
 		// Build the link format
-		buildLinkFormat(this, builder, query);
+		buildLinkFormat(this, builder, LinkFilter.compile(query));
 
 		// Remove last delimiter
 		if (builder.length() > 0) {
@@ -301,14 +380,14 @@ public class RDNodeResource extends ResourceBase {
 	}
 	
 
-	private void buildLinkFormat(Resource resource, StringBuilder builder, List<String> query) {
+	private void buildLinkFormat(Resource resource, StringBuilder builder, LinkFilter filter) {
 		if (resource.getChildren().size() > 0) {
 
 			// Loop over all sub-resources
 			for (Resource res : resource.getChildren()) {
 				// System.out.println(resource.getSubResources().size());
 				// System.out.println(res.getName());
-				if (LinkFormat.matches(res, query) && res.getAttributes().getCount() > 0) {
+				if (filter.matches(res) && res.getAttributes().getCount() > 0) {
 
 					// Convert Resource to string representation and add
 					// delimiter
@@ -316,7 +395,7 @@ public class RDNodeResource extends ResourceBase {
 					builder.append(',');
 				}
 				// Recurse
-				buildLinkFormat(res, builder, query);
+				buildLinkFormat(res, builder, filter);
 			}
 		}
 	}
@@ -351,72 +430,98 @@ public class RDNodeResource extends ResourceBase {
 		this.context = context;
 	}
 	
-	class ExpiryTask extends TimerTask {
-		RDNodeResource resource;
-
-		public ExpiryTask(RDNodeResource resource) {
-			super();
-			this.resource = resource;
-		}
+	/*
+	 * Runs on the scheduler thread when the lifetime has expired.
+	 */
+	private class ExpiryTask implements Runnable {
 
 		@Override
 		public void run() {
 			LOGGER.info("Scheduling validation of expired endpoint: "+getContext());
-			validationTimer = new Timer();
-			validationTimer.schedule(new ValidationTask(resource), NetworkConfig.getStandard().getInt("RD_VALIDATION_TIMEOUT") * 1000);
+			validationTimeout.schedule(NetworkConfig.getStandard().getInt(NetworkConfigDefaults.RD_VALIDATION_TIMEOUT) * 1000L);
 		}
 	}
 	
-	class ValidationTask extends TimerTask {
-		RDNodeResource resource;
-
-		public ValidationTask(RDNodeResource resource) {
-			super();
-			this.resource = resource;
-		}
+	/*
+	 * Runs on the scheduler thread when the validation timeout has expired.
+	 */
+	private class ValidationTask implements Runnable {
 
 		@Override
 		public void run() {
-
-			LOGGER.info("Validating endpoint: "+getContext());
-			
-			Request validationRequest = Request.newGet();
-			validationRequest.setURI(getContext()+"/.well-known/core");
-			if (etag!=null) {
-				validationRequest.getOptions().addETag(etag);
+			RDResource rd = getRD();
+			if (rd != null) {
+				LOGGER.info("Validating endpoint: "+getContext());
+				rd.getValidator().validate(RDNodeResource.this);
 			}
-			Response response = null;
+		}
+	}
+	
+	/**
+	 * Creates the request to validate the resources of this endpoint. The
+	 * request carries the ETag of the last validation, so that an unchanged
+	 * endpoint can answer with 2.03 (Valid).
+	 * 
+	 * @return the validation request
+	 * @throws IllegalArgumentException if the context is not a valid URI
+	 */
+	Request createValidationRequest() {
+		Request validationRequest = Request.newGet();
+		validationRequest.setURI(getContext()+"/.well-known/core");
+		byte[] lastETag = etag;
+		if (lastETag!=null) {
+			validationRequest.getOptions().addETag(lastETag);
+		}
+		return validationRequest;
+	}
+	
+	/**
+	 * Refreshes the lifetime if the endpoint is still valid and updates its
+	 * resources if they have changed. Otherwise, the endpoint is removed.
+	 * 
+	 * @param response the response to the validation request
+	 */
+	void handleValidationResponse(Response response) {
+		List<byte[]> etags = response.getOptions().getETags();
+		
+		if (response.getCode() == ResponseCode.VALID) {
 			
-			try {
-				validationRequest.send();
-				response = validationRequest.waitForResponse();
-				
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			// unchanged resources do not need to be parsed again
+			if (!etags.isEmpty()) {
+				etag = etags.get(0);
 			}
+			setLifeTime(lifeTime);
 			
-			if (response == null) {
-				
-				delete();
-				
-			} else if(response.getCode() == ResponseCode.VALID) {
-				
-				LOGGER.fine("Resources up-to-date: "+getContext());
-				
-			} else if (response.getCode() == ResponseCode.CONTENT) {
-	
-				List<byte[]> etags = response.getOptions().getETags();
-				
-				if (!etags.isEmpty()) {
-					etag = etags.get(0);
-				}
+			LOGGER.fine("Resources up-to-date: "+getContext());
+			
+		} else if (response.getCode() == ResponseCode.CONTENT) {
+
+			etag = etags.isEmpty() ? null : etags.get(0);
+
+			updateEndpointResources(response.getPayload());
+			updateIndex();
+			setLifeTime(lifeTime);
+			
+			LOGGER.fine("Updated Resources: " + getContext());
+			
+		} else {
+			
+			LOGGER.info("Validation of endpoint "+getContext()+" failed with "+response.getCode());
+			delete();
+		}
+	}
 	
-				updateEndpointResources(response.getPayloadString());
-				setLifeTime(lifeTime);
-				
-				LOGGER.fine("Updated Resources: " + getContext());
-			}
+	/*
+	 * A link with the attributes it was registered with.
+	 */
+	private static class RegisteredLink {
+		
+		private final ResourceBase resource;
+		private final List<String> attributes;
+		
+		private RegisteredLink(ResourceBase resource, List<String> attributes) {
+			this.resource = resource;
+			this.attributes = attributes;
 		}
 	}
 	
@@ -6,12 +6,21 @@ import java.util.List;
 import ch.ethz.inf.vs.californium.coap.CoAP.ResponseCode;
 import ch.ethz.inf.vs.californium.coap.LinkFormat;
 import ch.ethz.inf.vs.californium.network.config.NetworkConfig;
+import ch.ethz.inf.vs.californium.network.config.NetworkConfigDefaults;
 import ch.ethz.inf.vs.californium.server.resources.CoapExchange;
-import ch.ethz.inf.vs.californium.server.resources.Resource;
 import ch.ethz.inf.vs.californium.server.resources.ResourceBase;
 
 public class RDResource extends ResourceBase {
 
+	/** The index of the registered endpoints for lookups */
+	private final RDIndex index = new RDIndex();
+
+	/** The validator for expired endpoints */
+	private final EndpointValidator validator = new EndpointValidator(LifetimeScheduler.getStandard(),
+			NetworkConfig.getStandard().getInt(NetworkConfigDefaults.RD_VALIDATION_MAX_OUTSTANDING),
+			NetworkConfig.getStandard().getInt(NetworkConfigDefaults.RD_VALIDATION_MAX_OUTSTANDING_PER_SUBNET),
+			NetworkConfig.getStandard().getInt(NetworkConfigDefaults.RD_VALIDATION_RATE));
+
 	public RDResource() {
 		this("rd");
 		getAttributes().addResourceType("core.rd");
@@ -33,7 +42,7 @@ public class RDResource extends ResourceBase {
 		// get name and lifetime from option query
 		LinkAttribute attr;
 		String endpointIdentifier = "";
-		String domain = NetworkConfig.getStandard().getString("RD_DEFAULT_DOMAIN");
+		String domain = NetworkConfig.getStandard().getString(NetworkConfigDefaults.RD_DEFAULT_DOMAIN);
 		RDNodeResource resource = null;
 		
 		ResponseCode responseCode;
@@ -57,11 +66,7 @@ public class RDResource extends ResourceBase {
 			return;
 		}
 		
-		for (Resource node : getChildren()) {
-			if (((RDNodeResource) node).getEndpointIdentifier().equals(endpointIdentifier) && ((RDNodeResource) node).getDomain().equals(domain)) {
-				resource = (RDNodeResource) node;
-			}
-		}
+		resource = index.getEndpoint(endpointIdentifier, domain);
 		
 		if (resource==null) {
 			
@@ -92,4 +97,22 @@ public class RDResource extends ResourceBase {
 		exchange.respond(responseCode);
 	}
 
+	/**
+	 * Returns the index of the endpoints registered at this RD.
+	 * 
+	 * @return the index
+	 */
+	public RDIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the validator for the expired endpoints of this RD.
+	 * 
+	 * @return the validator
+	 */
+	public EndpointValidator getValidator() {
+		return validator;
+	}
+
 }
@@ -53,14 +53,10 @@ public class RDTagTopResource extends ResourceBase {
 		if (!ep.isEmpty() && !resourcePath.isEmpty() && tags.isEmpty()) {
 			// Get Tags of resource
 			RDTagResource target = null;
-			for (Resource res : rdResource.getChildren()) {
-				if (res.getClass() == RDNodeResource.class) {
-					if (((RDNodeResource) res).getEndpointIdentifier().equals(ep)) {
-						if (getSubResource(res, resourcePath) != null && getSubResource(res, resourcePath).getClass() == RDTagResource.class) {
-							target = (RDTagResource) getSubResource(res, resourcePath);
-							break;
-						}
-					}
+			for (RDNodeResource res : rdResource.getIndex().getEndpoints(null, ep, null)) {
+				if (getSubResource(res, resourcePath) != null && getSubResource(res, resourcePath).getClass() == RDTagResource.class) {
+					target = (RDTagResource) getSubResource(res, resourcePath);
+					break;
 				}
 			}
 			if (target != null) {
@@ -151,23 +147,15 @@ public class RDTagTopResource extends ResourceBase {
 			if (resourcePath.startsWith("/")) {
 				resourcePath = resourcePath.substring(1);
 			}
-			for (Resource res : rdResource.getChildren()) {
-				if (res.getClass() == RDNodeResource.class) {
-					if (((RDNodeResource) res).getEndpointIdentifier().equals(ep)) {
-						targets.add(getSubResource(res, resourcePath));
-						break;
-					}
-				}
+			for (RDNodeResource res : rdResource.getIndex().getEndpoints(null, ep, null)) {
+				targets.add(getSubResource(res, resourcePath));
+				break;
 			}
 		} else {
 			LinkedList<Resource> todo = new LinkedList<Resource>();
-			for (Resource res : rdResource.getChildren()) {
-				if (res.getClass() == RDNodeResource.class) {
-					if (((RDNodeResource) res).getEndpointIdentifier().equals(ep)) {
-						todo.add(res);
-						break;
-					}
-				}
+			for (RDNodeResource res : rdResource.getIndex().getEndpoints(null, ep, null)) {
+				todo.add(res);
+				break;
 			}
 			while (!todo.isEmpty()) {
 				Resource current = todo.pop();